@@ -1,22 +1,61 @@
 package de.thm.mni.pi2.adder;
 
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.db.HandlerExecutor;
+import de.thm.mni.pi2.adder.db.SingleFlight;
 import de.thm.mni.pi2.adder.handler.AlbumHandler;
 import de.thm.mni.pi2.adder.handler.AuthHandler;
+import de.thm.mni.pi2.adder.handler.ExportHandler;
+import de.thm.mni.pi2.adder.handler.HealthHandler;
 import de.thm.mni.pi2.adder.handler.ImageHandler;
+import de.thm.mni.pi2.adder.handler.IngestHandler;
+import de.thm.mni.pi2.adder.handler.SearchHandler;
+import de.thm.mni.pi2.adder.handler.StorageHandler;
+import de.thm.mni.pi2.adder.handler.SyncHandler;
+import de.thm.mni.pi2.adder.handler.TileHandler;
 import de.thm.mni.pi2.adder.handler.UploadHandler;
 import de.thm.mni.pi2.adder.handler.UserHandler;
+import de.thm.mni.pi2.adder.limit.AdmissionController;
+import de.thm.mni.pi2.adder.limit.RateLimitHandler;
+import de.thm.mni.pi2.adder.limit.StorageQuota;
+import de.thm.mni.pi2.adder.media.ChecksumStage;
+import de.thm.mni.pi2.adder.media.DuplicateIndex;
+import de.thm.mni.pi2.adder.media.ExifStage;
+import de.thm.mni.pi2.adder.media.PerceptualHashStage;
+import de.thm.mni.pi2.adder.media.PlaceholderStage;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import de.thm.mni.pi2.adder.media.TileStage;
+import de.thm.mni.pi2.adder.purge.Purger;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.startup.StartupReport;
+import de.thm.mni.pi2.adder.startup.Warmup;
+import de.thm.mni.pi2.adder.storage.Storage;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.sync.Versions;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
+import de.thm.mni.pi2.adder.trace.Tracer;
+import io.vertx.config.ConfigRetriever;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CorsHandler;
+import io.vertx.ext.web.handler.FileSystemAccess;
 import io.vertx.ext.web.handler.SessionHandler;
 import io.vertx.ext.web.handler.StaticHandler;
 import io.vertx.ext.web.sstore.LocalSessionStore;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Main entry point for the Adder application.
@@ -26,106 +65,371 @@ import java.sql.SQLException;
  */
 public class MainVerticle extends AbstractVerticle {
 
-  private Connection conn;
+  private static final Logger LOGGER = Logger.getLogger(MainVerticle.class.getName());
+
+  /**
+   * Every route that talks to the database, i.e. all except file up- and
+   * downloads, logout, the health probes and the in-memory search.
+   */
+  private static final String DATABASE_ROUTES = "^/(?!uploads?(/|$)|logout$|health/|search$).*";
+
+  /**
+   * The routes under the "default" rate limit: the API, except the health
+   * probes, the uploaded files and /login and /upload, which have budgets of
+   * their own.
+   */
+  private static final String DEFAULT_LIMITED_ROUTES = "^/(?!uploads/|upload$|login$|health/).*";
+
+  private Database db;
+  private AppConfig config;
+  private AuditLog audit;
+  private Tracer tracer;
+  private HandlerExecutor executor;
+  private StartupReport startup;
+  private AdmissionController admission;
+  private Storage storage;
+  private PostUploadPipeline pipeline;
+  private Purger purger;
+  private IngestHandler ingestHandler;
+  private StorageHandler storageHandler;
+  private HttpServer server;
 
   /**
    * Starts the Verticle.
-   * Establishes a database connection using environment variables (DB_HOST,
-   * DB_PORT, DB_NAME, DB_USER, DB_PASS)
-   * or default values (localhost:3306/fotolab, root, empty password).
-   * Configures the router with session, body, and CORS handlers, defines routes
-   * for all API endpoints,
-   * and starts the HTTP server on port 8888.
+   * Loads the configuration (conf/config.json, environment variables and
+   * system properties, see {@link AppConfig}) and keeps listening for changes.
+   * Starts connecting to the database in the background, configures the
+   * router with session, body, and CORS handlers, defines routes for all API
+   * endpoints, and starts the HTTP server on the configured port (default
+   * 8888). The server also starts while the database is unreachable; database
+   * routes then answer 503 until the connection is established.
+   * Non-critical background work (index loading, purging) starts only once
+   * the server listens, and an optional warm-up runs before readiness
+   * reports UP. The time spent in each step is logged.
+   */
+  @Override
+  public void start(Promise<Void> startPromise) {
+    startup = new StartupReport();
+    ConfigRetriever retriever = AppConfig.retriever(vertx);
+    retriever.getConfig().onComplete(ar -> {
+      if (ar.failed()) {
+        startPromise.fail(ar.cause());
+        return;
+      }
+      config = new AppConfig(ar.result());
+      retriever.listen(change -> config.update(change.getNewConfiguration()));
+      startup.phase("config");
+      startServer(startPromise);
+    });
+  }
+
+  private void startServer(Promise<Void> startPromise) {
+    // Request tracing, also wraps the database connections
+    tracer = new Tracer(config);
+    db = new Database(vertx, config, tracer);
+    // Event loop, worker or virtual threads for the blocking JDBC handlers
+    executor = new HandlerExecutor(vertx, db, config);
+    Router router = Router.router(vertx);
+
+    // Upload volumes, each with its own I/O pool
+    storage = new Storage(vertx, config);
+    // Background analysis of uploaded images
+    TileStage tileStage = new TileStage(config.section("tiles"));
+    pipeline = new PostUploadPipeline(vertx, db, storage,
+        config.mediaWorkers(), List.of(new ExifStage(), new PerceptualHashStage(), new PlaceholderStage(),
+            new ChecksumStage(), tileStage));
+    DuplicateIndex duplicateIndex = new DuplicateIndex();
+    // In-memory title search
+    SearchIndex searchIndex = new SearchIndex();
+    // Tag strings by id
+    TagDictionary tags = new TagDictionary();
+    // Indexes are loaded once the database is connected and the server listens
+    Promise<Void> listening = Promise.promise();
+    Future<Void> connected = db.start().onSuccess(v -> startup.event("db connect"));
+    // Readiness waits for the indexes, a request before would miss duplicates and search hits
+    Promise<Void> indexes = Promise.promise();
+    Future.all(connected, listening.future()).onSuccess(v -> loadIndexes(indexes, conn -> {
+      duplicateIndex.load(conn);
+      searchIndex.load(conn);
+      tags.load(conn);
+      return null;
+    }));
+    indexes.future().onSuccess(x -> startup.event("indexes loaded"));
+
+    // Version counters behind the ETags, bumped with every recorded change
+    Versions versions = new Versions(config);
+    // Coalesces identical concurrent listing queries
+    SingleFlight singleFlight = new SingleFlight(vertx, db, config, executor.mode());
+    // Change feed for delta sync
+    ChangeFeed changeFeed = new ChangeFeed(versions);
+
+    // Background removal of deleted users and albums
+    purger = new Purger(config, pipeline, tileStage, searchIndex, duplicateIndex, versions);
+    listening.future().onSuccess(v -> purger.start());
+
+    // Asynchronous audit and access log
+    audit = new AuditLog(config.section("audit"));
+
+    // Per-user storage usage and quotas
+    StorageQuota quota = new StorageQuota(db, config);
+
+    // Initialize Handlers
+    AuthHandler authHandler = new AuthHandler(db, versions, audit);
+    UserHandler userHandler = new UserHandler(db, purger, quota, audit, authHandler);
+    AlbumHandler albumHandler = new AlbumHandler(db, searchIndex, changeFeed, tags, versions, singleFlight,
+        purger, audit);
+    ImageHandler imageHandler = new ImageHandler(db, pipeline, duplicateIndex, searchIndex, changeFeed, tags,
+        versions, singleFlight, audit);
+    UploadHandler uploadHandler = new UploadHandler(storage, quota, audit);
+    Warmup warmup = new Warmup(vertx);
+    // Global admission control, also drains the server on shutdown
+    admission = new AdmissionController(config);
+    HealthHandler healthHandler = new HealthHandler(db, indexes.future(), warmup, startup, admission);
+    SearchHandler searchHandler = new SearchHandler(searchIndex, config);
+    SyncHandler syncHandler = new SyncHandler(db, changeFeed, tags, config);
+    ExportHandler exportHandler = new ExportHandler(vertx, db, pipeline);
+    TileHandler tileHandler = new TileHandler(db, tileStage);
+    ingestHandler = new IngestHandler(config, db, pipeline, searchIndex, duplicateIndex,
+        changeFeed, tags, audit);
+    storageHandler = new StorageHandler(config, db, storage, audit);
+
+    startup.phase("services");
+
+    // Server span of sampled requests, around everything else
+    router.route().handler(tracer::request);
+
+    // Access log for every request, including rejected ones
+    router.route().handler(audit::accessLog);
+
+    // Health probes, never limited
+    router.get("/health/live").handler(healthHandler::live);
+    router.get("/health/ready").handler(healthHandler::ready);
+
+    // Global admission control, sheds load before any other work
+    router.route().handler(admission::admit);
+    // Session-Handler hinzufügen
+    router.route().handler(tracer.begin("session"));
+    router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
+    router.route().handler(tracer.end("session"));
+    // Sessions of deleted users end here
+    router.route().handler(authHandler::rejectRevoked);
+    // CORS-Handler hinzufügen
+    CorsHandler corsHandler = CorsHandler.create();
+    config.corsOrigins().forEach(corsHandler::addOrigin);
+    router.route().handler(corsHandler
+        .allowedMethod(HttpMethod.GET)
+        .allowedMethod(HttpMethod.POST)
+        .allowedMethod(HttpMethod.DELETE)
+        .allowedMethod(HttpMethod.PUT)
+        .allowedHeader("Access-Control-Allow-Origin")
+        .allowedHeader("Access-Control-Allow-Headers")
+        .allowedHeader("Access-Control-Allow-Methods")
+        .allowedHeader("Content-Type")
+        .allowedHeader("Accept")
+        .allowedHeader("If-None-Match")
+        .exposedHeader("ETag")
+        .allowCredentials(true));
+    // Rate limits, admission control and the upload quota, before any body is read
+    router.routeWithRegex(DATABASE_ROUTES).handler(admission::admitDatabase);
+    router.routeWithRegex(DATABASE_ROUTES).handler(db::guard);
+    router.post("/upload").handler(admission::admitUpload);
+    router.post("/login").handler(RateLimitHandler.create("login", config));
+    router.post("/upload").handler(RateLimitHandler.create("upload", config));
+    router.post("/upload").handler(db::guard);
+    router.post("/upload").handler(quota::admitUpload);
+    router.routeWithRegex(DEFAULT_LIMITED_ROUTES).handler(RateLimitHandler.create("default", config));
+    // Keep a session's reads on the primary right after it wrote something
+    router.route().handler(db::trackWrites);
+    // Body-Handler mit Upload-Verzeichnis-Konfiguration
+    router.route().handler(tracer.begin("body"));
+    router.route().handler(BodyHandler.create()
+        .setUploadsDirectory(config.uploadsDirectory())
+        .setBodyLimit(config.bodyLimit()));
+    router.route().handler(tracer.end("body"));
+
+    // Users Management
+    router.get("/users").handler(database("UserHandler.getAllUsers", userHandler::getAllUsers));
+    router.get("/users/p").handler(
+        database("UserHandler.getUsersWithPagination", userHandler::getUsersWithPagination));
+    router.get("/user").handler(database("UserHandler.getUser", userHandler::getUser));
+    router.post("/users").handler(database("UserHandler.createUser", userHandler::createUser));
+    router.put("/users/:id").handler(database("UserHandler.updateUser", userHandler::updateUser));
+    router.delete("/users/:id").handler(database("UserHandler.deleteUser", userHandler::deleteUser));
+    router.get("/users/:id/usage").handler(database("UserHandler.getUsage", userHandler::getUsage));
+
+    // Bulk ingest (admin)
+    router.post("/admin/ingest").handler(database("IngestHandler.start", ingestHandler::start));
+    router.get("/admin/ingest").handler(database("IngestHandler.status", ingestHandler::status));
+    router.delete("/admin/ingest").handler(database("IngestHandler.cancel", ingestHandler::cancel));
+
+    // Upload volumes (admin)
+    router.get("/admin/storage").handler(database("StorageHandler.status", storageHandler::status));
+    router.post("/admin/storage/rebalance").handler(database("StorageHandler.rebalance",
+        storageHandler::rebalance));
+    router.delete("/admin/storage/rebalance").handler(database("StorageHandler.cancel", storageHandler::cancel));
+
+    router.post("/upload").handler(tracer.handler("UploadHandler.upload", uploadHandler::upload));
+
+    // Authentication
+    router.post("/login").handler(database("AuthHandler.login", authHandler::login));
+    router.post("/logout").handler(tracer.handler("AuthHandler.logout", authHandler::logout));
+    router.get("/userroles").handler(database("AuthHandler.getUserRoles", authHandler::getUserRoles));
+
+    // Albums Management
+    router.get("/user/albums").handler(database("AlbumHandler.getAlbums", albumHandler::getAlbums));
+    router.get("/user/albums/:id").handler(database("AlbumHandler.getAlbumById", albumHandler::getAlbumById));
+    router.post("/albums").handler(database("AlbumHandler.createAlbum", albumHandler::createAlbum));
+    router.put("/albums/:id").handler(database("AlbumHandler.updateAlbum", albumHandler::updateAlbum));
+    router.delete("/albums/:id").handler(database("AlbumHandler.deleteAlbum", albumHandler::deleteAlbum));
+
+    // Images Management
+    router.get("/user/images/:id").handler(database("ImageHandler.getImage", imageHandler::getImage));
+    router.get("/user/images").handler(database("ImageHandler.getImages", imageHandler::getImages));
+    router.get("/user/images/:id/duplicates").handler(
+        database("ImageHandler.getNearDuplicates", imageHandler::getNearDuplicates));
+    router.get("/user/images/:id/tiles.dzi").handler(
+        database("TileHandler.getDescriptor", tileHandler::getDescriptor));
+    router.get("/user/images/:id/tiles_files/:level/:tile").handler(
+        database("TileHandler.getTile", tileHandler::getTile));
+    router.get("/user/duplicates").handler(
+        database("ImageHandler.getDuplicateClusters", imageHandler::getDuplicateClusters));
+    router.post("/images").handler(database("ImageHandler.addImage", imageHandler::addImage));
+    router.put("/images").handler(database("ImageHandler.updateImage", imageHandler::updateImage));
+    router.delete("/images/:id").handler(database("ImageHandler.deleteImage", imageHandler::deleteImage));
+
+    router.get("/albums/:id/albumimages").handler(
+        database("ImageHandler.getImagesfromAlbum", imageHandler::getImagesfromAlbum));
+    router.put("/albums/:albumid/albumimages/:imageid").handler(
+        database("ImageHandler.updateImageinAlbum", imageHandler::updateImageinAlbum));
+    router.post("/albums/images").handler(
+        database("ImageHandler.addImagetoAlbum", imageHandler::addImagetoAlbum));
+    router.delete("/albums/:albumid/images/:imageid").handler(
+        database("ImageHandler.deleteImagefromAlbum", imageHandler::deleteImagefromAlbum));
+    router.get("/albums/:id/export").handler(database("ExportHandler.exportAlbum", exportHandler::exportAlbum));
+
+    // Search
+    router.get("/search").handler(tracer.handler("SearchHandler.search", searchHandler::search));
+
+    // Delta sync
+    router.get("/sync").handler(database("SyncHandler.sync", syncHandler::sync));
+
+    // Uploads, from whichever volume has the file
+    for (Storage.Volume volume : storage.volumes()) {
+      router.route("/uploads/*").handler(StaticHandler.create(FileSystemAccess.ROOT, volume.root().toString()));
+    }
+
+    startup.phase("router");
+
+    // Server starten
+    server = vertx.createHttpServer().requestHandler(router);
+    server.listen(config.httpPort())
+        .<Void>mapEmpty()
+        .onSuccess(v -> {
+          startup.phase("listen");
+          startup.log();
+          listening.complete();
+          warmUp(warmup);
+        })
+        .onComplete(startPromise);
+
+  }
+
+  /**
+   * Stops the Verticle without dropping requests.
+   * Readiness reports DRAINING at once and responses ask clients to close
+   * their connections; after "shutdown.readinessGraceMillis" new requests are
+   * refused with 503. Requests and uploads in flight get
+   * "shutdown.drainTimeoutMillis" to finish before the server closes. Then
+   * background work stops: ingest and rebalance jobs, the purger and the
+   * media and file I/O pools get "shutdown.flushTimeoutMillis" together to
+   * finish what they started. Finally the audit, access and trace logs are
+   * flushed and the database connections are closed.
    */
   @Override
-  public void start() {
-
-    try {
-      String dbHost = System.getenv().getOrDefault("DB_HOST", "localhost");
-      String dbPort = System.getenv().getOrDefault("DB_PORT", "3306");
-      String dbName = System.getenv().getOrDefault("DB_NAME", "fotolab");
-      String dbUser = System.getenv().getOrDefault("DB_USER", "root");
-      String dbPass = System.getenv().getOrDefault("DB_PASS", "");
-
-      Connection connection = DriverManager.getConnection(
-          String.format("jdbc:mariadb://%s:%s/%s", dbHost, dbPort, dbName),
-          dbUser,
-          dbPass);
-      conn = connection;
-      Router router = Router.router(vertx);
-
-      // Initialize Handlers
-      AuthHandler authHandler = new AuthHandler(conn);
-      UserHandler userHandler = new UserHandler(conn);
-      AlbumHandler albumHandler = new AlbumHandler(conn);
-      ImageHandler imageHandler = new ImageHandler(conn);
-      UploadHandler uploadHandler = new UploadHandler(vertx);
-
-      // Session-Handler hinzufügen
-      router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
-      // Body-Handler mit Upload-Verzeichnis-Konfiguration
-      router.route().handler(BodyHandler.create().setUploadsDirectory("uploads"));
-      // CORS-Handler hinzufügen
-      router.route().handler(CorsHandler.create()
-          .addOrigin("http://localhost:3000")
-          .addOrigin("http://localhost:8080")
-          .allowedMethod(HttpMethod.GET)
-          .allowedMethod(HttpMethod.POST)
-          .allowedMethod(HttpMethod.DELETE)
-          .allowedMethod(HttpMethod.PUT)
-          .allowedHeader("Access-Control-Allow-Origin")
-          .allowedHeader("Access-Control-Allow-Headers")
-          .allowedHeader("Access-Control-Allow-Methods")
-          .allowedHeader("Content-Type")
-          .allowedHeader("Accept")
-          .allowCredentials(true));
-
-      // Users Management
-      router.get("/users").handler(userHandler::getAllUsers);
-      router.get("/users/p").handler(userHandler::getUsersWithPagination);
-      router.get("/user").handler(userHandler::getUser);
-      router.post("/users").handler(userHandler::createUser);
-      router.put("/users/:id").handler(userHandler::updateUser);
-      router.delete("/users/:id").handler(userHandler::deleteUser);
-
-      router.post("/upload").handler(uploadHandler::upload);
-
-      // Authentication
-      router.post("/login").handler(authHandler::login);
-      router.post("/logout").handler(authHandler::logout);
-      router.get("/userroles").handler(authHandler::getUserRoles);
-
-      // Albums Management
-      router.get("/user/albums").handler(albumHandler::getAlbums);
-      router.get("/user/albums/:id").handler(albumHandler::getAlbumById);
-      router.post("/albums").handler(albumHandler::createAlbum);
-      router.put("/albums/:id").handler(albumHandler::updateAlbum);
-      router.delete("/albums/:id").handler(albumHandler::deleteAlbum);
-
-      // Images Management
-      router.get("/user/images/:id").handler(imageHandler::getImage);
-      router.get("/user/images").handler(imageHandler::getImages);
-      router.post("/images").handler(imageHandler::addImage);
-      router.put("/images").handler(imageHandler::updateImage);
-      router.delete("/images/:id").handler(imageHandler::deleteImage);
-
-      router.get("/albums/:id/albumimages").handler(imageHandler::getImagesfromAlbum);
-      router.put("/albums/:albumid/albumimages/:imageid").handler(imageHandler::updateImageinAlbum);
-      router.post("/albums/images").handler(imageHandler::addImagetoAlbum);
-      router.delete("/albums/:albumid/images/:imageid").handler(imageHandler::deleteImagefromAlbum);
-
-      // Uploads
-      router.route("/uploads/*").handler(StaticHandler.create("uploads"));
-
-      // Server starten
-      vertx.createHttpServer()
-          .requestHandler(router)
-          .listen(8888)
-          .onSuccess(server -> {
-          });
-    } catch (SQLException sqlex) {
-      sqlex.printStackTrace();
+  public void stop(Promise<Void> stopPromise) {
+    if (server == null) {
+      stopPromise.complete();
+      return;
     }
+    JsonObject options = config.section("shutdown");
+    long flushTimeout = options.getLong("flushTimeoutMillis", 5000L);
+    admission.drain();
+    Promise<Void> grace = Promise.promise();
+    vertx.setTimer(Math.max(1, options.getLong("readinessGraceMillis", 2000L)), id -> grace.complete());
+    grace.future()
+        .compose(v -> {
+          admission.refuse();
+          return admission.idle(vertx, options.getLong("drainTimeoutMillis", 30000L));
+        })
+        .compose(idle -> {
+          if (!idle) {
+            LOGGER.warning(admission.inFlight() + " requests still in flight at the drain deadline");
+          }
+          return server.close();
+        })
+        .compose(v -> vertx.executeBlocking(() -> {
+          // jobs and pools get one shared deadline, the database closes last
+          long deadline = System.currentTimeMillis() + flushTimeout;
+          ingestHandler.close(remaining(deadline));
+          storageHandler.close(remaining(deadline));
+          purger.close(remaining(deadline));
+          executor.close(remaining(deadline));
+          pipeline.close(remaining(deadline));
+          storage.close(remaining(deadline));
+          audit.close(flushTimeout);
+          tracer.close(flushTimeout);
+          db.close();
+          return null;
+        }, false))
+        .<Void>mapEmpty()
+        .onComplete(stopPromise);
+  }
 
+  private static long remaining(long deadline) {
+    return Math.max(1, deadline - System.currentTimeMillis());
+  }
+
+  /**
+   * Loads the in-memory indexes from the primary, retrying every few seconds
+   * until it succeeds. The loads replace what they find, so a retry after a
+   * partial load is safe.
+   */
+  private void loadIndexes(Promise<Void> loaded, Database.Work<Void> load) {
+    db.onPrimary(load).onComplete(ar -> {
+      if (ar.succeeded()) {
+        loaded.complete();
+        return;
+      }
+      LOGGER.log(Level.WARNING, "Cannot load the indexes, retrying", ar.cause());
+      vertx.setTimer(5000, id -> loadIndexes(loaded, load));
+    });
+  }
+
+  /**
+   * Runs the warm-up if "startup.warmup" is set. A training run
+   * ("startup.training", see the appcds profile) always warms up and then
+   * exits, so the JVM writes its class archive.
+   */
+  private void warmUp(Warmup warmup) {
+    JsonObject options = config.section("startup");
+    boolean training = Boolean.parseBoolean(String.valueOf(options.getValue("training", false)));
+    if (!training && !Boolean.parseBoolean(String.valueOf(options.getValue("warmup", false)))) {
+      warmup.skip();
+      return;
+    }
+    warmup.run(config.httpPort(), options.getInteger("warmupRequests", 100),
+        options.getString("warmupUser"), options.getString("warmupPassword")).onComplete(ar -> {
+      startup.event("warm-up");
+      if (training) {
+        vertx.close().onComplete(v -> System.exit(0));
+      }
+    });
+  }
+
+  /**
+   * Traced database handler, run where "workers.handlers" says.
+   */
+  private Handler<RoutingContext> database(String name, Handler<RoutingContext> handler) {
+    return tracer.handler(name, executor.blocking(handler));
   }
 }
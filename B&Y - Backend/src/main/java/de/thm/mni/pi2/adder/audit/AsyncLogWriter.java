@@ -0,0 +1,218 @@
+package de.thm.mni.pi2.adder.audit;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous JSON-lines writer.
+ * Callers only enqueue records into a bounded {@link RingBuffer}; a single
+ * background thread drains it in batches, serialises the records and appends
+ * them to {@code <directory>/<name>.log}, rotating the file once it exceeds
+ * the configured size. When the buffer is full the record is either dropped
+ * (counted and reported in the log) or the caller waits a bounded time.
+ */
+public class AsyncLogWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(AsyncLogWriter.class.getName());
+
+    /**
+     * What to do with a record when the buffer is full.
+     */
+    public enum Policy {
+        DROP, BLOCK
+    }
+
+    private final String name;
+    private final Path directory;
+    private final RingBuffer<JsonObject> buffer;
+    private final Policy policy;
+    private final long blockTimeoutNanos;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final boolean timestamps;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private Writer writer;
+    private long fileBytes;
+
+    /**
+     * Creates the writer and starts its background thread.
+     *
+     * @param name    The log name, used as file name.
+     * @param options The "audit" or "tracing" configuration section.
+     */
+    public AsyncLogWriter(String name, JsonObject options) {
+        this.name = name;
+        this.directory = Paths.get(options.getString("directory", "logs"));
+        this.buffer = new RingBuffer<>(options.getInteger("bufferSize", 65536));
+        this.policy = Policy.valueOf(options.getString("policy", "drop").toUpperCase());
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("blockTimeoutMs", 50L));
+        this.batchSize = options.getInteger("batchSize", 512);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(options.getLong("flushIntervalMs", 200L));
+        this.maxFileBytes = options.getLong("maxFileBytes", 64L * 1024 * 1024);
+        this.maxFiles = options.getInteger("maxFiles", 10);
+        this.timestamps = options.getBoolean("timestamps", true);
+
+        this.thread = new Thread(this::run, "adder-" + name + "-log");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueues a record. Never performs I/O on the calling thread.
+     *
+     * @param record The record; a "time" field is added by the writer
+     *               unless "timestamps" is false.
+     * @return false if the record was dropped.
+     */
+    public boolean write(JsonObject record) {
+        if (timestamps) {
+            record.put("ts", System.currentTimeMillis());
+        }
+        if (buffer.offer(record)) {
+            return true;
+        }
+        if (policy == Policy.BLOCK) {
+            long deadline = System.nanoTime() + blockTimeoutNanos;
+            while (System.nanoTime() < deadline) {
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(50_000);
+                if (buffer.offer(record)) {
+                    return true;
+                }
+            }
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops the background thread after everything enqueued so far has been
+     * written and flushed.
+     *
+     * @param timeoutMillis Maximum time to wait for the final flush.
+     */
+    public void close(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        long reportedDrops = 0;
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            JsonObject record;
+            while (count < batchSize && (record = buffer.poll()) != null) {
+                Object ts = record.remove("ts");
+                if (ts instanceof Long millis) {
+                    record.put("time", Instant.ofEpochMilli(millis).toString());
+                }
+                batch.append(record.encode()).append('\n');
+                count++;
+            }
+
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                batch.append(new JsonObject()
+                        .put("time", Instant.now().toString())
+                        .put("type", "dropped")
+                        .put("count", drops - reportedDrops)
+                        .encode()).append('\n');
+                reportedDrops = drops;
+            }
+
+            if (batch.length() > 0) {
+                append(batch);
+                batch.setLength(0);
+            }
+            if (count == batchSize) {
+                // more records are waiting, keep draining
+                continue;
+            }
+            if (stopping) {
+                closeFile();
+                return;
+            }
+            LockSupport.parkNanos(flushIntervalNanos);
+        }
+    }
+
+    private void append(CharSequence lines) {
+        try {
+            if (writer == null) {
+                openFile();
+            }
+            writer.append(lines);
+            writer.flush();
+            fileBytes += lines.length();
+            if (fileBytes >= maxFileBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not write " + name + " log", e);
+            closeFile();
+        }
+    }
+
+    private void openFile() throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(name + ".log");
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileBytes = Files.size(file);
+    }
+
+    private void rotate() throws IOException {
+        closeFile();
+        Files.deleteIfExists(directory.resolve(name + "." + maxFiles + ".log"));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path source = directory.resolve(name + "." + i + ".log");
+            if (Files.exists(source)) {
+                Files.move(source, directory.resolve(name + "." + (i + 1) + ".log"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(directory.resolve(name + ".log"), directory.resolve(name + ".1.log"),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeFile() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not close " + name + " log", e);
+            }
+            writer = null;
+        }
+    }
+}
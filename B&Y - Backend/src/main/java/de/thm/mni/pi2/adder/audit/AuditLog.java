@@ -0,0 +1,88 @@
+package de.thm.mni.pi2.adder.audit;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Structured audit and access log.
+ * Audit records describe who created, changed or deleted which user, album or
+ * image; access records describe every HTTP request. Both are written
+ * asynchronously to {@code audit.log} and {@code access.log}.
+ */
+public class AuditLog {
+
+    private final AsyncLogWriter audit;
+    private final AsyncLogWriter access;
+
+    /**
+     * @param options The "audit" configuration section.
+     */
+    public AuditLog(JsonObject options) {
+        this.audit = new AsyncLogWriter("audit", options);
+        this.access = new AsyncLogWriter("access", options);
+    }
+
+    /**
+     * Records a mutation.
+     *
+     * @param userId   The acting user, null if not logged in.
+     * @param action   What happened, e.g. "image.delete".
+     * @param entityId The id of the affected entity, if known.
+     */
+    public void record(Integer userId, String action, Object entityId) {
+        record(userId, action, entityId, null);
+    }
+
+    /**
+     * Records a mutation with additional details.
+     *
+     * @param userId   The acting user, null if not logged in.
+     * @param action   What happened, e.g. "album.update".
+     * @param entityId The id of the affected entity, if known.
+     * @param details  Additional fields, may be null.
+     */
+    public void record(Integer userId, String action, Object entityId, JsonObject details) {
+        JsonObject record = new JsonObject()
+                .put("type", "audit")
+                .put("user", userId)
+                .put("action", action)
+                .put("entity", entityId != null ? entityId.toString() : null);
+        if (details != null) {
+            record.put("details", details);
+        }
+        audit.write(record);
+    }
+
+    /**
+     * Router handler that writes one access record per request once the
+     * response has ended.
+     *
+     * @param context The routing context.
+     */
+    public void accessLog(RoutingContext context) {
+        long start = System.nanoTime();
+        context.addEndHandler(v -> {
+            Integer userId = context.session() != null ? context.session().get("id") : null;
+            access.write(new JsonObject()
+                    .put("type", "access")
+                    .put("method", context.request().method().name())
+                    .put("path", context.request().path())
+                    .put("status", context.response().getStatusCode())
+                    .put("bytes", context.response().bytesWritten())
+                    .put("durationMicros", (System.nanoTime() - start) / 1000)
+                    .put("user", userId)
+                    .put("remote", context.request().remoteAddress() != null
+                            ? context.request().remoteAddress().host()
+                            : null));
+        });
+        context.next();
+    }
+
+    /**
+     * Flushes both logs and stops their writer threads.
+     */
+    public void close(long timeoutMillis) {
+        audit.close(timeoutMillis);
+        access.close(timeoutMillis);
+    }
+}
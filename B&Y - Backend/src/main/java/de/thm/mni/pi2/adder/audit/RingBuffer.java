@@ -0,0 +1,82 @@
+package de.thm.mni.pi2.adder.audit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * Each slot carries a sequence number that tells producers whether the slot
+ * is free and the consumer whether it has been published, so neither side
+ * ever takes a lock. Producers never wait: a full buffer is reported to the
+ * caller, which decides whether to drop or retry.
+ *
+ * @param <E> The element type.
+ */
+public class RingBuffer<E> {
+
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    /** Only touched by the consumer thread. */
+    private long head;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publishes an element.
+     *
+     * @param element The element, not null.
+     * @return false if the buffer is full.
+     */
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            // another producer claimed the slot first, retry with the new tail
+        }
+    }
+
+    /**
+     * Takes the oldest published element. Must only be called by the consumer.
+     *
+     * @return The element, or null if the buffer is empty.
+     */
+    public E poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        E element = items.get(index);
+        items.lazySet(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return element;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,305 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CBOR (RFC 8949) for the JSON data model.
+ * Encodes maps, lists, strings, numbers, booleans and null with the
+ * shortest heads (definite lengths only) directly into a {@link Buffer}.
+ * The decoder also accepts indefinite lengths, tags (ignored) and half and
+ * single precision floats, and returns {@link JsonObject}s and
+ * {@link JsonArray}s.
+ */
+public final class Cbor {
+
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+    private static final int TAG = 6;
+    private static final int SIMPLE = 7;
+
+    private static final int INDEFINITE = 31;
+    private static final int BREAK = 0xff;
+
+    private Cbor() {
+    }
+
+    /**
+     * Appends the encoding of a JSON value to the buffer.
+     */
+    public static void encode(Object value, Buffer out) {
+        if (value == null) {
+            out.appendByte((byte) 0xf6);
+        } else if (value instanceof JsonObject object) {
+            encodeMap(object.getMap(), out);
+        } else if (value instanceof Map<?, ?> map) {
+            encodeMap(map, out);
+        } else if (value instanceof JsonArray array) {
+            encodeList(array.getList(), out);
+        } else if (value instanceof List<?> list) {
+            encodeList(list, out);
+        } else if (value instanceof String string) {
+            encodeText(string, out);
+        } else if (value instanceof Boolean bool) {
+            out.appendByte((byte) (bool ? 0xf5 : 0xf4));
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            long number = ((Number) value).longValue();
+            if (number >= 0) {
+                head(UNSIGNED, number, out);
+            } else {
+                head(NEGATIVE, -1 - number, out);
+            }
+        } else if (value instanceof Number number) {
+            double d = number.doubleValue();
+            float f = (float) d;
+            if (f == d) {
+                out.appendByte((byte) 0xfa).appendInt(Float.floatToIntBits(f));
+            } else {
+                out.appendByte((byte) 0xfb).appendLong(Double.doubleToLongBits(d));
+            }
+        } else if (value instanceof byte[] bytes) {
+            head(BYTES, bytes.length, out);
+            out.appendBytes(bytes);
+        } else {
+            // Instant, enums and the like, as JsonObject#encode would write them
+            encodeText(value.toString(), out);
+        }
+    }
+
+    /**
+     * Decodes one data item.
+     *
+     * @throws DecodeException If the input is malformed or has trailing bytes.
+     */
+    public static Object decode(Buffer in) {
+        Reader reader = new Reader(in);
+        Object value = reader.item(0);
+        if (reader.pos != in.length()) {
+            throw new DecodeException("Trailing bytes after CBOR item");
+        }
+        return value;
+    }
+
+    private static void encodeMap(Map<?, ?> map, Buffer out) {
+        head(MAP, map.size(), out);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            encodeText(String.valueOf(entry.getKey()), out);
+            encode(entry.getValue(), out);
+        }
+    }
+
+    private static void encodeList(List<?> list, Buffer out) {
+        head(ARRAY, list.size(), out);
+        for (Object item : list) {
+            encode(item, out);
+        }
+    }
+
+    private static void encodeText(String text, Buffer out) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        head(TEXT, bytes.length, out);
+        out.appendBytes(bytes);
+    }
+
+    private static void head(int major, long value, Buffer out) {
+        int type = major << 5;
+        if (value < 24) {
+            out.appendByte((byte) (type | value));
+        } else if (value <= 0xff) {
+            out.appendByte((byte) (type | 24)).appendByte((byte) value);
+        } else if (value <= 0xffff) {
+            out.appendByte((byte) (type | 25)).appendShort((short) value);
+        } else if (value <= 0xffffffffL) {
+            out.appendByte((byte) (type | 26)).appendInt((int) value);
+        } else {
+            out.appendByte((byte) (type | 27)).appendLong(value);
+        }
+    }
+
+    private static final class Reader {
+
+        private final Buffer in;
+        private int pos;
+
+        Reader(Buffer in) {
+            this.in = in;
+        }
+
+        Object item(int depth) {
+            if (depth > Encoding.MAX_DEPTH) {
+                throw new DecodeException("CBOR nested too deeply");
+            }
+            int initial = u8();
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+            switch (major) {
+                case UNSIGNED:
+                    return number(argument(info));
+                case NEGATIVE:
+                    return number(-1 - argument(info));
+                case BYTES:
+                    return info == INDEFINITE ? chunks(BYTES) : bytes(length(info));
+                case TEXT:
+                    return info == INDEFINITE
+                            ? new String(chunks(TEXT), StandardCharsets.UTF_8)
+                            : new String(bytes(length(info)), StandardCharsets.UTF_8);
+                case ARRAY: {
+                    JsonArray array = new JsonArray();
+                    if (info == INDEFINITE) {
+                        while (peek() != BREAK) {
+                            array.add(item(depth + 1));
+                        }
+                        pos++;
+                    } else {
+                        for (int i = length(info); i > 0; i--) {
+                            array.add(item(depth + 1));
+                        }
+                    }
+                    return array;
+                }
+                case MAP: {
+                    JsonObject object = new JsonObject();
+                    if (info == INDEFINITE) {
+                        while (peek() != BREAK) {
+                            object.put(String.valueOf(item(depth + 1)), item(depth + 1));
+                        }
+                        pos++;
+                    } else {
+                        for (int i = length(info); i > 0; i--) {
+                            object.put(String.valueOf(item(depth + 1)), item(depth + 1));
+                        }
+                    }
+                    return object;
+                }
+                case TAG:
+                    argument(info);
+                    return item(depth + 1);
+                default:
+                    return simple(info);
+            }
+        }
+
+        private Object simple(int info) {
+            switch (info) {
+                case 20:
+                    return false;
+                case 21:
+                    return true;
+                case 22:
+                case 23:
+                    return null;
+                case 25:
+                    return (double) Encoding.halfToFloat(u16());
+                case 26:
+                    return (double) Float.intBitsToFloat((int) u32());
+                case 27: {
+                    need(8);
+                    double value = Double.longBitsToDouble(in.getLong(pos));
+                    pos += 8;
+                    return value;
+                }
+                default:
+                    throw new DecodeException("Unsupported CBOR simple value " + info);
+            }
+        }
+
+        private byte[] chunks(int major) {
+            Buffer joined = Buffer.buffer();
+            while (peek() != BREAK) {
+                int initial = u8();
+                if (initial >>> 5 != major || (initial & 0x1f) == INDEFINITE) {
+                    throw new DecodeException("Invalid CBOR string chunk");
+                }
+                joined.appendBytes(bytes(length(initial & 0x1f)));
+            }
+            pos++;
+            return joined.getBytes();
+        }
+
+        private long argument(int info) {
+            if (info < 24) {
+                return info;
+            }
+            switch (info) {
+                case 24:
+                    return u8();
+                case 25:
+                    return u16();
+                case 26:
+                    return u32();
+                case 27: {
+                    need(8);
+                    long value = in.getLong(pos);
+                    pos += 8;
+                    if (value < 0) {
+                        throw new DecodeException("CBOR integer out of range");
+                    }
+                    return value;
+                }
+                default:
+                    throw new DecodeException("Invalid CBOR additional info " + info);
+            }
+        }
+
+        private int length(int info) {
+            long length = argument(info);
+            // every element takes at least one byte
+            if (length > in.length() - pos) {
+                throw new DecodeException("CBOR length exceeds input");
+            }
+            return (int) length;
+        }
+
+        private byte[] bytes(int length) {
+            need(length);
+            byte[] bytes = in.getBytes(pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        private int peek() {
+            need(1);
+            return in.getUnsignedByte(pos);
+        }
+
+        private int u8() {
+            need(1);
+            return in.getUnsignedByte(pos++);
+        }
+
+        private int u16() {
+            need(2);
+            int value = in.getUnsignedShort(pos);
+            pos += 2;
+            return value;
+        }
+
+        private long u32() {
+            need(4);
+            long value = in.getUnsignedInt(pos);
+            pos += 4;
+            return value;
+        }
+
+        private void need(int bytes) {
+            if (pos + bytes > in.length()) {
+                throw new DecodeException("Truncated CBOR input");
+            }
+        }
+
+        private static Object number(long value) {
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        }
+    }
+}
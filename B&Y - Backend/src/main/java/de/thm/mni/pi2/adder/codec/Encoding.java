@@ -0,0 +1,191 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Response and request body encodings, negotiated per request.
+ * Handlers build their output as {@link JsonObject}s and
+ * {@link io.vertx.core.json.JsonArray}s as before and hand it to
+ * {@link #send}; clients choose the wire format with {@code Accept}:
+ * {@code application/cbor}, {@code application/msgpack} (also
+ * {@code application/vnd.msgpack} and {@code application/x-msgpack}) or
+ * {@code application/json} for compact JSON. Without one of these the
+ * indented JSON of earlier versions is sent. Request bodies are read in the
+ * format named by {@code Content-Type}, see {@link #body}.
+ */
+public enum Encoding {
+
+    PRETTY_JSON("application/json"),
+    JSON("application/json"),
+    CBOR("application/cbor"),
+    MSGPACK("application/msgpack");
+
+    /** Deepest nesting accepted by the binary decoders. */
+    static final int MAX_DEPTH = 64;
+
+    private final String contentType;
+
+    Encoding(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Encodes a JSON value; binary formats are written straight into the
+     * returned buffer without an intermediate string.
+     */
+    public Buffer encode(Object value) {
+        switch (this) {
+            case CBOR: {
+                Buffer out = Buffer.buffer(1024);
+                Cbor.encode(value, out);
+                return out;
+            }
+            case MSGPACK: {
+                Buffer out = Buffer.buffer(1024);
+                MessagePack.encode(value, out);
+                return out;
+            }
+            case JSON:
+                return Buffer.buffer(Json.encode(value));
+            default:
+                return Buffer.buffer(Json.encodePrettily(value));
+        }
+    }
+
+    /**
+     * Picks the encoding from the Accept header: the first supported media
+     * type that is not excluded with q=0.
+     */
+    public static Encoding negotiate(RoutingContext context) {
+        return negotiate(context, PRETTY_JSON);
+    }
+
+    /**
+     * @param fallback The encoding used when the client names none of ours.
+     */
+    public static Encoding negotiate(RoutingContext context, Encoding fallback) {
+        String accept = context.request().getHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return fallback;
+        }
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            if (excluded(parts)) {
+                continue;
+            }
+            Encoding encoding = of(parts[0]);
+            if (encoding != null) {
+                return encoding;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Sends a JSON value in the negotiated encoding.
+     *
+     * @param context The routing context.
+     * @param status  The status code.
+     * @param value   A JsonObject, JsonArray or other JSON value.
+     */
+    public static void send(RoutingContext context, int status, Object value) {
+        negotiate(context).send(context, status, value, null);
+    }
+
+    /**
+     * Sends a body already encoded with this encoding.
+     *
+     * @param body The encoded body, or null to encode {@code value}.
+     */
+    public void send(RoutingContext context, int status, Object value, Buffer body) {
+        // added, not put: CORS may already vary on Origin
+        context.response().headers().add(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        context.response()
+                .putHeader(HttpHeaders.CONTENT_TYPE, contentType)
+                .setStatusCode(status)
+                .end(body != null ? body : encode(value));
+    }
+
+    /**
+     * Reads the request body as an object in the format of its Content-Type
+     * (JSON if absent or unknown).
+     *
+     * @return The body, or null if there is none.
+     * @throws DecodeException If the body is malformed or not an object.
+     */
+    public static JsonObject body(RoutingContext context) {
+        Encoding encoding = of(context.request().getHeader(HttpHeaders.CONTENT_TYPE));
+        if (encoding != CBOR && encoding != MSGPACK) {
+            return context.body().asJsonObject();
+        }
+        Buffer buffer = context.body().buffer();
+        if (buffer == null || buffer.length() == 0) {
+            return null;
+        }
+        Object value = encoding == CBOR ? Cbor.decode(buffer) : MessagePack.decode(buffer);
+        if (value instanceof JsonObject object) {
+            return object;
+        }
+        throw new DecodeException("Request body is not an object");
+    }
+
+    private static Encoding of(String mediaType) {
+        if (mediaType == null) {
+            return null;
+        }
+        int semicolon = mediaType.indexOf(';');
+        String type = (semicolon < 0 ? mediaType : mediaType.substring(0, semicolon)).trim().toLowerCase();
+        switch (type) {
+            case "application/cbor":
+                return CBOR;
+            case "application/msgpack":
+            case "application/vnd.msgpack":
+            case "application/x-msgpack":
+                return MSGPACK;
+            case "application/json":
+                return JSON;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean excluded(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * IEEE 754 half precision to float, for CBOR.
+     */
+    static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value;
+        if (exponent == 0) {
+            value = mantissa * 0x1p-24f;
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+}
@@ -0,0 +1,306 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MessagePack for the JSON data model.
+ * Encodes maps, lists, strings, numbers, booleans and null in their
+ * smallest formats directly into a {@link Buffer}; the decoder returns
+ * {@link JsonObject}s and {@link JsonArray}s and rejects extension types.
+ */
+public final class MessagePack {
+
+    private MessagePack() {
+    }
+
+    /**
+     * Appends the encoding of a JSON value to the buffer.
+     */
+    public static void encode(Object value, Buffer out) {
+        if (value == null) {
+            out.appendByte((byte) 0xc0);
+        } else if (value instanceof JsonObject object) {
+            encodeMap(object.getMap(), out);
+        } else if (value instanceof Map<?, ?> map) {
+            encodeMap(map, out);
+        } else if (value instanceof JsonArray array) {
+            encodeList(array.getList(), out);
+        } else if (value instanceof List<?> list) {
+            encodeList(list, out);
+        } else if (value instanceof String string) {
+            encodeString(string, out);
+        } else if (value instanceof Boolean bool) {
+            out.appendByte((byte) (bool ? 0xc3 : 0xc2));
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            encodeInteger(((Number) value).longValue(), out);
+        } else if (value instanceof Number number) {
+            double d = number.doubleValue();
+            float f = (float) d;
+            if (f == d) {
+                out.appendByte((byte) 0xca).appendInt(Float.floatToIntBits(f));
+            } else {
+                out.appendByte((byte) 0xcb).appendLong(Double.doubleToLongBits(d));
+            }
+        } else if (value instanceof byte[] bytes) {
+            header(bytes.length, 0xc4, 0xc5, 0xc6, out);
+            out.appendBytes(bytes);
+        } else {
+            encodeString(value.toString(), out);
+        }
+    }
+
+    /**
+     * Decodes one object.
+     *
+     * @throws DecodeException If the input is malformed or has trailing bytes.
+     */
+    public static Object decode(Buffer in) {
+        Reader reader = new Reader(in);
+        Object value = reader.item(0);
+        if (reader.pos != in.length()) {
+            throw new DecodeException("Trailing bytes after MessagePack object");
+        }
+        return value;
+    }
+
+    private static void encodeMap(Map<?, ?> map, Buffer out) {
+        int size = map.size();
+        if (size < 16) {
+            out.appendByte((byte) (0x80 | size));
+        } else {
+            header(size, -1, 0xde, 0xdf, out);
+        }
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            encodeString(String.valueOf(entry.getKey()), out);
+            encode(entry.getValue(), out);
+        }
+    }
+
+    private static void encodeList(List<?> list, Buffer out) {
+        int size = list.size();
+        if (size < 16) {
+            out.appendByte((byte) (0x90 | size));
+        } else {
+            header(size, -1, 0xdc, 0xdd, out);
+        }
+        for (Object item : list) {
+            encode(item, out);
+        }
+    }
+
+    private static void encodeString(String string, Buffer out) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 32) {
+            out.appendByte((byte) (0xa0 | bytes.length));
+        } else {
+            header(bytes.length, 0xd9, 0xda, 0xdb, out);
+        }
+        out.appendBytes(bytes);
+    }
+
+    private static void encodeInteger(long value, Buffer out) {
+        if (value >= 0) {
+            if (value < 128) {
+                out.appendByte((byte) value);
+            } else if (value <= 0xff) {
+                out.appendByte((byte) 0xcc).appendByte((byte) value);
+            } else if (value <= 0xffff) {
+                out.appendByte((byte) 0xcd).appendShort((short) value);
+            } else if (value <= 0xffffffffL) {
+                out.appendByte((byte) 0xce).appendInt((int) value);
+            } else {
+                out.appendByte((byte) 0xcf).appendLong(value);
+            }
+        } else if (value >= -32) {
+            out.appendByte((byte) value);
+        } else if (value >= Byte.MIN_VALUE) {
+            out.appendByte((byte) 0xd0).appendByte((byte) value);
+        } else if (value >= Short.MIN_VALUE) {
+            out.appendByte((byte) 0xd1).appendShort((short) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            out.appendByte((byte) 0xd2).appendInt((int) value);
+        } else {
+            out.appendByte((byte) 0xd3).appendLong(value);
+        }
+    }
+
+    /**
+     * Writes a length with an 8, 16 or 32 bit format; {@code type8} is -1
+     * for types without an 8 bit variant.
+     */
+    private static void header(int length, int type8, int type16, int type32, Buffer out) {
+        if (type8 >= 0 && length <= 0xff) {
+            out.appendByte((byte) type8).appendByte((byte) length);
+        } else if (length <= 0xffff) {
+            out.appendByte((byte) type16).appendShort((short) length);
+        } else {
+            out.appendByte((byte) type32).appendInt(length);
+        }
+    }
+
+    private static final class Reader {
+
+        private final Buffer in;
+        private int pos;
+
+        Reader(Buffer in) {
+            this.in = in;
+        }
+
+        Object item(int depth) {
+            if (depth > Encoding.MAX_DEPTH) {
+                throw new DecodeException("MessagePack nested too deeply");
+            }
+            int type = u8();
+            if (type <= 0x7f) {
+                return type;
+            }
+            if (type >= 0xe0) {
+                return (int) (byte) type;
+            }
+            if ((type & 0xf0) == 0x80) {
+                return map(type & 0x0f, depth);
+            }
+            if ((type & 0xf0) == 0x90) {
+                return array(type & 0x0f, depth);
+            }
+            if ((type & 0xe0) == 0xa0) {
+                return string(type & 0x1f);
+            }
+            switch (type) {
+                case 0xc0:
+                    return null;
+                case 0xc2:
+                    return false;
+                case 0xc3:
+                    return true;
+                case 0xc4:
+                    return bytes(length(u8()));
+                case 0xc5:
+                    return bytes(length(u16()));
+                case 0xc6:
+                    return bytes(length(u32()));
+                case 0xca:
+                    return (double) Float.intBitsToFloat((int) u32());
+                case 0xcb:
+                    return Double.longBitsToDouble(s64());
+                case 0xcc:
+                    return u8();
+                case 0xcd:
+                    return u16();
+                case 0xce:
+                    return number(u32());
+                case 0xcf: {
+                    long value = s64();
+                    if (value < 0) {
+                        throw new DecodeException("MessagePack integer out of range");
+                    }
+                    return number(value);
+                }
+                case 0xd0:
+                    return (int) (byte) u8();
+                case 0xd1:
+                    return (int) (short) u16();
+                case 0xd2:
+                    return (int) u32();
+                case 0xd3:
+                    return number(s64());
+                case 0xd9:
+                    return string(u8());
+                case 0xda:
+                    return string(u16());
+                case 0xdb:
+                    return string(u32());
+                case 0xdc:
+                    return array(u16(), depth);
+                case 0xdd:
+                    return array(u32(), depth);
+                case 0xde:
+                    return map(u16(), depth);
+                case 0xdf:
+                    return map(u32(), depth);
+                default:
+                    throw new DecodeException("Unsupported MessagePack type 0x" + Integer.toHexString(type));
+            }
+        }
+
+        private JsonObject map(long size, int depth) {
+            JsonObject object = new JsonObject();
+            for (int i = length(size); i > 0; i--) {
+                object.put(String.valueOf(item(depth + 1)), item(depth + 1));
+            }
+            return object;
+        }
+
+        private JsonArray array(long size, int depth) {
+            JsonArray array = new JsonArray();
+            for (int i = length(size); i > 0; i--) {
+                array.add(item(depth + 1));
+            }
+            return array;
+        }
+
+        private String string(long length) {
+            return new String(bytes(length(length)), StandardCharsets.UTF_8);
+        }
+
+        private int length(long length) {
+            // every element takes at least one byte
+            if (length > in.length() - pos) {
+                throw new DecodeException("MessagePack length exceeds input");
+            }
+            return (int) length;
+        }
+
+        private byte[] bytes(int length) {
+            need(length);
+            byte[] bytes = in.getBytes(pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+
+        private int u8() {
+            need(1);
+            return in.getUnsignedByte(pos++);
+        }
+
+        private int u16() {
+            need(2);
+            int value = in.getUnsignedShort(pos);
+            pos += 2;
+            return value;
+        }
+
+        private long u32() {
+            need(4);
+            long value = in.getUnsignedInt(pos);
+            pos += 4;
+            return value;
+        }
+
+        private long s64() {
+            need(8);
+            long value = in.getLong(pos);
+            pos += 8;
+            return value;
+        }
+
+        private void need(int bytes) {
+            if (pos + bytes > in.length()) {
+                throw new DecodeException("Truncated MessagePack input");
+            }
+        }
+
+        private static Object number(long value) {
+            return value == (int) value ? (Object) (int) value : (Object) value;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package de.thm.mni.pi2.adder.config;
+
+import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Structured application configuration.
+ * Values are merged from {@code conf/config.json}, environment variables and
+ * system properties (in that order, later sources win). The legacy environment
+ * variables (DB_HOST, DB_PORT, ...) are still honoured.
+ * All sections except "db", "http", "workers", "audit", "tiles", "startup"
+ * and "storage" are reloadable at runtime; those only take effect after a
+ * restart.
+ */
+public class AppConfig {
+
+    private static final Logger LOGGER = Logger.getLogger("de.thm.mni.pi2.adder");
+
+    /**
+     * Top-level sections whose changes require a restart (listener sockets,
+     * database connections, router setup). The class doc and the README list
+     * them as well.
+     */
+    private static final List<String> RESTART_SECTIONS = List.of("db", "http", "workers", "audit", "tiles",
+            "startup", "storage");
+
+    private volatile JsonObject json;
+    private final List<Consumer<AppConfig>> listeners = new CopyOnWriteArrayList<>();
+
+    public AppConfig(JsonObject json) {
+        this.json = json;
+        applyLogLevel();
+    }
+
+    /**
+     * Creates the retriever for all configuration stores.
+     * The file store is optional so the server also starts without a config
+     * file; the file is re-scanned periodically for hot reload.
+     *
+     * @param vertx The Vert.x instance.
+     * @return A configured retriever.
+     */
+    public static ConfigRetriever retriever(Vertx vertx) {
+        String path = System.getProperty("adder.config", "conf/config.json");
+
+        ConfigStoreOptions fileStore = new ConfigStoreOptions()
+                .setType("file")
+                .setFormat("json")
+                .setOptional(true)
+                .setConfig(new JsonObject().put("path", path));
+        ConfigStoreOptions envStore = new ConfigStoreOptions()
+                .setType("env");
+        ConfigStoreOptions sysStore = new ConfigStoreOptions()
+                .setType("sys")
+                .setConfig(new JsonObject().put("hierarchical", true));
+
+        return ConfigRetriever.create(vertx, new ConfigRetrieverOptions()
+                .setScanPeriod(Long.getLong("adder.config.scanPeriod", 5000L))
+                .addStore(fileStore)
+                .addStore(envStore)
+                .addStore(sysStore));
+    }
+
+    /**
+     * Replaces the current configuration with a freshly retrieved one.
+     * Reloadable listeners are notified; changes to restart-only sections are
+     * logged and otherwise ignored until the next start.
+     *
+     * @param newJson The newly merged configuration.
+     */
+    public void update(JsonObject newJson) {
+        JsonObject previous = json;
+        for (String section : RESTART_SECTIONS) {
+            if (!Objects.equals(previous.getValue(section), newJson.getValue(section))) {
+                LOGGER.warning("Configuration section '" + section + "' changed, restart required to apply it");
+            }
+        }
+        json = newJson;
+        applyLogLevel();
+        for (Consumer<AppConfig> listener : listeners) {
+            try {
+                listener.accept(this);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Configuration listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener that is called after every configuration reload.
+     *
+     * @param listener The listener receiving this configuration.
+     */
+    public void onReload(Consumer<AppConfig> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Returns a configuration section, or an empty object if it is missing.
+     *
+     * @param name The section name.
+     * @return The section as JSON object.
+     */
+    public JsonObject section(String name) {
+        JsonObject section = json.getJsonObject(name);
+        return section != null ? section : new JsonObject();
+    }
+
+    public String dbHost() {
+        return string("DB_HOST", "db", "host", "localhost");
+    }
+
+    public int dbPort() {
+        return Integer.parseInt(string("DB_PORT", "db", "port", "3306"));
+    }
+
+    public String dbName() {
+        return string("DB_NAME", "db", "name", "fotolab");
+    }
+
+    public String dbUser() {
+        return string("DB_USER", "db", "user", "root");
+    }
+
+    public String dbPassword() {
+        return string("DB_PASS", "db", "password", "");
+    }
+
+    public String dbUrl() {
+        return String.format("jdbc:mariadb://%s:%s/%s", dbHost(), dbPort(), dbName()) + dbUrlOptions();
+    }
+
+    /**
+     * Connect and socket timeouts appended to every JDBC URL, so a dead
+     * server blocks a request for a bounded time only.
+     */
+    private String dbUrlOptions() {
+        return String.format("?connectTimeout=%d&socketTimeout=%d",
+                section("db").getLong("connectTimeoutMillis", 2000L),
+                section("db").getLong("socketTimeoutMillis", 10000L));
+    }
+
+    /**
+     * JDBC URLs of the read replicas, from DB_REPLICAS ("host:port,...") or
+     * the "db.replicas" array of {"host", "port"} objects.
+     */
+    public List<String> dbReplicaUrls() {
+        List<String> urls = new ArrayList<>();
+        String env = json.getString("DB_REPLICAS");
+        if (env != null && !env.isBlank()) {
+            for (String endpoint : env.split(",")) {
+                if (!endpoint.isBlank()) {
+                    urls.add(String.format("jdbc:mariadb://%s/%s", endpoint.trim(), dbName()) + dbUrlOptions());
+                }
+            }
+            return urls;
+        }
+        JsonArray replicas = section("db").getJsonArray("replicas", new JsonArray());
+        for (int i = 0; i < replicas.size(); i++) {
+            JsonObject replica = replicas.getJsonObject(i);
+            urls.add(String.format("jdbc:mariadb://%s:%s/%s",
+                    replica.getString("host", "localhost"), replica.getValue("port", 3306), dbName())
+                    + dbUrlOptions());
+        }
+        return urls;
+    }
+
+    public int httpPort() {
+        return Integer.parseInt(string("HTTP_PORT", "http", "port", "8888"));
+    }
+
+    public String uploadsDirectory() {
+        return string("UPLOADS_DIR", "http", "uploadsDirectory", "uploads");
+    }
+
+    /**
+     * Maximum accepted request body size in bytes, -1 for unlimited.
+     */
+    public long bodyLimit() {
+        return section("http").getLong("bodyLimit", -1L);
+    }
+
+    /**
+     * Number of worker threads analysing uploaded images.
+     */
+    public int mediaWorkers() {
+        return section("workers").getInteger("media", 2);
+    }
+
+    public List<String> corsOrigins() {
+        String env = json.getString("CORS_ORIGINS");
+        List<String> origins = new ArrayList<>();
+        if (env != null && !env.isBlank()) {
+            for (String origin : env.split(",")) {
+                if (!origin.isBlank()) {
+                    origins.add(origin.trim());
+                }
+            }
+            return origins;
+        }
+        JsonArray configured = section("http").getJsonArray("corsOrigins");
+        if (configured == null) {
+            return List.of("http://localhost:3000", "http://localhost:8080");
+        }
+        for (int i = 0; i < configured.size(); i++) {
+            origins.add(configured.getString(i));
+        }
+        return origins;
+    }
+
+    public String logLevel() {
+        return section("log").getString("level", "INFO");
+    }
+
+    private void applyLogLevel() {
+        try {
+            LOGGER.setLevel(Level.parse(logLevel().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Unknown log level '" + logLevel() + "', keeping " + LOGGER.getLevel());
+        }
+    }
+
+    private String string(String envKey, String section, String key, String def) {
+        Object env = json.getValue(envKey);
+        if (env != null && !env.toString().isEmpty()) {
+            return env.toString();
+        }
+        Object value = section(section).getValue(key);
+        return value != null ? value.toString() : def;
+    }
+}
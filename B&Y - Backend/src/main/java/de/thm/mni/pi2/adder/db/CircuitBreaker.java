@@ -0,0 +1,81 @@
+package de.thm.mni.pi2.adder.db;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal circuit breaker for the primary database.
+ * After {@code failureThreshold} consecutive failures the breaker opens and
+ * requests fail fast. Once {@code openMillis} have passed a single probe
+ * request is let through (half-open); its outcome closes or re-opens the
+ * breaker.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean probeInFlight = new AtomicBoolean();
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return Whether a request may use the database right now.
+     */
+    public boolean allowRequest() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis
+                && probeInFlight.compareAndSet(false, true)) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    public void recordSuccess() {
+        failures.set(0);
+        probeInFlight.set(false);
+        state = State.CLOSED;
+    }
+
+    public void recordFailure() {
+        if (state == State.HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Opens the breaker immediately, e.g. when the connection is known to be lost.
+     */
+    public void open() {
+        openedAt = System.currentTimeMillis();
+        probeInFlight.set(false);
+        state = State.OPEN;
+    }
+
+    /**
+     * @return Milliseconds until the next probe is allowed, 0 if closed.
+     */
+    public long retryAfterMillis() {
+        if (state == State.CLOSED) {
+            return 0;
+        }
+        return Math.max(0, openMillis - (System.currentTimeMillis() - openedAt));
+    }
+
+    public State state() {
+        return state;
+    }
+}
@@ -0,0 +1,144 @@
+package de.thm.mni.pi2.adder.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Fixed-size pool of connections to one server, for handlers that run on
+ * worker or virtual threads (see {@link HandlerExecutor}). A fair semaphore
+ * bounds the connections in use: a blocked virtual thread just parks, so any
+ * number of requests can wait for one. Connections are opened on first use
+ * and reused most recently released first.
+ */
+public class ConnectionPool {
+
+    /**
+     * Thrown when no connection became free within the acquire timeout or a
+     * new one could not be opened.
+     */
+    public static class UnavailableException extends RuntimeException {
+        UnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final UnaryOperator<Connection> wrapper;
+    private final int size;
+    private final long acquireTimeoutMillis;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed;
+
+    /**
+     * @param wrapper Applied once to every new connection.
+     */
+    public ConnectionPool(String name, String url, String user, String password, UnaryOperator<Connection> wrapper,
+                          int size, long acquireTimeoutMillis) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.wrapper = wrapper;
+        this.size = Math.max(1, size);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(this.size, true);
+    }
+
+    /**
+     * Takes a connection, waiting for one to be released if all are in use.
+     *
+     * @throws UnavailableException If none became free in time or a new one
+     *                              cannot be opened.
+     */
+    public Connection acquire() {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnavailableException("Interrupted while waiting for a connection to " + name, e);
+        }
+        if (!acquired || closed) {
+            if (acquired) {
+                permits.release();
+            }
+            throw new UnavailableException("No connection to " + name + " available", null);
+        }
+        try {
+            Connection connection = idle.pollFirst();
+            return connection != null ? connection : wrapper.apply(DriverManager.getConnection(url, user, password));
+        } catch (SQLException e) {
+            permits.release();
+            throw new UnavailableException("Cannot connect to " + name, e);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection taken with {@link #acquire()}. Open transactions
+     * are rolled back; broken connections are closed instead of reused.
+     */
+    public void release(Connection connection) {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (closed || connection.isClosed()) {
+                connection.close();
+            } else {
+                idle.offerFirst(connection);
+            }
+        } catch (SQLException e) {
+            close(connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Drops the idle connections, e.g. after the server was restarted, so
+     * that the next requests open new ones.
+     */
+    public void evictIdle() {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            close(connection);
+        }
+    }
+
+    /**
+     * @return The number of connections in use.
+     */
+    public int active() {
+        return size - permits.availablePermits();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void close() {
+        closed = true;
+        evictIdle();
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // discarding anyway
+        }
+    }
+}
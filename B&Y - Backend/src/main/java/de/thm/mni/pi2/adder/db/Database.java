@@ -0,0 +1,536 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Span;
+import de.thm.mni.pi2.adder.trace.TracedConnection;
+import de.thm.mni.pi2.adder.trace.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.Session;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Data layer entry point with read/write splitting and self-healing.
+ * Writes always go to the primary. Read-only handler queries go to a healthy
+ * replica (round robin) whose replication lag is below the configured
+ * threshold, and fall back to the primary otherwise. After a session issued
+ * a mutating request its reads stay on the primary for a short window, so
+ * users always see their own writes.
+ * The primary connection is validated periodically and after failed
+ * requests. Repeated validation failures open a circuit breaker, so database
+ * routes answer 503 immediately, and the connection is re-established in the
+ * background with jittered exponential backoff.
+ * Handlers that run on worker or virtual threads (see
+ * {@link HandlerExecutor}) get connections of their own from a fixed-size
+ * pool per server instead, leased for the rest of the request.
+ */
+public class Database {
+
+    private static final Logger LOGGER = Logger.getLogger(Database.class.getName());
+
+    /**
+     * Statements run by {@link #onPrimary}.
+     */
+    public interface Work<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /** Session key holding the time until which reads must use the primary. */
+    public static final String PRIMARY_UNTIL = "db.primaryUntil";
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /** The lease of the request whose handler runs on the current thread. */
+    private static final ThreadLocal<Lease> LEASE = new ThreadLocal<>();
+    private static final String LEASE_KEY = "db.lease";
+
+    private final Vertx vertx;
+    private final Endpoint primary;
+    private final List<Endpoint> replicas = new ArrayList<>();
+    private final ConnectionPool primaryPool;
+    private final List<ConnectionPool> replicaPools = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final CircuitBreaker breaker;
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private final AtomicBoolean validating = new AtomicBoolean();
+    private final Promise<Void> firstConnect = Promise.promise();
+    private final long maxReplicaLagSeconds;
+    private final long stickinessMillis;
+    private final long healthCheckIntervalMillis;
+    private final long backoffBaseMillis;
+    private final long backoffMaxMillis;
+    private long healthCheckTimer = -1;
+    private volatile boolean closed;
+
+    public Database(Vertx vertx, AppConfig config, Tracer tracer) {
+        this.vertx = vertx;
+        UnaryOperator<Connection> wrapper = tracer.enabled() ? TracedConnection::wrap : UnaryOperator.identity();
+        this.primary = new Endpoint("primary", config.dbUrl(), config.dbUser(), config.dbPassword(), wrapper);
+        JsonObject db = config.section("db");
+        int poolSize = db.getInteger("poolSize", 16);
+        long acquireTimeoutMillis = db.getLong("acquireTimeoutMillis", 2000L);
+        this.primaryPool = new ConnectionPool("primary", config.dbUrl(), config.dbUser(), config.dbPassword(),
+                wrapper, poolSize, acquireTimeoutMillis);
+        List<String> replicaUrls = config.dbReplicaUrls();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicas.add(new Endpoint("replica-" + i, replicaUrls.get(i), config.dbUser(), config.dbPassword(),
+                    wrapper));
+            replicaPools.add(new ConnectionPool("replica-" + i, replicaUrls.get(i), config.dbUser(),
+                    config.dbPassword(), wrapper, poolSize, acquireTimeoutMillis));
+        }
+        this.maxReplicaLagSeconds = db.getLong("maxReplicaLagSeconds", 5L);
+        this.stickinessMillis = db.getLong("stickinessMillis", 5000L);
+        this.healthCheckIntervalMillis = db.getLong("healthCheckIntervalMillis", 2000L);
+        this.backoffBaseMillis = db.getLong("reconnectBaseMillis", 200L);
+        this.backoffMaxMillis = db.getLong("reconnectMaxMillis", 30000L);
+        this.breaker = new CircuitBreaker(db.getInteger("breakerFailureThreshold", 3),
+                db.getLong("breakerOpenMillis", 5000L));
+        // unavailable until the first connection succeeded
+        this.breaker.open();
+    }
+
+    /**
+     * Starts connecting to the primary and all replicas in the background.
+     * The server does not need to wait for it: until the primary is reachable
+     * database routes answer 503.
+     *
+     * @return A future completed once the primary is connected the first time.
+     */
+    public Future<Void> start() {
+        scheduleReconnect(0);
+        for (Endpoint replica : replicas) {
+            vertx.executeBlocking(() -> {
+                try {
+                    replica.connect(true, VALIDATION_TIMEOUT_SECONDS);
+                } catch (SQLException e) {
+                    replica.markUnhealthy();
+                    LOGGER.log(Level.WARNING, "Replica " + replica.name() + " unavailable", e);
+                }
+                return null;
+            }, false);
+        }
+        healthCheckTimer = vertx.setPeriodic(healthCheckIntervalMillis, id -> healthCheck());
+        return firstConnect.future();
+    }
+
+    private void healthCheck() {
+        validatePrimary();
+        if (replicas.isEmpty()) {
+            return;
+        }
+        vertx.executeBlocking(() -> {
+            for (int i = 0; i < replicas.size(); i++) {
+                Endpoint replica = replicas.get(i);
+                if (!replica.check(true, VALIDATION_TIMEOUT_SECONDS)) {
+                    try {
+                        replica.connect(true, VALIDATION_TIMEOUT_SECONDS);
+                        // pooled connections did not survive whatever broke this one
+                        replicaPools.get(i).evictIdle();
+                        LOGGER.info("Reconnected to replica " + replica.name());
+                    } catch (SQLException e) {
+                        replica.markUnhealthy();
+                    }
+                }
+            }
+            return null;
+        }, false);
+    }
+
+    /**
+     * Validates the primary connection off the event loop and starts a
+     * reconnect if it is broken. Concurrent calls are collapsed into one.
+     */
+    public void validatePrimary() {
+        if (closed || reconnecting.get() || !validating.compareAndSet(false, true)) {
+            return;
+        }
+        vertx.executeBlocking(() -> primary.check(false, VALIDATION_TIMEOUT_SECONDS), false)
+                .onComplete(ar -> {
+                    validating.set(false);
+                    if (ar.succeeded() && ar.result()) {
+                        breaker.recordSuccess();
+                        return;
+                    }
+                    breaker.recordFailure();
+                    if (breaker.state() == CircuitBreaker.State.OPEN) {
+                        LOGGER.warning("Primary database connection lost, reconnecting");
+                        scheduleReconnect(0);
+                    }
+                });
+    }
+
+    private void scheduleReconnect(int attempt) {
+        if (closed || (attempt == 0 && !reconnecting.compareAndSet(false, true))) {
+            return;
+        }
+        // full jitter: uniform in [0, min(max, base * 2^attempt)]
+        long ceiling = Math.min(backoffMaxMillis, backoffBaseMillis << Math.min(attempt, 20));
+        long delay = attempt == 0 ? 1 : 1 + ThreadLocalRandom.current().nextLong(Math.max(1, ceiling));
+
+        vertx.setTimer(delay, id -> vertx.executeBlocking(() -> {
+            primary.connect(false, VALIDATION_TIMEOUT_SECONDS);
+            return null;
+        }, false).onComplete(ar -> {
+            if (ar.succeeded()) {
+                // pooled connections did not survive whatever broke this one
+                primaryPool.evictIdle();
+                reconnecting.set(false);
+                breaker.recordSuccess();
+                LOGGER.info("Connected to primary database");
+                firstConnect.tryComplete();
+            } else {
+                LOGGER.log(Level.FINE, "Reconnect attempt " + (attempt + 1) + " failed", ar.cause());
+                scheduleReconnect(attempt + 1);
+            }
+        }));
+    }
+
+    /**
+     * Connection for writes and for reads that must see the latest data.
+     *
+     * @throws ConnectionPool.UnavailableException If the calling handler runs
+     *                                             pooled and no connection
+     *                                             became free in time.
+     */
+    public Connection primary() {
+        Lease lease = LEASE.get();
+        return lease != null ? lease.connection(primaryPool) : primary.connection();
+    }
+
+    /**
+     * Connection for a read-only query of the given request.
+     *
+     * @param context The routing context, used for read-your-writes stickiness.
+     * @return A replica connection, or the primary connection if the session
+     *         wrote recently or no replica is healthy and current enough.
+     */
+    public Connection read(RoutingContext context) {
+        Session session = context.session();
+        if (session != null) {
+            Long until = session.get(PRIMARY_UNTIL);
+            if (until != null && until > System.currentTimeMillis()) {
+                return primary();
+            }
+        }
+
+        int count = replicas.size();
+        if (count > 0) {
+            int start = next.getAndIncrement();
+            for (int i = 0; i < count; i++) {
+                Endpoint replica = replicas.get(Math.floorMod(start + i, count));
+                if (replica.healthy() && replica.lagSeconds() <= maxReplicaLagSeconds) {
+                    Lease lease = LEASE.get();
+                    return lease != null ? lease.connection(replicaPools.get(Math.floorMod(start + i, count)))
+                            : replica.connection();
+                }
+            }
+        }
+        return primary();
+    }
+
+    /**
+     * Runs a handler with pooled connections: {@link #primary()} and
+     * {@link #read} called on this thread take a connection from the pool
+     * once and return it for every later call of the request. The
+     * connections go back to the pool when both the handler has returned
+     * and the response has ended, so callbacks the handler left behind can
+     * still use them.
+     *
+     * @param context The routing context of the request.
+     * @param handler Runs the handler on the current thread.
+     */
+    public void leased(RoutingContext context, Runnable handler) {
+        Lease lease = context.get(LEASE_KEY);
+        if (lease == null) {
+            Lease created = new Lease();
+            context.put(LEASE_KEY, created);
+            context.addEndHandler(v -> created.release());
+            lease = created;
+        }
+        lease.retain();
+        Lease previous = LEASE.get();
+        LEASE.set(lease);
+        try {
+            handler.run();
+        } finally {
+            if (previous == null) {
+                LEASE.remove();
+            } else {
+                LEASE.set(previous);
+            }
+            lease.release();
+        }
+    }
+
+    /**
+     * Runs statements on a worker thread with a pooled primary connection,
+     * for router handlers that run on the event loop before the request is
+     * handed to {@link HandlerExecutor}. The connection goes back to the pool
+     * as soon as the statements are done.
+     *
+     * @param work The statements.
+     * @return A future completed with their result.
+     */
+    public <T> Future<T> onPrimary(Work<T> work) {
+        // statements on the worker thread still belong to the request's trace
+        return vertx.executeBlocking(Span.wrap(() -> withPrimary(work)), false);
+    }
+
+    /**
+     * Runs statements on the calling thread with a pooled primary
+     * connection, for background work that already runs on a worker pool of
+     * its own. The connection goes back to the pool as soon as the
+     * statements are done. Blocks.
+     *
+     * @param work The statements.
+     * @return Their result.
+     * @throws ConnectionPool.UnavailableException If no connection became
+     *                                             free in time.
+     */
+    public <T> T withPrimary(Work<T> work) throws SQLException {
+        Connection conn = primaryPool.acquire();
+        try {
+            return work.run(conn);
+        } finally {
+            primaryPool.release(conn);
+        }
+    }
+
+    /**
+     * Runs statements on a worker thread with a pooled connection to the
+     * server a connection handed out by this class reads from, so a read
+     * chosen on the event loop can run off it without sharing the event
+     * loop's connection. The connection goes back to the pool as soon as
+     * the statements are done.
+     *
+     * @param connection The connection {@link #primary()} or {@link #read}
+     *                   returned.
+     * @param work       The statements.
+     * @return A future completed with their result.
+     */
+    public <T> Future<T> onServerOf(Connection connection, Work<T> work) {
+        ConnectionPool pool = pool(connection);
+        return vertx.executeBlocking(Span.wrap(() -> {
+            Connection conn = pool.acquire();
+            try {
+                return work.run(conn);
+            } finally {
+                pool.release(conn);
+            }
+        }), false);
+    }
+
+    /**
+     * @return Whether a connection handed out by this class reads from the
+     *         primary, i.e. sees the latest writes.
+     */
+    public boolean isPrimary(Connection connection) {
+        return pool(connection) == primaryPool;
+    }
+
+    private ConnectionPool pool(Connection connection) {
+        Lease lease = LEASE.get();
+        ConnectionPool pool = lease != null ? lease.pool(connection) : null;
+        if (pool != null) {
+            return pool;
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            if (replicas.get(i).connection() == connection) {
+                return replicaPools.get(i);
+            }
+        }
+        return primaryPool;
+    }
+
+    /**
+     * Router handler that pins the session's reads to the primary for the
+     * stickiness window whenever it sends a mutating request.
+     *
+     * @param context The routing context.
+     */
+    public void trackWrites(RoutingContext context) {
+        HttpMethod method = context.request().method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD && method != HttpMethod.OPTIONS
+                && context.session() != null) {
+            context.session().put(PRIMARY_UNTIL, System.currentTimeMillis() + stickinessMillis);
+        }
+        context.next();
+    }
+
+    /**
+     * Router handler for database routes that fails fast while the circuit
+     * breaker is open and re-validates the connection after server errors.
+     * The request let through as the half-open probe does not close the
+     * breaker by itself, as it may have answered without a query (e.g. 401
+     * or 404); it triggers a validation of the primary, whose outcome
+     * closes or re-opens the breaker.
+     *
+     * @param context The routing context.
+     *                Returns 503 with Retry-After while the database is down.
+     */
+    public void guard(RoutingContext context) {
+        if (!breaker.allowRequest()) {
+            long retryAfter = Math.max(1, (breaker.retryAfterMillis() + 999) / 1000);
+            context.response()
+                    .setStatusCode(503)
+                    .putHeader("Retry-After", String.valueOf(retryAfter))
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("message", "Database unavailable").encode());
+            return;
+        }
+        context.addEndHandler(v -> {
+            if (context.response().getStatusCode() >= 500) {
+                if (breaker.state() == CircuitBreaker.State.HALF_OPEN) {
+                    breaker.recordFailure();
+                }
+                validatePrimary();
+            } else if (breaker.state() == CircuitBreaker.State.HALF_OPEN) {
+                // only a query that succeeds closes the breaker
+                validatePrimary();
+            }
+        });
+        context.next();
+    }
+
+    /**
+     * @return Whether the primary is connected and the breaker is closed.
+     */
+    public boolean ready() {
+        return breaker.state() == CircuitBreaker.State.CLOSED && primary.healthy();
+    }
+
+    /**
+     * Describes the state of all endpoints for the readiness endpoint.
+     */
+    public JsonObject status() {
+        JsonArray replicaStatus = new JsonArray();
+        for (Endpoint replica : replicas) {
+            replicaStatus.add(new JsonObject()
+                    .put("name", replica.name())
+                    .put("healthy", replica.healthy())
+                    .put("lagSeconds", replica.lagSeconds() == Long.MAX_VALUE ? null : replica.lagSeconds()));
+        }
+        return new JsonObject()
+                .put("primary", new JsonObject()
+                        .put("healthy", primary.healthy())
+                        .put("breaker", breaker.state().name())
+                        .put("pool", new JsonObject()
+                                .put("size", primaryPool.size())
+                                .put("active", primaryPool.active())))
+                .put("replicas", replicaStatus);
+    }
+
+    public void close() {
+        closed = true;
+        if (healthCheckTimer >= 0) {
+            vertx.cancelTimer(healthCheckTimer);
+        }
+        primary.close();
+        replicas.forEach(Endpoint::close);
+        primaryPool.close();
+        replicaPools.forEach(ConnectionPool::close);
+    }
+
+    /**
+     * Connections of one request, at most one per pool. Released once its
+     * last holder, the handler or the response, lets go. The lock is never
+     * held while waiting for a pool, so a virtual thread that waits for a
+     * connection parks instead of pinning its carrier.
+     */
+    private static final class Lease {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<ConnectionPool, Connection> connections = new HashMap<>();
+        // the response holds one reference until it ends
+        private int references = 1;
+
+        Connection connection(ConnectionPool pool) {
+            lock.lock();
+            try {
+                if (references == 0) {
+                    throw new IllegalStateException("Request already finished");
+                }
+                Connection connection = connections.get(pool);
+                if (connection != null) {
+                    return connection;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            Connection acquired = pool.acquire();
+            lock.lock();
+            try {
+                Connection connection = connections.get(pool);
+                if (references > 0 && connection == null) {
+                    connections.put(pool, acquired);
+                    return acquired;
+                }
+                // another thread of the request was faster, or the request ended meanwhile
+                pool.release(acquired);
+                if (connection == null) {
+                    throw new IllegalStateException("Request already finished");
+                }
+                return connection;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        ConnectionPool pool(Connection connection) {
+            lock.lock();
+            try {
+                for (Map.Entry<ConnectionPool, Connection> entry : connections.entrySet()) {
+                    if (entry.getValue() == connection) {
+                        return entry.getKey();
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void retain() {
+            lock.lock();
+            try {
+                references++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            Map<ConnectionPool, Connection> released;
+            lock.lock();
+            try {
+                if (references == 0 || --references > 0) {
+                    return;
+                }
+                released = new HashMap<>(connections);
+                connections.clear();
+            } finally {
+                lock.unlock();
+            }
+            released.forEach((pool, connection) -> pool.release(connection));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package de.thm.mni.pi2.adder.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.UnaryOperator;
+
+/**
+ * One database server (the primary or a replica) and its connection.
+ * Health and replication lag are updated by the periodic checks in
+ * {@link Database} and read by the request path.
+ */
+public class Endpoint {
+
+    /**
+     * A connection and its wrapper, swapped together.
+     */
+    private record Handle(Connection raw, Connection wrapped) {
+    }
+
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final UnaryOperator<Connection> wrapper;
+
+    private volatile Handle current;
+    private volatile boolean healthy;
+    private volatile long lagSeconds;
+
+    /**
+     * @param wrapper Applied once to every new connection before it is handed
+     *                out, e.g. to trace its statements.
+     */
+    public Endpoint(String name, String url, String user, String password, UnaryOperator<Connection> wrapper) {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.wrapper = wrapper;
+    }
+
+    /**
+     * Opens and validates a new connection and, for replicas, reads its
+     * replication lag. Only then is it swapped in, and the previous one is
+     * closed after the swap: readers always get either the old or the new
+     * connection, never one that is closed or not yet checked. If the new
+     * connection fails, the previous one stays in place.
+     *
+     * @param replica        Whether to query the replication status.
+     * @param timeoutSeconds Validation timeout.
+     * @throws SQLException If the server cannot be reached.
+     */
+    public synchronized void connect(boolean replica, int timeoutSeconds) throws SQLException {
+        Connection opened = DriverManager.getConnection(url, user, password);
+        long lag;
+        try {
+            if (!opened.isValid(timeoutSeconds)) {
+                throw new SQLException("New connection to " + name + " is not valid");
+            }
+            lag = replica ? readLag(opened) : 0;
+        } catch (SQLException e) {
+            close(opened);
+            throw e;
+        }
+        Handle previous = current;
+        current = new Handle(opened, wrapper.apply(opened));
+        lagSeconds = lag;
+        healthy = true;
+        if (previous != null) {
+            // the old connection failed its check, requests still on it fail either way
+            close(previous.raw());
+        }
+    }
+
+    /**
+     * Checks that the connection is alive and, for replicas, reads the
+     * replication lag.
+     *
+     * @param replica       Whether to query the replication status.
+     * @param timeoutSeconds Validation timeout.
+     * @return Whether the endpoint is usable.
+     */
+    public boolean check(boolean replica, int timeoutSeconds) {
+        Handle handle = current;
+        try {
+            if (handle == null || !handle.raw().isValid(timeoutSeconds)) {
+                healthy = false;
+                return false;
+            }
+            if (replica) {
+                lagSeconds = readLag(handle.raw());
+            }
+            healthy = true;
+        } catch (SQLException e) {
+            healthy = false;
+        }
+        return healthy;
+    }
+
+    private static long readLag(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet res = statement.executeQuery("SHOW SLAVE STATUS")) {
+            if (!res.next()) {
+                // not replicating at all: treat as infinitely behind
+                return Long.MAX_VALUE;
+            }
+            long lag = res.getLong("Seconds_Behind_Master");
+            return res.wasNull() ? Long.MAX_VALUE : lag;
+        }
+    }
+
+    public void close() {
+        Handle handle = current;
+        if (handle != null) {
+            close(handle.raw());
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // closing anyway
+        }
+    }
+
+    public Connection connection() {
+        Handle handle = current;
+        return handle == null ? null : handle.wrapped();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean healthy() {
+        return healthy;
+    }
+
+    public void markUnhealthy() {
+        healthy = false;
+    }
+
+    public long lagSeconds() {
+        return lagSeconds;
+    }
+}
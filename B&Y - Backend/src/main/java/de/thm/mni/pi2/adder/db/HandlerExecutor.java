@@ -0,0 +1,145 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Span;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Decides where the blocking JDBC handlers run, after "workers.handlers":
+ * <ul>
+ *     <li>"eventloop" (default): on the event loop with the shared
+ *     connections, as they always did.</li>
+ *     <li>"worker": on a worker pool of "workers.handlerThreads" threads.</li>
+ *     <li>"virtual": each request on its own virtual thread, so thousands of
+ *     requests can block at once without a thread each.</li>
+ * </ul>
+ * In the last two modes handlers take their connections from the pools in
+ * {@link Database} ("db.poolSize" per server), and requests that find no
+ * free connection within "db.acquireTimeoutMillis" get 503.
+ */
+public class HandlerExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(HandlerExecutor.class.getName());
+
+    public enum Mode {
+        EVENTLOOP, WORKER, VIRTUAL
+    }
+
+    private final Database db;
+    private final Mode mode;
+    private final WorkerExecutor workers;
+    private final ExecutorService virtualThreads;
+
+    public HandlerExecutor(Vertx vertx, Database db, AppConfig config) {
+        this.db = db;
+        JsonObject options = config.section("workers");
+        this.mode = mode(options.getString("handlers", "eventloop"));
+        this.workers = mode == Mode.WORKER
+                ? vertx.createSharedWorkerExecutor("adder-handlers", options.getInteger("handlerThreads", 20))
+                : null;
+        this.virtualThreads = mode == Mode.VIRTUAL
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("adder-handler-", 0).factory())
+                : null;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Wraps a route handler written in blocking style so that it runs where
+     * the mode says.
+     *
+     * @param handler The handler.
+     * @return The handler itself in "eventloop" mode.
+     */
+    public Handler<RoutingContext> blocking(Handler<RoutingContext> handler) {
+        if (mode == Mode.EVENTLOOP) {
+            return handler;
+        }
+        return context -> {
+            // statements on the handler thread still belong to the request's trace
+            Callable<Void> task = Span.wrap(() -> {
+                run(context, handler);
+                return null;
+            });
+            try {
+                if (mode == Mode.VIRTUAL) {
+                    virtualThreads.execute(() -> call(task));
+                } else {
+                    workers.executeBlocking(task, false);
+                }
+            } catch (RejectedExecutionException e) {
+                context.fail(503, e);
+            }
+        };
+    }
+
+    private void run(RoutingContext context, Handler<RoutingContext> handler) {
+        try {
+            db.leased(context, () -> handler.handle(context));
+        } catch (ConnectionPool.UnavailableException e) {
+            if (!context.response().ended()) {
+                context.response()
+                        .setStatusCode(503)
+                        .putHeader("Retry-After", "1")
+                        .putHeader("content-type", "application/json")
+                        .end(new JsonObject().put("message", "Database is busy").encode());
+            }
+        } catch (RuntimeException e) {
+            if (!context.response().ended()) {
+                context.fail(e);
+            }
+        }
+    }
+
+    private static void call(Callable<Void> task) {
+        try {
+            task.call();
+        } catch (Exception e) {
+            // run() already answered the request
+        }
+    }
+
+    /**
+     * Stops accepting handlers and waits for the virtual threads still
+     * running. Blocks.
+     *
+     * @param timeoutMillis How long to wait for the running handlers.
+     */
+    public void close(long timeoutMillis) {
+        if (workers != null) {
+            workers.close();
+        }
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+            try {
+                if (!virtualThreads.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warning("Handlers still running at shutdown");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Mode mode(String name) {
+        try {
+            return Mode.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Unknown handler mode '" + name + "', using the event loop");
+            return Mode.EVENTLOOP;
+        }
+    }
+}
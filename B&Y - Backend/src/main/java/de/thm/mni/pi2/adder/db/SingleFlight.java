@@ -0,0 +1,113 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Span;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces identical concurrent reads.
+ * The first request for a statement runs it on a worker thread; requests for
+ * the same statement and parameters that arrive while it runs wait for its
+ * result instead of querying again, and all of them send the same encoded
+ * buffer. Which replica a request was routed to does not matter, but reads
+ * that must see the session's own writes only share flights that run on the
+ * primary. The caller passes the version of the data it reads
+ * (see {@link de.thm.mni.pi2.adder.sync.Versions}), so a request that
+ * arrives after a write never joins a flight that started before it, and the
+ * response encoding, so requests only share a body they can all send.
+ * A joining request waits at most "coalesce.maxWaitMillis", then runs the
+ * statement itself.
+ * While handlers share the event loop's connections ("workers.handlers" is
+ * "eventloop") a flight takes a pooled connection to the same server, since
+ * the shared ones must never be used from two threads at once; otherwise it
+ * uses the connection the handler leased.
+ */
+public class SingleFlight {
+
+    private record Key(boolean primary, String sql, List<Object> params, long version, Object variant) {
+    }
+
+    private final Vertx vertx;
+    private final Database db;
+    private final AppConfig config;
+    private final boolean sharedConnections;
+    private final Map<Key, Future<?>> flights = new ConcurrentHashMap<>();
+
+    public SingleFlight(Vertx vertx, Database db, AppConfig config, HandlerExecutor.Mode mode) {
+        this.vertx = vertx;
+        this.db = db;
+        this.config = config;
+        this.sharedConnections = mode == HandlerExecutor.Mode.EVENTLOOP;
+    }
+
+    /**
+     * Runs a read, or joins an identical one that is already running.
+     *
+     * @param conn    The connection the request would read from, as returned
+     *                by {@link Database#read} or {@link Database#primary()}.
+     * @param sql     The statement.
+     * @param params  Its parameters.
+     * @param version The version of the data read.
+     * @param variant How the result is encoded, e.g. the negotiated
+     *                {@link de.thm.mni.pi2.adder.codec.Encoding}.
+     * @param query   Runs the statement on the connection it is given and
+     *                encodes the result; called on a worker thread.
+     * @return The shared result.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> execute(Connection conn, String sql, List<Object> params, long version,
+                                 Object variant, Database.Work<T> query) {
+        JsonObject options = config.section("coalesce");
+        if (!options.getBoolean("enabled", true)) {
+            return run(conn, query);
+        }
+
+        Key key = new Key(db.isPrimary(conn), sql, new ArrayList<>(params), version, variant);
+        Promise<T> flight = Promise.promise();
+        Future<?> running = flights.putIfAbsent(key, flight.future());
+        if (running == null) {
+            run(conn, query).onComplete(ar -> {
+                flights.remove(key, flight.future());
+                flight.handle(ar);
+            });
+            return flight.future();
+        }
+        return join((Future<T>) running, options.getLong("maxWaitMillis", 2000L), conn, query);
+    }
+
+    private <T> Future<T> join(Future<T> running, long maxWaitMillis, Connection conn, Database.Work<T> query) {
+        Promise<T> result = Promise.promise();
+        long timer = vertx.setTimer(maxWaitMillis, id -> run(conn, query).onComplete(ar -> settle(result, ar)));
+        running.onComplete(ar -> {
+            vertx.cancelTimer(timer);
+            settle(result, ar);
+        });
+        return result.future();
+    }
+
+    private <T> Future<T> run(Connection conn, Database.Work<T> query) {
+        if (sharedConnections) {
+            return db.onServerOf(conn, query);
+        }
+        // statements on the worker thread still belong to the request's trace
+        return vertx.executeBlocking(Span.wrap(() -> query.run(conn)), false);
+    }
+
+    private static <T> void settle(Promise<T> promise, AsyncResult<T> ar) {
+        if (ar.succeeded()) {
+            promise.tryComplete(ar.result());
+        } else {
+            promise.tryFail(ar.cause());
+        }
+    }
+}
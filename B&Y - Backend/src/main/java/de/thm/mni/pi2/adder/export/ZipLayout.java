@@ -0,0 +1,279 @@
+package de.thm.mni.pi2.adder.export;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Byte-exact layout of an uncompressed (STORE) ZIP archive.
+ * Sizes and CRCs of all entries are known up front, so every header can be
+ * written before its data, the total length is known, and any byte range of
+ * the archive can be produced without building it. The archive is a sequence
+ * of segments: a local header and the file data for every entry, then one
+ * central directory record per entry and finally the end records. Header
+ * segments are encoded on demand; data segments refer to the file.
+ * ZIP64 records are added only when sizes, offsets or the entry count need
+ * them.
+ */
+public final class ZipLayout {
+
+    /**
+     * One archive entry.
+     *
+     * @param name The path inside the archive.
+     * @param file The file providing the data.
+     * @param size The file size in bytes.
+     * @param crc  The CRC-32 of the file content.
+     * @param date The modification date to record.
+     */
+    public record Entry(String name, Path file, long size, long crc, LocalDate date) {
+    }
+
+    private static final int LOCAL_HEADER = 30;
+    private static final int CENTRAL_HEADER = 46;
+    private static final int END_RECORD = 22;
+    private static final int ZIP64_END_RECORD = 56;
+    private static final int ZIP64_LOCATOR = 20;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+    private static final int VERSION_STORE = 10;
+    private static final int VERSION_ZIP64 = 45;
+    /** General purpose flag: names are UTF-8. */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final List<Entry> entries;
+    private final byte[][] names;
+    /** Start offset of every segment, plus the total length at the end. */
+    private final long[] offsets;
+    private final long centralOffset;
+    private final long centralSize;
+    private final boolean zip64End;
+
+    public ZipLayout(List<Entry> entries) {
+        this.entries = List.copyOf(entries);
+        int count = this.entries.size();
+        this.names = new byte[count][];
+        this.offsets = new long[3 * count + 2];
+
+        long position = 0;
+        for (int i = 0; i < count; i++) {
+            names[i] = this.entries.get(i).name().getBytes(StandardCharsets.UTF_8);
+            offsets[2 * i] = position;
+            position += LOCAL_HEADER + names[i].length + localExtraLength(i);
+            offsets[2 * i + 1] = position;
+            position += this.entries.get(i).size();
+        }
+        this.centralOffset = position;
+        for (int i = 0; i < count; i++) {
+            offsets[2 * count + i] = position;
+            position += CENTRAL_HEADER + names[i].length + centralExtraLength(i);
+        }
+        this.centralSize = position - centralOffset;
+        this.zip64End = count >= MAX_16 || centralSize >= MAX_32 || centralOffset >= MAX_32;
+        offsets[3 * count] = position;
+        position += (zip64End ? ZIP64_END_RECORD + ZIP64_LOCATOR : 0) + END_RECORD;
+        offsets[3 * count + 1] = position;
+    }
+
+    /**
+     * @return The archive size in bytes.
+     */
+    public long length() {
+        return offsets[offsets.length - 1];
+    }
+
+    public int segmentCount() {
+        return offsets.length - 1;
+    }
+
+    public long segmentOffset(int segment) {
+        return offsets[segment];
+    }
+
+    public long segmentLength(int segment) {
+        return offsets[segment + 1] - offsets[segment];
+    }
+
+    /**
+     * @return The index of the segment containing the given archive offset.
+     */
+    public int segmentAt(long position) {
+        int index = Arrays.binarySearch(offsets, position);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // skip empty segments starting at the same offset
+        while (index < segmentCount() - 1 && offsets[index + 1] == position) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return The file backing a data segment, null for header segments.
+     */
+    public Path file(int segment) {
+        int count = entries.size();
+        return segment < 2 * count && segment % 2 == 1 ? entries.get(segment / 2).file() : null;
+    }
+
+    /**
+     * Encodes a header segment.
+     *
+     * @param segment A segment for which {@link #file(int)} is null.
+     * @return The segment's bytes.
+     */
+    public byte[] bytes(int segment) {
+        int count = entries.size();
+        if (segment < 2 * count) {
+            return localHeader(segment / 2);
+        }
+        if (segment < 3 * count) {
+            return centralHeader(segment - 2 * count);
+        }
+        return endRecords();
+    }
+
+    /**
+     * A fingerprint of the layout, suitable as an ETag: the CRC-32 of the
+     * central directory, which covers every name, size, CRC, date and offset.
+     */
+    public String fingerprint() {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < entries.size(); i++) {
+            crc.update(centralHeader(i));
+        }
+        return Long.toHexString(length()) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    private boolean largeSize(int i) {
+        return entries.get(i).size() >= MAX_32;
+    }
+
+    private boolean largeOffset(int i) {
+        return offsets[2 * i] >= MAX_32;
+    }
+
+    private int localExtraLength(int i) {
+        return largeSize(i) ? 4 + 16 : 0;
+    }
+
+    private int centralExtraLength(int i) {
+        int length = (largeSize(i) ? 16 : 0) + (largeOffset(i) ? 8 : 0);
+        return length == 0 ? 0 : 4 + length;
+    }
+
+    private byte[] localHeader(int i) {
+        Entry entry = entries.get(i);
+        boolean large = largeSize(i);
+        ByteBuffer out = buffer(LOCAL_HEADER + names[i].length + localExtraLength(i));
+        out.putInt(0x04034b50);
+        out.putShort((short) (large ? VERSION_ZIP64 : VERSION_STORE));
+        out.putShort((short) FLAG_UTF8);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) dosDate(entry.date()));
+        out.putInt((int) entry.crc());
+        out.putInt((int) (large ? MAX_32 : entry.size()));
+        out.putInt((int) (large ? MAX_32 : entry.size()));
+        out.putShort((short) names[i].length);
+        out.putShort((short) localExtraLength(i));
+        out.put(names[i]);
+        if (large) {
+            out.putShort((short) 0x0001);
+            out.putShort((short) 16);
+            out.putLong(entry.size());
+            out.putLong(entry.size());
+        }
+        return out.array();
+    }
+
+    private byte[] centralHeader(int i) {
+        Entry entry = entries.get(i);
+        boolean large = largeSize(i);
+        boolean farAway = largeOffset(i);
+        ByteBuffer out = buffer(CENTRAL_HEADER + names[i].length + centralExtraLength(i));
+        out.putInt(0x02014b50);
+        out.putShort((short) VERSION_ZIP64);
+        out.putShort((short) (large || farAway ? VERSION_ZIP64 : VERSION_STORE));
+        out.putShort((short) FLAG_UTF8);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) dosDate(entry.date()));
+        out.putInt((int) entry.crc());
+        out.putInt((int) (large ? MAX_32 : entry.size()));
+        out.putInt((int) (large ? MAX_32 : entry.size()));
+        out.putShort((short) names[i].length);
+        out.putShort((short) centralExtraLength(i));
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putInt(0);
+        out.putInt((int) (farAway ? MAX_32 : offsets[2 * i]));
+        out.put(names[i]);
+        if (large || farAway) {
+            out.putShort((short) 0x0001);
+            out.putShort((short) (centralExtraLength(i) - 4));
+            if (large) {
+                out.putLong(entry.size());
+                out.putLong(entry.size());
+            }
+            if (farAway) {
+                out.putLong(offsets[2 * i]);
+            }
+        }
+        return out.array();
+    }
+
+    private byte[] endRecords() {
+        int count = entries.size();
+        ByteBuffer out = buffer((zip64End ? ZIP64_END_RECORD + ZIP64_LOCATOR : 0) + END_RECORD);
+        if (zip64End) {
+            long zip64Offset = centralOffset + centralSize;
+            out.putInt(0x06064b50);
+            out.putLong(ZIP64_END_RECORD - 12);
+            out.putShort((short) VERSION_ZIP64);
+            out.putShort((short) VERSION_ZIP64);
+            out.putInt(0);
+            out.putInt(0);
+            out.putLong(count);
+            out.putLong(count);
+            out.putLong(centralSize);
+            out.putLong(centralOffset);
+
+            out.putInt(0x07064b50);
+            out.putInt(0);
+            out.putLong(zip64Offset);
+            out.putInt(1);
+        }
+        out.putInt(0x06054b50);
+        out.putShort((short) 0);
+        out.putShort((short) 0);
+        out.putShort((short) Math.min(count, MAX_16));
+        out.putShort((short) Math.min(count, MAX_16));
+        out.putInt((int) Math.min(centralSize, MAX_32));
+        out.putInt((int) Math.min(centralOffset, MAX_32));
+        out.putShort((short) 0);
+        return out.array();
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * MS-DOS date of the entry; the time of day is always midnight.
+     */
+    private static int dosDate(LocalDate date) {
+        if (date == null || date.getYear() < 1980) {
+            return (1 << 5) | 1;
+        }
+        int year = Math.min(date.getYear(), 2107);
+        return ((year - 1980) << 9) | (date.getMonthValue() << 5) | date.getDayOfMonth();
+    }
+}
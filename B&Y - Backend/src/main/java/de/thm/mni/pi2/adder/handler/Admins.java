@@ -0,0 +1,55 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.db.Database;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The admin check of the admin endpoints.
+ */
+final class Admins {
+
+    private static final Logger LOGGER = Logger.getLogger(Admins.class.getName());
+
+    private Admins() {
+    }
+
+    /**
+     * Checks that the session belongs to an admin and answers 401 otherwise.
+     * The roles are read from the primary, so a lagging replica never
+     * decides about access.
+     *
+     * @return The admin's user id, or null if the request was answered.
+     */
+    static Integer check(Database db, RoutingContext context) {
+        Integer userId = context.session().get("id");
+        if (userId == null || userId == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return null;
+        }
+
+        // a user may hold several roles
+        try (PreparedStatement roleps = db.primary().prepareStatement(
+                "SELECT 1 FROM roles WHERE role = 'Admin' AND id IN (SELECT roleid FROM userrole WHERE userid = ?)")) {
+            roleps.setInt(1, userId);
+            ResultSet roleres = roleps.executeQuery();
+            if (roleres.next()) {
+                return userId;
+            }
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You are not an admin").encode());
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the roles of user " + userId, e);
+            context.response().setStatusCode(500)
+                    .end(new JsonObject().put("message", "Database connection error").encode());
+        }
+        return null;
+    }
+}
@@ -1,5 +1,14 @@
 package de.thm.mni.pi2.adder.handler;
 
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.db.SingleFlight;
+import de.thm.mni.pi2.adder.purge.Purger;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.sync.Versions;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -9,6 +18,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Handler class for managing Album-related operations.
@@ -16,10 +27,25 @@ import java.sql.SQLException;
  */
 public class AlbumHandler {
 
-    private final Connection conn;
-
-    public AlbumHandler(Connection conn) {
-        this.conn = conn;
+    private final Database db;
+    private final SearchIndex searchIndex;
+    private final ChangeFeed changeFeed;
+    private final TagDictionary tags;
+    private final Versions versions;
+    private final SingleFlight singleFlight;
+    private final Purger purger;
+    private final AuditLog audit;
+
+    public AlbumHandler(Database db, SearchIndex searchIndex, ChangeFeed changeFeed, TagDictionary tags,
+                        Versions versions, SingleFlight singleFlight, Purger purger, AuditLog audit) {
+        this.db = db;
+        this.searchIndex = searchIndex;
+        this.changeFeed = changeFeed;
+        this.tags = tags;
+        this.versions = versions;
+        this.singleFlight = singleFlight;
+        this.purger = purger;
+        this.audit = audit;
     }
 
     /**
@@ -28,11 +54,17 @@ public class AlbumHandler {
      * @param context The routing context containing the request and response
      *                objects.
      *                Finds the user ID from the session.
+     *                Optional query parameters: "fields" (any of id, title,
+     *                tags; all by default) and "include" ("images": the ids of
+     *                the album's images).
      *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an unknown field or relation.
+     *                Returns 304 if the If-None-Match ETag is current.
      *                Returns 200 with a JSON array of albums on success.
      *                Returns 500 on internal server error.
      */
     public void getAlbums(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer sessionId = context.session().get("id");
 
         if (sessionId == null || sessionId == 0) {
@@ -42,15 +74,37 @@ public class AlbumHandler {
         }
 
         String userid = sessionId.toString();
+        Fieldset fieldset = Fieldset.parse(context.request(), List.of("id", "title", "tags"), List.of("images"));
+        if (fieldset == null) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid fields or include").encode());
+            return;
+        }
+        if (versions.notModifiedUser(context, sessionId)) {
+            return;
+        }
 
-        try {
-            String query = "SELECT a.id, a.title, GROUP_CONCAT(at.tag SEPARATOR ',') as tags " +
-                    "FROM albums a " +
-                    "LEFT JOIN albumtags at ON a.id = at.albumid " +
-                    "WHERE a.userid = ? " +
-                    "GROUP BY a.id";
-
-            PreparedStatement ps = conn.prepareStatement(query);
+        StringBuilder columns = new StringBuilder("a.id, a.title");
+        StringBuilder joins = new StringBuilder();
+        if (fieldset.has("tags")) {
+            columns.append(", GROUP_CONCAT(DISTINCT at.tagid SEPARATOR ',') as tags");
+            joins.append("LEFT JOIN albumtags at ON a.id = at.albumid ");
+        }
+        if (fieldset.includes("images")) {
+            columns.append(", GROUP_CONCAT(DISTINCT ai.imageid SEPARATOR ',') as images");
+            joins.append("LEFT JOIN albumimages ai ON a.id = ai.albumid ");
+        }
+        String query = "SELECT " + columns + " " +
+                "FROM albums a " +
+                joins +
+                "WHERE a.userid = ? AND a.deleted_at IS NULL " +
+                "GROUP BY a.id";
+
+        Encoding encoding = Encoding.negotiate(context);
+        List<Object> variant = List.of(encoding, fieldset);
+        // identical concurrent listings share one query and one encoded body
+        singleFlight.execute(conn, query, List.of(userid), versions.user(sessionId), variant, connection -> {
+            PreparedStatement ps = connection.prepareStatement(query);
             ps.setString(1, userid);
             ResultSet res = ps.executeQuery();
 
@@ -58,27 +112,26 @@ public class AlbumHandler {
 
             while (res.next()) {
                 JsonObject album = new JsonObject();
-                album.put("id", res.getString("id"));
-                album.put("title", res.getString("title"));
-
-                String tagsString = res.getString("tags");
-                JsonArray tagsArray = new JsonArray();
-                if (tagsString != null && !tagsString.isEmpty()) {
-                    for (String tag : tagsString.split(",")) {
-                        tagsArray.add(tag.trim());
-                    }
+                if (fieldset.has("id")) {
+                    album.put("id", res.getString("id"));
+                }
+                if (fieldset.has("title")) {
+                    album.put("title", res.getString("title"));
+                }
+                if (fieldset.has("tags")) {
+                    album.put("tags", new JsonArray(tags.names(connection, res.getString("tags"))));
+                }
+                if (fieldset.includes("images")) {
+                    album.put("images", Fieldset.ids(res.getString("images")));
                 }
-                album.put("tags", tagsArray);
 
                 respond.add(album);
             }
-
-            context.response().setStatusCode(200).end(respond.encodePrettily());
-
-        } catch (Exception e) {
+            return encoding.encode(respond);
+        }).onSuccess(body -> encoding.send(context, 200, null, body)).onFailure(e -> {
             System.err.println("Exception occurred: " + e.getMessage());
-            context.response().setStatusCode(500).end(e.getMessage());
-        }
+            context.response().setStatusCode(500).end(String.valueOf(e.getMessage()));
+        });
     }
 
     /**
@@ -88,11 +141,13 @@ public class AlbumHandler {
      *                Requires "id" as a path parameter.
      *                Returns 401 if the user is not logged in.
      *                Returns 400 if the album ID is missing.
+     *                Returns 304 if the If-None-Match ETag is current.
      *                Returns 200 with the album details on success.
      *                Returns 404 if the album is not found.
      *                Returns 500 on internal server error.
      */
     public void getAlbumById(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer sessionId = context.session().get("id");
 
         if (sessionId == null || sessionId == 0) {
@@ -107,12 +162,15 @@ public class AlbumHandler {
             context.response().setStatusCode(400).end(new JsonObject().put("message", "Album ID is required").encode());
             return;
         }
+        if (versions.notModifiedUser(context, sessionId)) {
+            return;
+        }
 
         try {
-            String query = "SELECT albums.id, albums.title, GROUP_CONCAT(tags.tag SEPARATOR ', ') as tags " +
+            String query = "SELECT albums.id, albums.title, GROUP_CONCAT(tags.tagid SEPARATOR ',') as tags " +
                     "FROM albums " +
                     "LEFT JOIN albumtags tags ON albums.id = tags.albumid " +
-                    "WHERE albums.id = ? AND albums.userid = ? " +
+                    "WHERE albums.id = ? AND albums.userid = ? AND albums.deleted_at IS NULL " +
                     "GROUP BY albums.id";
             PreparedStatement ps = conn.prepareStatement(query);
             ps.setString(1, albumId);
@@ -123,9 +181,10 @@ public class AlbumHandler {
                 JsonObject album = new JsonObject();
                 album.put("id", res.getString("id"));
                 album.put("title", res.getString("title"));
-                album.put("tags", res.getString("tags"));
+                List<String> names = tags.names(conn, res.getString("tags"));
+                album.put("tags", names.isEmpty() ? null : String.join(", ", names));
 
-                context.response().setStatusCode(200).end(album.encodePrettily());
+                Encoding.send(context, 200, album);
             } else {
                 context.response().setStatusCode(404).end(new JsonObject().put("message", "Album not found").encode());
             }
@@ -154,6 +213,7 @@ public class AlbumHandler {
      *                Returns 500 on SQL error.
      */
     public void createAlbum(RoutingContext context) {
+        Connection conn = db.primary();
         Integer userId = context.session().get("id");
 
         if (userId == null || userId == 0) {
@@ -163,9 +223,9 @@ public class AlbumHandler {
             return;
         }
 
-        JsonObject body = context.body().asJsonObject();
+        JsonObject body = Encoding.body(context);
         String title = body.getString("title");
-        String tags = body.getString("tags");
+        String tagList = body.getString("tags");
 
         try {
             // Insert the album and get its generated ID
@@ -182,20 +242,14 @@ public class AlbumHandler {
                 ResultSet generatedKeys = ps.getGeneratedKeys();
                 if (generatedKeys.next()) {
                     int albumId = generatedKeys.getInt(1);
+                    audit.record(userId, "album.create", albumId, new JsonObject().put("title", title));
+                    searchIndex.put(SearchIndex.Kind.ALBUM, userId, albumId, title);
 
                     // Insert tags if provided
-                    if (tags != null && !tags.isEmpty()) {
-                        String[] tagArray = tags.split(",\\s*");
-                        ps = conn.prepareStatement("INSERT INTO albumtags (albumid, tag) VALUES (?, ?)");
-                        for (String tag : tagArray) {
-                            if (!tag.trim().isEmpty()) {
-                                ps.setInt(1, albumId);
-                                ps.setString(2, tag.trim());
-                                ps.addBatch();
-                            }
-                        }
-                        ps.executeBatch();
+                    if (tagList != null && !tagList.isEmpty()) {
+                        insertTags(conn, albumId, tagList);
                     }
+                    changeFeed.record(conn, userId, ChangeFeed.Entity.ALBUM, albumId, null, ChangeFeed.Op.UPSERT);
                 }
                 context.response().setStatusCode(200).end("Album creation Success");
             } else {
@@ -219,6 +273,7 @@ public class AlbumHandler {
      *                Returns 500 on SQL error.
      */
     public void updateAlbum(RoutingContext context) {
+        Connection conn = db.primary();
         Integer userId = context.session().get("id");
         if (userId == null || userId == 0) {
             context.response().setStatusCode(401)
@@ -226,13 +281,13 @@ public class AlbumHandler {
             return;
         }
 
-        JsonObject jsonBody = context.body().asJsonObject();
+        JsonObject jsonBody = Encoding.body(context);
         String albumId = context.request().getParam("id");
         String title = jsonBody.getString("title");
-        String tags = jsonBody.getString("tags");
+        String tagList = jsonBody.getString("tags");
 
         try {
-            PreparedStatement ps = conn.prepareStatement("UPDATE albums SET title = ? WHERE id = ?");
+            PreparedStatement ps = conn.prepareStatement("UPDATE albums SET title = ? WHERE id = ? AND deleted_at IS NULL");
             ps.setString(1, title);
             ps.setString(2, albumId);
             int rowsUpdated = ps.executeUpdate();
@@ -242,26 +297,30 @@ public class AlbumHandler {
                 ps.setString(1, albumId);
                 ps.executeUpdate();
 
-                String[] tagArray = tags.split(",\\s*");
-                ps = conn.prepareStatement("INSERT INTO albumtags (albumid, tag) VALUES (?, ?)");
-                for (String tag : tagArray) {
-                    ps.setString(1, albumId);
-                    ps.setString(2, tag.trim());
-                    ps.addBatch();
+                if (tagList != null) {
+                    insertTags(conn, Integer.parseInt(albumId), tagList);
                 }
-                ps.executeBatch();
 
+                audit.record(userId, "album.update", albumId,
+                        new JsonObject().put("title", title).put("tags", tagList));
+                searchIndex.retitle(SearchIndex.Kind.ALBUM, Integer.parseInt(albumId), title);
+                changeFeed.record(conn, userId, ChangeFeed.Entity.ALBUM, Integer.parseInt(albumId), null,
+                        ChangeFeed.Op.UPSERT);
                 context.response().setStatusCode(200).end("Album update Success");
             } else {
                 context.response().setStatusCode(409).end("Album update Fail");
             }
         } catch (SQLException e) {
             context.response().setStatusCode(500).end(e.getMessage());
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400).end("Invalid album id");
         }
     }
 
     /**
-     * Deletes an album by its ID.
+     * Deletes an album by its ID. The album is only marked as deleted; its
+     * memberships and tags are removed in the background by the
+     * {@link Purger}.
      *
      * @param context The routing context containing the request parameters.
      *                Requires "id" path parameter.
@@ -272,6 +331,7 @@ public class AlbumHandler {
      *                Returns 500 on error.
      */
     public void deleteAlbum(RoutingContext context) {
+        Connection conn = db.primary();
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -287,10 +347,16 @@ public class AlbumHandler {
         }
 
         try {
-            PreparedStatement ps = conn.prepareStatement("DELETE FROM albums WHERE id = ?");
+            PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE albums SET deleted_at = NOW() WHERE id = ? AND deleted_at IS NULL");
             ps.setString(1, albumId);
             int deleted = ps.executeUpdate();
             if (deleted > 0) {
+                audit.record(id, "album.delete", albumId);
+                purger.wake();
+                searchIndex.remove(SearchIndex.Kind.ALBUM, Integer.parseInt(albumId));
+                changeFeed.record(conn, id, ChangeFeed.Entity.ALBUM, Integer.parseInt(albumId), null,
+                        ChangeFeed.Op.DELETE);
                 context.response().setStatusCode(200).end(new JsonObject().put("message", "Album deleted").encode());
             } else {
                 context.response().setStatusCode(404).end(new JsonObject().put("error", "Album not found").encode());
@@ -303,4 +369,24 @@ public class AlbumHandler {
             context.response().setStatusCode(500).end(new JsonObject().put("error", e.getMessage()).encode());
         }
     }
+
+    /**
+     * Links an album to the tags of a comma separated list, interning new
+     * tags in the dictionary.
+     */
+    private void insertTags(Connection conn, int albumId, String tagList) throws SQLException {
+        List<Integer> tagIds = tags.intern(conn, Arrays.asList(tagList.split(",\\s*")));
+        if (tagIds.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT IGNORE INTO albumtags (albumid, tagid) VALUES (?, ?)")) {
+            for (int tagId : tagIds) {
+                ps.setInt(1, albumId);
+                ps.setInt(2, tagId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
 }
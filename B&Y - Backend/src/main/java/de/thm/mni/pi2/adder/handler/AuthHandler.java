@@ -1,5 +1,10 @@
 package de.thm.mni.pi2.adder.handler;
 
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.sync.Versions;
+import de.thm.mni.pi2.adder.trace.Span;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
@@ -11,6 +16,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handler class for user authentication.
@@ -18,10 +25,16 @@ import java.util.List;
  */
 public class AuthHandler {
 
-    private final Connection conn;
+    private final Database db;
+    private final Versions versions;
+    private final AuditLog audit;
+    /** Users deleted since the start; sessions are kept in memory, so older ones are gone. */
+    private final Set<Integer> revoked = ConcurrentHashMap.newKeySet();
 
-    public AuthHandler(Connection conn) {
-        this.conn = conn;
+    public AuthHandler(Database db, Versions versions, AuditLog audit) {
+        this.db = db;
+        this.versions = versions;
+        this.audit = audit;
     }
 
     /**
@@ -34,12 +47,13 @@ public class AuthHandler {
      *                       Returns 500 on internal server error.
      */
     public void login(RoutingContext routingContext) {
+        Connection conn = db.primary();
         try {
-            JsonObject requestBody = routingContext.body().asJsonObject();
+            JsonObject requestBody = Encoding.body(routingContext);
             String username = requestBody.getString("username");
             String password = requestBody.getString("password");
 
-            String sql = "SELECT id, password FROM users WHERE username = ?";
+            String sql = "SELECT id, password FROM users WHERE username = ? AND deleted_at IS NULL";
             PreparedStatement ps = conn.prepareStatement(sql);
             ps.setString(1, username);
             ResultSet res = ps.executeQuery();
@@ -48,14 +62,20 @@ public class AuthHandler {
                 String storedHashedPassword = res.getString("password");
                 int id = res.getInt("id");
 
-                if (BCrypt.checkpw(password, storedHashedPassword)) {
+                boolean matches;
+                try (Span span = Span.start("bcrypt.checkpw")) {
+                    matches = BCrypt.checkpw(password, storedHashedPassword);
+                }
+                if (matches) {
                     routingContext.session().put("id", id);
+                    audit.record(id, "auth.login", id);
                     JsonObject responseJson = new JsonObject().put("message", "Login successful").put("id", id);
                     routingContext.response()
                             .putHeader("content-type", "application/json")
                             .setStatusCode(200)
                             .end(responseJson.encode());
                 } else {
+                    audit.record(null, "auth.login.failed", null, new JsonObject().put("username", username));
                     routingContext.response()
                             .setStatusCode(401)
                             .putHeader("content-type", "application/json")
@@ -86,6 +106,7 @@ public class AuthHandler {
         try {
             Session session = context.session();
             if (session.get("id") != null) {
+                audit.record(session.get("id"), "auth.logout", session.get("id"));
                 session.destroy();
                 context.response().setStatusCode(200).end("Logout Success");
             } else {
@@ -96,15 +117,46 @@ public class AuthHandler {
         }
     }
 
+    /**
+     * Ends all sessions of a deleted user with their next request, see
+     * {@link #rejectRevoked}.
+     *
+     * @param userId The deleted user.
+     */
+    public void revoke(int userId) {
+        revoked.add(userId);
+    }
+
+    /**
+     * Router handler that destroys the sessions of deleted users, so they
+     * can neither read nor write anything after the deletion.
+     *
+     * @param context The routing context.
+     *                Returns 401 if the session belongs to a deleted user.
+     */
+    public void rejectRevoked(RoutingContext context) {
+        Session session = context.session();
+        Integer userId = session == null ? null : session.get("id");
+        if (userId != null && revoked.contains(userId)) {
+            session.destroy();
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+        context.next();
+    }
+
     /**
      * Retrieves the roles associated with the logged-in user.
      *
      * @param routingContext The routing context.
      *                       Returns 401 if the user is not logged in.
+     *                       Returns 304 if the If-None-Match ETag is current.
      *                       Returns 200 with a JSON array of roles on success.
      *                       Returns 500 on internal server error.
      */
     public void getUserRoles(RoutingContext routingContext) {
+        Connection conn = db.read(routingContext);
         try {
             Integer userId = routingContext.session().get("id");
             if (userId == null) {
@@ -114,6 +166,9 @@ public class AuthHandler {
                         .end(new JsonObject().put("error", "Unauthorized").encode());
                 return;
             }
+            if (versions.notModifiedUser(routingContext, userId)) {
+                return;
+            }
 
             String roleSql = "SELECT r.role FROM roles r INNER JOIN userrole ur ON r.id = ur.roleid WHERE ur.userid = ?";
             PreparedStatement rolePs = conn.prepareStatement(roleSql);
@@ -126,10 +181,7 @@ public class AuthHandler {
             }
 
             JsonObject responseJson = new JsonObject().put("roles", new JsonArray(roles));
-            routingContext.response()
-                    .putHeader("content-type", "application/json")
-                    .setStatusCode(200)
-                    .end(responseJson.encode());
+            Encoding.negotiate(routingContext, Encoding.JSON).send(routingContext, 200, responseJson, null);
         } catch (Exception e) {
             routingContext.response()
                     .setStatusCode(500)
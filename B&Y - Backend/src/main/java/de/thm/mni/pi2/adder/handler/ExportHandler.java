@@ -0,0 +1,310 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.export.ZipLayout;
+import de.thm.mni.pi2.adder.media.ChecksumStage;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handler class for downloading an album as a ZIP archive.
+ * The archive is streamed straight from the image files to the response:
+ * JPEGs are already compressed, so entries are stored, never deflated, and
+ * no temporary archive is built. File data is piped through
+ * {@link io.vertx.core.file.AsyncFile} with backpressure, so memory use does
+ * not grow with the album. The layout only depends on the album's images,
+ * which makes byte ranges stable and interrupted downloads resumable.
+ */
+public class ExportHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportHandler.class.getName());
+
+    private final Vertx vertx;
+    private final Database db;
+    private final PostUploadPipeline pipeline;
+
+    public ExportHandler(Vertx vertx, Database db, PostUploadPipeline pipeline) {
+        this.vertx = vertx;
+        this.db = db;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Streams all images of an album as a ZIP archive.
+     *
+     * @param context The routing context containing the request parameters.
+     *                Requires "id" (album id) path parameter.
+     *                Supports a single "Range" and "If-Range" to resume.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid album id.
+     *                Returns 404 if the album is not found.
+     *                Returns 200 with the archive, or 206 with the requested
+     *                part of it.
+     *                Returns 416 if the range lies outside the archive.
+     *                Returns 500 on error.
+     */
+    public void exportAlbum(RoutingContext context) {
+        Connection conn = db.read(context);
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        int albumId;
+        try {
+            albumId = Integer.parseInt(context.pathParam("id"));
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid album id").encode());
+            return;
+        }
+
+        String albumTitle;
+        List<Row> rows = new ArrayList<>();
+        try {
+            PreparedStatement ps = conn.prepareStatement("SELECT title FROM albums WHERE id = ? AND userid = ? AND deleted_at IS NULL");
+            ps.setInt(1, albumId);
+            ps.setInt(2, id);
+            ResultSet res = ps.executeQuery();
+            if (!res.next()) {
+                context.response().setStatusCode(404)
+                        .end(new JsonObject().put("error", "Album not found").encode());
+                return;
+            }
+            albumTitle = res.getString("title");
+
+            ps = conn.prepareStatement(
+                    "SELECT i.id, i.volume, i.path, i.date, i.file_size, i.crc32 FROM images i " +
+                            "JOIN albumimages ai ON i.id = ai.imageid WHERE ai.albumid = ? ORDER BY i.id");
+            ps.setInt(1, albumId);
+            res = ps.executeQuery();
+            while (res.next()) {
+                Date date = res.getDate("date");
+                rows.add(new Row(res.getInt("id"), res.getString("volume"), res.getString("path"),
+                        date == null ? null : date.toLocalDate(),
+                        res.getObject("file_size", Long.class), res.getObject("crc32", Long.class)));
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Cannot read album " + albumId + " for export", e);
+            context.response().setStatusCode(500)
+                    .end(new JsonObject().put("message", "Internal Server Error").put("details", e.getMessage())
+                            .encode());
+            return;
+        }
+
+        List<Row> backfill = new ArrayList<>();
+        vertx.executeBlocking(() -> layout(rows, backfill), false).onComplete(ar -> {
+            if (ar.failed()) {
+                LOGGER.log(Level.WARNING, "Cannot lay out the export of album " + albumId, ar.cause());
+                context.response().setStatusCode(500)
+                        .end(new JsonObject().put("message", "Internal Server Error").encode());
+                return;
+            }
+            storeChecksums(backfill);
+            respond(context, ar.result(), albumTitle);
+        });
+    }
+
+    /**
+     * Builds the layout on a worker thread. Images without a stored checksum
+     * or whose file size changed are read once and collected for backfill.
+     */
+    private ZipLayout layout(List<Row> rows, List<Row> backfill) throws Exception {
+        List<ZipLayout.Entry> entries = new ArrayList<>();
+        for (Row row : rows) {
+            Path file = pipeline.resolve(row.volume(), row.path());
+            if (file == null || !Files.isRegularFile(file)) {
+                continue;
+            }
+            long size = Files.size(file);
+            long crc;
+            if (row.crc() != null && row.size() != null && row.size() == size) {
+                crc = row.crc();
+            } else {
+                long[] checksum = ChecksumStage.checksum(file);
+                size = checksum[0];
+                crc = checksum[1];
+                backfill.add(new Row(row.id(), row.volume(), row.path(), row.date(), size, crc));
+            }
+            String name = row.id() + "-" + Paths.get(row.path()).getFileName();
+            entries.add(new ZipLayout.Entry(name, file, size, crc, row.date()));
+        }
+        return new ZipLayout(entries);
+    }
+
+    /**
+     * Stores the checksums computed for the layout, off the event loop.
+     */
+    private void storeChecksums(List<Row> backfill) {
+        if (backfill.isEmpty()) {
+            return;
+        }
+        db.onPrimary(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE images SET file_size = ?, crc32 = ? WHERE id = ?")) {
+                for (Row row : backfill) {
+                    ps.setLong(1, row.size());
+                    ps.setLong(2, row.crc());
+                    ps.setInt(3, row.id());
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            }
+        }).onFailure(e -> LOGGER.log(Level.WARNING, "Cannot store " + backfill.size() + " checksums", e));
+    }
+
+    /**
+     * Sends the archive, or the part of it a "Range" header asks for.
+     */
+    void respond(RoutingContext context, ZipLayout layout, String albumTitle) {
+        HttpServerResponse response = context.response();
+        long length = layout.length();
+        String etag = "\"" + layout.fingerprint() + "\"";
+
+        long start = 0;
+        long end = length - 1;
+        String range = context.request().getHeader("Range");
+        String ifRange = context.request().getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds[0] >= length) {
+                response.setStatusCode(416)
+                        .putHeader("Content-Range", "bytes */" + length)
+                        .end();
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatusCode(206)
+                        .putHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        response.putHeader("Content-Type", "application/zip")
+                .putHeader("Content-Disposition", "attachment; filename=\"" + fileName(albumTitle) + ".zip\"")
+                .putHeader("Accept-Ranges", "bytes")
+                .putHeader("ETag", etag)
+                .putHeader("Content-Length", String.valueOf(end - start + 1));
+        write(response, layout, layout.segmentAt(start), start, end);
+    }
+
+    /**
+     * Writes the archive bytes from {@code position} to {@code end}
+     * (inclusive). Header segments are written in a loop until the response
+     * queue is full; file segments are piped, and writing continues once
+     * the pipe has completed.
+     */
+    private void write(HttpServerResponse response, ZipLayout layout, int segment, long position, long end) {
+        int current = segment;
+        long offset = position;
+        while (current < layout.segmentCount() && offset <= end) {
+            if (response.closed()) {
+                return;
+            }
+            long segmentStart = layout.segmentOffset(current);
+            long from = offset - segmentStart;
+            long to = Math.min(layout.segmentLength(current), end + 1 - segmentStart);
+            int next = current + 1;
+            long nextOffset = segmentStart + to;
+
+            if (to > from) {
+                Path file = layout.file(current);
+                if (file != null) {
+                    vertx.fileSystem().open(file.toString(), new OpenOptions().setRead(true).setWrite(false))
+                            .compose(asyncFile -> asyncFile
+                                    .setReadPos(from)
+                                    .setReadLength(to - from)
+                                    .pipe()
+                                    .endOnComplete(false)
+                                    .to(response)
+                                    .andThen(ar -> asyncFile.close()))
+                            .onSuccess(v -> write(response, layout, next, nextOffset, end))
+                            .onFailure(e -> {
+                                LOGGER.log(Level.WARNING, "Export aborted at " + file, e);
+                                response.reset();
+                            });
+                    return;
+                }
+                byte[] bytes = layout.bytes(current);
+                response.write(Buffer.buffer(bytes).slice((int) from, (int) to));
+                if (response.writeQueueFull()) {
+                    response.drainHandler(v -> write(response, layout, next, nextOffset, end));
+                    return;
+                }
+            }
+            current = next;
+            offset = nextOffset;
+        }
+        response.end();
+    }
+
+    /**
+     * Parses a single "bytes=" range.
+     *
+     * @return Start and end (inclusive), null to serve the whole archive.
+     */
+    private static long[] parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(spec.substring(0, dash));
+            if (start >= length) {
+                // unsatisfiable, answered with 416
+                return new long[]{start, start};
+            }
+            long end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+            if (start < 0 || end < start) {
+                return null;
+            }
+            return new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String fileName(String title) {
+        String name = title == null ? "" : title.replaceAll("[^A-Za-z0-9 ._-]", "_").trim();
+        return name.isEmpty() ? "album" : name;
+    }
+
+    /**
+     * An album image as read from the database.
+     */
+    private record Row(int id, String volume, String path, LocalDate date, Long size, Long crc) {
+    }
+}
@@ -0,0 +1,74 @@
+package de.thm.mni.pi2.adder.handler;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The "fields" and "include" query parameters of a listing endpoint.
+ * "fields" names the attributes to return (all of them by default) and
+ * "include" the relations to embed (none by default), both comma separated.
+ * Handlers build their SELECT list and joins from it, so columns and joins
+ * nobody asked for are not read.
+ *
+ * @param fields   The requested attributes, in response order.
+ * @param includes The requested relations, in response order.
+ */
+record Fieldset(List<String> fields, List<String> includes) {
+
+    /**
+     * @param request   The request.
+     * @param fields    All attributes of the resource, in response order.
+     * @param relations All relations that can be included.
+     * @return The fieldset, or null if a name is unknown.
+     */
+    static Fieldset parse(HttpServerRequest request, List<String> fields, List<String> relations) {
+        List<String> selected = select(request.getParam("fields"), fields, fields);
+        List<String> included = select(request.getParam("include"), relations, List.of());
+        if (selected == null || included == null) {
+            return null;
+        }
+        return new Fieldset(selected, included);
+    }
+
+    boolean has(String field) {
+        return fields.contains(field);
+    }
+
+    boolean includes(String relation) {
+        return includes.contains(relation);
+    }
+
+    /**
+     * Parses a comma separated list of ids, as built by
+     * {@code GROUP_CONCAT(id)}.
+     */
+    static JsonArray ids(String ids) {
+        JsonArray array = new JsonArray();
+        if (ids != null && !ids.isEmpty()) {
+            for (String id : ids.split(",")) {
+                array.add(Integer.parseInt(id));
+            }
+        }
+        return array;
+    }
+
+    private static List<String> select(String param, List<String> allowed, List<String> fallback) {
+        if (param == null || param.isBlank()) {
+            return fallback;
+        }
+        Set<String> names = Set.copyOf(Arrays.stream(param.split(",")).map(String::trim)
+                .filter(name -> !name.isEmpty()).toList());
+        List<String> selected = new ArrayList<>();
+        for (String name : allowed) {
+            if (names.contains(name)) {
+                selected.add(name);
+            }
+        }
+        return selected.size() == names.size() ? selected : null;
+    }
+}
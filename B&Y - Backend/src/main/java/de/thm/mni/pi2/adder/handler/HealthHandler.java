@@ -0,0 +1,68 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.limit.AdmissionController;
+import de.thm.mni.pi2.adder.startup.StartupReport;
+import de.thm.mni.pi2.adder.startup.Warmup;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Handler class for liveness and readiness probes.
+ */
+public class HealthHandler {
+
+    private final Database db;
+    private final Future<Void> indexes;
+    private final Warmup warmup;
+    private final StartupReport startup;
+    private final AdmissionController admission;
+
+    public HealthHandler(Database db, Future<Void> indexes, Warmup warmup, StartupReport startup,
+                         AdmissionController admission) {
+        this.db = db;
+        this.indexes = indexes;
+        this.admission = admission;
+        this.warmup = warmup;
+        this.startup = startup;
+    }
+
+    /**
+     * Reports that the process is up.
+     *
+     * @param context The routing context.
+     *                Always returns 200.
+     */
+    public void live(RoutingContext context) {
+        context.response()
+                .putHeader("content-type", "application/json")
+                .setStatusCode(200)
+                .end(new JsonObject().put("status", "UP").encode());
+    }
+
+    /**
+     * Reports whether the server can handle requests.
+     *
+     * @param context The routing context.
+     *                Returns 200 if the primary database is connected, the
+     *                in-memory indexes are loaded and the warm-up has
+     *                finished.
+     *                Returns 503 otherwise, and as soon as the server starts
+     *                shutting down.
+     *                The body describes the primary and all replicas, and the
+     *                startup timing.
+     */
+    public void ready(RoutingContext context) {
+        boolean ready = db.ready() && indexes.succeeded() && warmup.done() && !admission.draining();
+        String status = ready ? "UP"
+                : admission.draining() ? "DRAINING"
+                : !db.ready() ? "DOWN"
+                : !indexes.succeeded() ? "LOADING"
+                : "WARMING_UP";
+        context.response()
+                .putHeader("content-type", "application/json")
+                .setStatusCode(ready ? 200 : 503)
+                .end(db.status().put("status", status).put("startup", startup.toJson()).encodePrettily());
+    }
+}
@@ -1,5 +1,19 @@
 package de.thm.mni.pi2.adder.handler;
 
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.db.SingleFlight;
+import de.thm.mni.pi2.adder.limit.StorageQuota;
+import de.thm.mni.pi2.adder.media.DuplicateIndex;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.storage.Storage;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.sync.Versions;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -9,8 +23,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Handler class for managing Image-related operations.
@@ -19,10 +39,66 @@ import java.util.Map;
  */
 public class ImageHandler {
 
-    private final Connection conn;
+    private static final Logger LOGGER = Logger.getLogger(ImageHandler.class.getName());
 
-    public ImageHandler(Connection conn) {
-        this.conn = conn;
+    /**
+     * Sort keys accepted by the listing endpoints, mapped to their SQL columns.
+     */
+    private static final Map<String, String> SORT_COLUMNS = Map.of(
+            "date", "i.date",
+            "taken", "i.taken_at",
+            "title", "i.title",
+            "width", "i.width",
+            "height", "i.height",
+            "camera", "i.camera_model",
+            "id", "i.id");
+
+    /**
+     * Attributes of a listed image, in response order, and the columns each
+     * one reads; "tags" comes from a join.
+     */
+    private static final List<String> IMAGE_FIELDS = List.of("id", "title", "date", "path", "takenAt",
+            "orientation", "width", "height", "cameraMake", "cameraModel", "placeholder", "tags");
+    private static final Map<String, List<String>> IMAGE_COLUMNS = Map.of(
+            "title", List.of("i.title"),
+            "date", List.of("i.date"),
+            "path", List.of("i.path"),
+            "takenAt", List.of("i.taken_at"),
+            "orientation", List.of("i.orientation"),
+            "width", List.of("i.width"),
+            "height", List.of("i.height"),
+            "cameraMake", List.of("i.camera_make"),
+            "cameraModel", List.of("i.camera_model"),
+            "placeholder", List.of("i.blurhash", "i.color", "i.width", "i.height", "i.orientation"));
+
+    /**
+     * Default and maximum Hamming distance for near-duplicate lookups.
+     */
+    private static final int DEFAULT_DUPLICATE_DISTANCE = 6;
+    private static final int MAX_DUPLICATE_DISTANCE = 16;
+
+    private final Database db;
+    private final PostUploadPipeline pipeline;
+    private final DuplicateIndex duplicateIndex;
+    private final SearchIndex searchIndex;
+    private final ChangeFeed changeFeed;
+    private final TagDictionary tags;
+    private final Versions versions;
+    private final SingleFlight singleFlight;
+    private final AuditLog audit;
+
+    public ImageHandler(Database db, PostUploadPipeline pipeline, DuplicateIndex duplicateIndex,
+                        SearchIndex searchIndex, ChangeFeed changeFeed, TagDictionary tags, Versions versions,
+                        SingleFlight singleFlight, AuditLog audit) {
+        this.db = db;
+        this.pipeline = pipeline;
+        this.duplicateIndex = duplicateIndex;
+        this.searchIndex = searchIndex;
+        this.changeFeed = changeFeed;
+        this.tags = tags;
+        this.versions = versions;
+        this.singleFlight = singleFlight;
+        this.audit = audit;
     }
 
     /**
@@ -31,11 +107,14 @@ public class ImageHandler {
      * @param context The routing context containing the request parameters.
      *                Requires "id" path parameter.
      *                Returns 401 if the user is not logged in.
-     *                Returns 200 with image details on success.
+     *                Returns 304 if the If-None-Match ETag is current.
+     *                Returns 200 with image details on success; "tiled"
+     *                tells whether deep-zoom tiles are available.
      *                Returns 404 if the image is not found.
      *                Returns 500 on error.
      */
     public void getImage(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -46,6 +125,9 @@ public class ImageHandler {
         HttpServerRequest requestBody = context.request();
         String userid = String.valueOf(id);
         String imageid = requestBody.getParam("id");
+        if (versions.notModifiedUser(context, id)) {
+            return;
+        }
 
         try {
             PreparedStatement ps = conn.prepareStatement(
@@ -56,7 +138,7 @@ public class ImageHandler {
             ResultSet res = ps.executeQuery();
 
             JsonObject image = new JsonObject();
-            JsonArray tags = new JsonArray();
+            JsonArray imageTags = new JsonArray();
             boolean imageFound = false;
             while (res.next()) {
                 if (!imageFound) {
@@ -64,18 +146,21 @@ public class ImageHandler {
                     image.put("title", res.getString("title"));
                     image.put("date", res.getString("date"));
                     image.put("path", res.getString("path"));
+                    putMetadata(image, res);
+                    putPlaceholder(image, res);
+                    image.put("tiled", res.getBoolean("tiles"));
                     imageFound = true;
                 }
 
-                String tag = res.getString("tag");
-                if (tag != null) {
-                    tags.add(tag);
+                Integer tagId = res.getObject("tagid", Integer.class);
+                if (tagId != null) {
+                    imageTags.add(tags.name(conn, tagId));
                 }
             }
 
             if (imageFound) {
-                image.put("tags", tags);
-                context.response().setStatusCode(200).end(image.encodePrettily());
+                image.put("tags", imageTags);
+                Encoding.send(context, 200, image);
             } else {
                 context.response().setStatusCode(404).end("No Image");
             }
@@ -89,11 +174,22 @@ public class ImageHandler {
      * Retrieves all images for the logged-in user.
      *
      * @param context The routing context.
+     *                Optional query parameters: "sort" (date, taken, title,
+     *                width, height, camera, id), "order" (asc, desc), and the
+     *                filters "camera", "orientation", "from" and "to" (date),
+     *                "fields" (any of id, title, date, path, takenAt,
+     *                orientation, width, height, cameraMake, cameraModel,
+     *                placeholder, tags; all by default) and "include"
+     *                ("albums": the ids of the albums holding the image).
      *                Returns 401 if the user is not logged in.
-     *                Returns 200 with a JSON array of images on success.
+     *                Returns 400 on an unknown sort key, field or relation.
+     *                Returns 304 if the If-None-Match ETag is current.
+     *                Returns 200 with a JSON array of images on success, each
+     *                with its "placeholder".
      *                Returns 500 on error.
      */
     public void getImages(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -102,65 +198,90 @@ public class ImageHandler {
         }
 
         String userid = String.valueOf(id);
+        HttpServerRequest request = context.request();
 
-        try {
-            PreparedStatement ps = conn.prepareStatement(
-                    "SELECT i.id, i.title, i.date, i.path, it.tag " +
-                            "FROM users u " +
-                            "JOIN images i ON u.id = i.userid " +
-                            "LEFT JOIN imagetags it ON i.id = it.imageid " +
-                            "WHERE u.id = ?");
-            ps.setString(1, userid);
+        String orderBy = orderBy(request);
+        if (orderBy == null) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid sort key").encode());
+            return;
+        }
+        Fieldset fieldset = Fieldset.parse(request, IMAGE_FIELDS, List.of("albums"));
+        if (fieldset == null) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid fields or include").encode());
+            return;
+        }
+        if (versions.notModifiedUser(context, id)) {
+            return;
+        }
+
+        List<Object> params = new ArrayList<>();
+        params.add(userid);
+        String filters = filters(request, params);
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add("i.id");
+        for (String field : fieldset.fields()) {
+            columns.addAll(IMAGE_COLUMNS.getOrDefault(field, List.of()));
+        }
+        StringBuilder joins = new StringBuilder();
+        if (fieldset.has("tags")) {
+            columns.add("GROUP_CONCAT(DISTINCT it.tagid) AS tagids");
+            joins.append(" LEFT JOIN imagetags it ON i.id = it.imageid");
+        }
+        if (fieldset.includes("albums")) {
+            columns.add("GROUP_CONCAT(DISTINCT a.id) AS albumids");
+            joins.append(" LEFT JOIN albumimages ai ON i.id = ai.imageid" +
+                    " LEFT JOIN albums a ON ai.albumid = a.id AND a.deleted_at IS NULL");
+        }
+        // one row per image; only the to-many joins need grouping
+        String sql = "SELECT " + String.join(", ", columns) + " " +
+                "FROM users u " +
+                "JOIN images i ON u.id = i.userid" + joins +
+                " WHERE u.id = ?" + filters + (joins.isEmpty() ? "" : " GROUP BY i.id") + orderBy;
+
+        Encoding encoding = Encoding.negotiate(context);
+        List<Object> variant = List.of(encoding, fieldset);
+        // a burst of identical refreshes shares one query and one encoded body
+        singleFlight.execute(conn, sql, params, versions.user(id), variant, connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql);
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
             ResultSet res = ps.executeQuery();
 
             JsonArray respond = new JsonArray();
-            Map<String, JsonObject> imageMap = new HashMap<>();
-
             while (res.next()) {
-                String imageId = res.getString("id");
-
-                JsonObject images;
-                if (imageMap.containsKey(imageId)) {
-                    images = imageMap.get(imageId);
-                } else {
-                    images = new JsonObject();
-                    images.put("id", imageId);
-                    images.put("title", res.getString("title"));
-                    images.put("date", res.getString("date"));
-                    images.put("path", res.getString("path"));
-                    images.put("tags", new JsonArray());
-                    imageMap.put(imageId, images);
+                JsonObject image = new JsonObject();
+                for (String field : fieldset.fields()) {
+                    putField(image, field, res, connection);
                 }
-
-                String tag = res.getString("tag");
-                if (tag != null) {
-                    images.getJsonArray("tags").add(tag);
+                if (fieldset.includes("albums")) {
+                    image.put("albums", Fieldset.ids(res.getString("albumids")));
                 }
-            }
-
-            for (JsonObject image : imageMap.values()) {
                 respond.add(image);
             }
-
-            context.response().setStatusCode(200).end(respond.encodePrettily());
-
-        } catch (Exception e) {
-            context.response().setStatusCode(500).end(e.getMessage());
-        }
+            return encoding.encode(respond);
+        }).onSuccess(body -> encoding.send(context, 200, null, body))
+                .onFailure(e -> context.response().setStatusCode(500).end(String.valueOf(e.getMessage())));
     }
 
     /**
      * Adds a new image to the database.
      *
      * @param context The routing context containing the request body.
-     *                Requires JSON body with "title", "date", "path", and optional
-     *                "tags".
+     *                Requires JSON body with "title", "path", and optional
+     *                "date" and "tags". The date defaults to today and is
+     *                replaced by the capture date from the file's EXIF data
+     *                once the post-upload stage has run. The volume the
+     *                upload was placed on is recorded with the path.
      *                Returns 401 if the user is not logged in.
      *                Returns 200 on successful addition.
      *                Returns 409 if addition fails.
      *                Returns 500 on SQL error.
      */
     public void addImage(RoutingContext context) {
+        Connection conn = db.primary();
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -168,52 +289,106 @@ public class ImageHandler {
             return;
         }
 
-        JsonObject requestBody = context.body().asJsonObject();
+        JsonObject requestBody = Encoding.body(context);
 
         String title = requestBody.getString("title");
         String date = requestBody.getString("date");
         String path = requestBody.getString("path");
         JsonArray tagsArray = requestBody.getJsonArray("tags");
 
-        try {
-            PreparedStatement imagesps = conn
-                    .prepareStatement("INSERT INTO images (userid, title, date, path) VALUES (?, ?, ?, ?)");
-            imagesps.setString(1, String.valueOf(id));
-            imagesps.setString(2, title);
-            imagesps.setString(3, date);
-            imagesps.setString(4, path);
-
-            if (tagsArray != null) {
-                StringBuilder tagsInsertionQuery = new StringBuilder(
-                        "INSERT INTO imagetags (imageid, tag) VALUES ((SELECT id FROM images WHERE path = ?), ?)");
-                for (int i = 1; i < tagsArray.size(); i++) {
-                    tagsInsertionQuery.append(", ((SELECT id FROM images WHERE path = ?), ?)");
+        // the file is looked up on the volumes' I/O pools, the connection stays with this request
+        Future<Storage.Located> located = path == null ? Future.succeededFuture() : pipeline.storage().find(path);
+        if (Context.isOnEventLoopThread()) {
+            located.onComplete(ar -> {
+                if (ar.failed()) {
+                    context.response().setStatusCode(500).end(ar.cause().getMessage());
+                    return;
                 }
-                PreparedStatement tagsps = conn.prepareStatement(tagsInsertionQuery.toString());
-                int parameterIndex = 1;
+                insertImage(context, conn, id, title, date, path, tagsArray, ar.result());
+            });
+            return;
+        }
+        // on a handler thread the transaction stays on it, within the request's lease
+        Storage.Located found;
+        try {
+            found = located.toCompletionStage().toCompletableFuture().join();
+        } catch (CompletionException e) {
+            context.response().setStatusCode(500).end(e.getCause().getMessage());
+            return;
+        }
+        insertImage(context, conn, id, title, date, path, tagsArray, found);
+    }
 
-                for (int i = 0; i < tagsArray.size(); i++) {
-                    tagsps.setString(parameterIndex++, path);
-                    tagsps.setString(parameterIndex++, tagsArray.getString(i));
+    /**
+     * Inserts an image whose file was looked up, see {@link #addImage}.
+     *
+     * @param located The volume holding the file, or null if none has it.
+     */
+    private void insertImage(RoutingContext context, Connection conn, int id, String title, String date,
+                             String path, JsonArray tagsArray, Storage.Located located) {
+        String volume = located == null ? null : located.volume().name();
+        // the size is known now, so deleting the image frees the right amount
+        Long size = located == null ? null : located.size();
+        try {
+            // tags are committed on their own, their ids are cached
+            List<Integer> tagIds = tagsArray == null ? List.of() : tags.intern(conn, strings(tagsArray));
+
+            // the image, its tags, the owner's image count and the change commit together
+            Integer imageId = null;
+            List<ChangeFeed.Change> changes = List.of();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement imagesps = conn.prepareStatement(
+                        "INSERT INTO images (userid, title, date, volume, path, file_size) "
+                                + "VALUES (?, ?, COALESCE(?, CURDATE()), ?, ?, ?)",
+                        PreparedStatement.RETURN_GENERATED_KEYS);
+                imagesps.setString(1, String.valueOf(id));
+                imagesps.setString(2, title);
+                imagesps.setString(3, date);
+                imagesps.setString(4, volume);
+                imagesps.setString(5, path);
+                imagesps.setObject(6, size);
+                ResultSet keys = imagesps.executeUpdate() > 0 ? imagesps.getGeneratedKeys() : null;
+                if (keys != null && keys.next()) {
+                    imageId = keys.getInt(1);
                 }
 
-                int rowsInsertedForImages = imagesps.executeUpdate();
-                int rowsInsertedForTags = tagsps.executeUpdate();
-                if (rowsInsertedForImages > 0 && rowsInsertedForTags > 0) {
-                    context.response().setStatusCode(200).end("Image Add Success");
-                } else {
-                    context.response().setStatusCode(409).end("Image Add Fail");
+                if (imageId != null && !tagIds.isEmpty()) {
+                    PreparedStatement tagsps = conn.prepareStatement(
+                            "INSERT INTO imagetags (imageid, tagid) VALUES (?, ?)");
+                    for (int tagId : tagIds) {
+                        tagsps.setInt(1, imageId);
+                        tagsps.setInt(2, tagId);
+                        tagsps.addBatch();
+                    }
+                    tagsps.executeBatch();
                 }
 
-            } else {
-                int rowsInsertedForImages = imagesps.executeUpdate();
-                if (rowsInsertedForImages > 0) {
-                    context.response().setStatusCode(200).end("Image creation Success");
+                if (imageId != null) {
+                    StorageQuota.adjust(conn, id, 0, 1, 0);
+                    changes = List.of(new ChangeFeed.Change(0, ChangeFeed.Entity.IMAGE, imageId, null,
+                            ChangeFeed.Op.UPSERT));
+                    changeFeed.stage(conn, id, changes);
+                    conn.commit();
                 } else {
-                    context.response().setStatusCode(409).end("Image creation Fail");
+                    conn.rollback();
                 }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
 
+            if (imageId != null) {
+                changeFeed.committed(conn, id, changes);
+                processUpload(imageId, id, title, volume, path);
+                context.response().setStatusCode(200)
+                        .end(tagIds.isEmpty() ? "Image creation Success" : "Image Add Success");
+            } else {
+                context.response().setStatusCode(409)
+                        .end(tagIds.isEmpty() ? "Image creation Fail" : "Image Add Fail");
+            }
         } catch (SQLException e) {
             context.response().setStatusCode(500).end(e.getMessage());
         }
@@ -230,6 +405,7 @@ public class ImageHandler {
      *                Returns 500 on SQL error.
      */
     public void updateImage(RoutingContext context) {
+        Connection conn = db.primary();
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -237,7 +413,7 @@ public class ImageHandler {
             return;
         }
 
-        JsonObject jsonBody = context.body().asJsonObject();
+        JsonObject jsonBody = Encoding.body(context);
 
         String imageid = jsonBody.getString("id");
         String title = jsonBody.getString("title");
@@ -245,36 +421,67 @@ public class ImageHandler {
         JsonArray newTags = jsonBody.getJsonArray("tags");
 
         try {
-            PreparedStatement ps = conn.prepareStatement("UPDATE images SET title = ?, date = ? WHERE id = ?");
-            ps.setString(1, title);
-            ps.setString(2, date);
-            ps.setString(3, imageid);
-            int rowsUpdated = ps.executeUpdate();
-
-            if (rowsUpdated > 0) {
-                ps = conn.prepareStatement("DELETE FROM imagetags WHERE imageid = ?");
-                ps.setString(1, imageid);
-                ps.executeUpdate();
-
-                ps = conn.prepareStatement("INSERT INTO imagetags (imageid, tag) VALUES (?, ?)");
-                for (int i = 0; i < newTags.size(); i++) {
-                    ps.setString(1, imageid);
-                    ps.setString(2, newTags.getString(i));
-                    ps.addBatch();
+            int image = Integer.parseInt(imageid);
+            // tags are committed on their own, their ids are cached
+            List<Integer> tagIds = tags.intern(conn, strings(newTags));
+
+            // the row, its tags and the owner's change commit together
+            Integer owner = null;
+            List<ChangeFeed.Change> changes = List.of(new ChangeFeed.Change(0, ChangeFeed.Entity.IMAGE, image,
+                    null, ChangeFeed.Op.UPSERT));
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement ownerps = conn.prepareStatement("SELECT userid FROM images WHERE id = ? FOR UPDATE");
+                ownerps.setInt(1, image);
+                ResultSet owners = ownerps.executeQuery();
+                if (owners.next()) {
+                    owner = owners.getInt("userid");
+                    PreparedStatement ps = conn.prepareStatement("UPDATE images SET title = ?, date = ? WHERE id = ?");
+                    ps.setString(1, title);
+                    ps.setString(2, date);
+                    ps.setInt(3, image);
+                    ps.executeUpdate();
+
+                    ps = conn.prepareStatement("DELETE FROM imagetags WHERE imageid = ?");
+                    ps.setInt(1, image);
+                    ps.executeUpdate();
+
+                    ps = conn.prepareStatement("INSERT IGNORE INTO imagetags (imageid, tagid) VALUES (?, ?)");
+                    for (int tagId : tagIds) {
+                        ps.setInt(1, image);
+                        ps.setInt(2, tagId);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+
+                    changeFeed.stage(conn, owner, changes);
                 }
-                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
+            if (owner != null) {
+                changeFeed.committed(conn, owner, changes);
+                audit.record(id, "image.update", imageid, new JsonObject().put("title", title).put("date", date));
+                searchIndex.retitle(SearchIndex.Kind.IMAGE, image, title);
                 context.response().setStatusCode(200).end("Image and tags update Success");
             } else {
                 context.response().setStatusCode(409).end("Image update Fail");
             }
         } catch (SQLException e) {
             context.response().setStatusCode(500).end(e.getMessage());
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400).end("Invalid image id");
         }
     }
 
     /**
-     * Deletes an image by its ID.
+     * Deletes an image by its ID. Its bytes and tiles no longer count
+     * towards the owner's storage usage.
      *
      * @param context The routing context containing the request parameters.
      *                Requires "id" path parameter.
@@ -284,6 +491,7 @@ public class ImageHandler {
      *                Returns 500 on error.
      */
     public void deleteImage(RoutingContext context) {
+        Connection conn = db.primary();
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -295,11 +503,42 @@ public class ImageHandler {
         String imageid = requestBody.getParam("id");
 
         try {
-            PreparedStatement ps = conn.prepareStatement("DELETE FROM images WHERE id = ?");
-            ps.setString(1, imageid);
+            // the memberships cascade with the image, look up its albums first
+            Set<Integer> albums = versions.albumsOf(conn, List.of(Integer.parseInt(imageid)));
+            // the row, the owner's usage and the owner's change commit together
+            int deleted;
+            int owner = 0;
+            List<ChangeFeed.Change> changes = List.of(new ChangeFeed.Change(0, ChangeFeed.Entity.IMAGE,
+                    Integer.parseInt(imageid), null, ChangeFeed.Op.DELETE));
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement sizeps = conn.prepareStatement(
+                        "SELECT userid, file_size, tile_bytes FROM images WHERE id = ? FOR UPDATE");
+                sizeps.setString(1, imageid);
+                ResultSet sizes = sizeps.executeQuery();
+                PreparedStatement ps = conn.prepareStatement("DELETE FROM images WHERE id = ?");
+                ps.setString(1, imageid);
+                deleted = ps.executeUpdate();
+                if (deleted > 0 && sizes.next()) {
+                    owner = sizes.getInt("userid");
+                    StorageQuota.adjust(conn, owner, -sizes.getLong("file_size"), -1,
+                            -sizes.getLong("tile_bytes"));
+                    changeFeed.stage(conn, owner, changes);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
 
-            int deleted = ps.executeUpdate();
             if (deleted > 0) {
+                versions.bumpAlbums(albums);
+                audit.record(id, "image.delete", imageid);
+                duplicateIndex.remove(Integer.parseInt(imageid));
+                searchIndex.remove(SearchIndex.Kind.IMAGE, Integer.parseInt(imageid));
+                changeFeed.committed(conn, owner, changes);
                 context.response().setStatusCode(200).end("image deleted");
             } else {
                 context.response().setStatusCode(404).end(new JsonObject().put("error", "image not found").encode());
@@ -309,16 +548,101 @@ public class ImageHandler {
         }
     }
 
+    /**
+     * Finds near-duplicates of an image in the logged-in user's library.
+     *
+     * @param context The routing context containing the request parameters.
+     *                Requires "id" path parameter.
+     *                Optional "distance" query parameter (differing hash bits,
+     *                default 6, at most 16).
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid id or distance.
+     *                Returns 404 if the image is unknown or not analysed yet.
+     *                Returns 200 with a JSON array of image ids and distances.
+     */
+    public void getNearDuplicates(RoutingContext context) {
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        int imageId;
+        int distance;
+        try {
+            imageId = Integer.parseInt(context.pathParam("id"));
+            distance = duplicateDistance(context);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid image id or distance").encode());
+            return;
+        }
+
+        List<int[]> matches = duplicateIndex.nearDuplicates(id, imageId, distance);
+        if (matches == null) {
+            context.response().setStatusCode(404)
+                    .end(new JsonObject().put("error", "image not found").encode());
+            return;
+        }
+
+        JsonArray respond = new JsonArray();
+        for (int[] match : matches) {
+            respond.add(new JsonObject().put("id", match[0]).put("distance", match[1]));
+        }
+        Encoding.send(context, 200, respond);
+    }
+
+    /**
+     * Lists clusters of near-duplicate images in the logged-in user's library.
+     *
+     * @param context The routing context.
+     *                Optional "distance" query parameter (differing hash bits,
+     *                default 6, at most 16).
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid distance.
+     *                Returns 200 with a JSON array of image id arrays.
+     */
+    public void getDuplicateClusters(RoutingContext context) {
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        int distance;
+        try {
+            distance = duplicateDistance(context);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid distance").encode());
+            return;
+        }
+
+        JsonArray respond = new JsonArray();
+        for (List<Integer> cluster : duplicateIndex.clusters(id, distance)) {
+            respond.add(new JsonArray(new ArrayList<>(cluster)));
+        }
+        Encoding.send(context, 200, respond);
+    }
+
     /**
      * Retrieves all images associated with a specific album.
      *
      * @param context The routing context containing the request parameters.
      *                Requires "id" (album id) path parameter.
+     *                Accepts the same "sort" and "order" parameters as
+     *                {@link #getImages(RoutingContext)}.
      *                Returns 401 if the user is not logged in.
-     *                Returns 200 with a JSON array of images on success.
+     *                Returns 400 on an unknown sort key.
+     *                Returns 304 if the If-None-Match ETag is current.
+     *                Returns 200 with a JSON array of images on success, each
+     *                with its "placeholder".
      *                Returns 500 on error.
      */
     public void getImagesfromAlbum(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -329,10 +653,33 @@ public class ImageHandler {
         HttpServerRequest requestBody = context.request();
         String albumid = requestBody.getParam("id");
 
+        String orderBy = orderBy(requestBody);
+        if (orderBy == null) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid sort key").encode());
+            return;
+        }
+
+        int album;
         try {
-            PreparedStatement ps = conn.prepareStatement(
-                    "SELECT i.id, i.title, i.date, i.path FROM images i JOIN albumimages ai ON i.id = ai.imageid JOIN albums a ON ai.albumid = a.id WHERE a.id = ?");
-            ps.setInt(1, Integer.parseInt(albumid));
+            album = Integer.parseInt(albumid);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(500).end(e.getMessage());
+            return;
+        }
+        if (versions.notModifiedAlbum(context, album)) {
+            return;
+        }
+        String sql = "SELECT i.id, i.title, i.date, i.path, i.taken_at, i.orientation, i.width, i.height, " +
+                "i.camera_make, i.camera_model, i.blurhash, i.color " +
+                "FROM images i JOIN albumimages ai ON i.id = ai.imageid JOIN albums a ON ai.albumid = a.id WHERE a.id = ? AND a.deleted_at IS NULL"
+                + orderBy;
+
+        Encoding encoding = Encoding.negotiate(context);
+        // many sessions opening a shared album share one query and one encoded body
+        singleFlight.execute(conn, sql, List.of(album), versions.album(album), encoding, connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setInt(1, album);
             ResultSet res = ps.executeQuery();
 
             JsonArray respond = new JsonArray();
@@ -342,14 +689,13 @@ public class ImageHandler {
                 images.put("title", res.getString("title"));
                 images.put("date", res.getString("date"));
                 images.put("path", res.getString("path"));
+                putMetadata(images, res);
+                putPlaceholder(images, res);
                 respond.add(images);
             }
-
-            context.response().setStatusCode(200).end(respond.encodePrettily());
-
-        } catch (Exception e) {
-            context.response().setStatusCode(500).end(e.getMessage());
-        }
+            return encoding.encode(respond);
+        }).onSuccess(body -> encoding.send(context, 200, null, body))
+                .onFailure(e -> context.response().setStatusCode(500).end(String.valueOf(e.getMessage())));
     }
 
     /**
@@ -364,6 +710,7 @@ public class ImageHandler {
      *                Returns 500 on SQL error.
      */
     public void updateImageinAlbum(RoutingContext context) {
+        Connection conn = db.primary();
         Integer id = context.session().get("id");
         if (id == null || id == 0) {
             context.response().setStatusCode(401)
@@ -393,12 +740,17 @@ public class ImageHandler {
             int rowsUpdated = ps.executeUpdate();
 
             if (rowsUpdated > 0) {
+                audit.record(id, "album.image.update", imageid, new JsonObject().put("album", albumid));
+                changeFeed.record(conn, id, ChangeFeed.Entity.MEMBERSHIP, Integer.parseInt(albumid),
+                        Integer.parseInt(imageid), ChangeFeed.Op.UPSERT);
                 context.response().setStatusCode(200).end("Image update in Album Success");
             } else {
                 context.response().setStatusCode(409).end("Image update in Album Fail");
             }
         } catch (SQLException e) {
             context.response().setStatusCode(500).end(e.getMessage());
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400).end("Invalid album or image id");
         }
     }
 
@@ -412,7 +764,8 @@ public class ImageHandler {
      *                Returns 500 on SQL error.
      */
     public void addImagetoAlbum(RoutingContext context) {
-        JsonObject requestBody = context.body().asJsonObject();
+        Connection conn = db.primary();
+        JsonObject requestBody = Encoding.body(context);
 
         String imageid = requestBody.getString("imageid");
         String albumid = requestBody.getString("albumid");
@@ -426,12 +779,20 @@ public class ImageHandler {
             int rowsInserted = ps.executeUpdate();
 
             if (rowsInserted > 0) {
+                Integer userId = context.session().get("id");
+                audit.record(userId, "album.image.add", imageid, new JsonObject().put("album", albumid));
+                if (userId != null) {
+                    changeFeed.record(conn, userId, ChangeFeed.Entity.MEMBERSHIP, Integer.parseInt(albumid),
+                            Integer.parseInt(imageid), ChangeFeed.Op.UPSERT);
+                }
                 context.response().setStatusCode(200).end("Image creation to album Success");
             } else {
                 context.response().setStatusCode(409).end("Image creation to album Fail");
             }
         } catch (SQLException e) {
             context.response().setStatusCode(500).end(e.getMessage());
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400).end("Invalid album or image id");
         }
     }
 
@@ -447,6 +808,7 @@ public class ImageHandler {
      *                Returns 500 on error.
      */
     public void deleteImagefromAlbum(RoutingContext context) {
+        Connection conn = db.primary();
         int userId = context.session().get("id");
 
         if (userId == 0) {
@@ -471,6 +833,9 @@ public class ImageHandler {
 
             int deleted = ps.executeUpdate();
             if (deleted > 0) {
+                audit.record(userId, "album.image.remove", imageId, new JsonObject().put("album", albumId));
+                changeFeed.record(conn, userId, ChangeFeed.Entity.MEMBERSHIP, Integer.parseInt(albumId),
+                        Integer.parseInt(imageId), ChangeFeed.Op.DELETE);
                 context.response().setStatusCode(200)
                         .end(new JsonObject().put("message", "Image deleted from album").encode());
             } else {
@@ -481,4 +846,141 @@ public class ImageHandler {
             context.response().setStatusCode(500).end(new JsonObject().put("error", "Internal Server Error").encode());
         }
     }
+
+    /**
+     * Hands a freshly inserted image to the post-upload pipeline. Its change
+     * was recorded with the insert.
+     */
+    private void processUpload(int imageId, int userId, String title, String volume, String path) {
+        audit.record(userId, "image.create", imageId, new JsonObject().put("path", path));
+        searchIndex.put(SearchIndex.Kind.IMAGE, userId, imageId, title);
+        pipeline.submit(imageId, volume, path).onSuccess(columns -> {
+            if (columns.get("phash") instanceof Long hash) {
+                duplicateIndex.add(userId, imageId, hash);
+            }
+            if (!columns.isEmpty()) {
+                // the stage filled in metadata, clients have to fetch the image again
+                db.onPrimary(conn -> {
+                    changeFeed.record(conn, userId, ChangeFeed.Entity.IMAGE, imageId, null, ChangeFeed.Op.UPSERT);
+                    return null;
+                }).onFailure(e -> LOGGER.log(Level.WARNING, "Cannot record the metadata of image " + imageId, e));
+            }
+        });
+    }
+
+    private static int duplicateDistance(RoutingContext context) {
+        String param = context.request().getParam("distance");
+        if (param == null) {
+            return DEFAULT_DUPLICATE_DISTANCE;
+        }
+        int distance = Integer.parseInt(param);
+        if (distance < 0 || distance > MAX_DUPLICATE_DISTANCE) {
+            throw new NumberFormatException("distance out of range");
+        }
+        return distance;
+    }
+
+    private static List<String> strings(JsonArray array) {
+        List<String> values = new ArrayList<>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            values.add(array.getString(i));
+        }
+        return values;
+    }
+
+    static void putMetadata(JsonObject image, ResultSet res) throws SQLException {
+        image.put("takenAt", res.getString("taken_at"));
+        image.put("orientation", res.getObject("orientation", Integer.class));
+        image.put("width", res.getObject("width", Integer.class));
+        image.put("height", res.getObject("height", Integer.class));
+        image.put("cameraMake", res.getString("camera_make"));
+        image.put("cameraModel", res.getString("camera_model"));
+    }
+
+    /**
+     * Adds one attribute of a listed image from a row selected with its
+     * {@link #IMAGE_COLUMNS}.
+     */
+    private void putField(JsonObject image, String field, ResultSet res, Connection conn) throws SQLException {
+        switch (field) {
+            case "id" -> image.put("id", res.getString("id"));
+            case "takenAt" -> image.put("takenAt", res.getString("taken_at"));
+            case "orientation", "width", "height" -> image.put(field, res.getObject(field, Integer.class));
+            case "cameraMake" -> image.put("cameraMake", res.getString("camera_make"));
+            case "cameraModel" -> image.put("cameraModel", res.getString("camera_model"));
+            case "placeholder" -> putPlaceholder(image, res);
+            case "tags" -> image.put("tags", new JsonArray(tags.names(conn, res.getString("tagids"))));
+            default -> image.put(field, res.getString(field));
+        }
+    }
+
+    /**
+     * Adds the low-quality placeholder: BlurHash, dominant colour and the
+     * dimensions in display orientation, for laying out a page before the
+     * images have loaded. Null until the post-upload stage has run.
+     */
+    static void putPlaceholder(JsonObject image, ResultSet res) throws SQLException {
+        String blurHash = res.getString("blurhash");
+        if (blurHash == null) {
+            image.putNull("placeholder");
+            return;
+        }
+        Integer width = res.getObject("width", Integer.class);
+        Integer height = res.getObject("height", Integer.class);
+        Integer orientation = res.getObject("orientation", Integer.class);
+        boolean transposed = orientation != null && orientation >= 5 && orientation <= 8;
+        image.put("placeholder", new JsonObject()
+                .put("blurhash", blurHash)
+                .put("color", res.getString("color"))
+                .put("width", transposed ? height : width)
+                .put("height", transposed ? width : height));
+    }
+
+    /**
+     * Builds the ORDER BY clause from the "sort" and "order" query parameters.
+     *
+     * @return The clause, or null if the sort key is unknown.
+     */
+    private static String orderBy(HttpServerRequest request) {
+        String sort = request.getParam("sort");
+        if (sort == null) {
+            return " ORDER BY i.id";
+        }
+        String column = SORT_COLUMNS.get(sort);
+        if (column == null) {
+            return null;
+        }
+        String direction = "desc".equalsIgnoreCase(request.getParam("order")) ? " DESC" : " ASC";
+        return " ORDER BY " + column + direction + ", i.id";
+    }
+
+    /**
+     * Builds additional WHERE conditions from the filter query parameters.
+     *
+     * @param params Receives the statement parameters for the conditions.
+     */
+    private static String filters(HttpServerRequest request, List<Object> params) {
+        StringBuilder where = new StringBuilder();
+        String camera = request.getParam("camera");
+        if (camera != null) {
+            where.append(" AND i.camera_model = ?");
+            params.add(camera);
+        }
+        String orientation = request.getParam("orientation");
+        if (orientation != null) {
+            where.append(" AND i.orientation = ?");
+            params.add(orientation);
+        }
+        String from = request.getParam("from");
+        if (from != null) {
+            where.append(" AND i.date >= ?");
+            params.add(from);
+        }
+        String to = request.getParam("to");
+        if (to != null) {
+            where.append(" AND i.date <= ?");
+            params.add(to);
+        }
+        return where.toString();
+    }
 }
@@ -0,0 +1,189 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.ingest.IngestJob;
+import de.thm.mni.pi2.adder.media.DuplicateIndex;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+/**
+ * Handler class for the admin-only bulk ingest of a server-side directory.
+ * Only one ingest job runs at a time; its directory must lie inside the
+ * configured "ingest.root".
+ */
+public class IngestHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(IngestHandler.class.getName());
+
+    private final AppConfig config;
+    private final Database db;
+    private final PostUploadPipeline pipeline;
+    private final SearchIndex searchIndex;
+    private final DuplicateIndex duplicateIndex;
+    private final ChangeFeed changeFeed;
+    private final TagDictionary tags;
+    private final AuditLog audit;
+
+    private volatile IngestJob job;
+
+    public IngestHandler(AppConfig config, Database db, PostUploadPipeline pipeline, SearchIndex searchIndex,
+                         DuplicateIndex duplicateIndex, ChangeFeed changeFeed, TagDictionary tags,
+                         AuditLog audit) {
+        this.config = config;
+        this.db = db;
+        this.pipeline = pipeline;
+        this.searchIndex = searchIndex;
+        this.duplicateIndex = duplicateIndex;
+        this.changeFeed = changeFeed;
+        this.tags = tags;
+        this.audit = audit;
+    }
+
+    /**
+     * Starts an ingest job. Admin access required.
+     *
+     * @param context The routing context containing the request body.
+     *                Requires JSON body with "directory" (relative to the
+     *                ingest root). Optional "userId" (owner, defaults to the
+     *                admin), "mode" (copy, link) and "parallelism".
+     *                Starting the same directory and owner again resumes from
+     *                the last checkpoint.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 400 on an invalid directory, mode or parallelism.
+     *                Returns 409 if a job is already running.
+     *                Returns 202 with the job status.
+     *                Returns 500 on SQL error.
+     */
+    public void start(RoutingContext context) {
+        Integer id = Admins.check(db, context);
+        if (id == null) {
+            return;
+        }
+
+        JsonObject body = Encoding.body(context);
+        if (body == null) {
+            body = new JsonObject();
+        }
+        JsonObject options = config.section("ingest");
+        Path root = Paths.get(options.getString("root", "ingest")).toAbsolutePath().normalize();
+        String directory = body.getString("directory", "");
+        Path source = root.resolve(directory).normalize();
+
+        IngestJob.Mode mode;
+        int parallelism;
+        int owner;
+        try {
+            mode = IngestJob.Mode.valueOf(body.getString("mode", options.getString("mode", "copy")).toUpperCase());
+            parallelism = body.getInteger("parallelism", options.getInteger("parallelism", 4));
+            owner = body.getInteger("userId", id);
+            if (parallelism < 1 || parallelism > options.getInteger("maxParallelism", 32)) {
+                throw new IllegalArgumentException("parallelism out of range");
+            }
+        } catch (IllegalArgumentException | ClassCastException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid mode, parallelism or user").encode());
+            return;
+        }
+        if (!source.startsWith(root) || !Files.isDirectory(source)) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Directory not found in ingest root").encode());
+            return;
+        }
+
+        synchronized (this) {
+            if (job != null && job.state() == IngestJob.State.RUNNING) {
+                context.response().setStatusCode(409)
+                        .end(new JsonObject().put("message", "An ingest job is already running")
+                                .put("job", job.status()).encode());
+                return;
+            }
+            job = new IngestJob(config, db, pipeline, searchIndex, duplicateIndex, changeFeed, tags,
+                    source, owner, mode, parallelism);
+            job.start();
+        }
+        audit.record(id, "ingest.start", directory,
+                new JsonObject().put("owner", owner).put("mode", mode.name().toLowerCase()));
+        Encoding.send(context, 202, job.status());
+    }
+
+    /**
+     * Reports the progress of the current or last ingest job. Admin access
+     * required.
+     *
+     * @param context The routing context.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 404 if no job was started yet.
+     *                Returns 200 with the job status, including files per
+     *                second.
+     */
+    public void status(RoutingContext context) {
+        if (Admins.check(db, context) == null) {
+            return;
+        }
+        IngestJob current = job;
+        if (current == null) {
+            context.response().setStatusCode(404)
+                    .end(new JsonObject().put("message", "No ingest job").encode());
+            return;
+        }
+        Encoding.send(context, 200, current.status());
+    }
+
+    /**
+     * Cancels the running ingest job. Files already prepared are still
+     * written and checkpointed. Admin access required.
+     *
+     * @param context The routing context.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 404 if no job is running.
+     *                Returns 202 with the job status.
+     */
+    public void cancel(RoutingContext context) {
+        Integer id = Admins.check(db, context);
+        if (id == null) {
+            return;
+        }
+        IngestJob current = job;
+        if (current == null || current.state() != IngestJob.State.RUNNING) {
+            context.response().setStatusCode(404)
+                    .end(new JsonObject().put("message", "No ingest job running").encode());
+            return;
+        }
+        current.cancel();
+        audit.record(id, "ingest.cancel", null);
+        Encoding.send(context, 202, current.status());
+    }
+
+    /**
+     * Cancels a running job on shutdown and waits for its last batch to be
+     * written; it resumes from its checkpoint when started again.
+     *
+     * @param timeoutMillis How long to wait for the job.
+     */
+    public void close(long timeoutMillis) {
+        IngestJob current = job;
+        if (current == null) {
+            return;
+        }
+        current.cancel();
+        try {
+            if (!current.join(timeoutMillis)) {
+                LOGGER.warning("Ingest job still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Handler class for searching image and album titles.
+ * Queries are answered from the in-memory {@link SearchIndex}, the database
+ * is not involved.
+ */
+public class SearchHandler {
+
+    private final SearchIndex index;
+    private final AppConfig config;
+
+    public SearchHandler(SearchIndex index, AppConfig config) {
+        this.index = index;
+        this.config = config;
+    }
+
+    /**
+     * Searches the logged-in user's image and album titles.
+     *
+     * @param context The routing context.
+     *                Requires the "q" query parameter.
+     *                Optional "type" (images, albums) and "limit" parameters.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on a missing query or invalid type or limit.
+     *                Returns 200 with a JSON array of hits, best first.
+     */
+    public void search(RoutingContext context) {
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        String query = context.request().getParam("q");
+        if (query == null || query.isBlank()) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Query is required").encode());
+            return;
+        }
+
+        JsonObject options = config.section("search");
+        int maxResults = options.getInteger("maxResults", 100);
+        SearchIndex.Kind kind;
+        int limit;
+        try {
+            kind = kind(context.request().getParam("type"));
+            String limitParam = context.request().getParam("limit");
+            limit = limitParam == null ? options.getInteger("defaultResults", 20) : Integer.parseInt(limitParam);
+            if (limit < 1 || limit > maxResults) {
+                throw new IllegalArgumentException("limit out of range");
+            }
+        } catch (IllegalArgumentException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid type or limit").encode());
+            return;
+        }
+
+        JsonArray respond = new JsonArray();
+        for (SearchIndex.Hit hit : index.search(id, query, kind, options.getDouble("minSimilarity", 0.3), limit)) {
+            respond.add(new JsonObject()
+                    .put("type", hit.kind() == SearchIndex.Kind.IMAGE ? "image" : "album")
+                    .put("id", hit.id())
+                    .put("title", hit.title())
+                    .put("score", hit.score()));
+        }
+        Encoding.send(context, 200, respond);
+    }
+
+    private static SearchIndex.Kind kind(String type) {
+        if (type == null) {
+            return null;
+        }
+        return switch (type) {
+            case "images" -> SearchIndex.Kind.IMAGE;
+            case "albums" -> SearchIndex.Kind.ALBUM;
+            default -> throw new IllegalArgumentException("unknown type " + type);
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.storage.RebalanceJob;
+import de.thm.mni.pi2.adder.storage.Storage;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.logging.Logger;
+
+/**
+ * Handler class for the admin-only view of the upload volumes and the online
+ * rebalance between them. Only one rebalance runs at a time.
+ */
+public class StorageHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(StorageHandler.class.getName());
+
+    private final AppConfig config;
+    private final Database db;
+    private final Storage storage;
+    private final AuditLog audit;
+
+    private volatile RebalanceJob job;
+
+    public StorageHandler(AppConfig config, Database db, Storage storage, AuditLog audit) {
+        this.config = config;
+        this.db = db;
+        this.storage = storage;
+        this.audit = audit;
+    }
+
+    /**
+     * Lists the volumes with their free space. Admin access required.
+     *
+     * @param context The routing context.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 200 with the volumes and the status of the
+     *                current or last rebalance, if any.
+     */
+    public void status(RoutingContext context) {
+        if (Admins.check(db, context) == null) {
+            return;
+        }
+        RebalanceJob current = job;
+        Encoding.send(context, 200, new JsonObject()
+                .put("volumes", storage.status())
+                .put("rebalance", current == null ? null : current.status()));
+    }
+
+    /**
+     * Starts moving files from fuller to emptier volumes. Admin access
+     * required.
+     *
+     * @param context The routing context.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 409 if a rebalance is already running.
+     *                Returns 202 with the rebalance status.
+     */
+    public void rebalance(RoutingContext context) {
+        Integer id = Admins.check(db, context);
+        if (id == null) {
+            return;
+        }
+        synchronized (this) {
+            if (job != null && job.state() == RebalanceJob.State.RUNNING) {
+                context.response().setStatusCode(409)
+                        .end(new JsonObject().put("message", "A rebalance is already running")
+                                .put("job", job.status()).encode());
+                return;
+            }
+            job = new RebalanceJob(config, storage);
+            job.start();
+        }
+        audit.record(id, "storage.rebalance", null);
+        Encoding.send(context, 202, job.status());
+    }
+
+    /**
+     * Cancels the running rebalance after the file being moved. Admin access
+     * required.
+     *
+     * @param context The routing context.
+     *                Returns 401 if not logged in or not an Admin.
+     *                Returns 404 if no rebalance is running.
+     *                Returns 202 with the rebalance status.
+     */
+    public void cancel(RoutingContext context) {
+        Integer id = Admins.check(db, context);
+        if (id == null) {
+            return;
+        }
+        RebalanceJob current = job;
+        if (current == null || current.state() != RebalanceJob.State.RUNNING) {
+            context.response().setStatusCode(404)
+                    .end(new JsonObject().put("message", "No rebalance running").encode());
+            return;
+        }
+        current.cancel();
+        audit.record(id, "storage.cancel", null);
+        Encoding.send(context, 202, current.status());
+    }
+
+    /**
+     * Cancels a running rebalance on shutdown and waits for the file being
+     * moved. Files are only removed from their old volume once their rows
+     * point to the new one, so nothing is lost; the next rebalance picks up
+     * where this one stopped.
+     *
+     * @param timeoutMillis How long to wait for the rebalance.
+     */
+    public void close(long timeoutMillis) {
+        RebalanceJob current = job;
+        if (current == null) {
+            return;
+        }
+        current.cancel();
+        try {
+            if (!current.join(timeoutMillis)) {
+                LOGGER.warning("Rebalance still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Handler class for the delta sync API.
+ * Clients keep the token of their last sync and only receive the images,
+ * albums and album memberships that changed since then.
+ */
+public class SyncHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(SyncHandler.class.getName());
+
+    private final Database db;
+    private final ChangeFeed changeFeed;
+    private final TagDictionary tags;
+    private final AppConfig config;
+
+    public SyncHandler(Database db, ChangeFeed changeFeed, TagDictionary tags, AppConfig config) {
+        this.db = db;
+        this.changeFeed = changeFeed;
+        this.tags = tags;
+        this.config = config;
+    }
+
+    /**
+     * Returns what changed in the logged-in user's library since a token.
+     *
+     * @param context The routing context.
+     *                Optional "since" query parameter with the token of the
+     *                previous sync; without it the full library is returned.
+     *                The response contains the written "images", "albums" and
+     *                "memberships", the ids in "deleted", the new "token" and
+     *                "more" if the client should sync again right away.
+     *                Memberships of deleted images and albums are removed
+     *                implicitly.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid token.
+     *                Returns 200 with the changes.
+     *                Returns 500 on SQL error.
+     */
+    public void sync(RoutingContext context) {
+        Connection conn = db.read(context);
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        String token = context.request().getParam("since");
+        long since;
+        try {
+            since = token == null ? -1 : Long.parseLong(token);
+            if (token != null && since < 0) {
+                throw new NumberFormatException("negative token");
+            }
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid sync token").encode());
+            return;
+        }
+
+        try {
+            JsonObject respond = since < 0
+                    ? snapshot(conn, id)
+                    : delta(conn, id, since, config.section("sync").getInteger("maxChanges", 1000));
+            Encoding.negotiate(context, Encoding.JSON).send(context, 200, respond, null);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the changes of user " + id, e);
+            context.response().setStatusCode(500)
+                    .end(new JsonObject().put("message", "Internal Server Error").encode());
+        }
+    }
+
+    private JsonObject snapshot(Connection conn, int userId) throws SQLException {
+        // read the token first: changes made meanwhile are sent again next time
+        long token = changeFeed.latest(conn, userId);
+
+        JsonArray memberships = new JsonArray();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT ai.albumid, ai.imageid FROM albumimages ai JOIN albums a ON ai.albumid = a.id " +
+                        "WHERE a.userid = ? AND a.deleted_at IS NULL")) {
+            ps.setInt(1, userId);
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                memberships.add(membership(res.getInt("albumid"), res.getInt("imageid")));
+            }
+        }
+
+        return new JsonObject()
+                .put("token", String.valueOf(token))
+                .put("full", true)
+                .put("more", false)
+                .put("images", new JsonArray(new ArrayList<>(images(conn, userId, null).values())))
+                .put("albums", new JsonArray(new ArrayList<>(albums(conn, userId, null).values())))
+                .put("memberships", memberships)
+                .put("deleted", deleted(new JsonArray(), new JsonArray(), new JsonArray()));
+    }
+
+    private JsonObject delta(Connection conn, int userId, long since, int maxChanges) throws SQLException {
+        List<ChangeFeed.Change> changes = changeFeed.since(conn, userId, since, maxChanges + 1);
+        boolean more = changes.size() > maxChanges;
+        if (more) {
+            changes = changes.subList(0, maxChanges);
+        }
+        long token = changes.isEmpty() ? since : changes.get(changes.size() - 1).seq();
+
+        // only the latest change of every entity matters
+        Map<String, ChangeFeed.Change> latest = new LinkedHashMap<>();
+        for (ChangeFeed.Change change : changes) {
+            String key = change.entity() + ":" + change.entityId() + ":" + change.refId();
+            latest.remove(key);
+            latest.put(key, change);
+        }
+
+        List<Integer> imageIds = new ArrayList<>();
+        List<Integer> albumIds = new ArrayList<>();
+        JsonArray memberships = new JsonArray();
+        JsonArray deletedImages = new JsonArray();
+        JsonArray deletedAlbums = new JsonArray();
+        JsonArray deletedMemberships = new JsonArray();
+        for (ChangeFeed.Change change : latest.values()) {
+            boolean upsert = change.op() == ChangeFeed.Op.UPSERT;
+            switch (change.entity()) {
+                case IMAGE -> {
+                    if (upsert) {
+                        imageIds.add(change.entityId());
+                    } else {
+                        deletedImages.add(change.entityId());
+                    }
+                }
+                case ALBUM -> {
+                    if (upsert) {
+                        albumIds.add(change.entityId());
+                    } else {
+                        deletedAlbums.add(change.entityId());
+                    }
+                }
+                case MEMBERSHIP -> {
+                    JsonObject membership = membership(change.entityId(),
+                            change.refId() == null ? 0 : change.refId());
+                    if (upsert) {
+                        memberships.add(membership);
+                    } else {
+                        deletedMemberships.add(membership);
+                    }
+                }
+            }
+        }
+
+        Map<Integer, JsonObject> images = images(conn, userId, imageIds);
+        Map<Integer, JsonObject> albums = albums(conn, userId, albumIds);
+        // written and deleted again after this batch: report as deleted
+        for (int imageId : imageIds) {
+            if (!images.containsKey(imageId)) {
+                deletedImages.add(imageId);
+            }
+        }
+        for (int albumId : albumIds) {
+            if (!albums.containsKey(albumId)) {
+                deletedAlbums.add(albumId);
+            }
+        }
+
+        return new JsonObject()
+                .put("token", String.valueOf(token))
+                .put("full", false)
+                .put("more", more)
+                .put("images", new JsonArray(new ArrayList<>(images.values())))
+                .put("albums", new JsonArray(new ArrayList<>(albums.values())))
+                .put("memberships", memberships)
+                .put("deleted", deleted(deletedImages, deletedAlbums, deletedMemberships));
+    }
+
+    /**
+     * Reads images with their tags.
+     *
+     * @param ids The images to read, null for all of the user's images.
+     */
+    private Map<Integer, JsonObject> images(Connection conn, int userId, List<Integer> ids)
+            throws SQLException {
+        Map<Integer, JsonObject> images = new LinkedHashMap<>();
+        if (ids != null && ids.isEmpty()) {
+            return images;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT i.id, i.title, i.date, i.path, i.taken_at, i.orientation, i.width, i.height, " +
+                        "i.camera_make, i.camera_model, it.tagid " +
+                        "FROM images i LEFT JOIN imagetags it ON i.id = it.imageid " +
+                        "WHERE i.userid = ?" + in("i.id", ids) + " ORDER BY i.id")) {
+            bind(ps, userId, ids);
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                int imageId = res.getInt("id");
+                JsonObject image = images.get(imageId);
+                if (image == null) {
+                    image = new JsonObject()
+                            .put("id", String.valueOf(imageId))
+                            .put("title", res.getString("title"))
+                            .put("date", res.getString("date"))
+                            .put("path", res.getString("path"));
+                    ImageHandler.putMetadata(image, res);
+                    image.put("tags", new JsonArray());
+                    images.put(imageId, image);
+                }
+                Integer tagId = res.getObject("tagid", Integer.class);
+                if (tagId != null) {
+                    image.getJsonArray("tags").add(tags.name(conn, tagId));
+                }
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Reads albums with their tags.
+     *
+     * @param ids The albums to read, null for all of the user's albums.
+     */
+    private Map<Integer, JsonObject> albums(Connection conn, int userId, List<Integer> ids)
+            throws SQLException {
+        Map<Integer, JsonObject> albums = new LinkedHashMap<>();
+        if (ids != null && ids.isEmpty()) {
+            return albums;
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT a.id, a.title, at.tagid FROM albums a LEFT JOIN albumtags at ON a.id = at.albumid " +
+                        "WHERE a.userid = ? AND a.deleted_at IS NULL" + in("a.id", ids) + " ORDER BY a.id")) {
+            bind(ps, userId, ids);
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                int albumId = res.getInt("id");
+                JsonObject album = albums.get(albumId);
+                if (album == null) {
+                    album = new JsonObject()
+                            .put("id", String.valueOf(albumId))
+                            .put("title", res.getString("title"))
+                            .put("tags", new JsonArray());
+                    albums.put(albumId, album);
+                }
+                Integer tagId = res.getObject("tagid", Integer.class);
+                if (tagId != null) {
+                    album.getJsonArray("tags").add(tags.name(conn, tagId));
+                }
+            }
+        }
+        return albums;
+    }
+
+    private static String in(String column, List<Integer> ids) {
+        if (ids == null) {
+            return "";
+        }
+        StringJoiner placeholders = new StringJoiner(", ", " AND " + column + " IN (", ")");
+        for (int i = 0; i < ids.size(); i++) {
+            placeholders.add("?");
+        }
+        return placeholders.toString();
+    }
+
+    private static void bind(PreparedStatement ps, int userId, List<Integer> ids) throws SQLException {
+        ps.setInt(1, userId);
+        List<Integer> values = ids == null ? Collections.emptyList() : ids;
+        for (int i = 0; i < values.size(); i++) {
+            ps.setInt(i + 2, values.get(i));
+        }
+    }
+
+    private static JsonObject membership(int albumId, int imageId) {
+        return new JsonObject().put("albumId", albumId).put("imageId", imageId);
+    }
+
+    private static JsonObject deleted(JsonArray images, JsonArray albums, JsonArray memberships) {
+        return new JsonObject()
+                .put("images", images)
+                .put("albums", albums)
+                .put("memberships", memberships);
+    }
+}
@@ -0,0 +1,146 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.media.TilePyramid;
+import de.thm.mni.pi2.adder.media.TileStage;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Handler class for the deep-zoom tiles of very large images.
+ * The routes follow the DZI convention, so a viewer pointed at
+ * {@code /user/images/:id/tiles.dzi} fetches its tiles from
+ * {@code /user/images/:id/tiles_files/:level/:column_:row.jpg}. Only the
+ * tiles a viewer needs for its viewport are requested; each is sent from
+ * disk without being loaded into memory.
+ */
+public class TileHandler {
+
+    private static final Logger LOGGER = Logger.getLogger(TileHandler.class.getName());
+
+    private static final Pattern LEVEL = Pattern.compile("\\d{1,2}");
+    private static final Pattern TILE = Pattern.compile("\\d{1,6}_\\d{1,6}\\.jpg");
+
+    private final Database db;
+    private final TileStage tiles;
+
+    public TileHandler(Database db, TileStage tiles) {
+        this.db = db;
+        this.tiles = tiles;
+    }
+
+    /**
+     * Retrieves the DZI descriptor of an image.
+     *
+     * @param context The routing context containing the request parameters.
+     *                Requires "id" (image id) path parameter.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid image id.
+     *                Returns 404 if the image is not found or has no tiles.
+     *                Returns 200 with the descriptor (XML).
+     *                Returns 500 on SQL error.
+     */
+    public void getDescriptor(RoutingContext context) {
+        Path directory = tileDirectory(context);
+        if (directory != null) {
+            send(context, directory.resolve(TilePyramid.DESCRIPTOR), "application/xml");
+        }
+    }
+
+    /**
+     * Retrieves a single tile of an image.
+     *
+     * @param context The routing context containing the request parameters.
+     *                Requires "id" (image id), "level" and "tile"
+     *                ("column_row.jpg") path parameters.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 400 on an invalid image id, level or tile.
+     *                Returns 404 if the image or tile is not found.
+     *                Returns 200 with the tile (JPEG).
+     *                Returns 500 on SQL error.
+     */
+    public void getTile(RoutingContext context) {
+        String level = context.pathParam("level");
+        String tile = context.pathParam("tile");
+        if (!LEVEL.matcher(level).matches() || !TILE.matcher(tile).matches()) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid level or tile").encode());
+            return;
+        }
+        Path directory = tileDirectory(context);
+        if (directory != null) {
+            send(context, directory.resolve(TilePyramid.TILES).resolve(level).resolve(tile), "image/jpeg");
+        }
+    }
+
+    /**
+     * Looks up the pyramid of an image owned by the session user and answers
+     * the request if there is none.
+     *
+     * @return The pyramid directory, or null if the request was answered.
+     */
+    private Path tileDirectory(RoutingContext context) {
+        Integer id = context.session().get("id");
+        if (id == null || id == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return null;
+        }
+
+        int imageId;
+        try {
+            imageId = Integer.parseInt(context.pathParam("id"));
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid image id").encode());
+            return null;
+        }
+
+        Connection conn = db.read(context);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT path, tiles FROM images WHERE id = ? AND userid = ?")) {
+            ps.setInt(1, imageId);
+            ps.setInt(2, id);
+            ResultSet res = ps.executeQuery();
+            if (!res.next() || !res.getBoolean("tiles")) {
+                context.response().setStatusCode(404)
+                        .end(new JsonObject().put("message", "No tiles for this image").encode());
+                return null;
+            }
+            return tiles.directory(res.getString("path"));
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the tiles of image " + imageId, e);
+            context.response().setStatusCode(500)
+                    .end(new JsonObject().put("message", "Internal Server Error").encode());
+            return null;
+        }
+    }
+
+    private static void send(RoutingContext context, Path file, String contentType) {
+        HttpServerResponse response = context.response();
+        // tiles of an image never change
+        response.putHeader("Content-Type", contentType)
+                .putHeader("Cache-Control", "private, max-age=86400")
+                .sendFile(file.toString())
+                .onFailure(e -> {
+                    if (!response.headWritten()) {
+                        response.headers().remove("Cache-Control");
+                        response.setStatusCode(404)
+                                .putHeader("Content-Type", "application/json")
+                                .end(new JsonObject().put("message", "Tile not found").encode());
+                    } else {
+                        response.reset();
+                    }
+                });
+    }
+}
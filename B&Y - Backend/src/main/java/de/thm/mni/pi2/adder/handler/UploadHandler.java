@@ -1,12 +1,19 @@
 package de.thm.mni.pi2.adder.handler;
 
-import io.vertx.core.Vertx;
-import io.vertx.core.file.FileSystem;
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.limit.StorageQuota;
+import de.thm.mni.pi2.adder.storage.Storage;
+import de.thm.mni.pi2.adder.trace.Span;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Handler class for file uploads.
@@ -14,20 +21,31 @@ import java.util.UUID;
  */
 public class UploadHandler {
 
-    private final Vertx vertx;
+    private static final Logger LOGGER = Logger.getLogger(UploadHandler.class.getName());
 
-    public UploadHandler(Vertx vertx) {
-        this.vertx = vertx;
+    private final Storage storage;
+    private final StorageQuota quota;
+    private final AuditLog audit;
+
+    public UploadHandler(Storage storage, StorageQuota quota, AuditLog audit) {
+        this.storage = storage;
+        this.quota = quota;
+        this.audit = audit;
     }
 
     /**
      * Handles file uploads.
-     * Moves uploaded files from temporary storage to the uploads directory.
+     * Moves uploaded files from temporary storage onto a volume, chosen by
+     * {@link Storage#place} from the file name and the volumes' capacity, on
+     * that volume's I/O pool, and adds their size to the user's storage
+     * usage.
      * Renames files with a GUID to avoid collisions.
      *
      * @param context The routing context containing the file uploads.
      *                Returns 401 if the user is not logged in.
-     *                Returns 200 with the new filename on success.
+     *                Returns 200 with the new filename and its volume on
+     *                success.
+     *                Returns 413 if the file exceeds the user's quota.
      *                Returns 500 on upload failure.
      */
     public void upload(RoutingContext context) {
@@ -38,7 +56,6 @@ public class UploadHandler {
             return;
         }
 
-        FileSystem fs = vertx.fileSystem();
         try {
             context.fileUploads().forEach(fileUpload -> {
 
@@ -50,20 +67,55 @@ public class UploadHandler {
                     extension = originalName.substring(lastDotIndex);
                 }
                 String randomName = UUID.randomUUID() + extension;
-                String target = Paths.get("uploads", randomName).toString();
+                Storage.Volume volume = storage.place(randomName);
+                Path target = volume.root().resolve(randomName);
 
-                fs.move(tempFileDest, target, moveRes -> {
-                    if (moveRes.succeeded()) {
-                        context.response().setStatusCode(200)
-                                .end(new JsonObject().put("message", "File Uploaded").put("filename", randomName)
-                                        .encode());
-                    } else {
+                Span move = Span.current().child("fs.move").attribute("file.size", fileUpload.size())
+                        .attribute("storage.volume", volume.name());
+                storage.io(volume, () -> Files.move(Paths.get(tempFileDest), target)).onComplete(moveRes -> {
+                    move.end();
+                    if (moveRes.failed()) {
                         context.response().setStatusCode(500).end("upload Fail.");
+                        return;
                     }
+                    charged(context, id, volume, target, fileUpload.size()).onSuccess(charged -> {
+                        if (charged) {
+                            audit.record(id, "upload", randomName,
+                                    new JsonObject().put("size", fileUpload.size()).put("name", originalName)
+                                            .put("volume", volume.name()));
+                            context.response().setStatusCode(200)
+                                    .end(new JsonObject().put("message", "File Uploaded")
+                                            .put("filename", randomName).put("volume", volume.name()).encode());
+                        }
+                    });
                 });
             });
         } catch (Exception e) {
             // Log error if needed, avoiding console prints as per previous task
         }
     }
+
+    /**
+     * Adds a stored file to the user's usage. A file that does not fit, e.g.
+     * a chunked upload without Content-Length, is removed again and answered
+     * with 413.
+     *
+     * @return A future of false if the request was answered.
+     */
+    private Future<Boolean> charged(RoutingContext context, int userId, Storage.Volume volume, Path file,
+                                    long size) {
+        return quota.charge(userId, size).transform(ar -> {
+            if (ar.succeeded() && ar.result()) {
+                return Future.succeededFuture(true);
+            }
+            storage.io(volume, () -> Files.deleteIfExists(file));
+            if (ar.succeeded()) {
+                StorageQuota.exceeded(context, new JsonObject().put("userId", userId).put("uploadBytes", size));
+            } else {
+                LOGGER.log(Level.WARNING, "Cannot charge " + size + " bytes to user " + userId, ar.cause());
+                context.response().setStatusCode(500).end("upload Fail.");
+            }
+            return Future.succeededFuture(false);
+        });
+    }
 }
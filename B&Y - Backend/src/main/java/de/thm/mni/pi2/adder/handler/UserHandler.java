@@ -1,5 +1,11 @@
 package de.thm.mni.pi2.adder.handler;
 
+import de.thm.mni.pi2.adder.audit.AuditLog;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.limit.StorageQuota;
+import de.thm.mni.pi2.adder.purge.Purger;
+import de.thm.mni.pi2.adder.trace.Span;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -10,6 +16,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Handler class for User-related operations.
@@ -17,40 +26,61 @@ import java.sql.SQLException;
  */
 public class UserHandler {
 
-    private final Connection conn;
+    private static final Logger LOGGER = Logger.getLogger(UserHandler.class.getName());
 
-    public UserHandler(Connection conn) {
-        this.conn = conn;
+    /**
+     * Attributes of a listed user, in response order.
+     */
+    private static final List<String> USER_FIELDS = List.of("id", "username", "role");
+
+    private final Database db;
+    private final Purger purger;
+    private final StorageQuota quota;
+    private final AuditLog audit;
+    private final AuthHandler auth;
+
+    public UserHandler(Database db, Purger purger, StorageQuota quota, AuditLog audit, AuthHandler auth) {
+        this.db = db;
+        this.purger = purger;
+        this.quota = quota;
+        this.audit = audit;
+        this.auth = auth;
     }
 
     /**
      * Retrieves all users.
      *
      * @param context The routing context.
+     *                Optional query parameters: "fields" (any of id,
+     *                username, role; all by default) and "include" ("albums":
+     *                the ids of the user's albums).
+     *                Returns 400 on an unknown field or relation.
      *                Returns 200 with a JSON array of users on success.
      *                Returns 500 if no users are found or on error.
      */
     public void getAllUsers(RoutingContext context) {
+        Connection conn = db.read(context);
+        Fieldset fieldset = Fieldset.parse(context.request(), USER_FIELDS, List.of("albums"));
+        if (fieldset == null) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid fields or include").encode());
+            return;
+        }
         try {
-            PreparedStatement ps = conn.prepareStatement(
-                    "SELECT u.id,u.username,r.role FROM users u JOIN userrole ur ON u.id = ur.userid JOIN roles r ON ur.roleid = r.id ORDER BY u.id");
+            PreparedStatement ps = conn.prepareStatement(listQuery(fieldset, ""));
             ResultSet res = ps.executeQuery();
             JsonArray respond = new JsonArray();
             boolean first = true;
 
             while (res.next()) {
-                JsonObject user = new JsonObject();
-                user.put("id", res.getInt("id"));
-                user.put("username", res.getString("username"));
-                user.put("role", res.getString("role"));
-                respond.add(user);
+                respond.add(user(fieldset, res));
                 first = false;
             }
 
             if (first) {
                 context.response().setStatusCode(500).end("No Users");
             } else {
-                context.response().setStatusCode(200).end(respond.encodePrettily());
+                Encoding.send(context, 200, respond);
             }
 
         } catch (Exception e) {
@@ -68,6 +98,7 @@ public class UserHandler {
      *                Returns 500 on error.
      */
     public void getUser(RoutingContext context) {
+        Connection conn = db.read(context);
         try {
             Integer id = context.session().get("id");
             if (id == null || id == 0) {
@@ -77,7 +108,7 @@ public class UserHandler {
             }
 
             PreparedStatement ps = conn.prepareStatement(
-                    "SELECT u.id,u.username,r.role FROM users u JOIN userrole ur ON u.id = ur.userid JOIN roles r ON ur.roleid = r.id WHERE u.id = ? ORDER BY u.id");
+                    "SELECT u.id,u.username,r.role FROM users u JOIN userrole ur ON u.id = ur.userid JOIN roles r ON ur.roleid = r.id WHERE u.id = ? AND u.deleted_at IS NULL ORDER BY u.id");
             ps.setInt(1, id);
             ResultSet res = ps.executeQuery();
             JsonArray respond = new JsonArray();
@@ -95,7 +126,7 @@ public class UserHandler {
             if (first) {
                 context.response().setStatusCode(404).end("User Not Found");
             } else {
-                context.response().setStatusCode(200).end(respond.encodePrettily());
+                Encoding.send(context, 200, respond);
             }
         } catch (Exception e) {
             context.response().setStatusCode(500).end(e.getMessage());
@@ -113,7 +144,8 @@ public class UserHandler {
      *                Returns 500 on SQL error.
      */
     public void createUser(RoutingContext context) {
-        JsonObject requestBody = context.body().asJsonObject();
+        Connection conn = db.primary();
+        JsonObject requestBody = Encoding.body(context);
 
         String username = requestBody.getString("username");
         String password = requestBody.getString("password");
@@ -139,7 +171,7 @@ public class UserHandler {
                 }
             }
 
-            String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
+            String hashedPassword = hash(password);
             String insertUserSql = "INSERT INTO users (username, password) VALUES (?, ?)";
             String insertRoleSql = "INSERT INTO userrole (userid, roleid) VALUES ((SELECT id FROM users WHERE username = ?), (SELECT id FROM roles WHERE role = ?))";
 
@@ -156,6 +188,8 @@ public class UserHandler {
                 int rowsInsertedInRoleAssignment = roleAssignment.executeUpdate();
 
                 if (rowsInsertedInUserCreation > 0 && rowsInsertedInRoleAssignment > 0) {
+                    audit.record(context.session().get("id"), "user.create", null,
+                            new JsonObject().put("username", username).put("role", role));
                     context.response()
                             .setStatusCode(201)
                             .end(new JsonObject().put("message", "User created successfully").encode());
@@ -184,8 +218,9 @@ public class UserHandler {
      *                Returns 500 on SQL error.
      */
     public void updateUser(RoutingContext context) {
+        Connection conn = db.primary();
         int userId = Integer.parseInt(context.request().getParam("id"));
-        JsonObject updateBody = context.body().asJsonObject();
+        JsonObject updateBody = Encoding.body(context);
         String newUsername = updateBody.getString("username");
         String newPassword = updateBody.getString("password");
 
@@ -193,11 +228,13 @@ public class UserHandler {
 
         try (PreparedStatement pstmt = conn.prepareStatement(updateSql)) {
             pstmt.setString(1, newUsername);
-            pstmt.setString(2, BCrypt.hashpw(newPassword, BCrypt.gensalt()));
+            pstmt.setString(2, hash(newPassword));
             pstmt.setInt(3, userId);
 
             int rowsAffected = pstmt.executeUpdate();
             if (rowsAffected > 0) {
+                audit.record(context.session().get("id"), "user.update", userId,
+                        new JsonObject().put("username", newUsername));
                 context.response().setStatusCode(200).end(new JsonObject().put("message", "User updated").encode());
             } else {
                 context.response().setStatusCode(404).end(new JsonObject().put("message", "User not found").encode());
@@ -209,32 +246,104 @@ public class UserHandler {
     }
 
     /**
-     * Deletes a user by their ID.
+     * Deletes a user by their ID. The user is only marked as deleted; their
+     * albums, images and files are removed in the background by the
+     * {@link Purger}. The user's sessions end with their next request.
      *
      * @param context The routing context containing the request parameters.
      *                Requires "id" path parameter.
      *                Returns 200 on successful deletion.
+     *                Returns 400 on an invalid id.
      *                Returns 404 if the user is not found.
      *                Returns 500 on error.
      */
     public void deleteUser(RoutingContext context) {
-        String userId = context.pathParam("id");
+        Connection conn = db.primary();
+        int userId;
         try {
-            PreparedStatement ps = conn.prepareStatement("DELETE FROM users WHERE id = ?");
-            ps.setString(1, userId);
+            userId = Integer.parseInt(context.pathParam("id"));
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid user id").encode());
+            return;
+        }
+        try {
+            PreparedStatement ps = conn.prepareStatement(
+                    "UPDATE users SET deleted_at = NOW() WHERE id = ? AND deleted_at IS NULL");
+            ps.setInt(1, userId);
             int deleted = ps.executeUpdate();
 
             if (deleted > 0) {
+                auth.revoke(userId);
+                audit.record(context.session().get("id"), "user.delete", userId);
+                purger.wake();
                 context.response().setStatusCode(200).end("user deleted");
             } else {
                 context.response().setStatusCode(404).end(new JsonObject().put("error", "User not found").encode());
             }
             ps.close();
         } catch (SQLException e) {
-            System.err.println("SQL Error: " + e.getMessage());
+            LOGGER.log(Level.WARNING, "Cannot delete user " + userId, e);
             context.response().setStatusCode(500).end(new JsonObject().put("error", "Internal Server Error").encode());
         } catch (Exception e) {
-            System.err.println("Error: " + e.getMessage());
+            LOGGER.log(Level.WARNING, "Error deleting user " + userId, e);
+            context.response().setStatusCode(500).end(new JsonObject().put("error", "Internal Server Error").encode());
+        }
+    }
+
+    /**
+     * Reports a user's storage usage from the counters kept on the user row,
+     * without scanning images or files. Admin access required, except for
+     * the user's own usage.
+     *
+     * @param context The routing context containing the request parameters.
+     *                Requires "id" path parameter.
+     *                Returns 401 if not logged in or neither an Admin nor
+     *                the user.
+     *                Returns 400 on an invalid id.
+     *                Returns 404 if the user is not found.
+     *                Returns 200 with bytes, images, derivative bytes and
+     *                the quota in bytes (-1 for unlimited).
+     *                Returns 500 on error.
+     */
+    public void getUsage(RoutingContext context) {
+        Connection conn = db.read(context);
+        Integer userId = context.session().get("id");
+        if (userId == null || userId == 0) {
+            context.response()
+                    .setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+
+        int id;
+        try {
+            id = Integer.parseInt(context.pathParam("id"));
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400)
+                    .end(new JsonObject().put("message", "Invalid user id").encode());
+            return;
+        }
+
+        try (PreparedStatement roleps = conn.prepareStatement(
+                "SELECT role FROM roles WHERE id = (SELECT roleid FROM userrole WHERE userid = ?)")) {
+            roleps.setInt(1, userId);
+            ResultSet roleres = roleps.executeQuery();
+            if (id != userId && !(roleres.next() && "Admin".equals(roleres.getString("role")))) {
+                context.response()
+                        .setStatusCode(401)
+                        .end(new JsonObject().put("message", "You are not an admin").encode());
+                return;
+            }
+
+            JsonObject usage = quota.usage(conn, id);
+            if (usage == null) {
+                context.response().setStatusCode(404).end(new JsonObject().put("error", "User not found").encode());
+                return;
+            }
+            Encoding.send(context, 200, usage);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the storage usage of user " + id, e);
             context.response().setStatusCode(500).end(new JsonObject().put("error", "Internal Server Error").encode());
         }
     }
@@ -243,13 +352,16 @@ public class UserHandler {
      * Retrieves users with pagination. Admin access required.
      *
      * @param context The routing context containing query parameters.
-     *                Requires "page" and "limit" query parameters.
+     *                Requires "page" and "limit" query parameters; accepts
+     *                "fields" and "include" as {@link #getAllUsers} does.
      *                Returns 401 if not logged in or not an Admin.
-     *                Returns 400 on invalid page or limit.
+     *                Returns 400 on invalid page or limit, or an unknown
+     *                field or relation.
      *                Returns 200 with users lists and total pages.
      *                Returns 500 on error.
      */
     public void getUsersWithPagination(RoutingContext context) {
+        Connection conn = db.read(context);
         Integer userId = context.session().get("id");
         if (userId == null || userId == 0) {
             context.response()
@@ -281,13 +393,17 @@ public class UserHandler {
                     return;
                 }
 
+                Fieldset fieldset = Fieldset.parse(request, USER_FIELDS, List.of("albums"));
+                if (fieldset == null) {
+                    context.response()
+                            .setStatusCode(400)
+                            .end(new JsonObject().put("message", "Invalid fields or include").encode());
+                    return;
+                }
+
                 int offset = (page - 1) * limit;
 
-                try (PreparedStatement ps = conn.prepareStatement(
-                        "SELECT u.id, u.username, r.role FROM users u " +
-                                "JOIN userrole ur ON u.id = ur.userid " +
-                                "JOIN roles r ON ur.roleid = r.id " +
-                                "ORDER BY u.id LIMIT ? OFFSET ?")) {
+                try (PreparedStatement ps = conn.prepareStatement(listQuery(fieldset, " LIMIT ? OFFSET ?"))) {
                     ps.setInt(1, limit);
                     ps.setInt(2, offset);
 
@@ -295,14 +411,10 @@ public class UserHandler {
                     JsonArray responseArray = new JsonArray();
 
                     while (res.next()) {
-                        JsonObject user = new JsonObject()
-                                .put("id", res.getInt("id"))
-                                .put("username", res.getString("username"))
-                                .put("role", res.getString("role"));
-                        responseArray.add(user);
+                        responseArray.add(user(fieldset, res));
                     }
 
-                    try (PreparedStatement countPs = conn.prepareStatement("SELECT COUNT(*) AS total FROM users")) {
+                    try (PreparedStatement countPs = conn.prepareStatement("SELECT COUNT(*) AS total FROM users WHERE deleted_at IS NULL")) {
                         ResultSet countRes = countPs.executeQuery();
                         if (countRes.next()) {
                             int totalUsers = countRes.getInt("total");
@@ -312,9 +424,7 @@ public class UserHandler {
                                     .put("users", responseArray)
                                     .put("totalPages", totalPages);
 
-                            context.response()
-                                    .putHeader("content-type", "application/json")
-                                    .end(responseJson.encodePrettily());
+                            Encoding.send(context, 200, responseJson);
                         } else {
                             context.response()
                                     .setStatusCode(500)
@@ -340,4 +450,50 @@ public class UserHandler {
                     .end(new JsonObject().put("message", "Database connection error").encode());
         }
     }
+
+    /**
+     * Builds the user listing query: the role tables are only joined for
+     * "role" and the albums only for "include=albums".
+     *
+     * @param suffix Appended after the ORDER BY, e.g. a LIMIT clause.
+     */
+    private static String listQuery(Fieldset fieldset, String suffix) {
+        StringBuilder columns = new StringBuilder("u.id, u.username");
+        StringBuilder joins = new StringBuilder();
+        String groupBy = "";
+        if (fieldset.has("role")) {
+            columns.append(", r.role");
+            joins.append("JOIN userrole ur ON u.id = ur.userid JOIN roles r ON ur.roleid = r.id ");
+        }
+        if (fieldset.includes("albums")) {
+            columns.append(", GROUP_CONCAT(DISTINCT a.id) AS albums");
+            joins.append("LEFT JOIN albums a ON u.id = a.userid AND a.deleted_at IS NULL ");
+            groupBy = fieldset.has("role") ? "GROUP BY u.id, r.role " : "GROUP BY u.id ";
+        }
+        return "SELECT " + columns + " FROM users u " + joins +
+                "WHERE u.deleted_at IS NULL " + groupBy + "ORDER BY u.id" + suffix;
+    }
+
+    private static JsonObject user(Fieldset fieldset, ResultSet res) throws SQLException {
+        JsonObject user = new JsonObject();
+        if (fieldset.has("id")) {
+            user.put("id", res.getInt("id"));
+        }
+        if (fieldset.has("username")) {
+            user.put("username", res.getString("username"));
+        }
+        if (fieldset.has("role")) {
+            user.put("role", res.getString("role"));
+        }
+        if (fieldset.includes("albums")) {
+            user.put("albums", Fieldset.ids(res.getString("albums")));
+        }
+        return user;
+    }
+
+    private static String hash(String password) {
+        try (Span span = Span.start("bcrypt.hashpw")) {
+            return BCrypt.hashpw(password, BCrypt.gensalt());
+        }
+    }
 }
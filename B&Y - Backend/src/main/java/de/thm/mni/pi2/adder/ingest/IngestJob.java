@@ -0,0 +1,621 @@
+package de.thm.mni.pi2.adder.ingest;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.limit.StorageQuota;
+import de.thm.mni.pi2.adder.media.DuplicateIndex;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.storage.Storage;
+import de.thm.mni.pi2.adder.sync.ChangeFeed;
+import de.thm.mni.pi2.adder.tag.TagDictionary;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Imports a server-side directory tree into a user's library.
+ * A walker thread hands every image file to a pool of workers that copy or
+ * hard-link it onto an upload volume and run the post-upload stages on it.
+ * A single writer thread inserts the results in batches, one transaction per
+ * batch on a pooled primary connection, together with tags derived from the
+ * folder names and one album per folder. While the primary's circuit breaker
+ * is open the job fails instead of writing.
+ * Every committed file is appended to a checkpoint file, and a restarted job
+ * for the same directory and user skips those files. Stored file names are
+ * derived from the source path, so files that were copied but not committed
+ * before a crash are simply copied again, and rows that were committed but
+ * not checkpointed are detected by their path.
+ */
+public class IngestJob {
+
+    private static final Logger LOGGER = Logger.getLogger(IngestJob.class.getName());
+
+    private static final Set<String> EXTENSIONS = Set.of(".jpg", ".jpeg", ".png", ".gif", ".webp");
+    private static final String[] COLUMNS = {
+            "taken_at", "orientation", "width", "height", "camera_make", "camera_model", "phash", "file_size", "crc32",
+            "blurhash", "color", "tiles", "tile_bytes"
+    };
+
+    public enum State {
+        RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    public enum Mode {
+        COPY, LINK
+    }
+
+    /**
+     * A prepared file, ready to be inserted.
+     */
+    private record Item(String relative, String volume, String path, String title, String folder,
+                        List<String> tags, LocalDate fileDate, Map<String, Object> columns) {
+    }
+
+    private static final Item END = new Item(null, null, null, null, null, null, null, null);
+
+    private final Database db;
+    private final PostUploadPipeline pipeline;
+    private final SearchIndex searchIndex;
+    private final DuplicateIndex duplicateIndex;
+    private final ChangeFeed changeFeed;
+    private final TagDictionary tags;
+
+    private final Path source;
+    private final int userId;
+    private final Mode mode;
+    private final int parallelism;
+    private final int batchSize;
+    private final Path checkpoint;
+
+    private final BlockingQueue<Item> ready;
+    private final Semaphore inFlight;
+    private final Thread walker;
+    private final Thread writer;
+    private final AtomicLong discovered = new AtomicLong();
+    private final AtomicLong ingested = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger albumsCreated = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+    private volatile String error;
+    private volatile long endNanos;
+    private volatile boolean cancelled;
+
+    /**
+     * @param source      The directory to import.
+     * @param userId      The user who will own the images and albums.
+     * @param mode        Whether files are copied or hard-linked.
+     * @param parallelism Number of worker threads.
+     */
+    public IngestJob(AppConfig config, Database db, PostUploadPipeline pipeline, SearchIndex searchIndex,
+                     DuplicateIndex duplicateIndex, ChangeFeed changeFeed, TagDictionary tags,
+                     Path source, int userId, Mode mode, int parallelism) {
+        this.db = db;
+        this.pipeline = pipeline;
+        this.searchIndex = searchIndex;
+        this.duplicateIndex = duplicateIndex;
+        this.changeFeed = changeFeed;
+        this.tags = tags;
+        this.source = source;
+        this.userId = userId;
+        this.mode = mode;
+        this.parallelism = Math.max(1, parallelism);
+
+        JsonObject options = config.section("ingest");
+        this.batchSize = Math.max(1, options.getInteger("batchSize", 200));
+        this.checkpoint = Path.of(options.getString("checkpointDirectory", "ingest-checkpoints"))
+                .resolve(jobKey(source, userId) + ".done");
+        this.ready = new ArrayBlockingQueue<>(batchSize * 2);
+        // bounds the files being prepared, so memory does not grow with the tree
+        this.inFlight = new Semaphore(this.parallelism * 4);
+        this.writer = new Thread(this::write, "adder-ingest-writer");
+        this.writer.setDaemon(true);
+        this.walker = new Thread(this::walk, "adder-ingest-walker");
+        this.walker.setDaemon(true);
+    }
+
+    /**
+     * Starts the walker and writer threads and returns immediately.
+     */
+    public void start() {
+        writer.start();
+        walker.start();
+    }
+
+    /**
+     * Stops after the files already prepared have been written.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Waits for the walker and the writer to finish.
+     *
+     * @return false if they were still running at the timeout.
+     */
+    public boolean join(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        walker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        writer.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        return !walker.isAlive() && !writer.isAlive();
+    }
+
+    public State state() {
+        return state.get();
+    }
+
+    /**
+     * Describes the progress, including the throughput in files per second.
+     */
+    public JsonObject status() {
+        State current = state.get();
+        long end = current == State.RUNNING ? System.nanoTime() : endNanos;
+        double seconds = Math.max(1e-3, (end - startNanos) / 1e9);
+        long done = ingested.get();
+        return new JsonObject()
+                .put("state", current.name())
+                .put("directory", source.toString())
+                .put("userId", userId)
+                .put("mode", mode.name().toLowerCase())
+                .put("parallelism", parallelism)
+                .put("discovered", discovered.get())
+                .put("ingested", done)
+                .put("skipped", skipped.get())
+                .put("failed", failed.get())
+                .put("albumsCreated", albumsCreated.get())
+                .put("elapsedSeconds", Math.round(seconds * 10) / 10.0)
+                .put("filesPerSecond", Math.round(done / seconds * 10) / 10.0)
+                .put("error", error);
+    }
+
+    private void walk() {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "adder-ingest-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Set<String> done = loadCheckpoint();
+            Files.walkFileTree(source, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (!attrs.isRegularFile() || !EXTENSIONS.contains(extension(file))) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    discovered.incrementAndGet();
+                    String relative = relative(file);
+                    if (done.contains(relative)) {
+                        skipped.incrementAndGet();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    inFlight.acquireUninterruptibly();
+                    workers.execute(() -> {
+                        try {
+                            Item item = prepare(file, relative, attrs);
+                            ready.put(item);
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            LOGGER.log(Level.WARNING, "Could not ingest " + file, e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    failed.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Could not read " + file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+                ready.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copies or links the file onto a volume and analyses it.
+     * Runs on a worker thread.
+     */
+    private Item prepare(Path file, String relative, BasicFileAttributes attrs) throws Exception {
+        String stored = "ingest-" + jobKey(source, userId).substring(0, 8) + "-"
+                + hash(relative).substring(0, 24) + extension(file);
+        Storage.Volume volume = pipeline.storage().place(stored);
+        Path target = volume.root().resolve(stored);
+        if (mode == Mode.LINK) {
+            try {
+                Files.deleteIfExists(target);
+                Files.createLink(target, file);
+            } catch (IOException | UnsupportedOperationException e) {
+                // different file system: fall back to copying
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } else {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        Map<String, Object> columns = pipeline.analyse(target);
+
+        Path parent = source.relativize(file).getParent();
+        List<String> tags = new ArrayList<>();
+        if (parent != null) {
+            for (Path segment : parent) {
+                tags.add(segment.toString());
+            }
+        }
+        String name = file.getFileName().toString();
+        String title = name.substring(0, name.length() - extension(file).length());
+        LocalDate fileDate = LocalDate.ofInstant(attrs.lastModifiedTime().toInstant(), ZoneId.systemDefault());
+        return new Item(relative, volume.name(), stored, title,
+                parent == null ? null : String.join(" / ", tags), tags, fileDate, columns);
+    }
+
+    private void write() {
+        Map<String, Integer> albums = new HashMap<>();
+        try (BufferedWriter log = Files.newBufferedWriter(createCheckpoint(), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            List<Item> batch = new ArrayList<>(batchSize);
+            boolean end = false;
+            while (!end) {
+                Item item = ready.poll(500, TimeUnit.MILLISECONDS);
+                if (item == END) {
+                    end = true;
+                } else if (item != null) {
+                    batch.add(item);
+                }
+                if (!batch.isEmpty() && (end || item == null || batch.size() >= batchSize)) {
+                    write(batch, albums);
+                    for (Item written : batch) {
+                        log.write(written.relative());
+                        log.newLine();
+                    }
+                    log.flush();
+                    batch.clear();
+                }
+            }
+            finish(cancelled ? State.CANCELLED : State.DONE);
+        } catch (Exception e) {
+            if (e instanceof SQLException) {
+                // lets the breaker notice a primary that went away
+                db.validatePrimary();
+            }
+            fail(e);
+            cancelled = true;
+            drain();
+        }
+    }
+
+    /**
+     * Inserts one batch on a pooled primary connection, which goes back to
+     * the pool right after.
+     */
+    private void write(List<Item> batch, Map<String, Integer> albums) throws SQLException {
+        if (!db.ready()) {
+            throw new SQLException("Database unavailable");
+        }
+        db.withPrimary(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                insert(conn, batch, albums);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Discards prepared files until the walker is done, so that neither the
+     * walker nor the workers block on a full queue after a failure.
+     */
+    private void drain() {
+        try {
+            while (ready.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Inserts one batch and its change records in a transaction and updates
+     * the in-memory indexes once it is committed.
+     */
+    private void insert(Connection conn, List<Item> batch, Map<String, Integer> albums) throws SQLException {
+        try {
+            // new tags are committed on their own first, their ids are cached
+            // right away and must not be rolled back with a failed batch
+            Set<String> names = new LinkedHashSet<>();
+            batch.forEach(item -> names.addAll(item.tags()));
+            tags.intern(conn, names);
+            conn.commit();
+
+            Set<String> existing = existingPaths(conn, batch);
+            List<Item> items = new ArrayList<>();
+            for (Item item : batch) {
+                if (existing.contains(item.path())) {
+                    skipped.incrementAndGet();
+                } else {
+                    items.add(item);
+                }
+            }
+
+            List<ChangeFeed.Change> changes = new ArrayList<>();
+            Map<Integer, String> created = new HashMap<>();
+            for (Item item : items) {
+                if (item.folder() != null && !albums.containsKey(item.folder())) {
+                    albums.put(item.folder(), album(conn, item.folder(), created));
+                }
+            }
+
+            int[] ids = insertImages(conn, items);
+
+            try (PreparedStatement tagLinks = conn.prepareStatement(
+                    "INSERT INTO imagetags (imageid, tagid) VALUES (?, ?)");
+                 PreparedStatement members = conn.prepareStatement(
+                         "INSERT INTO albumimages (albumid, imageid) VALUES (?, ?)")) {
+                for (int i = 0; i < items.size(); i++) {
+                    Item item = items.get(i);
+                    // cached by now, no statement runs here
+                    for (int tagId : tags.intern(conn, item.tags())) {
+                        tagLinks.setInt(1, ids[i]);
+                        tagLinks.setInt(2, tagId);
+                        tagLinks.addBatch();
+                    }
+                    if (item.folder() != null) {
+                        int albumId = albums.get(item.folder());
+                        members.setInt(1, albumId);
+                        members.setInt(2, ids[i]);
+                        members.addBatch();
+                        changes.add(new ChangeFeed.Change(0, ChangeFeed.Entity.MEMBERSHIP, albumId, ids[i],
+                                ChangeFeed.Op.UPSERT));
+                    }
+                }
+                tagLinks.executeBatch();
+                members.executeBatch();
+            }
+            for (int albumId : created.keySet()) {
+                changes.add(new ChangeFeed.Change(0, ChangeFeed.Entity.ALBUM, albumId, null, ChangeFeed.Op.UPSERT));
+            }
+            for (int id : ids) {
+                changes.add(new ChangeFeed.Change(0, ChangeFeed.Entity.IMAGE, id, null, ChangeFeed.Op.UPSERT));
+            }
+            changeFeed.stage(conn, userId, changes);
+            conn.commit();
+            changeFeed.committed(conn, userId, changes);
+
+            for (Map.Entry<Integer, String> album : created.entrySet()) {
+                searchIndex.put(SearchIndex.Kind.ALBUM, userId, album.getKey(), album.getValue());
+            }
+            albumsCreated.addAndGet(created.size());
+            for (int i = 0; i < items.size(); i++) {
+                Item item = items.get(i);
+                searchIndex.put(SearchIndex.Kind.IMAGE, userId, ids[i], item.title());
+                if (item.columns().get("phash") instanceof Long hash) {
+                    duplicateIndex.add(userId, ids[i], hash);
+                }
+            }
+            ingested.addAndGet(items.size());
+        } catch (SQLException e) {
+            conn.rollback();
+            // albums created in this transaction are gone again
+            albums.clear();
+            throw e;
+        }
+    }
+
+    private Set<String> existingPaths(Connection conn, List<Item> batch) throws SQLException {
+        StringJoiner placeholders = new StringJoiner(", ", "(", ")");
+        for (int i = 0; i < batch.size(); i++) {
+            placeholders.add("?");
+        }
+        Set<String> existing = new HashSet<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT path FROM images WHERE userid = ? AND path IN " + placeholders)) {
+            ps.setInt(1, userId);
+            for (int i = 0; i < batch.size(); i++) {
+                ps.setString(i + 2, batch.get(i).path());
+            }
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                existing.add(res.getString("path"));
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Finds or creates the album for a folder.
+     *
+     * @param created Receives id and title of a newly created album.
+     */
+    private int album(Connection conn, String title, Map<Integer, String> created) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id FROM albums WHERE userid = ? AND title = ? AND deleted_at IS NULL")) {
+            ps.setInt(1, userId);
+            ps.setString(2, title);
+            ResultSet res = ps.executeQuery();
+            if (res.next()) {
+                return res.getInt("id");
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO albums (userid, title) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            ps.setInt(1, userId);
+            ps.setString(2, title);
+            ps.executeUpdate();
+            ResultSet keys = ps.getGeneratedKeys();
+            keys.next();
+            int albumId = keys.getInt(1);
+            created.put(albumId, title);
+            return albumId;
+        }
+    }
+
+    private int[] insertImages(Connection conn, List<Item> items) throws SQLException {
+        int[] ids = new int[items.size()];
+        if (items.isEmpty()) {
+            return ids;
+        }
+        StringJoiner columns = new StringJoiner(", ");
+        StringJoiner values = new StringJoiner(", ");
+        for (String column : COLUMNS) {
+            columns.add(column);
+            values.add("?");
+        }
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO images (userid, title, date, volume, path, " + columns + ") VALUES (?, ?, ?, ?, ?, "
+                        + values + ")",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (Item item : items) {
+                ps.setInt(1, userId);
+                ps.setString(2, item.title());
+                Object date = item.columns().get("date");
+                ps.setDate(3, date instanceof Date exif ? exif : Date.valueOf(item.fileDate()));
+                ps.setString(4, item.volume());
+                ps.setString(5, item.path());
+                for (int i = 0; i < COLUMNS.length; i++) {
+                    ps.setObject(6 + i, item.columns().get(COLUMNS[i]));
+                }
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ResultSet keys = ps.getGeneratedKeys();
+            for (int i = 0; i < ids.length && keys.next(); i++) {
+                ids[i] = keys.getInt(1);
+            }
+        }
+        long bytes = 0;
+        long tileBytes = 0;
+        for (Item item : items) {
+            bytes += item.columns().get("file_size") instanceof Long size ? size : 0;
+            tileBytes += item.columns().get("tile_bytes") instanceof Long size ? size : 0;
+        }
+        // same transaction as the rows, admin ingests are not limited by the quota
+        StorageQuota.adjust(conn, userId, bytes, items.size(), tileBytes);
+        return ids;
+    }
+
+    private Set<String> loadCheckpoint() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (Files.exists(checkpoint)) {
+            try (var lines = Files.lines(checkpoint, StandardCharsets.UTF_8)) {
+                lines.filter(line -> !line.isEmpty()).forEach(done::add);
+            }
+            LOGGER.info("Resuming ingest of " + source + ", " + done.size() + " files already done");
+        }
+        return done;
+    }
+
+    private Path createCheckpoint() throws IOException {
+        Files.createDirectories(checkpoint.getParent());
+        return checkpoint;
+    }
+
+    /**
+     * Ends the job unless it already failed, e.g. in the walker.
+     */
+    private void finish(State result) {
+        long end = System.nanoTime();
+        if (!state.compareAndSet(State.RUNNING, result)) {
+            return;
+        }
+        endNanos = end;
+        LOGGER.info("Ingest of " + source + " " + result.name().toLowerCase(Locale.ROOT) + ": " + status().encode());
+    }
+
+    private void fail(Exception e) {
+        long end = System.nanoTime();
+        if (!state.compareAndSet(State.RUNNING, State.FAILED)) {
+            return;
+        }
+        error = e.getMessage();
+        endNanos = end;
+        LOGGER.log(Level.SEVERE, "Ingest of " + source + " failed", e);
+    }
+
+    private String relative(Path file) {
+        // '/' on every platform, so checkpoints stay valid
+        return source.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Identifies a job by its directory and owner, so a restarted job finds
+     * its checkpoint.
+     */
+    static String jobKey(Path source, int userId) {
+        return hash(userId + ":" + source.toAbsolutePath().normalize());
+    }
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package de.thm.mni.pi2.adder.limit;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global admission control.
+ * Counts requests that are currently in flight (overall, waiting for the
+ * database and uploading) and sheds new ones with 503 and a Retry-After
+ * header once a threshold from the "limits.admission" configuration section
+ * is exceeded. Counters are released when the response ends.
+ * On shutdown it drains the server: first every response asks its client to
+ * close the connection, then new requests are refused, and
+ * {@link #idle} reports when the requests in flight have finished.
+ */
+public class AdmissionController {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger databaseInFlight = new AtomicInteger();
+    private final AtomicLong uploadBytesInFlight = new AtomicLong();
+
+    private volatile int maxInFlight;
+    private volatile int maxDatabaseInFlight;
+    private volatile long maxUploadBytesInFlight;
+    private volatile int retryAfterSeconds;
+    private volatile boolean draining;
+    private volatile boolean refusing;
+
+    public AdmissionController(AppConfig config) {
+        configure(config);
+        config.onReload(this::configure);
+    }
+
+    private void configure(AppConfig config) {
+        JsonObject admission = config.section("limits").getJsonObject("admission", new JsonObject());
+        this.maxInFlight = admission.getInteger("maxInFlight", 1024);
+        this.maxDatabaseInFlight = admission.getInteger("maxDatabaseInFlight", 128);
+        this.maxUploadBytesInFlight = admission.getLong("maxUploadBytesInFlight", 512L * 1024 * 1024);
+        this.retryAfterSeconds = admission.getInteger("retryAfterSeconds", 1);
+    }
+
+    /**
+     * Admits a request against the global concurrency limit.
+     *
+     * @param context The routing context.
+     *                Returns 503 if too many requests are in flight.
+     */
+    public void admit(RoutingContext context) {
+        if (draining) {
+            context.response().putHeader(HttpHeaders.CONNECTION, "close");
+        }
+        if (refusing) {
+            shed(context, "Server is shutting down");
+            return;
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            shed(context, "Server is busy");
+            return;
+        }
+        context.addEndHandler(v -> inFlight.decrementAndGet());
+        context.next();
+    }
+
+    /**
+     * Admits a request that needs the database.
+     *
+     * @param context The routing context.
+     *                Returns 503 if the database wait queue is too long.
+     */
+    public void admitDatabase(RoutingContext context) {
+        if (databaseInFlight.incrementAndGet() > maxDatabaseInFlight) {
+            databaseInFlight.decrementAndGet();
+            shed(context, "Database is busy");
+            return;
+        }
+        context.addEndHandler(v -> databaseInFlight.decrementAndGet());
+        context.next();
+    }
+
+    /**
+     * Admits an upload based on its announced Content-Length.
+     * Must run before the body is read.
+     *
+     * @param context The routing context.
+     *                Returns 503 if too many upload bytes are in flight.
+     */
+    public void admitUpload(RoutingContext context) {
+        String header = context.request().getHeader("Content-Length");
+        long length = 0;
+        if (header != null) {
+            try {
+                length = Math.max(0, Long.parseLong(header));
+            } catch (NumberFormatException ignored) {
+                // chunked uploads are only covered by the global limit
+            }
+        }
+
+        long bytes = length;
+        long total = uploadBytesInFlight.addAndGet(bytes);
+        // a single upload larger than the limit is still admitted when nothing else is running
+        if (total > maxUploadBytesInFlight && total != bytes) {
+            uploadBytesInFlight.addAndGet(-bytes);
+            shed(context, "Upload bandwidth exhausted");
+            return;
+        }
+        context.addEndHandler(v -> uploadBytesInFlight.addAndGet(-bytes));
+        context.next();
+    }
+
+    /**
+     * Starts draining: requests are still served, but clients are told to
+     * close their connections so they reconnect elsewhere.
+     */
+    public void drain() {
+        draining = true;
+    }
+
+    /**
+     * Refuses all new requests with 503; requests in flight continue.
+     */
+    public void refuse() {
+        draining = true;
+        refusing = true;
+    }
+
+    public boolean draining() {
+        return draining;
+    }
+
+    /**
+     * Waits until no admitted request is in flight.
+     *
+     * @param timeoutMillis Deadline for the requests in flight.
+     * @return Completed with true once idle, or with false at the deadline.
+     */
+    public Future<Boolean> idle(Vertx vertx, long timeoutMillis) {
+        Promise<Boolean> idle = Promise.promise();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        vertx.setPeriodic(50, id -> {
+            if (inFlight.get() <= 0 || System.currentTimeMillis() >= deadline) {
+                vertx.cancelTimer(id);
+                idle.tryComplete(inFlight.get() <= 0);
+            }
+        });
+        return idle.future();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int databaseInFlight() {
+        return databaseInFlight.get();
+    }
+
+    public long uploadBytesInFlight() {
+        return uploadBytesInFlight.get();
+    }
+
+    private void shed(RoutingContext context, String message) {
+        context.response()
+                .setStatusCode(503)
+                .putHeader("Retry-After", String.valueOf(retryAfterSeconds))
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put("message", message).encode());
+    }
+}
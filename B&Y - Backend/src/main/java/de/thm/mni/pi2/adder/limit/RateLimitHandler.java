@@ -0,0 +1,84 @@
+package de.thm.mni.pi2.adder.limit;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Per-route rate limiting handler.
+ * Every request takes one token from the bucket of its remote IP and, if the
+ * session belongs to a logged-in user, one from the bucket of that user.
+ * Budgets are read from the "limits.routes.&lt;name&gt;" configuration section
+ * and follow configuration reloads.
+ */
+public class RateLimitHandler implements Handler<RoutingContext> {
+
+    private final String name;
+    private final TokenBucketLimiter limiter;
+    private volatile double rate;
+    private volatile int burst;
+
+    private RateLimitHandler(String name, int stripes) {
+        this.name = name;
+        this.limiter = new TokenBucketLimiter(stripes);
+    }
+
+    /**
+     * Creates a limiter for the named route budget.
+     *
+     * @param name   The budget name, e.g. "login", "upload" or "default".
+     * @param config The application configuration.
+     * @return The handler, already registered for configuration reloads.
+     */
+    public static RateLimitHandler create(String name, AppConfig config) {
+        RateLimitHandler handler = new RateLimitHandler(name,
+                config.section("limits").getInteger("stripes", 4096));
+        handler.configure(config);
+        config.onReload(handler::configure);
+        return handler;
+    }
+
+    private void configure(AppConfig config) {
+        JsonObject routes = config.section("limits").getJsonObject("routes", new JsonObject());
+        JsonObject budget = routes.getJsonObject(name, routes.getJsonObject("default", new JsonObject()));
+        this.rate = budget.getDouble("rate", 20.0);
+        this.burst = budget.getInteger("burst", 40);
+    }
+
+    /**
+     * Lets the request pass if both the IP and the user bucket have a token left.
+     *
+     * @param context The routing context.
+     *                Returns 429 with a Retry-After header if the budget is
+     *                exhausted.
+     */
+    @Override
+    public void handle(RoutingContext context) {
+        double currentRate = rate;
+        int currentBurst = burst;
+
+        String ip = context.request().remoteAddress() != null
+                ? context.request().remoteAddress().host()
+                : "unknown";
+        long wait = limiter.tryAcquire("ip:" + ip, currentRate, currentBurst);
+
+        if (wait == 0 && context.session() != null) {
+            Integer userId = context.session().get("id");
+            if (userId != null && userId != 0) {
+                wait = limiter.tryAcquire("user:" + userId, currentRate, currentBurst);
+            }
+        }
+
+        if (wait > 0) {
+            long retryAfter = Math.max(1, (long) Math.ceil(Math.min(wait, 3_600_000L) / 1000.0));
+            context.response()
+                    .setStatusCode(429)
+                    .putHeader("Retry-After", String.valueOf(retryAfter))
+                    .putHeader("content-type", "application/json")
+                    .end(new JsonObject().put("message", "Too many requests").encode());
+            return;
+        }
+        context.next();
+    }
+}
@@ -0,0 +1,168 @@
+package de.thm.mni.pi2.adder.limit;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.db.Database;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-user storage accounting. Every user row carries counters of the bytes
+ * uploaded, the images added and the bytes of derived files (deep-zoom
+ * tiles). Each path that changes them adjusts them in place, so reading
+ * usage is a primary key lookup instead of a directory walk or an
+ * {@code images} scan:
+ * <ul>
+ *     <li>uploads add their bytes once the file is stored,</li>
+ *     <li>added and ingested images add one image, ingested ones also
+ *     their bytes,</li>
+ *     <li>the post-upload stages add the tile bytes,</li>
+ *     <li>deleting an image subtracts all three.</li>
+ * </ul>
+ * Uploaded bytes are limited by {@code users.quota_bytes}, or
+ * "quota.defaultBytes" for users without one (-1 for unlimited). The upload
+ * checks run before the request reaches a handler thread, so their
+ * statements run on a worker with a pooled connection.
+ */
+public class StorageQuota {
+
+    private static final Logger LOGGER = Logger.getLogger(StorageQuota.class.getName());
+
+    private final Database db;
+    private final AppConfig config;
+
+    public StorageQuota(Database db, AppConfig config) {
+        this.db = db;
+        this.config = config;
+    }
+
+    /**
+     * Refuses an upload whose announced Content-Length does not fit into the
+     * user's quota. Must run before the body is read; the request is paused
+     * until the quota is known and the body handler resumes it.
+     *
+     * @param context The routing context.
+     *                Returns 401 if the user is not logged in.
+     *                Returns 413 if the upload exceeds the quota.
+     *                Returns 500 on SQL error.
+     */
+    public void admitUpload(RoutingContext context) {
+        Integer userId = context.session().get("id");
+        if (userId == null || userId == 0) {
+            context.response().setStatusCode(401)
+                    .end(new JsonObject().put("message", "You must be logged in").encode());
+            return;
+        }
+        long length = 0;
+        String header = context.request().getHeader("Content-Length");
+        if (header != null) {
+            try {
+                length = Math.max(0, Long.parseLong(header));
+            } catch (NumberFormatException ignored) {
+                // chunked uploads are checked once they are stored
+            }
+        }
+        long announced = length;
+        context.request().pause();
+        db.onPrimary(conn -> usage(conn, userId)).onComplete(ar -> {
+            if (ar.failed()) {
+                LOGGER.log(Level.WARNING, "Cannot read the storage usage of user " + userId, ar.cause());
+                context.response().setStatusCode(500)
+                        .end(new JsonObject().put("message", "Database connection error").encode());
+                return;
+            }
+            JsonObject usage = ar.result();
+            long quota = usage == null ? -1 : usage.getLong("quotaBytes");
+            if (quota >= 0 && usage.getLong("bytes") + announced > quota) {
+                exceeded(context, usage);
+                return;
+            }
+            context.next();
+        });
+    }
+
+    /**
+     * Adds stored upload bytes to a user, unless that exceeds the quota.
+     *
+     * @return A future of false if the quota would be exceeded; nothing was
+     *         added.
+     */
+    public Future<Boolean> charge(int userId, long bytes) {
+        return db.onPrimary(conn -> charge(conn, userId, bytes));
+    }
+
+    private boolean charge(Connection conn, int userId, long bytes) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET used_bytes = used_bytes + ? WHERE id = ? "
+                        + "AND (COALESCE(quota_bytes, ?) < 0 OR used_bytes + ? <= COALESCE(quota_bytes, ?))")) {
+            long fallback = defaultBytes();
+            ps.setLong(1, bytes);
+            ps.setInt(2, userId);
+            ps.setLong(3, fallback);
+            ps.setLong(4, bytes);
+            ps.setLong(5, fallback);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Changes a user's counters without checking the quota; negative values
+     * subtract, never below zero.
+     */
+    public static void adjust(Connection conn, int userId, long bytes, int images, long derivativeBytes)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET used_bytes = GREATEST(used_bytes + ?, 0), "
+                        + "image_count = GREATEST(image_count + ?, 0), "
+                        + "derivative_bytes = GREATEST(derivative_bytes + ?, 0) WHERE id = ?")) {
+            ps.setLong(1, bytes);
+            ps.setInt(2, images);
+            ps.setLong(3, derivativeBytes);
+            ps.setInt(4, userId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads a user's counters and effective quota.
+     *
+     * @return The usage, or null if the user does not exist.
+     */
+    public JsonObject usage(Connection conn, int userId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT used_bytes, image_count, derivative_bytes, quota_bytes FROM users WHERE id = ?")) {
+            ps.setInt(1, userId);
+            ResultSet res = ps.executeQuery();
+            if (!res.next()) {
+                return null;
+            }
+            Long quota = res.getObject("quota_bytes", Long.class);
+            return new JsonObject()
+                    .put("userId", userId)
+                    .put("bytes", res.getLong("used_bytes"))
+                    .put("images", res.getInt("image_count"))
+                    .put("derivativeBytes", res.getLong("derivative_bytes"))
+                    .put("quotaBytes", quota != null ? quota : defaultBytes());
+        }
+    }
+
+    /**
+     * Answers 413 with the user's usage.
+     */
+    public static void exceeded(RoutingContext context, JsonObject usage) {
+        context.response().setStatusCode(413)
+                .putHeader("content-type", "application/json")
+                .end(new JsonObject().put("message", "Storage quota exceeded").put("usage", usage).encode());
+    }
+
+    private long defaultBytes() {
+        return config.section("quota").getLong("defaultBytes", -1L);
+    }
+}
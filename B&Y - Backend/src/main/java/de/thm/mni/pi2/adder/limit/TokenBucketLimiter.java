@@ -0,0 +1,81 @@
+package de.thm.mni.pi2.adder.limit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token bucket limiter over a fixed number of striped buckets.
+ * Keys are hashed onto stripes, so memory stays constant no matter how many
+ * clients are seen. Two keys that share a stripe share a bucket, which only
+ * ever makes the limit stricter, never looser.
+ * Each stripe packs the last refill time (milliseconds, upper 42 bits) and the
+ * available tokens (in thousandths, lower 22 bits) into a single long that is
+ * updated with compare-and-set.
+ */
+public class TokenBucketLimiter {
+
+    private static final int TOKEN_BITS = 22;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    /** Largest burst that fits into the token bits (in whole tokens). */
+    public static final int MAX_BURST = (int) (TOKEN_MASK / 1000);
+
+    private final AtomicLongArray stripes;
+    private final int mask;
+    private final long epoch = System.nanoTime();
+
+    /**
+     * @param stripes Number of buckets, rounded up to a power of two.
+     */
+    public TokenBucketLimiter(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Tries to take one token for the given key.
+     *
+     * @param key   The client key (e.g. "ip:10.0.0.1" or "user:42").
+     * @param rate  Refill rate in tokens per second.
+     * @param burst Bucket capacity in tokens.
+     * @return 0 if a token was taken, otherwise the milliseconds until the next
+     *         token becomes available.
+     */
+    public long tryAcquire(String key, double rate, int burst) {
+        int index = index(key);
+        long capacity = Math.min(burst, MAX_BURST) * 1000L;
+        // +1 so that a stored value of 0 always means "never used"
+        long now = (System.nanoTime() - epoch) / 1_000_000 + 1;
+
+        while (true) {
+            long current = stripes.get(index);
+            long last = current >>> TOKEN_BITS;
+            long tokens = current & TOKEN_MASK;
+            if (current == 0) {
+                last = now;
+                tokens = capacity;
+            }
+
+            // rate tokens per second == rate thousandths per millisecond
+            tokens = Math.min(capacity, tokens + (long) ((now - last) * rate));
+            if (tokens < 1000) {
+                if (rate <= 0) {
+                    return Long.MAX_VALUE;
+                }
+                return Math.max(1, (long) Math.ceil((1000 - tokens) / rate));
+            }
+
+            long next = (now << TOKEN_BITS) | (tokens - 1000);
+            if (stripes.compareAndSet(index, current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private int index(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h & mask;
+    }
+}
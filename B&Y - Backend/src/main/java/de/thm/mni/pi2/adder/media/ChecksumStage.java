@@ -0,0 +1,49 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Post-upload stage that stores the file size and CRC-32 in
+ * {@code images.file_size} and {@code images.crc32}, so album exports can
+ * lay out their ZIP archive without reading the files first.
+ */
+public class ChecksumStage implements PostUploadStage {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public void process(Path file, Map<String, Object> columns) throws IOException {
+        long[] checksum = checksum(file);
+        columns.put("file_size", checksum[0]);
+        columns.put("crc32", checksum[1]);
+    }
+
+    /**
+     * Reads the whole file once.
+     *
+     * @param file The file.
+     * @return The size in bytes and the CRC-32 of the content.
+     * @throws IOException If the file cannot be read.
+     */
+    public static long[] checksum(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+        return new long[]{size, crc.getValue()};
+    }
+}
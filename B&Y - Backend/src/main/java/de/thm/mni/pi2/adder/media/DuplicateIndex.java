@@ -0,0 +1,290 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory near-duplicate index over perceptual hashes.
+ * Every user has their own BK-tree keyed by Hamming distance, so a lookup
+ * only visits the subtrees whose distance band can still contain a match
+ * instead of scanning the whole library.
+ */
+public class DuplicateIndex {
+
+    private final Map<Integer, BkTree> trees = new ConcurrentHashMap<>();
+    /** imageId -> owner and hash, needed to remove images by id. */
+    private final Map<Integer, long[]> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Loads all stored hashes.
+     *
+     * @param conn The database connection.
+     * @throws SQLException If the query fails.
+     */
+    public void load(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT id, userid, phash FROM images WHERE phash IS NOT NULL")) {
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                add(res.getInt("userid"), res.getInt("id"), res.getLong("phash"));
+            }
+        }
+    }
+
+    public void add(int userId, int imageId, long hash) {
+        remove(imageId);
+        trees.computeIfAbsent(userId, id -> new BkTree()).add(hash, imageId);
+        entries.put(imageId, new long[]{userId, hash});
+    }
+
+    public void remove(int imageId) {
+        long[] entry = entries.remove(imageId);
+        if (entry != null) {
+            BkTree tree = trees.get((int) entry[0]);
+            if (tree != null) {
+                tree.remove(entry[1], imageId);
+            }
+        }
+    }
+
+    /**
+     * Finds images of the same user within the given distance of an image.
+     *
+     * @param userId      The owner.
+     * @param imageId     The reference image.
+     * @param maxDistance Maximum number of differing hash bits.
+     * @return Matching image ids with their distance, closest first; null if
+     *         the image is unknown or has no hash.
+     */
+    public List<int[]> nearDuplicates(int userId, int imageId, int maxDistance) {
+        long[] entry = entries.get(imageId);
+        BkTree tree = trees.get(userId);
+        if (entry == null || entry[0] != userId || tree == null) {
+            return null;
+        }
+        List<int[]> matches = tree.search(entry[1], maxDistance);
+        matches.removeIf(match -> match[0] == imageId);
+        matches.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]));
+        return matches;
+    }
+
+    /**
+     * Groups a user's images into clusters of near-duplicates.
+     *
+     * @param userId      The owner.
+     * @param maxDistance Maximum number of differing bits between neighbours.
+     * @return Clusters with at least two images, each sorted by image id.
+     */
+    public List<List<Integer>> clusters(int userId, int maxDistance) {
+        BkTree tree = trees.get(userId);
+        if (tree == null) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, List<Integer>> byHash = tree.snapshot();
+        Map<Integer, Integer> parent = new HashMap<>();
+        for (Map.Entry<Long, List<Integer>> bucket : byHash.entrySet()) {
+            List<Integer> ids = bucket.getValue();
+            for (int id : ids) {
+                union(parent, ids.get(0), id);
+            }
+            for (int[] match : tree.search(bucket.getKey(), maxDistance)) {
+                union(parent, ids.get(0), match[0]);
+            }
+        }
+
+        Map<Integer, List<Integer>> groups = new HashMap<>();
+        for (Integer id : parent.keySet()) {
+            groups.computeIfAbsent(find(parent, id), root -> new ArrayList<>()).add(id);
+        }
+        List<List<Integer>> clusters = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            if (group.size() > 1) {
+                group.sort(Integer::compare);
+                clusters.add(group);
+            }
+        }
+        clusters.sort((a, b) -> Integer.compare(a.get(0), b.get(0)));
+        return clusters;
+    }
+
+    private static void union(Map<Integer, Integer> parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent.put(Math.max(rootA, rootB), Math.min(rootA, rootB));
+        }
+    }
+
+    private static int find(Map<Integer, Integer> parent, int id) {
+        int root = id;
+        Integer next;
+        while ((next = parent.putIfAbsent(root, root)) != null && next != root) {
+            root = next;
+        }
+        // path compression
+        int current = id;
+        while (current != root) {
+            int up = parent.get(current);
+            parent.put(current, root);
+            current = up;
+        }
+        return root;
+    }
+
+    /**
+     * BK-tree over 64-bit hashes. Images with identical hashes share a node;
+     * removed images leave their node in place as a routing node.
+     */
+    private static final class BkTree {
+
+        private Node root;
+
+        synchronized void add(long hash, int imageId) {
+            if (root == null) {
+                root = new Node(hash);
+                root.addId(imageId);
+                return;
+            }
+            Node node = root;
+            while (true) {
+                int distance = PerceptualHash.distance(node.hash, hash);
+                if (distance == 0) {
+                    node.addId(imageId);
+                    return;
+                }
+                Node child = node.child(distance);
+                if (child == null) {
+                    child = new Node(hash);
+                    child.addId(imageId);
+                    node.addChild(distance, child);
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        synchronized void remove(long hash, int imageId) {
+            Node node = root;
+            while (node != null) {
+                int distance = PerceptualHash.distance(node.hash, hash);
+                if (distance == 0) {
+                    node.removeId(imageId);
+                    return;
+                }
+                node = node.child(distance);
+            }
+        }
+
+        synchronized List<int[]> search(long hash, int maxDistance) {
+            List<int[]> result = new ArrayList<>();
+            if (root == null) {
+                return result;
+            }
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int distance = PerceptualHash.distance(node.hash, hash);
+                if (distance <= maxDistance) {
+                    for (int i = 0; i < node.idCount; i++) {
+                        result.add(new int[]{node.ids[i], distance});
+                    }
+                }
+                // triangle inequality: only children in [d - max, d + max] can match
+                for (int i = 0; i < node.childCount; i++) {
+                    int edge = node.childDistances[i];
+                    if (edge >= distance - maxDistance && edge <= distance + maxDistance) {
+                        pending.push(node.children[i]);
+                    }
+                }
+            }
+            return result;
+        }
+
+        synchronized Map<Long, List<Integer>> snapshot() {
+            Map<Long, List<Integer>> result = new HashMap<>();
+            if (root == null) {
+                return result;
+            }
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                if (node.idCount > 0) {
+                    List<Integer> ids = new ArrayList<>(node.idCount);
+                    for (int i = 0; i < node.idCount; i++) {
+                        ids.add(node.ids[i]);
+                    }
+                    result.put(node.hash, ids);
+                }
+                for (int i = 0; i < node.childCount; i++) {
+                    pending.push(node.children[i]);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Tree node with compact arrays instead of maps, since a library can
+     * hold millions of them.
+     */
+    private static final class Node {
+        final long hash;
+        int[] ids = new int[1];
+        int idCount;
+        byte[] childDistances = new byte[0];
+        Node[] children = new Node[0];
+        int childCount;
+
+        Node(long hash) {
+            this.hash = hash;
+        }
+
+        void addId(int id) {
+            if (idCount == ids.length) {
+                ids = Arrays.copyOf(ids, idCount * 2);
+            }
+            ids[idCount++] = id;
+        }
+
+        void removeId(int id) {
+            for (int i = 0; i < idCount; i++) {
+                if (ids[i] == id) {
+                    ids[i] = ids[--idCount];
+                    return;
+                }
+            }
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (childDistances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if (childCount == children.length) {
+                int size = Math.max(2, childCount * 2);
+                children = Arrays.copyOf(children, size);
+                childDistances = Arrays.copyOf(childDistances, size);
+            }
+            childDistances[childCount] = (byte) distance;
+            children[childCount++] = child;
+        }
+    }
+}
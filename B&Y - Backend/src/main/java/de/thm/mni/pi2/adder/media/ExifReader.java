@@ -0,0 +1,262 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads EXIF metadata and pixel dimensions from JPEG (and PNG) headers.
+ * Only the marker segments in front of the compressed image data are read
+ * through a {@link FileChannel}; the image itself is never decoded.
+ */
+public final class ExifReader {
+
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_MODEL = 0x0110;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_PIXEL_X = 0xA002;
+    private static final int TAG_PIXEL_Y = 0xA003;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+
+    private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    private ExifReader() {
+    }
+
+    /**
+     * Reads the metadata of an image file.
+     *
+     * @param file The image file.
+     * @return The metadata, {@link ImageMetadata#EMPTY} for unknown formats.
+     * @throws IOException If the file cannot be read.
+     */
+    public static ImageMetadata read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = readAt(channel, 0, 8);
+            if (magic.remaining() >= 2 && (magic.get(0) & 0xFF) == 0xFF && (magic.get(1) & 0xFF) == 0xD8) {
+                return readJpeg(channel);
+            }
+            if (magic.remaining() == 8 && magic.getLong(0) == 0x89504E470D0A1A0AL) {
+                return readPng(channel);
+            }
+            return ImageMetadata.EMPTY;
+        }
+    }
+
+    private static ImageMetadata readJpeg(FileChannel channel) throws IOException {
+        Exif exif = new Exif();
+        Integer width = null;
+        Integer height = null;
+
+        long size = channel.size();
+        long pos = 2;
+        while (pos + 4 <= size) {
+            ByteBuffer header = readAt(channel, pos, 4);
+            if (header.remaining() < 4 || (header.get(0) & 0xFF) != 0xFF) {
+                break;
+            }
+            int marker = header.get(1) & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // end of image or start of scan: no more metadata
+                break;
+            }
+
+            int length = header.getShort(2) & 0xFFFF;
+            if (length < 2) {
+                break;
+            }
+            long dataPos = pos + 4;
+            int dataLength = length - 2;
+
+            if (marker == 0xE1 && dataLength > 14 && !exif.found) {
+                ByteBuffer segment = readAt(channel, dataPos, dataLength);
+                if (isExifHeader(segment)) {
+                    segment.position(6);
+                    parseTiff(segment.slice(), exif);
+                    exif.found = true;
+                }
+            } else if (isStartOfFrame(marker) && dataLength >= 5 && width == null) {
+                ByteBuffer frame = readAt(channel, dataPos, 5);
+                if (frame.remaining() == 5) {
+                    height = frame.getShort(1) & 0xFFFF;
+                    width = frame.getShort(3) & 0xFFFF;
+                }
+            }
+            pos = dataPos + dataLength;
+        }
+
+        if (width == null) {
+            width = exif.pixelX;
+            height = exif.pixelY;
+        }
+        return new ImageMetadata(exif.takenAt, exif.orientation, width, height, exif.make, exif.model);
+    }
+
+    private static ImageMetadata readPng(FileChannel channel) throws IOException {
+        // the IHDR chunk always comes first: length(4) type(4) width(4) height(4)
+        ByteBuffer ihdr = readAt(channel, 8, 16);
+        if (ihdr.remaining() < 16 || ihdr.getInt(4) != 0x49484452) {
+            return ImageMetadata.EMPTY;
+        }
+        return new ImageMetadata(null, null, ihdr.getInt(8), ihdr.getInt(12), null, null);
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static boolean isExifHeader(ByteBuffer segment) {
+        return segment.remaining() > 6
+                && segment.get(0) == 'E' && segment.get(1) == 'x' && segment.get(2) == 'i'
+                && segment.get(3) == 'f' && segment.get(4) == 0 && segment.get(5) == 0;
+    }
+
+    private static void parseTiff(ByteBuffer tiff, Exif exif) {
+        if (tiff.remaining() < 8) {
+            return;
+        }
+        if (tiff.get(0) == 'I' && tiff.get(1) == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (tiff.get(0) == 'M' && tiff.get(1) == 'M') {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return;
+        }
+        long ifd0 = tiff.getInt(4) & 0xFFFFFFFFL;
+        long exifIfd = parseIfd(tiff, ifd0, exif);
+        if (exifIfd > 0) {
+            parseIfd(tiff, exifIfd, exif);
+        }
+    }
+
+    /**
+     * Parses one IFD into {@code exif}.
+     *
+     * @return The offset of the Exif sub-IFD if the IFD points to one, else 0.
+     */
+    private static long parseIfd(ByteBuffer tiff, long offset, Exif exif) {
+        if (offset <= 0 || offset + 2 > tiff.limit()) {
+            return 0;
+        }
+        int count = tiff.getShort((int) offset) & 0xFFFF;
+        long exifIfd = 0;
+
+        for (int i = 0; i < count; i++) {
+            int entry = (int) offset + 2 + i * 12;
+            if (entry + 12 > tiff.limit()) {
+                break;
+            }
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            int type = tiff.getShort(entry + 2) & 0xFFFF;
+            long components = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+
+            switch (tag) {
+                case TAG_MAKE -> exif.make = ascii(tiff, entry, type, components);
+                case TAG_MODEL -> exif.model = ascii(tiff, entry, type, components);
+                case TAG_ORIENTATION -> {
+                    Integer value = integer(tiff, entry, type);
+                    if (value != null && value >= 1 && value <= 8) {
+                        exif.orientation = value;
+                    }
+                }
+                case TAG_EXIF_IFD -> {
+                    Integer value = integer(tiff, entry, type);
+                    exifIfd = value != null ? value & 0xFFFFFFFFL : 0;
+                }
+                case TAG_DATE_TIME_ORIGINAL -> exif.takenAt = date(ascii(tiff, entry, type, components));
+                case TAG_PIXEL_X -> exif.pixelX = integer(tiff, entry, type);
+                case TAG_PIXEL_Y -> exif.pixelY = integer(tiff, entry, type);
+                default -> {
+                }
+            }
+        }
+        return exifIfd;
+    }
+
+    private static Integer integer(ByteBuffer tiff, int entry, int type) {
+        if (type == TYPE_SHORT) {
+            return tiff.getShort(entry + 8) & 0xFFFF;
+        }
+        if (type == TYPE_LONG) {
+            return tiff.getInt(entry + 8);
+        }
+        return null;
+    }
+
+    private static String ascii(ByteBuffer tiff, int entry, int type, long components) {
+        if (type != TYPE_ASCII || components == 0 || components > 256) {
+            return null;
+        }
+        int length = (int) components;
+        int start = length <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        if (start < 0 || start + length > tiff.limit()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        tiff.get(start, bytes);
+        String value = new String(bytes, StandardCharsets.US_ASCII);
+        int nul = value.indexOf('\0');
+        if (nul >= 0) {
+            value = value.substring(0, nul);
+        }
+        value = value.trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        return value.length() > 64 ? value.substring(0, 64) : value;
+    }
+
+    private static LocalDateTime date(String value) {
+        if (value == null || value.startsWith("0000")) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value, EXIF_DATE);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static final class Exif {
+        boolean found;
+        LocalDateTime takenAt;
+        Integer orientation;
+        Integer pixelX;
+        Integer pixelY;
+        String make;
+        String model;
+    }
+}
@@ -0,0 +1,36 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Map;
+
+/**
+ * Post-upload stage that fills the capture date, orientation, dimensions and
+ * camera columns from the file header.
+ * If the file has a DateTimeOriginal it replaces the date sent by the client.
+ */
+public class ExifStage implements PostUploadStage {
+
+    @Override
+    public void process(Path file, Map<String, Object> columns) throws IOException {
+        ImageMetadata metadata = ExifReader.read(file);
+
+        if (metadata.takenAt() != null) {
+            columns.put("taken_at", Timestamp.valueOf(metadata.takenAt()));
+            columns.put("date", Date.valueOf(metadata.takenAt().toLocalDate()));
+        }
+        putIfPresent(columns, "orientation", metadata.orientation());
+        putIfPresent(columns, "width", metadata.width());
+        putIfPresent(columns, "height", metadata.height());
+        putIfPresent(columns, "camera_make", metadata.cameraMake());
+        putIfPresent(columns, "camera_model", metadata.cameraModel());
+    }
+
+    private static void putIfPresent(Map<String, Object> columns, String column, Object value) {
+        if (value != null) {
+            columns.put(column, value);
+        }
+    }
+}
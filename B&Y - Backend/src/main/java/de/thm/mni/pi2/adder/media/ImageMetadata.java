@@ -0,0 +1,20 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.time.LocalDateTime;
+
+/**
+ * Metadata read from the header of an image file.
+ * Every field is optional and null if the file does not contain it.
+ *
+ * @param takenAt     DateTimeOriginal from the EXIF block.
+ * @param orientation EXIF orientation (1-8).
+ * @param width       Pixel width as stored in the file.
+ * @param height      Pixel height as stored in the file.
+ * @param cameraMake  Camera manufacturer.
+ * @param cameraModel Camera model.
+ */
+public record ImageMetadata(LocalDateTime takenAt, Integer orientation, Integer width, Integer height,
+                            String cameraMake, String cameraModel) {
+
+    public static final ImageMetadata EMPTY = new ImageMetadata(null, null, null, null, null, null);
+}
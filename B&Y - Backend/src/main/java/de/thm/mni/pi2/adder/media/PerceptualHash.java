@@ -0,0 +1,104 @@
+package de.thm.mni.pi2.adder.media;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * 64-bit difference hash (dHash) of an image.
+ * The image is decoded with source subsampling so that only a small preview
+ * is ever held in memory, reduced to 9x8 grey values, and every bit encodes
+ * whether a pixel is brighter than its right neighbour. Resized or
+ * re-encoded copies of the same shot end up within a few bits of each other.
+ */
+public final class PerceptualHash {
+
+    /** Longest edge of the subsampled preview that is decoded. */
+    private static final int PREVIEW_SIZE = 256;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Computes the dHash of an image file.
+     *
+     * @param file The image file.
+     * @return The hash, or null if the format is not supported by ImageIO.
+     * @throws IOException If the file cannot be decoded.
+     */
+    public static Long of(Path file) throws IOException {
+        BufferedImage preview = decodePreview(file, PREVIEW_SIZE);
+        return preview != null ? of(preview) : null;
+    }
+
+    /**
+     * Computes the dHash of a decoded image.
+     */
+    public static long of(BufferedImage image) {
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        } finally {
+            g.dispose();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                int left = small.getRaster().getSample(x, y, 0);
+                int right = small.getRaster().getSample(x + 1, y, 0);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of differing bits between two hashes.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Decodes a downscaled version of an image using source subsampling, so
+     * memory use depends on the preview size rather than the image size.
+     *
+     * @param file    The image file.
+     * @param maxEdge Approximate longest edge of the result.
+     * @return The preview, or null if no ImageIO reader supports the file.
+     * @throws IOException If the file cannot be decoded.
+     */
+    public static BufferedImage decodePreview(Path file, int maxEdge) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile())) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, longest / maxEdge);
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
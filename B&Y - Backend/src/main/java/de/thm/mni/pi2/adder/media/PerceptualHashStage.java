@@ -0,0 +1,19 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Post-upload stage that stores the perceptual hash in {@code images.phash}.
+ */
+public class PerceptualHashStage implements PostUploadStage {
+
+    @Override
+    public void process(Path file, Map<String, Object> columns) throws IOException {
+        Long hash = PerceptualHash.of(file);
+        if (hash != null) {
+            columns.put("phash", hash);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Low-quality placeholders for images that are still loading: a BlurHash
+ * string and the dominant colour. Both are computed from a small preview,
+ * so the cost does not depend on the image size.
+ *
+ * @see <a href="https://github.com/woltapp/blurhash/blob/master/Algorithm.md">BlurHash algorithm</a>
+ */
+public final class Placeholder {
+
+    private static final String BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private Placeholder() {
+    }
+
+    /**
+     * Encodes an image as BlurHash.
+     *
+     * @param image       The (preview) image.
+     * @param componentsX Horizontal components, 1 to 9.
+     * @param componentsY Vertical components, 1 to 9.
+     * @return The hash, {@code 4 + 2 * componentsX * componentsY} characters.
+     */
+    public static String blurHash(BufferedImage image, int componentsX, int componentsY) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        float[] linear = new float[width * height * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            linear[3 * i] = toLinear((pixels[i] >> 16) & 0xFF);
+            linear[3 * i + 1] = toLinear((pixels[i] >> 8) & 0xFF);
+            linear[3 * i + 2] = toLinear(pixels[i] & 0xFF);
+        }
+
+        double[][] factors = new double[componentsX * componentsY][3];
+        double[] cosX = new double[width];
+        double[] cosY = new double[height];
+        for (int j = 0; j < componentsY; j++) {
+            for (int y = 0; y < height; y++) {
+                cosY[y] = Math.cos(Math.PI * j * y / height);
+            }
+            for (int i = 0; i < componentsX; i++) {
+                for (int x = 0; x < width; x++) {
+                    cosX[x] = Math.cos(Math.PI * i * x / width);
+                }
+                double r = 0;
+                double g = 0;
+                double b = 0;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        double basis = cosX[x] * cosY[y];
+                        int p = 3 * (y * width + x);
+                        r += basis * linear[p];
+                        g += basis * linear[p + 1];
+                        b += basis * linear[p + 2];
+                    }
+                }
+                double scale = (i == 0 && j == 0 ? 1.0 : 2.0) / (width * height);
+                factors[j * componentsX + i] = new double[]{r * scale, g * scale, b * scale};
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+        double maximum = 1;
+        if (factors.length > 1) {
+            double actualMaximum = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double value : factors[k]) {
+                    actualMaximum = Math.max(actualMaximum, Math.abs(value));
+                }
+            }
+            int quantised = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+            maximum = (quantised + 1) / 166.0;
+            encode83(hash, quantised, 1);
+        } else {
+            encode83(hash, 0, 1);
+        }
+
+        double[] dc = factors[0];
+        encode83(hash, (toSrgb(dc[0]) << 16) | (toSrgb(dc[1]) << 8) | toSrgb(dc[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            encode83(hash, quantiseAc(ac[0], maximum) * 19 * 19
+                    + quantiseAc(ac[1], maximum) * 19
+                    + quantiseAc(ac[2], maximum), 2);
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Finds the most common colour: pixels are grouped into 4-bit-per-channel
+     * buckets, and the average of the fullest bucket is returned.
+     *
+     * @param image The (preview) image.
+     * @return The colour as {@code #rrggbb}.
+     */
+    public static String dominantColor(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        int[] counts = new int[4096];
+        long[][] sums = new long[4096][3];
+        int best = 0;
+        for (int pixel : pixels) {
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            int bucket = (r >> 4) << 8 | (g >> 4) << 4 | (b >> 4);
+            counts[bucket]++;
+            sums[bucket][0] += r;
+            sums[bucket][1] += g;
+            sums[bucket][2] += b;
+            if (counts[bucket] > counts[best]) {
+                best = bucket;
+            }
+        }
+        int count = Math.max(1, counts[best]);
+        return String.format("#%02x%02x%02x",
+                sums[best][0] / count, sums[best][1] / count, sums[best][2] / count);
+    }
+
+    private static int quantiseAc(double value, double maximum) {
+        double normalised = value / maximum;
+        double signPow = Math.copySign(Math.pow(Math.abs(normalised), 0.5), normalised);
+        return (int) Math.max(0, Math.min(18, Math.floor(signPow * 9 + 9.5)));
+    }
+
+    private static float toLinear(int value) {
+        double v = value / 255.0;
+        return (float) (v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4));
+    }
+
+    private static int toSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+                ? (int) (v * 12.92 * 255 + 0.5)
+                : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(StringBuilder out, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (value / (int) Math.pow(83, length - i)) % 83;
+            out.append(BASE83.charAt(digit));
+        }
+    }
+}
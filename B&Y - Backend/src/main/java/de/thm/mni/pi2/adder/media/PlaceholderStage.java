@@ -0,0 +1,69 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Post-upload stage that stores a low-quality placeholder in
+ * {@code images.blurhash} and {@code images.color}, and fills the
+ * dimensions if the file header did not provide them. The placeholder is
+ * computed in display orientation, so listings can show it before the image
+ * itself has loaded.
+ */
+public class PlaceholderStage implements PostUploadStage {
+
+    /** Longest edge of the subsampled preview that is decoded. */
+    private static final int PREVIEW_SIZE = 64;
+
+    @Override
+    public void process(Path file, Map<String, Object> columns) throws IOException {
+        BufferedImage preview = PerceptualHash.decodePreview(file, PREVIEW_SIZE);
+        if (preview == null) {
+            return;
+        }
+        if (!(columns.get("width") instanceof Integer)) {
+            int[] size = TilePyramid.dimensions(file);
+            if (size != null) {
+                columns.put("width", size[0]);
+                columns.put("height", size[1]);
+            }
+        }
+
+        int orientation = columns.get("orientation") instanceof Integer value ? value : 1;
+        BufferedImage oriented = orient(preview, orientation);
+        int componentsX = oriented.getWidth() >= oriented.getHeight() ? 4 : 3;
+        columns.put("blurhash", Placeholder.blurHash(oriented, componentsX, 7 - componentsX));
+        columns.put("color", Placeholder.dominantColor(oriented));
+    }
+
+    /**
+     * Applies an EXIF orientation (1 to 8) to a small image.
+     */
+    private static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean transposed = orientation >= 5;
+        BufferedImage result = new BufferedImage(transposed ? height : width, transposed ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < result.getHeight(); y++) {
+            for (int x = 0; x < result.getWidth(); x++) {
+                int rgb = switch (orientation) {
+                    case 2 -> image.getRGB(width - 1 - x, y);
+                    case 3 -> image.getRGB(width - 1 - x, height - 1 - y);
+                    case 4 -> image.getRGB(x, height - 1 - y);
+                    case 5 -> image.getRGB(y, x);
+                    case 6 -> image.getRGB(y, height - 1 - x);
+                    case 7 -> image.getRGB(width - 1 - y, height - 1 - x);
+                    default -> image.getRGB(width - 1 - y, x);
+                };
+                result.setRGB(x, y, rgb);
+            }
+        }
+        return result;
+    }
+}
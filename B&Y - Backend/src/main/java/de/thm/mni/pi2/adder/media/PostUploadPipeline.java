@@ -0,0 +1,186 @@
+package de.thm.mni.pi2.adder.media;
+
+import de.thm.mni.pi2.adder.db.Database;
+import de.thm.mni.pi2.adder.storage.Storage;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the post-upload stages for a newly added image.
+ * File analysis happens on a dedicated worker pool; the collected column
+ * values are then written to the {@code images} row in a single UPDATE on
+ * the primary, on the same worker with a pooled connection, and in the same
+ * transaction as the owner's storage usage.
+ */
+public class PostUploadPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(PostUploadPipeline.class.getName());
+
+    private final WorkerExecutor executor;
+    private final Database db;
+    private final Storage storage;
+    private final List<PostUploadStage> stages;
+    private final Set<Future<?>> running = ConcurrentHashMap.newKeySet();
+
+    public PostUploadPipeline(Vertx vertx, Database db, Storage storage, int workers,
+                              List<PostUploadStage> stages) {
+        this.executor = vertx.createSharedWorkerExecutor("adder-media", workers);
+        this.db = db;
+        this.storage = storage;
+        this.stages = List.copyOf(stages);
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    /**
+     * Resolves a stored image path on its volume. Blocks, so never call it
+     * on an event loop.
+     *
+     * @param volume The volume as stored in {@code images.volume}, or null.
+     * @param path   The path as stored in {@code images.path}.
+     * @return The file, or null if the path escapes the volume.
+     */
+    public Path resolve(String volume, String path) {
+        return storage.resolve(volume, path);
+    }
+
+    /**
+     * Analyses the image in the background and updates its row.
+     *
+     * @param imageId The id of the images row.
+     * @param volume  The volume of the image.
+     * @param path    The stored image path.
+     * @return A future completed with the written column values.
+     */
+    public Future<Map<String, Object>> submit(int imageId, String volume, String path) {
+        // resolving may look on every volume, so it runs on the worker as well
+        Future<Map<String, Object>> task = executor.executeBlocking(() -> {
+                    Map<String, Object> columns = analyse(volume, path);
+                    update(imageId, columns);
+                    return columns;
+                }, false)
+                .onFailure(e -> LOGGER.log(Level.WARNING, "Post-upload processing failed for image " + imageId, e));
+        running.add(task);
+        task.onComplete(ar -> running.remove(task));
+        return task;
+    }
+
+    /**
+     * Runs all stages on the calling thread without writing anything.
+     *
+     * @param file The image file.
+     * @return The column values contributed by the stages.
+     * @throws Exception If a stage fails.
+     */
+    public Map<String, Object> analyse(Path file) throws Exception {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (!Files.isRegularFile(file)) {
+            return columns;
+        }
+        for (PostUploadStage stage : stages) {
+            stage.process(file, columns);
+        }
+        return columns;
+    }
+
+    private Map<String, Object> analyse(String volume, String path) throws Exception {
+        Path file = resolve(volume, path);
+        if (file == null) {
+            throw new IllegalArgumentException("Invalid image path: " + path);
+        }
+        return analyse(file);
+    }
+
+    private void update(int imageId, Map<String, Object> columns) throws SQLException {
+        if (columns.isEmpty()) {
+            return;
+        }
+        // column names come from the stages, never from the request
+        StringJoiner assignments = new StringJoiner(", ");
+        for (String column : columns.keySet()) {
+            assignments.add(column + " = ?");
+        }
+        db.withPrimary(conn -> {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE images SET " + assignments + " WHERE id = ?")) {
+                    int index = 1;
+                    for (Object value : columns.values()) {
+                        ps.setObject(index++, value);
+                    }
+                    ps.setInt(index, imageId);
+                    ps.executeUpdate();
+                }
+                if (columns.get("tile_bytes") instanceof Long tileBytes && tileBytes > 0) {
+                    addDerivativeBytes(conn, imageId, tileBytes);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Counts derived files towards the storage usage of the image's owner.
+     */
+    private static void addDerivativeBytes(Connection conn, int imageId, long bytes) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET derivative_bytes = derivative_bytes + ? "
+                        + "WHERE id = (SELECT userid FROM images WHERE id = ?)")) {
+            ps.setLong(1, bytes);
+            ps.setInt(2, imageId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Waits for the images being analysed to be written, then closes the
+     * worker pool. Blocks.
+     *
+     * @param timeoutMillis How long to wait for the running analyses.
+     */
+    public void close(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Future<?> task : List.copyOf(running)) {
+            try {
+                task.toCompletionStage().toCompletableFuture()
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // already logged by submit()
+            } catch (TimeoutException e) {
+                LOGGER.warning(running.size() + " images still being analysed at shutdown");
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.close();
+    }
+}
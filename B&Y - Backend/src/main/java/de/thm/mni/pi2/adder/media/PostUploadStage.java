@@ -0,0 +1,23 @@
+package de.thm.mni.pi2.adder.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * One step of the post-upload pipeline.
+ * Stages run on a worker thread after an image row has been created and
+ * contribute column values that are written back to the {@code images} row.
+ */
+public interface PostUploadStage {
+
+    /**
+     * Analyses the uploaded file.
+     *
+     * @param file    The stored image file.
+     * @param columns Column values for the images row, keyed by column name.
+     *                Stages may read values contributed by earlier stages.
+     * @throws IOException If the file cannot be read.
+     */
+    void process(Path file, Map<String, Object> columns) throws IOException;
+}
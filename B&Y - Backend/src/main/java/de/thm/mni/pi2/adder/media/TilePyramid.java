@@ -0,0 +1,282 @@
+package de.thm.mni.pi2.adder.media;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Builds a Deep Zoom (DZI) tile pyramid with bounded memory.
+ * Level {@code n} is the full resolution, every level below halves both
+ * dimensions, down to a single pixel at level 0. The source is never decoded
+ * as a whole: it is read top to bottom in full-width bands of at most
+ * {@code maxDecodePixels} pixels (but at least one row). That bounds memory,
+ * not work; readers that cannot seek into the compressed data, JPEG's among
+ * them, decode from the top again for every band, so a small budget costs
+ * time. Each row feeds level {@code n}, and every level passes its rows on to
+ * the next one down, averaged in pairs. A level only keeps the rows of the
+ * tile row it is building, and writes those tiles as soon as their last row
+ * arrived.
+ */
+public final class TilePyramid {
+
+    public static final String DESCRIPTOR = "image.dzi";
+    public static final String TILES = "image_files";
+
+    private final int tileSize;
+    private final int overlap;
+    private final long maxDecodePixels;
+    private final float quality;
+
+    /**
+     * @param tileSize        Tile edge without overlap, 254 by convention.
+     * @param overlap         Pixels shared with neighbouring tiles.
+     * @param maxDecodePixels Upper bound for the pixels decoded at once.
+     * @param quality         JPEG quality of the tiles, 0 to 1.
+     */
+    public TilePyramid(int tileSize, int overlap, long maxDecodePixels, float quality) {
+        this.tileSize = tileSize;
+        this.overlap = overlap;
+        this.maxDecodePixels = maxDecodePixels;
+        this.quality = quality;
+    }
+
+    /**
+     * Reads the image dimensions from the file header.
+     *
+     * @return Width and height, or null if no reader supports the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static int[] dimensions(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Writes the pyramid to {@code directory/image.dzi} and
+     * {@code directory/image_files/<level>/<column>_<row>.jpg}.
+     *
+     * @param file      The source image.
+     * @param directory The target directory, created if necessary.
+     * @return false if no reader supports the file.
+     * @throws IOException If reading or writing fails.
+     */
+    public boolean generate(Path file, Path directory) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            ImageReader reader = reader(in);
+            if (reader == null) {
+                return false;
+            }
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(width, height) - 1);
+                Level top = null;
+                for (int level = 0, factor = 1 << maxLevel; level <= maxLevel; level++, factor >>= 1) {
+                    top = new Level(writer, ceilDiv(width, factor), ceilDiv(height, factor),
+                            directory.resolve(TILES).resolve(String.valueOf(level)), top);
+                }
+
+                int bandHeight = (int) Math.max(1, Math.min(height, maxDecodePixels / width));
+                int[] line = new int[width];
+                for (int bandTop = 0; bandTop < height; bandTop += bandHeight) {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(new Rectangle(0, bandTop, width, Math.min(bandHeight, height - bandTop)));
+                    BufferedImage band = opaque(reader.read(0, param));
+                    for (int y = 0; y < band.getHeight(); y++) {
+                        band.getRGB(0, y, width, 1, line, 0, width);
+                        top.accept(line.clone());
+                    }
+                }
+                // the descriptor last: its presence marks a complete pyramid
+                Files.writeString(directory.resolve(DESCRIPTOR), descriptor(width, height), StandardCharsets.UTF_8);
+                return true;
+            } finally {
+                writer.dispose();
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * One level of the pyramid while it is being built, fed one row at a
+     * time from the top.
+     */
+    private final class Level {
+
+        private final ImageWriter writer;
+        private final int width;
+        private final int height;
+        private final Path directory;
+        private final Level below;
+        // the rows from firstRow on that later tiles still need
+        private final ArrayDeque<int[]> rows = new ArrayDeque<>();
+        private int firstRow;
+        private int tileRow;
+        // an even row waiting for its odd partner, to be averaged for the level below
+        private int[] pending;
+
+        Level(ImageWriter writer, int width, int height, Path directory, Level below) throws IOException {
+            this.writer = writer;
+            this.width = width;
+            this.height = height;
+            this.directory = directory;
+            this.below = below;
+            Files.createDirectories(directory);
+        }
+
+        void accept(int[] row) throws IOException {
+            int y = firstRow + rows.size();
+            rows.addLast(row);
+            if (below != null) {
+                if (y % 2 == 0 && y < height - 1) {
+                    pending = row;
+                } else {
+                    below.accept(halve(y % 2 == 0 ? row : pending, y % 2 == 0 ? null : row));
+                    pending = null;
+                }
+            }
+
+            int tileRows = ceilDiv(height, tileSize);
+            while (tileRow < tileRows && y + 1 >= Math.min(height, (tileRow + 1) * tileSize + overlap)) {
+                writeTileRow();
+                tileRow++;
+                // the next tile row starts its overlap above its first own row
+                int keep = Math.max(0, tileRow * tileSize - overlap);
+                while (firstRow < keep && !rows.isEmpty()) {
+                    rows.removeFirst();
+                    firstRow++;
+                }
+            }
+        }
+
+        private void writeTileRow() throws IOException {
+            int top = Math.max(0, tileRow * tileSize - overlap);
+            int bottom = Math.min(height, (tileRow + 1) * tileSize + overlap);
+            int columns = ceilDiv(width, tileSize);
+            for (int column = 0; column < columns; column++) {
+                int left = Math.max(0, column * tileSize - overlap);
+                int right = Math.min(width, (column + 1) * tileSize + overlap);
+                BufferedImage tile = new BufferedImage(right - left, bottom - top, BufferedImage.TYPE_INT_RGB);
+                int[] pixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+                int index = firstRow;
+                for (int[] row : rows) {
+                    if (index >= top && index < bottom) {
+                        System.arraycopy(row, left, pixels, (index - top) * (right - left), right - left);
+                    }
+                    index++;
+                }
+                write(writer, tile, directory.resolve(column + "_" + tileRow + ".jpg"));
+            }
+        }
+
+        /**
+         * Averages two rows (or one, at an odd bottom edge) and pairs of
+         * pixels into a row of the level below.
+         */
+        private int[] halve(int[] upper, int[] lower) {
+            int[] second = lower == null ? upper : lower;
+            int[] half = new int[ceilDiv(width, 2)];
+            for (int x = 0; x < half.length; x++) {
+                int left = 2 * x;
+                int right = Math.min(width - 1, left + 1);
+                half[x] = average(upper[left], upper[right], second[left], second[right]);
+            }
+            return half;
+        }
+    }
+
+    /**
+     * Averages four RGB pixels per channel, rounding half up.
+     */
+    private static int average(int p0, int p1, int p2, int p3) {
+        int red = (channel(p0, 16) + channel(p1, 16) + channel(p2, 16) + channel(p3, 16) + 2) >> 2;
+        int green = (channel(p0, 8) + channel(p1, 8) + channel(p2, 8) + channel(p3, 8) + 2) >> 2;
+        int blue = (channel(p0, 0) + channel(p1, 0) + channel(p2, 0) + channel(p3, 0) + 2) >> 2;
+        return red << 16 | green << 8 | blue;
+    }
+
+    private static int channel(int pixel, int shift) {
+        return pixel >> shift & 0xff;
+    }
+
+    private void write(ImageWriter writer, BufferedImage tile, Path file) throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        Files.deleteIfExists(file);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(tile, null, null), param);
+        }
+    }
+
+    private String descriptor(int width, int height) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" Format=\"jpg\" Overlap=\""
+                + overlap + "\" TileSize=\"" + tileSize + "\">\n"
+                + "  <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n"
+                + "</Image>\n";
+    }
+
+    /**
+     * JPEG has no alpha channel: flattens transparent images onto white.
+     */
+    private static BufferedImage opaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    private static ImageReader reader(ImageInputStream in) {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
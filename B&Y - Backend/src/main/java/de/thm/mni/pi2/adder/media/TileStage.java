@@ -0,0 +1,67 @@
+package de.thm.mni.pi2.adder.media;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Post-upload stage that builds a deep-zoom tile pyramid for very large
+ * images and sets {@code images.tiles}, and {@code images.tile_bytes} to the
+ * size of the pyramid for storage accounting. Smaller images are served
+ * whole and are skipped.
+ */
+public class TileStage implements PostUploadStage {
+
+    private final Path directory;
+    private final int minEdge;
+    private final TilePyramid pyramid;
+
+    /**
+     * @param options The "tiles" configuration section.
+     */
+    public TileStage(JsonObject options) {
+        this.directory = Paths.get(options.getString("directory", "tiles")).toAbsolutePath().normalize();
+        this.minEdge = options.getInteger("minEdge", 4096);
+        this.pyramid = new TilePyramid(
+                options.getInteger("tileSize", 254),
+                options.getInteger("overlap", 1),
+                options.getLong("maxDecodePixels", 16L * 1024 * 1024),
+                options.getFloat("quality", 0.85f));
+    }
+
+    @Override
+    public void process(Path file, Map<String, Object> columns) throws IOException {
+        int[] size = columns.get("width") instanceof Integer width && columns.get("height") instanceof Integer height
+                ? new int[]{width, height}
+                : TilePyramid.dimensions(file);
+        Path tiles = directory(file.getFileName().toString());
+        boolean tiled = size != null && Math.max(size[0], size[1]) > minEdge && pyramid.generate(file, tiles);
+        columns.put("tiles", tiled);
+        columns.put("tile_bytes", tiled ? bytes(tiles) : 0L);
+    }
+
+    private static long bytes(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            long total = 0;
+            for (Path entry : walk.filter(Files::isRegularFile).toList()) {
+                total += Files.size(entry);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @param path The stored image path, or just its file name.
+     * @return The directory holding the pyramid of that image.
+     */
+    public Path directory(String path) {
+        String name = Paths.get(path).getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return directory.resolve(dot > 0 ? name.substring(0, dot) : name);
+    }
+}
@@ -0,0 +1,309 @@
+package de.thm.mni.pi2.adder.purge;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.media.DuplicateIndex;
+import de.thm.mni.pi2.adder.media.PostUploadPipeline;
+import de.thm.mni.pi2.adder.media.TileStage;
+import de.thm.mni.pi2.adder.search.SearchIndex;
+import de.thm.mni.pi2.adder.storage.Storage;
+import de.thm.mni.pi2.adder.sync.Versions;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Background removal of deleted users and albums.
+ * Deleting only sets {@code deleted_at} (a tombstone) and returns; this
+ * purger then removes the dependent rows in small batches, each in its own
+ * short transaction, and unlinks the image files and tiles. After every
+ * batch it pauses so that it uses at most a configured share of the
+ * database time, which keeps foreground requests fast even while a large
+ * library is removed. It uses its own connection, never the shared primary.
+ * Tombstones are persistent, so an interrupted purge resumes after a restart.
+ */
+public class Purger {
+
+    private static final Logger LOGGER = Logger.getLogger(Purger.class.getName());
+
+    private final AppConfig config;
+    private final PostUploadPipeline pipeline;
+    private final TileStage tiles;
+    private final SearchIndex searchIndex;
+    private final DuplicateIndex duplicateIndex;
+    private final Versions versions;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    public Purger(AppConfig config, PostUploadPipeline pipeline, TileStage tiles, SearchIndex searchIndex,
+                  DuplicateIndex duplicateIndex, Versions versions) {
+        this.config = config;
+        this.pipeline = pipeline;
+        this.tiles = tiles;
+        this.searchIndex = searchIndex;
+        this.duplicateIndex = duplicateIndex;
+        this.versions = versions;
+        this.thread = new Thread(this::run, "adder-purger");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Starts purging right away instead of at the next poll, e.g. after a
+     * new tombstone was set.
+     */
+    public void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Stops after the current batch.
+     *
+     * @param timeoutMillis Maximum time to wait for the batch.
+     */
+    public void close(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+                while (running) {
+                    if (!purgeNext(conn)) {
+                        pause(options().getLong("pollMillis", 10000L));
+                    }
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Purge interrupted, retrying", e);
+                pause(options().getLong("pollMillis", 10000L));
+            }
+        }
+    }
+
+    /**
+     * Purges one tombstoned album, or else one tombstoned user.
+     *
+     * @return false if there was nothing to purge.
+     */
+    private boolean purgeNext(Connection conn) throws SQLException {
+        Integer albumId = first(conn, "SELECT id FROM albums WHERE deleted_at IS NOT NULL LIMIT 1", null);
+        if (albumId != null) {
+            purgeAlbum(conn, albumId);
+            return true;
+        }
+        Integer userId = first(conn, "SELECT id FROM users WHERE deleted_at IS NOT NULL LIMIT 1", null);
+        if (userId != null) {
+            purgeUser(conn, userId);
+            return true;
+        }
+        return false;
+    }
+
+    private void purgeAlbum(Connection conn, int albumId) throws SQLException {
+        deleteInBatches(conn, "DELETE FROM albumimages WHERE albumid = ? LIMIT ?", albumId);
+        deleteInBatches(conn, "DELETE FROM albumtags WHERE albumid = ? LIMIT ?", albumId);
+        try (PreparedStatement ps = conn.prepareStatement("DELETE FROM albums WHERE id = ?")) {
+            ps.setInt(1, albumId);
+            ps.executeUpdate();
+        }
+        searchIndex.remove(SearchIndex.Kind.ALBUM, albumId);
+        LOGGER.fine(() -> "Purged album " + albumId);
+    }
+
+    private void purgeUser(Connection conn, int userId) throws SQLException {
+        Integer albumId;
+        while (running && (albumId = first(conn, "SELECT id FROM albums WHERE userid = ? LIMIT 1", userId)) != null) {
+            purgeAlbum(conn, albumId);
+        }
+        boolean more = true;
+        while (running && more) {
+            more = purgeImages(conn, userId);
+        }
+        deleteInBatches(conn, "DELETE FROM changes WHERE userid = ? LIMIT ?", userId);
+        if (!running) {
+            return;
+        }
+        try (PreparedStatement role = conn.prepareStatement("DELETE FROM userrole WHERE userid = ?");
+             PreparedStatement user = conn.prepareStatement("DELETE FROM users WHERE id = ?")) {
+            role.setInt(1, userId);
+            role.executeUpdate();
+            user.setInt(1, userId);
+            user.executeUpdate();
+        }
+        LOGGER.info("Purged user " + userId);
+    }
+
+    /**
+     * Deletes one batch of a user's images with their tags and album
+     * memberships, then unlinks the files no other image refers to.
+     *
+     * @return false if the user has no images left.
+     */
+    private boolean purgeImages(Connection conn, int userId) throws SQLException {
+        long start = System.nanoTime();
+        List<Integer> ids = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, path FROM images WHERE userid = ? LIMIT ?")) {
+            ps.setInt(1, userId);
+            ps.setInt(2, batchSize());
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                ids.add(res.getInt("id"));
+                paths.add(res.getString("path"));
+            }
+        }
+        if (ids.isEmpty()) {
+            return false;
+        }
+
+        StringJoiner in = new StringJoiner(", ", "(", ")");
+        ids.forEach(id -> in.add(String.valueOf(id)));
+        Set<Integer> albums;
+        conn.setAutoCommit(false);
+        try {
+            // albums of other users that list these images
+            albums = versions.albumsOf(conn, ids);
+            for (String sql : List.of(
+                    "DELETE FROM imagetags WHERE imageid IN " + in,
+                    "DELETE FROM albumimages WHERE imageid IN " + in,
+                    "DELETE FROM images WHERE id IN " + in)) {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.executeUpdate();
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        versions.bumpAlbums(albums);
+        for (int id : ids) {
+            searchIndex.remove(SearchIndex.Kind.IMAGE, id);
+            duplicateIndex.remove(id);
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM images WHERE path = ? LIMIT 1")) {
+            for (String path : paths) {
+                ps.setString(1, path);
+                if (!ps.executeQuery().next()) {
+                    unlink(path);
+                }
+            }
+        }
+        throttle(start);
+        return true;
+    }
+
+    /**
+     * Removes the file from every volume, in case a rebalance moved it after
+     * its row was read.
+     */
+    private void unlink(String path) {
+        try {
+            for (Storage.Volume volume : pipeline.storage().volumes()) {
+                Path file = volume.root().resolve(path).normalize();
+                if (file.startsWith(volume.root())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Path directory = tiles.directory(path);
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> walk = Files.walk(directory)) {
+                    for (Path entry : walk.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(entry);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + path, e);
+        }
+    }
+
+    /**
+     * Repeats a {@code DELETE ... LIMIT ?} until it removes less than a full
+     * batch.
+     */
+    private void deleteInBatches(Connection conn, String sql, int id) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            boolean more = true;
+            while (running && more) {
+                long start = System.nanoTime();
+                int batchSize = batchSize();
+                ps.setInt(1, id);
+                ps.setInt(2, batchSize);
+                more = ps.executeUpdate() >= batchSize;
+                throttle(start);
+            }
+        }
+    }
+
+    private static Integer first(Connection conn, String sql, Integer param) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (param != null) {
+                ps.setInt(1, param);
+            }
+            ResultSet res = ps.executeQuery();
+            return res.next() ? res.getInt(1) : null;
+        }
+    }
+
+    /**
+     * Pauses after a batch that started at {@code start} so that purging
+     * takes at most "dutyCycle" of the time, and at least "pauseMillis".
+     */
+    private void throttle(long start) {
+        JsonObject options = options();
+        double dutyCycle = Math.min(1.0, Math.max(0.01, options.getDouble("dutyCycle", 0.25)));
+        long now = System.nanoTime();
+        long pause = Math.max(TimeUnit.MILLISECONDS.toNanos(options.getLong("pauseMillis", 20L)),
+                (long) ((now - start) * (1 - dutyCycle) / dutyCycle));
+        // wake() must not shorten the pause
+        long deadline = now + pause;
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void pause(long millis) {
+        if (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    private int batchSize() {
+        return Math.max(1, options().getInteger("batchSize", 500));
+    }
+
+    private JsonObject options() {
+        return config.section("purge");
+    }
+}
@@ -0,0 +1,328 @@
+package de.thm.mni.pi2.adder.search;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory full-text index over image and album titles.
+ * Titles are case- and accent-folded, split into words and indexed by the
+ * trigrams of each word (padded with word boundaries), so a query matches
+ * substrings and tolerates small typos. Every user has their own partition,
+ * so a query only ever touches the postings of the caller's library.
+ */
+public class SearchIndex {
+
+    /**
+     * The kind of entity a title belongs to.
+     */
+    public enum Kind {
+        IMAGE, ALBUM
+    }
+
+    /**
+     * A ranked search hit.
+     */
+    public record Hit(Kind kind, int id, String title, double score) {
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    /** Best first: higher score, then newer id. */
+    private static final Comparator<Hit> RANKING = Comparator.comparingDouble(Hit::score).reversed()
+            .thenComparing(Comparator.comparingInt(Hit::id).reversed());
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final char BOUNDARY = '$';
+
+    private final Map<Integer, Partition> partitions = new ConcurrentHashMap<>();
+    /** document key -> owner, needed to update and remove documents by id. */
+    private final Map<Long, Integer> owners = new ConcurrentHashMap<>();
+
+    /**
+     * Loads all image and album titles.
+     *
+     * @param conn The database connection.
+     * @throws SQLException If a query fails.
+     */
+    public void load(Connection conn) throws SQLException {
+        load(conn, Kind.IMAGE, "SELECT id, userid, title FROM images");
+        load(conn, Kind.ALBUM, "SELECT id, userid, title FROM albums WHERE deleted_at IS NULL");
+    }
+
+    private void load(Connection conn, Kind kind, String query) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(query)) {
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                put(kind, res.getInt("userid"), res.getInt("id"), res.getString("title"));
+            }
+        }
+    }
+
+    /**
+     * Adds a document or replaces its title.
+     *
+     * @param kind   Image or album.
+     * @param userId The owner.
+     * @param id     The image or album id.
+     * @param title  The title to index.
+     */
+    public void put(Kind kind, int userId, int id, String title) {
+        remove(kind, id);
+        long key = key(kind, id);
+        partitions.computeIfAbsent(userId, owner -> new Partition()).add(key, title == null ? "" : title);
+        owners.put(key, userId);
+    }
+
+    /**
+     * Replaces the title of an indexed document, keeping its owner.
+     * Unknown documents are ignored.
+     */
+    public void retitle(Kind kind, int id, String title) {
+        Integer owner = owners.get(key(kind, id));
+        if (owner != null) {
+            put(kind, owner, id, title);
+        }
+    }
+
+    public void remove(Kind kind, int id) {
+        Integer owner = owners.remove(key(kind, id));
+        if (owner != null) {
+            Partition partition = partitions.get(owner);
+            if (partition != null) {
+                partition.remove(key(kind, id));
+            }
+        }
+    }
+
+    /**
+     * Searches a user's titles.
+     *
+     * @param userId        The owner.
+     * @param query         The raw query text.
+     * @param kind          Restricts hits to images or albums; null for both.
+     * @param minSimilarity Minimum share of query trigrams a title must contain.
+     * @param limit         Maximum number of hits.
+     * @return Hits, best first.
+     */
+    public List<Hit> search(int userId, String query, Kind kind, double minSimilarity, int limit) {
+        Partition partition = partitions.get(userId);
+        if (partition == null || query == null) {
+            return new ArrayList<>();
+        }
+        String normalized = normalize(query);
+        Set<Long> grams = new LinkedHashSet<>();
+        for (String word : words(normalized)) {
+            addTrigrams(word, grams);
+        }
+        if (grams.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return partition.search(normalized, grams, kind, minSimilarity, Math.max(0, limit));
+    }
+
+    /**
+     * Lower-cases the text, strips accents and replaces everything that is
+     * not a letter or digit by single spaces.
+     */
+    static String normalize(String text) {
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        StringBuilder out = new StringBuilder(folded.length());
+        boolean space = true;
+        for (int i = 0; i < folded.length(); i++) {
+            char c = Character.toLowerCase(folded.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                out.append(c);
+                space = false;
+            } else if (!space) {
+                out.append(' ');
+                space = true;
+            }
+        }
+        int length = out.length();
+        if (length > 0 && out.charAt(length - 1) == ' ') {
+            out.setLength(length - 1);
+        }
+        return out.toString();
+    }
+
+    private static String[] words(String normalized) {
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+
+    /**
+     * Adds the trigrams of "$word$". Single-letter words yield no trigram
+     * beyond the word itself and are only matched as whole words.
+     */
+    private static void addTrigrams(String word, Set<Long> grams) {
+        String padded = BOUNDARY + word + BOUNDARY;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+        }
+    }
+
+    private static long key(Kind kind, int id) {
+        return ((long) kind.ordinal() << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The documents of one user. Documents get consecutive slots, so every
+     * posting list is sorted; removed slots are only marked and reclaimed by
+     * a rebuild once they make up half of the partition. Searches reuse the
+     * partition's scratch arrays and reset only the slots they touched, so a
+     * query costs its postings, not the size of the partition.
+     */
+    private static final class Partition {
+
+        private long[] keys = new long[16];
+        private String[] titles = new String[16];
+        private String[] texts = new String[16];
+        private int size;
+        private final BitSet removed = new BitSet();
+        private int removedCount;
+        /** Query trigrams per slot, all zero between searches. */
+        private int[] counts = new int[16];
+        private int[] touched = new int[16];
+        private final Map<Long, Integer> slots = new HashMap<>();
+        private final Map<Long, Postings> postings = new HashMap<>();
+
+        synchronized void add(long key, String title) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                titles = Arrays.copyOf(titles, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+            }
+            int slot = size++;
+            String text = normalize(title);
+            keys[slot] = key;
+            titles[slot] = title;
+            texts[slot] = text;
+            slots.put(key, slot);
+
+            Set<Long> grams = new LinkedHashSet<>();
+            for (String word : words(text)) {
+                addTrigrams(word, grams);
+            }
+            for (long gram : grams) {
+                postings.computeIfAbsent(gram, g -> new Postings()).add(slot);
+            }
+        }
+
+        synchronized void remove(long key) {
+            Integer slot = slots.remove(key);
+            if (slot == null) {
+                return;
+            }
+            removed.set(slot);
+            removedCount++;
+            titles[slot] = null;
+            texts[slot] = null;
+            if (removedCount * 2 > size && size > 64) {
+                rebuild();
+            }
+        }
+
+        private void rebuild() {
+            long[] oldKeys = keys;
+            String[] oldTitles = titles;
+            int oldSize = size;
+            keys = new long[Math.max(16, slots.size() * 2)];
+            titles = new String[keys.length];
+            texts = new String[keys.length];
+            size = 0;
+            removed.clear();
+            removedCount = 0;
+            slots.clear();
+            postings.clear();
+            for (int slot = 0; slot < oldSize; slot++) {
+                if (oldTitles[slot] != null) {
+                    add(oldKeys[slot], oldTitles[slot]);
+                }
+            }
+        }
+
+        synchronized List<Hit> search(String normalized, Set<Long> grams, Kind kind,
+                                      double minSimilarity, int limit) {
+            // count the query trigrams every document contains
+            if (counts.length < size) {
+                counts = new int[keys.length];
+            }
+            int touchedCount = 0;
+            for (long gram : grams) {
+                Postings list = postings.get(gram);
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int slot = list.slots[i];
+                    if (counts[slot]++ == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = slot;
+                    }
+                }
+            }
+
+            // keep only the best hits in a min-heap instead of sorting all matches
+            PriorityQueue<Hit> best = new PriorityQueue<>(Math.max(1, limit), RANKING.reversed());
+            int needed = (int) Math.ceil(grams.size() * minSimilarity);
+            for (int i = 0; i < touchedCount; i++) {
+                int slot = touched[i];
+                if (counts[slot] < needed || removed.get(slot)) {
+                    continue;
+                }
+                Kind slotKind = KINDS[(int) (keys[slot] >>> 32)];
+                if (kind != null && kind != slotKind) {
+                    continue;
+                }
+                double score = (double) counts[slot] / grams.size();
+                // exact substring and word-prefix matches rank above fuzzy ones
+                int at = texts[slot].indexOf(normalized);
+                if (at >= 0) {
+                    score += at == 0 || texts[slot].charAt(at - 1) == ' ' ? 1.0 : 0.5;
+                }
+                if (limit == 0 || (best.size() == limit && score < best.peek().score())) {
+                    continue;
+                }
+                best.add(new Hit(slotKind, (int) keys[slot], titles[slot], score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            for (int i = 0; i < touchedCount; i++) {
+                counts[touched[i]] = 0;
+            }
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(RANKING);
+            return hits;
+        }
+    }
+
+    /**
+     * Growable, sorted list of document slots.
+     */
+    private static final class Postings {
+        int[] slots = new int[2];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+}
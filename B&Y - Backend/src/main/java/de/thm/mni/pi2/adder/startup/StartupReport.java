@@ -0,0 +1,67 @@
+package de.thm.mni.pi2.adder.startup;
+
+import io.vertx.core.json.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Timing of the server start. Sequential phases (JVM and class loading
+ * before the verticle, configuration, router build, listen) are measured
+ * from one mark to the next; things that finish in the background, like the
+ * first database connection or the warm-up, are recorded as events relative
+ * to the JVM start.
+ */
+public class StartupReport {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupReport.class.getName());
+
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private final Map<String, Long> events = new LinkedHashMap<>();
+    private long last;
+
+    public StartupReport() {
+        last = System.currentTimeMillis();
+        phases.put("jvm", last - jvmStart);
+    }
+
+    /**
+     * Ends a phase that started at the previous mark.
+     */
+    public synchronized void phase(String name) {
+        long now = System.currentTimeMillis();
+        phases.put(name, now - last);
+        last = now;
+    }
+
+    /**
+     * Records and logs something that happened in the background.
+     */
+    public synchronized void event(String name) {
+        long at = System.currentTimeMillis() - jvmStart;
+        events.put(name, at);
+        LOGGER.info("Startup: " + name + " after " + at + " ms");
+    }
+
+    /**
+     * Logs the phases so far, e.g. once the server listens.
+     */
+    public synchronized void log() {
+        StringBuilder line = new StringBuilder("Startup:");
+        phases.forEach((name, millis) -> line.append(' ').append(name).append(' ').append(millis).append(" ms,"));
+        line.append(" listening after ").append(last - jvmStart).append(" ms");
+        LOGGER.info(line.toString());
+    }
+
+    /**
+     * Describes all phases and events for the readiness endpoint.
+     */
+    public synchronized JsonObject toJson() {
+        return new JsonObject()
+                .put("phasesMillis", new JsonObject(new LinkedHashMap<String, Object>(phases)))
+                .put("eventsMillis", new JsonObject(new LinkedHashMap<String, Object>(events)));
+    }
+}
@@ -0,0 +1,177 @@
+package de.thm.mni.pi2.adder.startup;
+
+import de.thm.mni.pi2.adder.codec.Cbor;
+import de.thm.mni.pi2.adder.codec.Encoding;
+import de.thm.mni.pi2.adder.codec.MessagePack;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exercises the hot paths once after a start, before readiness reports UP,
+ * so the first real requests do not pay for class loading and interpreted
+ * code. The response encoders and decoders and BCrypt run in-process on a
+ * stand-in image listing. If a warm-up account is configured
+ * ("startup.warmupUser" and "startup.warmupPassword"), the warm-up then logs
+ * in over loopback and requests the listing, search and sync routes, which
+ * runs the whole router chain (tracing, access log, admission, session,
+ * CORS, rate limits, body handling) and the handlers' queries. It only
+ * reads, and only the warm-up account's own library. Without an account
+ * there is no loopback pass: unauthenticated requests would only warm up
+ * the 401 answers.
+ */
+public class Warmup {
+
+    private static final Logger LOGGER = Logger.getLogger(Warmup.class.getName());
+
+    private static final List<String> ROUTES = List.of(
+            "/health/live",
+            "/user/images",
+            "/user/images?fields=id,path",
+            "/user/albums",
+            "/search?q=warmup",
+            "/sync");
+    private static final List<String> ACCEPT = List.of(
+            "application/json", "application/cbor", "application/msgpack");
+
+    private final Vertx vertx;
+    private volatile boolean done;
+
+    public Warmup(Vertx vertx) {
+        this.vertx = vertx;
+    }
+
+    /**
+     * @return Whether the warm-up has finished or was never started.
+     */
+    public boolean done() {
+        return done;
+    }
+
+    /**
+     * Runs the warm-up. Failures are logged and end it early.
+     *
+     * @param port     The port the server listens on.
+     * @param requests Number of loopback requests.
+     * @param user     The warm-up account, or null to skip the loopback
+     *                 requests.
+     * @param password Its password.
+     * @return A future completed once the warm-up is over.
+     */
+    public Future<Void> run(int port, int requests, String user, String password) {
+        HttpClient client = vertx.createHttpClient();
+        return vertx.executeBlocking(() -> {
+            inProcess();
+            return null;
+        }, false).compose(v -> {
+            if (user == null || user.isEmpty()) {
+                LOGGER.info("No warm-up account configured, skipping the loopback requests");
+                return Future.succeededFuture();
+            }
+            return login(client, port, user, password)
+                    .compose(cookie -> requests(client, port, cookie, 0, requests)
+                            .eventually(() -> send(client, port, HttpMethod.POST, "/logout", cookie, null)));
+        }).recover(e -> {
+            LOGGER.log(Level.WARNING, "Warm-up ended early", e);
+            return Future.succeededFuture();
+        }).onComplete(ar -> {
+            client.close();
+            done = true;
+        });
+    }
+
+    /**
+     * Marks the warm-up as finished without running it.
+     */
+    public void skip() {
+        done = true;
+    }
+
+    private static void inProcess() {
+        JsonArray listing = new JsonArray();
+        for (int i = 0; i < 200; i++) {
+            listing.add(new JsonObject()
+                    .put("id", String.valueOf(i))
+                    .put("title", "warmup-" + i + ".jpg")
+                    .put("date", "2024-01-01")
+                    .put("path", "uploads/warmup-" + i + ".jpg")
+                    .put("width", 4032)
+                    .put("height", 3024)
+                    .put("placeholder", new JsonObject().put("blurhash", "LKO2?U%2Tw=w]~RBVZRi};RPxuwH")
+                            .put("color", "#808080").put("width", 4032).put("height", 3024))
+                    .put("tags", new JsonArray().add("warmup")));
+        }
+        for (int round = 0; round < 50; round++) {
+            for (Encoding encoding : Encoding.values()) {
+                encoding.encode(listing);
+            }
+            Buffer cbor = Buffer.buffer();
+            Cbor.encode(listing, cbor);
+            Cbor.decode(cbor);
+            Buffer msgpack = Buffer.buffer();
+            MessagePack.encode(listing, msgpack);
+            MessagePack.decode(msgpack);
+        }
+        // the cheapest cost factor runs the same code as the real one
+        String hash = BCrypt.hashpw("warmup", BCrypt.gensalt(4));
+        for (int round = 0; round < 10; round++) {
+            BCrypt.checkpw("warmup", hash);
+        }
+    }
+
+    /**
+     * Logs in as the warm-up account.
+     *
+     * @return A future of the session cookie.
+     */
+    private Future<String> login(HttpClient client, int port, String user, String password) {
+        Buffer body = new JsonObject().put("username", user).put("password", password).toBuffer();
+        return client.request(HttpMethod.POST, port, "localhost", "/login")
+                .compose(request -> request
+                        .putHeader(HttpHeaders.CONTENT_TYPE, "application/json")
+                        .putHeader(HttpHeaders.USER_AGENT, "adder-warmup")
+                        .send(body))
+                .compose(response -> {
+                    String cookie = response.cookies().isEmpty() ? null : response.cookies().get(0).split(";", 2)[0];
+                    if (response.statusCode() != 200 || cookie == null) {
+                        return Future.failedFuture("Warm-up login failed with status " + response.statusCode());
+                    }
+                    return response.body().map(cookie);
+                });
+    }
+
+    private Future<Void> requests(HttpClient client, int port, String cookie, int sent, int total) {
+        if (sent >= total) {
+            return Future.succeededFuture();
+        }
+        String uri = ROUTES.get(sent % ROUTES.size());
+        String accept = ACCEPT.get(sent / ROUTES.size() % ACCEPT.size());
+        return send(client, port, HttpMethod.GET, uri, cookie, accept)
+                .compose(v -> requests(client, port, cookie, sent + 1, total));
+    }
+
+    private Future<Void> send(HttpClient client, int port, HttpMethod method, String uri, String cookie,
+                              String accept) {
+        return client.request(method, port, "localhost", uri)
+                .compose(request -> {
+                    request.putHeader(HttpHeaders.COOKIE, cookie)
+                            .putHeader(HttpHeaders.USER_AGENT, "adder-warmup");
+                    if (accept != null) {
+                        request.putHeader(HttpHeaders.ACCEPT, accept);
+                    }
+                    return request.send();
+                })
+                .compose(response -> response.body())
+                .mapEmpty();
+    }
+}
@@ -0,0 +1,224 @@
+package de.thm.mni.pi2.adder.storage;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves image files from the fullest volume to the emptiest one until their
+ * used shares differ by less than "storage.rebalanceTolerance". Runs while
+ * the server serves requests: a file is copied and synced under its final
+ * name first, then all rows with its path are switched to the new volume,
+ * and only then is the old copy removed. A request that resolved the old
+ * copy just before keeps reading it; one that comes after finds the new one.
+ * The copies run on the target volume's I/O pool, in batches of
+ * "storage.rebalanceBatch" files, on the job's own database connection.
+ */
+public class RebalanceJob {
+
+    private static final Logger LOGGER = Logger.getLogger(RebalanceJob.class.getName());
+
+    public enum State {
+        RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    private final AppConfig config;
+    private final Storage storage;
+    private final Thread thread;
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Map<String, String> cursors = new HashMap<>();
+
+    private volatile State state = State.RUNNING;
+    private volatile boolean cancelled;
+    private volatile String error;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    public RebalanceJob(AppConfig config, Storage storage) {
+        this.config = config;
+        this.storage = storage;
+        this.thread = new Thread(this::run, "adder-rebalance");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * Stops after the current file.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Waits for the job to stop.
+     *
+     * @return false if it was still running at the timeout.
+     */
+    public boolean join(long timeoutMillis) throws InterruptedException {
+        thread.join(Math.max(1, timeoutMillis));
+        return !thread.isAlive();
+    }
+
+    public JsonObject status() {
+        long end = state == State.RUNNING ? System.nanoTime() : endNanos;
+        return new JsonObject()
+                .put("state", state.name())
+                .put("moved", moved.get())
+                .put("bytes", bytes.get())
+                .put("failed", failed.get())
+                .put("elapsedSeconds", Math.round((end - startNanos) / 1e8) / 10.0)
+                .put("volumes", storage.status())
+                .put("error", error);
+    }
+
+    private void run() {
+        JsonObject options = config.section("storage");
+        double tolerance = options.getDouble("rebalanceTolerance", 0.05);
+        int batchSize = options.getInteger("rebalanceBatch", 20);
+        try (Connection conn = DriverManager.getConnection(config.dbUrl(), config.dbUser(), config.dbPassword())) {
+            while (!cancelled) {
+                storage.refresh();
+                Storage.Volume from = storage.volumes().get(0);
+                Storage.Volume to = from;
+                for (Storage.Volume volume : storage.volumes()) {
+                    if (volume.used() > from.used()) {
+                        from = volume;
+                    }
+                    if (volume.used() < to.used()) {
+                        to = volume;
+                    }
+                }
+                if (from.used() - to.used() < tolerance) {
+                    break;
+                }
+                List<String> paths = batch(conn, from, batchSize);
+                if (paths.isEmpty()) {
+                    // nothing of ours left on the fullest volume
+                    break;
+                }
+                for (String path : paths) {
+                    if (cancelled) {
+                        break;
+                    }
+                    move(conn, path, from, to);
+                }
+            }
+            finish(cancelled ? State.CANCELLED : State.DONE);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Rebalance failed", e);
+            error = e.getMessage();
+            finish(State.FAILED);
+        }
+    }
+
+    private void finish(State end) {
+        endNanos = System.nanoTime();
+        state = end;
+        LOGGER.info("Rebalance " + end.name().toLowerCase() + " after moving " + moved.get() + " files");
+    }
+
+    /**
+     * The next paths on a volume, in path order after the last batch.
+     */
+    private List<String> batch(Connection conn, Storage.Volume volume, int batchSize) throws SQLException {
+        boolean isDefault = volume == storage.defaultVolume();
+        List<String> paths = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT DISTINCT path FROM images WHERE "
+                        + (isDefault ? "(volume = ? OR volume IS NULL)" : "volume = ?")
+                        + " AND path > ? ORDER BY path LIMIT ?")) {
+            ps.setString(1, volume.name());
+            ps.setString(2, cursors.getOrDefault(volume.name(), ""));
+            ps.setInt(3, batchSize);
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                paths.add(res.getString("path"));
+            }
+        }
+        if (!paths.isEmpty()) {
+            cursors.put(volume.name(), paths.get(paths.size() - 1));
+        }
+        return paths;
+    }
+
+    private void move(Connection conn, String path, Storage.Volume from, Storage.Volume to) throws SQLException {
+        Path source = from.root().resolve(path).normalize();
+        Path target = to.root().resolve(path).normalize();
+        if (!source.startsWith(from.root()) || !target.startsWith(to.root()) || !Files.isRegularFile(source)) {
+            failed.incrementAndGet();
+            return;
+        }
+        long size;
+        try {
+            size = storage.io(to, () -> copy(source, target)).toCompletionStage().toCompletableFuture().join();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not copy " + path + " to volume " + to.name(), e);
+            failed.incrementAndGet();
+            return;
+        }
+
+        boolean isDefault = from == storage.defaultVolume();
+        int rows;
+        try (PreparedStatement ps = conn.prepareStatement("UPDATE images SET volume = ? WHERE path = ? AND "
+                + (isDefault ? "(volume = ? OR volume IS NULL)" : "volume = ?"))) {
+            ps.setString(1, to.name());
+            ps.setString(2, path);
+            ps.setString(3, from.name());
+            rows = ps.executeUpdate();
+        }
+        // the image was deleted meanwhile: drop the copy instead
+        Path obsolete = rows > 0 ? source : target;
+        try {
+            storage.io(rows > 0 ? from : to, () -> Files.deleteIfExists(obsolete))
+                    .toCompletionStage().toCompletableFuture().join();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + obsolete, e);
+        }
+        if (rows > 0) {
+            moved.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * Copies a file under a temporary name, syncs it and renames it into
+     * place, so the target is either missing or complete.
+     */
+    private static long copy(Path source, Path target) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        Files.createDirectories(target.getParent());
+        Files.copy(source, partial, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return Files.size(target);
+    }
+}
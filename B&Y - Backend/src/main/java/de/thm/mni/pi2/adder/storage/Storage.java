@@ -0,0 +1,356 @@
+package de.thm.mni.pi2.adder.storage;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The volumes that hold the uploaded images, after "storage.volumes" (a list
+ * of {"name", "path"}); without it the uploads directory is the only volume.
+ * New files are spread over the volumes in proportion to their capacity, by
+ * rendezvous hashing of the file name, so a name maps to the same volume as
+ * long as the set of volumes with room does not change. Every volume has its
+ * own I/O worker pool of "storage.ioThreads" threads, so a slow disk only
+ * delays the files on it.
+ * <p>
+ * The volume of an image is stored in {@code images.volume} next to its
+ * path; rows without one (written before there were volumes) belong to the
+ * first volume. Paths are unique across volumes, so a file that is not where
+ * its row says is looked up on the others.
+ */
+public class Storage {
+
+    private static final Logger LOGGER = Logger.getLogger(Storage.class.getName());
+
+    /**
+     * A mount point for uploads.
+     */
+    public static class Volume {
+
+        private final String name;
+        private final Path root;
+        private final WorkerExecutor io;
+        private volatile long usable;
+        private volatile long total;
+
+        Volume(String name, Path root, WorkerExecutor io) {
+            this.name = name;
+            this.root = root;
+            this.io = io;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Path root() {
+            return root;
+        }
+
+        /**
+         * @return Free bytes at the last refresh.
+         */
+        public long usable() {
+            return usable;
+        }
+
+        /**
+         * @return The size of the file system at the last refresh.
+         */
+        public long total() {
+            return total;
+        }
+
+        /**
+         * @return The share of the file system in use at the last refresh.
+         */
+        public double used() {
+            return total == 0 ? 0 : 1 - (double) usable / total;
+        }
+
+        private void refresh() {
+            try {
+                FileStore store = Files.getFileStore(root);
+                space(store.getUsableSpace(), store.getTotalSpace());
+            } catch (IOException e) {
+                // an unreachable volume gets no new files
+                usable = 0;
+                LOGGER.log(Level.WARNING, "Cannot read the free space of volume " + name, e);
+            }
+        }
+
+        void space(long usable, long total) {
+            this.usable = usable;
+            this.total = total;
+        }
+    }
+
+    /**
+     * A file found on a volume.
+     *
+     * @param size The file size in bytes.
+     */
+    public record Located(Volume volume, Path file, long size) {
+    }
+
+    private final Vertx vertx;
+    private final List<Volume> volumes;
+    private final long minFreeBytes;
+    private final long timer;
+    private final Set<Future<?>> running = ConcurrentHashMap.newKeySet();
+
+    public Storage(Vertx vertx, AppConfig config) {
+        this.vertx = vertx;
+        JsonObject options = config.section("storage");
+        int ioThreads = options.getInteger("ioThreads", 4);
+        this.minFreeBytes = options.getLong("minFreeBytes", 1L << 30);
+
+        JsonArray configured = options.getJsonArray("volumes", new JsonArray());
+        List<Volume> list = new ArrayList<>();
+        if (configured.isEmpty()) {
+            configured = new JsonArray().add(new JsonObject()
+                    .put("name", "default").put("path", config.uploadsDirectory()));
+        }
+        for (int i = 0; i < configured.size(); i++) {
+            JsonObject volume = configured.getJsonObject(i);
+            String name = volume.getString("name", "volume" + i);
+            Path root = Paths.get(volume.getString("path")).toAbsolutePath().normalize();
+            try {
+                Files.createDirectories(root);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create volume " + name + " at " + root, e);
+            }
+            list.add(new Volume(name, root, vertx.createSharedWorkerExecutor("adder-io-" + name, ioThreads)));
+        }
+        this.volumes = List.copyOf(list);
+        refresh();
+        this.timer = vertx.setPeriodic(options.getLong("refreshMillis", 10000L), id -> vertx.executeBlocking(() -> {
+            refresh();
+            return null;
+        }, false));
+    }
+
+    public List<Volume> volumes() {
+        return volumes;
+    }
+
+    /**
+     * @return The first volume, which also holds the rows without a volume.
+     */
+    public Volume defaultVolume() {
+        return volumes.get(0);
+    }
+
+    /**
+     * @return The volume with this name, or null if there is none.
+     */
+    public Volume volume(String name) {
+        for (Volume volume : volumes) {
+            if (volume.name().equals(name)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Chooses the volume for a new file by weighted rendezvous hashing: every
+     * volume with more than "storage.minFreeBytes" free scores the file name
+     * against its own name, weighted by its capacity, and the highest score
+     * wins. The choice depends only on the names and the capacities, not on
+     * the current usage, so a resumed ingest places a file where it placed
+     * it before; only volumes running full move files elsewhere.
+     *
+     * @param name The stored file name.
+     * @return The volume; the one with the most free space if all are full.
+     */
+    public Volume place(String name) {
+        return place(name, volumes, minFreeBytes);
+    }
+
+    static Volume place(String name, List<Volume> volumes, long minFreeBytes) {
+        Volume best = null;
+        double bestScore = 0;
+        for (Volume volume : volumes) {
+            if (volume.usable() <= minFreeBytes || volume.total() == 0) {
+                continue;
+            }
+            // uniform in (0, 1), per pair of file and volume
+            double hash = ((mix(name.hashCode() * 31L + volume.name().hashCode()) >>> 11) + 0.5) / (1L << 53);
+            double score = volume.total() / -Math.log(hash);
+            if (best == null || score > bestScore) {
+                best = volume;
+                bestScore = score;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        Volume emptiest = volumes.get(0);
+        for (Volume volume : volumes) {
+            if (volume.usable() > emptiest.usable()) {
+                emptiest = volume;
+            }
+        }
+        return emptiest;
+    }
+
+    /**
+     * The SplitMix64 finalizer, spreads similar names over all 64 bits.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * Resolves a stored image path. Blocks on a file system lookup, so
+     * event loop code uses {@link #find} instead.
+     *
+     * @param volume The volume as stored in {@code images.volume}, or null.
+     * @param path   The path as stored in {@code images.path}.
+     * @return The file, or null if the path escapes the volume.
+     */
+    public Path resolve(String volume, String path) {
+        if (path == null) {
+            return null;
+        }
+        Volume recorded = volume == null ? defaultVolume() : volume(volume);
+        Path file = recorded == null ? null : inside(recorded, path);
+        if (file != null && Files.exists(file)) {
+            return file;
+        }
+        Volume located = locate(path);
+        return located == null ? file : inside(located, path);
+    }
+
+    /**
+     * Finds the volume that holds a file. Blocks on a file system lookup, so
+     * event loop code uses {@link #find} instead.
+     *
+     * @param path The path as stored in {@code images.path}.
+     * @return The volume, or null if no volume has the file.
+     */
+    public Volume locate(String path) {
+        for (Volume volume : volumes) {
+            Path file = inside(volume, path);
+            if (file != null && Files.exists(file)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the volume that holds a file without blocking: each volume is
+     * asked on its own I/O pool, one after the other.
+     *
+     * @param path The path as stored in {@code images.path}.
+     * @return A future of the file and its size, or of null if no volume has
+     *         it.
+     */
+    public Future<Located> find(String path) {
+        return find(path, 0);
+    }
+
+    private Future<Located> find(String path, int index) {
+        if (index == volumes.size()) {
+            return Future.succeededFuture();
+        }
+        Volume volume = volumes.get(index);
+        Path file = inside(volume, path);
+        if (file == null) {
+            return find(path, index + 1);
+        }
+        return io(volume, () -> Files.exists(file) ? Files.size(file) : -1L)
+                .compose(size -> size >= 0 ? Future.succeededFuture(new Located(volume, file, size))
+                        : find(path, index + 1));
+    }
+
+    /**
+     * Runs file I/O on the volume's worker pool.
+     */
+    public <T> Future<T> io(Volume volume, Callable<T> task) {
+        Future<T> future = volume.io.executeBlocking(task, false);
+        running.add(future);
+        future.onComplete(ar -> running.remove(future));
+        return future;
+    }
+
+    /**
+     * Re-reads the free space of all volumes. Blocks.
+     */
+    public void refresh() {
+        for (Volume volume : volumes) {
+            volume.refresh();
+        }
+    }
+
+    /**
+     * Describes the volumes for the admin endpoint.
+     */
+    public JsonArray status() {
+        JsonArray array = new JsonArray();
+        for (Volume volume : volumes) {
+            array.add(new JsonObject()
+                    .put("name", volume.name())
+                    .put("path", volume.root().toString())
+                    .put("usableBytes", volume.usable())
+                    .put("used", Math.round(volume.used() * 1000) / 1000.0));
+        }
+        return array;
+    }
+
+    /**
+     * Waits for the file operations in progress, then closes the I/O pools.
+     * Blocks.
+     *
+     * @param timeoutMillis How long to wait for the running operations.
+     */
+    public void close(long timeoutMillis) {
+        vertx.cancelTimer(timer);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Future<?> operation : List.copyOf(running)) {
+            try {
+                operation.toCompletionStage().toCompletableFuture()
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // reported to whoever started it
+            } catch (TimeoutException e) {
+                LOGGER.warning(running.size() + " file operations still running at shutdown");
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Volume volume : volumes) {
+            volume.io.close();
+        }
+    }
+
+    private static Path inside(Volume volume, String path) {
+        Path file = volume.root().resolve(path).normalize();
+        return file.startsWith(volume.root()) ? file : null;
+    }
+}
@@ -0,0 +1,228 @@
+package de.thm.mni.pi2.adder.sync;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-user change feed backing the delta sync API.
+ * Every mutating handler records which image, album or album membership it
+ * touched in the {@code changes} table. Each change gets the next number of
+ * its owner's counter ({@code users.change_seq}), which is the sync token.
+ * The counter is incremented in the transaction that inserts the change and
+ * the increment locks the user row until that transaction commits, so a
+ * user's changes become visible in number order, even when handlers write
+ * on several pooled connections at once. A client that has seen number n
+ * has therefore seen every earlier change of its library.
+ * Recording a change also bumps the {@link Versions} of the user and of the
+ * albums involved.
+ */
+public class ChangeFeed {
+
+    /**
+     * What was changed. Tags are part of their image or album.
+     */
+    public enum Entity {
+        IMAGE, ALBUM, MEMBERSHIP
+    }
+
+    public enum Op {
+        UPSERT, DELETE
+    }
+
+    /**
+     * One recorded change.
+     *
+     * @param refId The image id of a membership, null otherwise.
+     */
+    public record Change(long seq, Entity entity, int entityId, Integer refId, Op op) {
+    }
+
+    private final Versions versions;
+
+    public ChangeFeed(Versions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * Records a change on the given (primary) connection, in the caller's
+     * transaction if one is open.
+     *
+     * @param conn     The connection the mutation was executed on.
+     * @param userId   The owner of the changed entity.
+     * @param entity   The kind of entity.
+     * @param entityId The image or album id.
+     * @param refId    The image id of a membership, null otherwise.
+     * @param op       Whether the entity was written or deleted.
+     * @throws SQLException If the change cannot be stored.
+     */
+    public void record(Connection conn, int userId, Entity entity, int entityId, Integer refId, Op op)
+            throws SQLException {
+        record(conn, userId, List.of(new Change(0, entity, entityId, refId, op)));
+    }
+
+    /**
+     * Records several changes of one user in a single batch, in the caller's
+     * transaction if one is open.
+     *
+     * @param conn    The connection the mutations were executed on.
+     * @param userId  The owner of the changed entities.
+     * @param changes The changes; their sequence numbers are ignored.
+     * @throws SQLException If the changes cannot be stored.
+     */
+    public void record(Connection conn, int userId, List<Change> changes) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            insert(conn, userId, changes);
+            if (autoCommit) {
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            if (autoCommit) {
+                conn.rollback();
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+        bump(conn, userId, changes);
+    }
+
+    /**
+     * Records changes in the caller's open transaction, so they commit or
+     * roll back with the mutation. Call {@link #committed} once the
+     * transaction has committed.
+     *
+     * @param conn    The connection of the open transaction.
+     * @param userId  The owner of the changed entities.
+     * @param changes The changes; their sequence numbers are ignored.
+     * @throws SQLException If the changes cannot be stored.
+     */
+    public void stage(Connection conn, int userId, List<Change> changes) throws SQLException {
+        if (!changes.isEmpty()) {
+            insert(conn, userId, changes);
+        }
+    }
+
+    /**
+     * Bumps the versions touched by changes recorded with {@link #stage},
+     * after their transaction committed.
+     */
+    public void committed(Connection conn, int userId, List<Change> changes) throws SQLException {
+        if (!changes.isEmpty()) {
+            bump(conn, userId, changes);
+        }
+    }
+
+    /**
+     * Takes the next numbers of the user's counter and inserts the changes.
+     * Must run inside a transaction, which keeps the user row locked.
+     */
+    private static void insert(Connection conn, int userId, List<Change> changes) throws SQLException {
+        long last;
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE users SET change_seq = LAST_INSERT_ID(change_seq + ?) WHERE id = ?")) {
+            ps.setInt(1, changes.size());
+            ps.setInt(2, userId);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT LAST_INSERT_ID()")) {
+            ResultSet res = ps.executeQuery();
+            res.next();
+            last = res.getLong(1);
+        }
+
+        long seq = last - changes.size();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "INSERT INTO changes (userid, userseq, entity, entityid, refid, op) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (Change change : changes) {
+                ps.setInt(1, userId);
+                ps.setLong(2, ++seq);
+                ps.setString(3, change.entity().name().toLowerCase());
+                ps.setInt(4, change.entityId());
+                if (change.refId() == null) {
+                    ps.setNull(5, Types.INTEGER);
+                } else {
+                    ps.setInt(5, change.refId());
+                }
+                ps.setString(6, change.op().name().toLowerCase());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    /**
+     * Bumps the versions touched by committed changes. A changed image is
+     * shown in every album that lists it; albums of a deleted image have to
+     * be bumped by the caller, the memberships are gone by now.
+     */
+    private void bump(Connection conn, int userId, List<Change> changes) throws SQLException {
+        versions.bumpUser(userId);
+        List<Integer> images = new ArrayList<>();
+        for (Change change : changes) {
+            if (change.entity() == Entity.IMAGE) {
+                images.add(change.entityId());
+            } else {
+                versions.bumpAlbum(change.entityId());
+            }
+        }
+        versions.bumpAlbums(versions.albumsOf(conn, images));
+    }
+
+    /**
+     * Reads a user's changes after a sync token, oldest first.
+     *
+     * @param conn   The database connection.
+     * @param userId The owner.
+     * @param since  The token the client has seen.
+     * @param limit  Maximum number of changes.
+     * @return The changes.
+     * @throws SQLException If the query fails.
+     */
+    public List<Change> since(Connection conn, int userId, long since, int limit) throws SQLException {
+        List<Change> changes = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT userseq, entity, entityid, refid, op FROM changes WHERE userid = ? AND userseq > ? " +
+                        "ORDER BY userseq LIMIT ?")) {
+            ps.setInt(1, userId);
+            ps.setLong(2, since);
+            ps.setInt(3, limit);
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                changes.add(new Change(
+                        res.getLong("userseq"),
+                        Entity.valueOf(res.getString("entity").toUpperCase()),
+                        res.getInt("entityid"),
+                        res.getObject("refid", Integer.class),
+                        Op.valueOf(res.getString("op").toUpperCase())));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return The sequence of the user's latest change, 0 if there is none.
+     * @throws SQLException If the query fails.
+     */
+    public long latest(Connection conn, int userId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT COALESCE(MAX(userseq), 0) FROM changes WHERE userid = ?")) {
+            ps.setInt(1, userId);
+            ResultSet res = ps.executeQuery();
+            return res.next() ? res.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package de.thm.mni.pi2.adder.sync;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.ext.web.RoutingContext;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory version counters for conditional GETs.
+ * Every user and every album has a counter that is bumped after each
+ * committed write to the user's library or the album. Read handlers turn the
+ * counter into a weak ETag before they query, so a matching If-None-Match is
+ * answered with 304 without touching the database. The counters start at
+ * zero on every boot; the boot time is part of each ETag, so tags issued by
+ * an earlier process never match.
+ */
+public class Versions {
+
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    /**
+     * A counter value and the time it was reached.
+     */
+    public record Stamp(long version, long modifiedMillis) {
+    }
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final long bootMillis = System.currentTimeMillis();
+    private final long settleMillis;
+    private final Map<Integer, Stamp> users = new ConcurrentHashMap<>();
+    private final Map<Integer, Stamp> albums = new ConcurrentHashMap<>();
+
+    /**
+     * @param config Used to find out whether reads may hit a lagging replica.
+     */
+    public Versions(AppConfig config) {
+        // a replica may still serve the old state for this long after a write
+        this.settleMillis = config.dbReplicaUrls().isEmpty() ? 0
+                : (config.section("db").getLong("maxReplicaLagSeconds", 5L) + 1) * 1000;
+    }
+
+    /**
+     * @return The current version of the user's library.
+     */
+    public long user(int userId) {
+        Stamp stamp = users.get(userId);
+        return stamp == null ? 0 : stamp.version();
+    }
+
+    /**
+     * @return The current version of the album.
+     */
+    public long album(int albumId) {
+        Stamp stamp = albums.get(albumId);
+        return stamp == null ? 0 : stamp.version();
+    }
+
+    public void bumpUser(int userId) {
+        users.compute(userId, (key, stamp) -> next(stamp));
+    }
+
+    public void bumpAlbum(int albumId) {
+        albums.compute(albumId, (key, stamp) -> next(stamp));
+    }
+
+    public void bumpAlbums(Collection<Integer> albumIds) {
+        albumIds.forEach(this::bumpAlbum);
+    }
+
+    /**
+     * Finds the albums that list any of the given images. Call it before the
+     * images are deleted, and bump the albums after the commit.
+     *
+     * @param conn     The connection of the write.
+     * @param imageIds The changed images.
+     * @return The album ids.
+     * @throws SQLException If the query fails.
+     */
+    public Set<Integer> albumsOf(Connection conn, Collection<Integer> imageIds) throws SQLException {
+        Set<Integer> albumIds = new HashSet<>();
+        if (imageIds.isEmpty()) {
+            return albumIds;
+        }
+        StringJoiner in = new StringJoiner(", ", "(", ")");
+        imageIds.forEach(id -> in.add(String.valueOf(id)));
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT DISTINCT albumid FROM albumimages WHERE imageid IN " + in)) {
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                albumIds.add(res.getInt(1));
+            }
+        }
+        return albumIds;
+    }
+
+    /**
+     * Sets ETag and Last-Modified for a resource of the user's library and
+     * answers 304 if the client's copy is current.
+     *
+     * @param context The routing context of the GET request.
+     * @param userId  The owner of the library.
+     * @return true if the request was answered.
+     */
+    public boolean notModifiedUser(RoutingContext context, int userId) {
+        return notModified(context, "u" + userId, users.get(userId));
+    }
+
+    /**
+     * Sets ETag and Last-Modified for an album resource and answers 304 if
+     * the client's copy is current.
+     *
+     * @param context The routing context of the GET request.
+     * @param albumId The album.
+     * @return true if the request was answered.
+     */
+    public boolean notModifiedAlbum(RoutingContext context, int albumId) {
+        return notModified(context, "a" + albumId, albums.get(albumId));
+    }
+
+    private boolean notModified(RoutingContext context, String key, Stamp stamp) {
+        long version = stamp == null ? 0 : stamp.version();
+        long modified = stamp == null ? bootMillis : stamp.modifiedMillis();
+        // right after a write a replica may answer with older data, which
+        // must not be cached under the new tag
+        if (System.currentTimeMillis() - modified < settleMillis) {
+            return false;
+        }
+
+        String etag = "W/\"" + epoch + "-" + key + "." + version + "\"";
+        context.response()
+                .putHeader(HttpHeaders.ETAG, etag)
+                .putHeader(HttpHeaders.LAST_MODIFIED, HTTP_DATE.format(Instant.ofEpochMilli(modified)))
+                .putHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+
+        String ifNoneMatch = context.request().getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+            context.response().setStatusCode(304).end();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Weak comparison against a comma separated If-None-Match list.
+     */
+    private static boolean matches(String header, String etag) {
+        String opaque = etag.substring(2);
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Stamp next(Stamp stamp) {
+        return new Stamp(stamp == null ? 1 : stamp.version() + 1, System.currentTimeMillis());
+    }
+}
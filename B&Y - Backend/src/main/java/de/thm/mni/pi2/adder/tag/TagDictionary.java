@@ -0,0 +1,150 @@
+package de.thm.mni.pi2.adder.tag;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory mirror of the {@code tags} dictionary.
+ * Tag strings are stored once in {@code tags}; {@code imagetags} and
+ * {@code albumtags} only reference their integer id. Ids are dense
+ * auto-increment values, so id to name is a plain array lookup, and name to
+ * id a hash lookup. Tags are never deleted, so cached entries never go stale.
+ */
+public class TagDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    /** id -> name, replaced by a larger copy when it grows. */
+    private volatile String[] names = new String[1024];
+
+    /**
+     * Loads the whole dictionary.
+     *
+     * @param conn The database connection.
+     * @throws SQLException If the query fails.
+     */
+    public void load(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT id, name FROM tags")) {
+            ResultSet res = ps.executeQuery();
+            while (res.next()) {
+                cache(res.getInt("id"), res.getString("name"));
+            }
+        }
+    }
+
+    /**
+     * Looks up the id of a tag, adding it to the dictionary if it is new.
+     *
+     * @param conn An auto-commit connection to the primary, or one whose
+     *             transaction holds nothing else and is committed right
+     *             after. The new row must not be rolled back with a caller's
+     *             transaction, since its id is cached right away.
+     * @param name The tag.
+     * @return The tag id.
+     * @throws SQLException If the tag cannot be stored.
+     */
+    public int intern(Connection conn, String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT IGNORE INTO tags (name) VALUES (?)");
+             PreparedStatement select = conn.prepareStatement("SELECT id FROM tags WHERE name = ?")) {
+            insert.setString(1, name);
+            insert.executeUpdate();
+            select.setString(1, name);
+            ResultSet res = select.executeQuery();
+            if (!res.next()) {
+                throw new SQLException("Tag not stored: " + name);
+            }
+            id = res.getInt(1);
+        }
+        cache(id, name);
+        return id;
+    }
+
+    /**
+     * Interns several tags; duplicates and blank tags are dropped.
+     *
+     * @return The distinct tag ids, in order of first occurrence.
+     * @throws SQLException If a tag cannot be stored.
+     */
+    public List<Integer> intern(Connection conn, Collection<String> names) throws SQLException {
+        List<Integer> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (name == null || name.isBlank()) {
+                continue;
+            }
+            int id = intern(conn, name.trim());
+            if (!result.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a tag id, reading it from the database if it is not cached
+     * yet (e.g. while the dictionary is still loading).
+     *
+     * @param conn Any connection, used only on a cache miss.
+     * @param id   The tag id.
+     * @return The tag, or null if there is no such id.
+     * @throws SQLException If the lookup fails.
+     */
+    public String name(Connection conn, int id) throws SQLException {
+        String[] current = names;
+        if (id >= 0 && id < current.length && current[id] != null) {
+            return current[id];
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT name FROM tags WHERE id = ?")) {
+            ps.setInt(1, id);
+            ResultSet res = ps.executeQuery();
+            if (!res.next()) {
+                return null;
+            }
+            String name = res.getString(1);
+            cache(id, name);
+            return name;
+        }
+    }
+
+    /**
+     * Resolves a comma separated list of tag ids, as built by
+     * {@code GROUP_CONCAT(tagid)}.
+     *
+     * @return The tags, empty for null or an empty list.
+     * @throws SQLException If a lookup fails.
+     */
+    public List<String> names(Connection conn, String tagIds) throws SQLException {
+        List<String> result = new ArrayList<>();
+        if (tagIds == null || tagIds.isEmpty()) {
+            return result;
+        }
+        for (String tagId : tagIds.split(",")) {
+            String name = name(conn, Integer.parseInt(tagId.trim()));
+            if (name != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    private synchronized void cache(int id, String name) {
+        String[] current = names;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+        }
+        // a reader that misses this write falls back to the database
+        current[id] = name;
+        names = current;
+        ids.put(name, id);
+    }
+}
@@ -0,0 +1,275 @@
+package de.thm.mni.pi2.adder.trace;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One timed operation of a trace.
+ * Spans of a request form a tree below the server span created by
+ * {@link Tracer#request}. The span of the code running on the current thread
+ * is kept in a thread local, so deeper layers (JDBC statements, BCrypt) can
+ * start children without passing the span around:
+ * <pre>
+ * try (Span span = Span.start("bcrypt.checkpw")) {
+ *     ...
+ * }
+ * </pre>
+ * Outside a sampled request all of this returns {@link #NOOP}, which records
+ * nothing. Finished spans are collected at their local root and exported
+ * together when it ends.
+ */
+public final class Span implements AutoCloseable {
+
+    /** OTLP span kinds. */
+    public static final int INTERNAL = 1;
+    public static final int SERVER = 2;
+    public static final int CLIENT = 3;
+
+    /** The span of unsampled work. */
+    public static final Span NOOP = new Span(null, null, null, null, null, INTERNAL);
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    // wall clock in nanoseconds, derived from the monotonic clock
+    private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    private final Tracer tracer;
+    private final Span root;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final int kind;
+    private final long startNanos;
+    private final List<Span> finished;
+
+    private volatile String name;
+    private volatile long endNanos;
+    private JsonArray attributes;
+    private String error;
+    private Span previous;
+
+    private Span(Tracer tracer, Span root, String traceId, String parentSpanId, String name, int kind) {
+        this.tracer = tracer;
+        this.root = root == null ? this : root;
+        this.traceId = traceId;
+        this.spanId = tracer == null ? null : newId(8);
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+        this.startNanos = nowNanos();
+        this.finished = root == null ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Starts the local root of a sampled trace.
+     *
+     * @param traceId      The trace id, from the incoming traceparent or new.
+     * @param parentSpanId The remote parent, null if the trace starts here.
+     */
+    static Span root(Tracer tracer, String traceId, String parentSpanId, String name) {
+        return new Span(tracer, null, traceId == null ? newId(16) : traceId, parentSpanId, name, SERVER);
+    }
+
+    /**
+     * @return The span of the current thread, {@link #NOOP} if there is none.
+     */
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? NOOP : span;
+    }
+
+    /**
+     * Starts a child of the current span and makes it current until
+     * {@link #close()}.
+     */
+    public static Span start(String name) {
+        return start(name, INTERNAL);
+    }
+
+    public static Span start(String name, int kind) {
+        Span span = current().child(name, kind);
+        if (span != NOOP) {
+            span.previous = CURRENT.get();
+            CURRENT.set(span);
+        }
+        return span;
+    }
+
+    /**
+     * Makes the given span current and returns the previous one, for code
+     * that restores it itself.
+     */
+    static Span swap(Span span) {
+        Span previous = CURRENT.get();
+        if (span == null || span == NOOP) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(span);
+        }
+        return previous;
+    }
+
+    /**
+     * Wraps a task for another thread so that it runs below the current span.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Span parent = current();
+        if (parent == NOOP) {
+            return task;
+        }
+        return () -> {
+            Span previous = swap(parent);
+            try {
+                return task.call();
+            } finally {
+                swap(previous);
+            }
+        };
+    }
+
+    /**
+     * Starts a child that is not made current, e.g. for asynchronous work
+     * that ends in a callback.
+     */
+    public Span child(String name) {
+        return child(name, INTERNAL);
+    }
+
+    public Span child(String name, int kind) {
+        if (tracer == null) {
+            return NOOP;
+        }
+        return new Span(tracer, root, traceId, spanId, name, kind);
+    }
+
+    public Span attribute(String key, Object value) {
+        if (tracer != null && value != null) {
+            JsonObject typed = new JsonObject();
+            if (value instanceof Boolean bool) {
+                typed.put("boolValue", bool);
+            } else if (value instanceof Integer || value instanceof Long) {
+                // OTLP JSON encodes 64-bit integers as strings
+                typed.put("intValue", value.toString());
+            } else if (value instanceof Number number) {
+                typed.put("doubleValue", number.doubleValue());
+            } else {
+                typed.put("stringValue", value.toString());
+            }
+            synchronized (this) {
+                if (attributes == null) {
+                    attributes = new JsonArray();
+                }
+                attributes.add(new JsonObject().put("key", key).put("value", typed));
+            }
+        }
+        return this;
+    }
+
+    public Span error(Throwable cause) {
+        if (tracer != null) {
+            error = String.valueOf(cause.getMessage());
+        }
+        return this;
+    }
+
+    public Span rename(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public boolean sampled() {
+        return tracer != null;
+    }
+
+    public String traceId() {
+        return traceId;
+    }
+
+    public String spanId() {
+        return spanId;
+    }
+
+    /**
+     * Ends the span. Children are handed to their root; the root exports
+     * itself with all children that ended before it.
+     */
+    public void end() {
+        if (tracer == null || endNanos != 0) {
+            return;
+        }
+        endNanos = nowNanos();
+        List<Span> export = null;
+        synchronized (root) {
+            if (root != this && root.endNanos == 0) {
+                root.finished.add(this);
+            } else if (root == this) {
+                export = new ArrayList<>(finished);
+                export.add(this);
+                finished.clear();
+            } else {
+                // ended after its root, e.g. a late callback
+                export = List.of(this);
+            }
+        }
+        if (export != null) {
+            tracer.export(export);
+        }
+    }
+
+    /**
+     * Ends the span and restores the span that was current before
+     * {@link #start(String)}.
+     */
+    @Override
+    public void close() {
+        if (tracer == null) {
+            return;
+        }
+        end();
+        swap(previous);
+    }
+
+    JsonObject toOtlp() {
+        JsonObject span = new JsonObject()
+                .put("traceId", traceId)
+                .put("spanId", spanId)
+                .put("name", name)
+                .put("kind", kind)
+                .put("startTimeUnixNano", Long.toString(startNanos))
+                .put("endTimeUnixNano", Long.toString(endNanos));
+        if (parentSpanId != null) {
+            span.put("parentSpanId", parentSpanId);
+        }
+        synchronized (this) {
+            if (attributes != null) {
+                span.put("attributes", attributes);
+            }
+        }
+        if (error != null) {
+            span.put("status", new JsonObject().put("code", 2).put("message", error));
+        }
+        return span;
+    }
+
+    private static long nowNanos() {
+        return System.nanoTime() + EPOCH_OFFSET_NANOS;
+    }
+
+    private static String newId(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder id = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes / 8; i++) {
+            long value;
+            do {
+                value = random.nextLong();
+            } while (value == 0);
+            id.append(String.format("%016x", value));
+        }
+        return id.toString();
+    }
+}
@@ -0,0 +1,94 @@
+package de.thm.mni.pi2.adder.trace;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+/**
+ * JDBC connection wrapper that records a client span for every executed
+ * statement, with the SQL text as "db.query.text". Statements prepared
+ * outside a sampled span are the driver's own, without a proxy, so unsampled
+ * requests pay for tracing only on the connection calls.
+ */
+public final class TracedConnection {
+
+    private static final int MAX_SQL_LENGTH = 1000;
+
+    private TracedConnection() {
+    }
+
+    /**
+     * @param connection The driver connection.
+     * @return A connection that traces its statements. Create it once per
+     *         driver connection: it is only equal to itself.
+     */
+    public static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "prepareStatement", "prepareCall":
+                            return statement(invoke(connection, method, args), (String) args[0]);
+                        case "createStatement":
+                            return statement(invoke(connection, method, args), null);
+                        default:
+                            return invoke(connection, method, args);
+                    }
+                });
+    }
+
+    private static Object statement(Object statement, String sql) {
+        if (!Span.current().sampled()) {
+            return statement;
+        }
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        InvocationHandler handler = (proxy, method, args) -> {
+            Span parent = Span.current();
+            // a statement prepared while sampled may still run after the span ended
+            if (!method.getName().startsWith("execute") || !parent.sampled()) {
+                return invoke(statement, method, args);
+            }
+            String text = sql != null ? sql : args != null && args[0] instanceof String s ? s : "";
+            Span span = parent.child("db " + operation(text), Span.CLIENT)
+                    .attribute("db.system", "mariadb")
+                    .attribute("db.query.text", text.length() > MAX_SQL_LENGTH
+                            ? text.substring(0, MAX_SQL_LENGTH) : text);
+            try {
+                return invoke(statement, method, args);
+            } catch (Throwable e) {
+                span.error(e);
+                throw e;
+            } finally {
+                span.end();
+            }
+        };
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String operation(String sql) {
+        String trimmed = sql.stripLeading();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? "statement" : trimmed.substring(0, end).toUpperCase();
+    }
+}
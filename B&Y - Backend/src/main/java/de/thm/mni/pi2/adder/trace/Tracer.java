@@ -0,0 +1,221 @@
+package de.thm.mni.pi2.adder.trace;
+
+import de.thm.mni.pi2.adder.audit.AsyncLogWriter;
+import de.thm.mni.pi2.adder.config.AppConfig;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Route;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Request tracing with a local file exporter.
+ * Every sampled request gets a server span; handlers, request phases
+ * (session lookup, body parsing), JDBC statements, file moves and BCrypt
+ * calls add child spans. An incoming W3C {@code traceparent} header
+ * continues the caller's trace and its sampled flag is honoured; other
+ * requests are sampled with "tracing.sampleRatio" (reloadable).
+ * Finished traces are written as OTLP/JSON lines ({@code ExportTraceServiceRequest},
+ * one per request) to {@code <directory>/traces.log} through an
+ * {@link AsyncLogWriter}, so exporting never blocks a request. Unsampled
+ * requests allocate no spans at all.
+ */
+public class Tracer {
+
+    private static final String SPAN = "trace.span";
+    private static final String HANDLERS = "trace.handlers";
+    private static final Pattern TRACEPARENT =
+            Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private final AppConfig config;
+    private final boolean enabled;
+    private final AsyncLogWriter writer;
+    private final JsonObject resource;
+
+    /**
+     * Creates the tracer and, if tracing is enabled, the writer thread.
+     *
+     * @param config The configuration; "tracing.enabled" and the writer
+     *               options are read once.
+     */
+    public Tracer(AppConfig config) {
+        this.config = config;
+        JsonObject options = config.section("tracing");
+        this.enabled = options.getBoolean("enabled", true);
+        this.writer = enabled
+                ? new AsyncLogWriter("traces", options.copy().put("timestamps", false))
+                : null;
+        this.resource = new JsonObject().put("attributes", new JsonArray().add(new JsonObject()
+                .put("key", "service.name")
+                .put("value", new JsonObject().put("stringValue", options.getString("serviceName", "adder")))));
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Router handler, registered first: starts the server span of a sampled
+     * request and ends it with the response.
+     *
+     * @param context The routing context.
+     */
+    public void request(RoutingContext context) {
+        if (!enabled) {
+            context.next();
+            return;
+        }
+
+        String traceId = null;
+        String parentId = null;
+        boolean sampled;
+        String header = context.request().getHeader("traceparent");
+        Matcher matcher = header == null ? null : TRACEPARENT.matcher(header.trim());
+        if (matcher != null && matcher.matches()) {
+            traceId = matcher.group(1);
+            parentId = matcher.group(2);
+            sampled = (Integer.parseInt(matcher.group(3), 16) & 1) == 1;
+        } else {
+            double ratio = config.section("tracing").getDouble("sampleRatio", 0.01);
+            sampled = ThreadLocalRandom.current().nextDouble() < ratio;
+        }
+        if (!sampled) {
+            context.next();
+            return;
+        }
+
+        String method = context.request().method().name();
+        Span span = Span.root(this, traceId, parentId, method + " " + context.request().path())
+                .attribute("http.request.method", method)
+                .attribute("url.path", context.request().path());
+        context.put(SPAN, span);
+        context.addEndHandler(v -> {
+            Route route = context.currentRoute();
+            if (route != null && route.getPath() != null) {
+                // the route pattern, not the path with its ids
+                span.rename(method + " " + route.getPath());
+            }
+            int status = context.response().getStatusCode();
+            span.attribute("http.response.status_code", status);
+            if (status >= 500) {
+                span.error(new IllegalStateException("HTTP " + status));
+            }
+            // handler spans first, so they are exported with the request
+            List<Span> handlers = context.get(HANDLERS);
+            if (handlers != null) {
+                handlers.forEach(Span::end);
+            }
+            span.end();
+        });
+
+        Span previous = Span.swap(span);
+        try {
+            context.next();
+        } finally {
+            Span.swap(previous);
+        }
+    }
+
+    /**
+     * Wraps a route handler in a span that lasts until the response ends.
+     * Code the handler runs synchronously sees the span as current.
+     *
+     * @param name    The span name, e.g. "ImageHandler.getImages".
+     * @param handler The route handler.
+     * @return The traced handler.
+     */
+    public Handler<RoutingContext> handler(String name, Handler<RoutingContext> handler) {
+        if (!enabled) {
+            return handler;
+        }
+        return context -> {
+            Span request = span(context);
+            if (!request.sampled()) {
+                handler.handle(context);
+                return;
+            }
+            Span span = request.child(name);
+            List<Span> handlers = context.get(HANDLERS);
+            if (handlers == null) {
+                handlers = new ArrayList<>(1);
+                context.put(HANDLERS, handlers);
+            }
+            handlers.add(span);
+            Span previous = Span.swap(span);
+            try {
+                handler.handle(context);
+            } catch (RuntimeException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                Span.swap(previous);
+            }
+        };
+    }
+
+    /**
+     * Router handler that starts a request phase, ended by {@link #end(String)}
+     * registered after the asynchronous handlers of the phase.
+     *
+     * @param phase The span name, e.g. "session".
+     */
+    public Handler<RoutingContext> begin(String phase) {
+        return context -> {
+            Span request = span(context);
+            if (request.sampled()) {
+                context.put(SPAN + "." + phase, request.child(phase));
+            }
+            context.next();
+        };
+    }
+
+    public Handler<RoutingContext> end(String phase) {
+        return context -> {
+            Span span = context.remove(SPAN + "." + phase);
+            if (span != null) {
+                span.end();
+            }
+            Span previous = Span.swap(span(context));
+            try {
+                context.next();
+            } finally {
+                Span.swap(previous);
+            }
+        };
+    }
+
+    /**
+     * @return The server span of the request, {@link Span#NOOP} if unsampled.
+     */
+    public static Span span(RoutingContext context) {
+        Span span = context.get(SPAN);
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * Stops the writer after everything exported so far has been written.
+     */
+    public void close(long timeoutMillis) {
+        if (writer != null) {
+            writer.close(timeoutMillis);
+        }
+    }
+
+    void export(List<Span> spans) {
+        JsonArray otlp = new JsonArray();
+        for (Span span : spans) {
+            otlp.add(span.toOtlp());
+        }
+        writer.write(new JsonObject().put("resourceSpans", new JsonArray().add(new JsonObject()
+                .put("resource", resource)
+                .put("scopeSpans", new JsonArray().add(new JsonObject()
+                        .put("scope", new JsonObject().put("name", "de.thm.mni.pi2.adder"))
+                        .put("spans", otlp))))));
+    }
+}
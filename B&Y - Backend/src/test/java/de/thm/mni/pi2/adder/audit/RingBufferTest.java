@@ -0,0 +1,123 @@
+package de.thm.mni.pi2.adder.audit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(2, new RingBuffer<>(0).capacity());
+        assertEquals(2, new RingBuffer<>(1).capacity());
+        assertEquals(2, new RingBuffer<>(2).capacity());
+        assertEquals(4, new RingBuffer<>(3).capacity());
+        assertEquals(8, new RingBuffer<>(5).capacity());
+        assertEquals(8, new RingBuffer<>(8).capacity());
+        assertEquals(1024, new RingBuffer<>(1000).capacity());
+    }
+
+    @Test
+    void rejectsOffersWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        assertNull(buffer.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        // one free slot takes exactly one more element
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        assertFalse(buffer.offer(5));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void keepsOrderAcrossWrapAround() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        int next = 0;
+        int expected = 0;
+        // fill levels vary so head and tail wrap at every offset
+        for (int round = 0; round < 1000; round++) {
+            int offers = round % 9;
+            for (int i = 0; i < offers; i++) {
+                if (buffer.offer(next)) {
+                    next++;
+                }
+            }
+            int polls = (round * 7) % 9;
+            for (int i = 0; i < polls; i++) {
+                Integer element = buffer.poll();
+                if (element == null) {
+                    assertEquals(next, expected);
+                    break;
+                }
+                assertEquals(expected++, element);
+            }
+        }
+        Integer element;
+        while ((element = buffer.poll()) != null) {
+            assertEquals(expected++, element);
+        }
+        assertEquals(next, expected);
+        assertTrue(next > 1000);
+    }
+
+    @Test
+    void concurrentProducersLoseNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100000;
+        RingBuffer<long[]> buffer = new RingBuffer<>(64);
+        AtomicInteger dropped = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    // retry for a while, then drop like the writer's BLOCK policy does
+                    int attempts = 0;
+                    while (!buffer.offer(new long[]{producer, i})) {
+                        if (++attempts == 1000) {
+                            dropped.incrementAndGet();
+                            break;
+                        }
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] last = {-1, -1, -1, -1};
+        int received = 0;
+        while (received + dropped.get() < producers * perProducer) {
+            long[] element = buffer.poll();
+            if (element == null) {
+                Thread.onSpinWait();
+                continue;
+            }
+            int producer = (int) element[0];
+            // each producer's elements arrive in the order they were offered
+            assertTrue(element[1] > last[producer]);
+            last[producer] = element[1];
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+        assertEquals(producers * perProducer, received + dropped.get());
+    }
+}
@@ -0,0 +1,113 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CborTest {
+
+    static JsonObject sample() {
+        return new JsonObject()
+                .put("id", 42)
+                .put("negative", -1000)
+                .put("large", 1L << 40)
+                .put("smallest", Long.MIN_VALUE)
+                .put("exact", 1.5)
+                .put("double", 0.1)
+                .put("title", "Grüße aus Gießen 📷")
+                .put("long", "x".repeat(70000))
+                .put("flag", true)
+                .putNull("missing")
+                .put("empty", new JsonObject())
+                .put("tags", new JsonArray().add("a").add(new JsonArray().add(1).add(false)).addNull());
+    }
+
+    private static Buffer encode(Object value) {
+        Buffer out = Buffer.buffer();
+        Cbor.encode(value, out);
+        return out;
+    }
+
+    private static Buffer bytes(int... values) {
+        Buffer buffer = Buffer.buffer();
+        for (int value : values) {
+            buffer.appendByte((byte) value);
+        }
+        return buffer;
+    }
+
+    @Test
+    void roundTrips() {
+        JsonObject sample = sample();
+        assertEquals(sample, Cbor.decode(encode(sample)));
+        JsonArray twice = new JsonArray().add(sample).add(sample);
+        assertEquals(twice, Cbor.decode(encode(twice)));
+    }
+
+    @Test
+    void usesShortestHeads() {
+        assertEquals(bytes(0x17), encode(23));
+        assertEquals(bytes(0x18, 0x18), encode(24));
+        assertEquals(bytes(0x19, 0x03, 0xe8), encode(1000));
+        assertEquals(bytes(0x38, 0x63), encode(-100));
+        assertEquals(bytes(0xfa, 0x3f, 0xc0, 0x00, 0x00), encode(1.5));
+    }
+
+    @Test
+    void decodesIndefiniteLengthsTagsAndHalfFloats() {
+        assertEquals(new JsonArray().add(1).add(2), Cbor.decode(bytes(0x9f, 0x01, 0x02, 0xff)));
+        assertEquals("ab", Cbor.decode(bytes(0x7f, 0x61, 0x61, 0x61, 0x62, 0xff)));
+        // tag 1 (epoch time) is dropped
+        assertEquals(1363896240, Cbor.decode(bytes(0xc1, 0x1a, 0x51, 0x4b, 0x67, 0xb0)));
+        assertEquals(1.0, ((Number) Cbor.decode(bytes(0xf9, 0x3c, 0x00))).doubleValue());
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        Buffer full = encode(sample());
+        for (int length = 0; length < full.length(); length++) {
+            Buffer prefix = full.getBuffer(0, length);
+            assertThrows(DecodeException.class, () -> Cbor.decode(prefix), "prefix of " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        assertThrows(DecodeException.class, () -> Cbor.decode(bytes(0x01, 0x01)));
+    }
+
+    @Test
+    void rejectsTooDeepNesting() {
+        Buffer nested = Buffer.buffer();
+        for (int i = 0; i <= Encoding.MAX_DEPTH + 1; i++) {
+            nested.appendByte((byte) 0x81);
+        }
+        nested.appendByte((byte) 0x01);
+        assertThrows(DecodeException.class, () -> Cbor.decode(nested));
+
+        Buffer allowed = Buffer.buffer();
+        for (int i = 0; i < Encoding.MAX_DEPTH; i++) {
+            allowed.appendByte((byte) 0x81);
+        }
+        allowed.appendByte((byte) 0x01);
+        Cbor.decode(allowed);
+    }
+
+    @Test
+    void rejectsLengthsBeyondTheInput() {
+        // array, map, text and bytes of 2^31 - 1 elements, with nothing behind
+        assertThrows(DecodeException.class, () -> Cbor.decode(bytes(0x9a, 0x7f, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class, () -> Cbor.decode(bytes(0xba, 0x7f, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class, () -> Cbor.decode(bytes(0x7a, 0xff, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class,
+                () -> Cbor.decode(bytes(0x5b, 0x7f, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff)));
+        // 2^64 - 1 does not fit into a long
+        assertThrows(DecodeException.class,
+                () -> Cbor.decode(bytes(0x9b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff)));
+    }
+}
@@ -0,0 +1,83 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Compares the wire formats on a typical image list: size and CPU time of
+ * encoding and decoding. Not part of the regular test run; run it with
+ * {@code mvn test -Dtest=CodecBenchmark} and read the table from the output.
+ * The payload is generated from a fixed seed, so sizes are reproducible;
+ * times are the best of several rounds after a warm-up.
+ */
+class CodecBenchmark {
+
+    private static final int IMAGES = 500;
+    private static final int ROUNDS = 20;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    void compareFormats() {
+        JsonArray images = images();
+        System.out.printf("%-8s %10s %14s %14s%n", "format", "bytes", "encode us/op", "decode us/op");
+        report("json", images, Buffer::toJsonArray, Encoding.JSON);
+        report("cbor", images, Cbor::decode, Encoding.CBOR);
+        report("msgpack", images, MessagePack::decode, Encoding.MSGPACK);
+    }
+
+    private static void report(String name, JsonArray images, Function<Buffer, Object> decoder, Encoding encoding) {
+        Buffer encoded = encoding.encode(images);
+        if (!images.equals(decoder.apply(encoded))) {
+            throw new AssertionError(name + " does not round-trip");
+        }
+        double encode = bestMicros(() -> encoding.encode(images));
+        double decode = bestMicros(() -> decoder.apply(encoded));
+        System.out.printf("%-8s %10d %14.1f %14.1f%n", name, encoded.length(), encode, decode);
+    }
+
+    private static double bestMicros(Runnable task) {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                task.run();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e3 / ITERATIONS;
+    }
+
+    /**
+     * An image list as GET /images returns it with all fields.
+     */
+    private static JsonArray images() {
+        Random random = new Random(42);
+        JsonArray images = new JsonArray();
+        for (int i = 0; i < IMAGES; i++) {
+            JsonArray tags = new JsonArray();
+            for (int t = random.nextInt(5); t > 0; t--) {
+                tags.add("tag" + random.nextInt(200));
+            }
+            images.add(new JsonObject()
+                    .put("id", 100000 + i)
+                    .put("title", "IMG_" + (1000 + random.nextInt(9000)))
+                    .put("date", "2024-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10))
+                    .put("path", UUID.nameUUIDFromBytes(new byte[]{(byte) i, (byte) (i >> 8)}) + ".jpg")
+                    .put("tags", tags)
+                    .put("takenAt", "2024-05-01T12:" + (10 + random.nextInt(50)) + ":00")
+                    .put("orientation", 1)
+                    .put("width", 4000 + random.nextInt(2000))
+                    .put("height", 3000 + random.nextInt(1000))
+                    .put("cameraMake", "Canon")
+                    .put("cameraModel", "EOS R6")
+                    .put("albums", new JsonArray().add(random.nextInt(50)).add(random.nextInt(50))));
+        }
+        return images;
+    }
+}
@@ -0,0 +1,93 @@
+package de.thm.mni.pi2.adder.codec;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessagePackTest {
+
+    private static Buffer encode(Object value) {
+        Buffer out = Buffer.buffer();
+        MessagePack.encode(value, out);
+        return out;
+    }
+
+    private static Buffer bytes(int... values) {
+        Buffer buffer = Buffer.buffer();
+        for (int value : values) {
+            buffer.appendByte((byte) value);
+        }
+        return buffer;
+    }
+
+    @Test
+    void roundTrips() {
+        JsonObject sample = CborTest.sample();
+        assertEquals(sample, MessagePack.decode(encode(sample)));
+        JsonArray many = new JsonArray();
+        for (int i = 0; i < 20; i++) {
+            many.add(new JsonObject().put("id", i * 1000).put("title", "image " + i));
+        }
+        assertEquals(many, MessagePack.decode(encode(many)));
+    }
+
+    @Test
+    void usesSmallestFormats() {
+        assertEquals(bytes(0x7f), encode(127));
+        assertEquals(bytes(0xcc, 0x80), encode(128));
+        assertEquals(bytes(0xe0), encode(-32));
+        assertEquals(bytes(0xd0, 0xdf), encode(-33));
+        assertEquals(bytes(0xa1, 0x61), encode("a"));
+        assertEquals(bytes(0x91, 0xc0), encode(new JsonArray().addNull()));
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        Buffer full = encode(CborTest.sample());
+        for (int length = 0; length < full.length(); length++) {
+            Buffer prefix = full.getBuffer(0, length);
+            assertThrows(DecodeException.class, () -> MessagePack.decode(prefix), "prefix of " + length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsTrailingBytes() {
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0x01, 0x01)));
+    }
+
+    @Test
+    void rejectsExtensionTypes() {
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0xd4, 0x01, 0x00)));
+    }
+
+    @Test
+    void rejectsTooDeepNesting() {
+        Buffer nested = Buffer.buffer();
+        for (int i = 0; i <= Encoding.MAX_DEPTH + 1; i++) {
+            nested.appendByte((byte) 0x91);
+        }
+        nested.appendByte((byte) 0x01);
+        assertThrows(DecodeException.class, () -> MessagePack.decode(nested));
+
+        Buffer allowed = Buffer.buffer();
+        for (int i = 0; i < Encoding.MAX_DEPTH; i++) {
+            allowed.appendByte((byte) 0x91);
+        }
+        allowed.appendByte((byte) 0x01);
+        MessagePack.decode(allowed);
+    }
+
+    @Test
+    void rejectsLengthsBeyondTheInput() {
+        // array32, map32, str32 and bin32 of 2^31 - 1 elements, with nothing behind
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0xdd, 0x7f, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0xdf, 0x7f, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0xdb, 0xff, 0xff, 0xff, 0xff)));
+        assertThrows(DecodeException.class, () -> MessagePack.decode(bytes(0xc6, 0x7f, 0xff, 0xff, 0xff)));
+    }
+}
@@ -0,0 +1,194 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs {@link Database} against a fake primary and two fake replicas and
+ * takes them down and up while it serves reads.
+ */
+class DatabaseFailoverTest {
+
+    /** A request without a session. */
+    private static final RoutingContext CONTEXT = (RoutingContext) Proxy.newProxyInstance(
+            DatabaseFailoverTest.class.getClassLoader(), new Class<?>[]{RoutingContext.class}, (p, m, a) -> null);
+
+    private Vertx vertx;
+    private Database db;
+    private FakeServers.Server primary;
+    private FakeServers.Server replica0;
+    private FakeServers.Server replica1;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FakeServers.install();
+        primary = FakeServers.server("primary");
+        replica0 = FakeServers.server("replica0");
+        replica1 = FakeServers.server("replica1");
+        vertx = Vertx.vertx();
+        AppConfig config = new AppConfig(new JsonObject()
+                .put("db", new JsonObject()
+                        .put("host", "primary")
+                        .put("replicas", new JsonArray()
+                                .add(new JsonObject().put("host", "replica0"))
+                                .add(new JsonObject().put("host", "replica1")))
+                        .put("healthCheckIntervalMillis", 50L)
+                        .put("reconnectBaseMillis", 10L)
+                        .put("reconnectMaxMillis", 50L)
+                        .put("breakerOpenMillis", 100L))
+                .put("tracing", new JsonObject().put("enabled", false)));
+        db = new Database(vertx, config, new Tracer(config));
+        join(db.start());
+        await(() -> replicaHealthy(0) && replicaHealthy(1));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        join(vertx.close());
+        FakeServers.uninstall();
+    }
+
+    @Test
+    void readsSpreadOverReplicas() {
+        assertEquals(Set.of(replica0, replica1), readServers());
+    }
+
+    @Test
+    void readsAvoidStoppedReplicaAndReturnAfterReconnect() throws Exception {
+        Connection old = replicaConnection(replica0);
+        replica0.stop();
+        await(() -> !replicaHealthy(0));
+        assertEquals(Set.of(replica1), readServers());
+
+        replica0.start();
+        await(() -> replicaHealthy(0));
+        assertEquals(Set.of(replica0, replica1), readServers());
+        Connection fresh = replicaConnection(replica0);
+        assertTrue(FakeServers.isClosed(old));
+        assertFalse(FakeServers.isClosed(fresh));
+    }
+
+    @Test
+    void restartedReplicaIsReplacedWithoutGap() throws Exception {
+        Connection old = replicaConnection(replica1);
+        Set<Boolean> servedClosed = new HashSet<>();
+        // readers that come while the old connection closes must already get the new one
+        replica1.onClose = closed -> servedClosed.add(FakeServers.isClosed(replicaConnection(replica1)));
+        replica1.restart();
+        await(() -> FakeServers.isClosed(old));
+        await(() -> replicaHealthy(1));
+        assertEquals(Set.of(false), servedClosed);
+        assertEquals(Set.of(replica0, replica1), readServers());
+    }
+
+    @Test
+    void laggingReplicaIsSkipped() throws Exception {
+        replica1.lagSeconds = 60;
+        await(() -> db.status().getJsonArray("replicas").getJsonObject(1).getLong("lagSeconds") == 60);
+        assertEquals(Set.of(replica0), readServers());
+
+        replica0.stop();
+        await(() -> !replicaHealthy(0));
+        assertEquals(Set.of(primary), readServers());
+    }
+
+    @Test
+    void probeWithoutQueryDoesNotCloseBreaker() throws Exception {
+        Router router = Router.router(vertx);
+        // answers without touching the database, like a 404 or 401 would
+        router.get("/probe").handler(db::guard).handler(context -> context.response().setStatusCode(404).end());
+        HttpServer server = join(vertx.createHttpServer().requestHandler(router).listen(0));
+        HttpClient client = vertx.createHttpClient();
+        try {
+            primary.stop();
+            await(() -> "OPEN".equals(breaker()));
+            await(() -> status(client, server) == 404);
+            assertEquals("HALF_OPEN", breaker());
+            assertEquals(503, status(client, server));
+
+            primary.start();
+            await(() -> "CLOSED".equals(breaker()));
+            assertEquals(404, status(client, server));
+        } finally {
+            join(client.close());
+            join(server.close());
+        }
+    }
+
+    private String breaker() {
+        return db.status().getJsonObject("primary").getString("breaker");
+    }
+
+    private static int status(HttpClient client, HttpServer server) {
+        try {
+            return join(client.request(HttpMethod.GET, server.actualPort(), "localhost", "/probe")
+                    .compose(request -> request.send())
+                    .compose(response -> response.body().map(body -> response.statusCode())));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static <T> T join(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private Set<FakeServers.Server> readServers() {
+        Set<FakeServers.Server> servers = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            servers.add(FakeServers.serverOf(db.read(CONTEXT)));
+        }
+        return servers;
+    }
+
+    /**
+     * @return The connection reads currently get from a replica.
+     */
+    private Connection replicaConnection(FakeServers.Server replica) {
+        for (int i = 0; i < 10; i++) {
+            Connection connection = db.read(CONTEXT);
+            if (FakeServers.serverOf(connection) == replica) {
+                return connection;
+            }
+        }
+        throw new AssertionError("No reads on " + replica.host);
+    }
+
+    private boolean replicaHealthy(int index) {
+        return db.status().getJsonArray("replicas").getJsonObject(index).getBoolean("healthy");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within 5 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.thm.mni.pi2.adder.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EndpointTest {
+
+    private FakeServers.Server server;
+    private Endpoint endpoint;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        FakeServers.install();
+        server = FakeServers.server("replica0");
+        endpoint = new Endpoint("replica-0", "jdbc:mariadb://replica0:3306/fotolab", "root", "",
+                UnaryOperator.identity());
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        endpoint.close();
+        FakeServers.uninstall();
+    }
+
+    @Test
+    void reconnectSwapsBeforeClosing() throws SQLException {
+        endpoint.connect(true, 1);
+        Connection old = endpoint.connection();
+        server.restart();
+        assertFalse(endpoint.check(true, 1));
+
+        List<Connection> seenOnClose = new ArrayList<>();
+        server.onClose = closed -> seenOnClose.add(endpoint.connection());
+        endpoint.connect(true, 1);
+
+        Connection fresh = endpoint.connection();
+        assertNotSame(old, fresh);
+        assertTrue(FakeServers.isClosed(old));
+        assertFalse(FakeServers.isClosed(fresh));
+        // when the old connection was closed, readers already got the new one
+        assertEquals(List.of(fresh), seenOnClose);
+        assertTrue(endpoint.healthy());
+    }
+
+    @Test
+    void failedReconnectKeepsPrevious() throws SQLException {
+        endpoint.connect(true, 1);
+        Connection old = endpoint.connection();
+        server.stop();
+
+        assertThrows(SQLException.class, () -> endpoint.connect(true, 1));
+        assertSame(old, endpoint.connection());
+        assertFalse(FakeServers.isClosed(old));
+        assertFalse(endpoint.check(true, 1));
+        assertFalse(endpoint.healthy());
+    }
+
+    @Test
+    void reconnectReadsLagBeforeSwapping() throws SQLException {
+        server.lagSeconds = 120;
+        endpoint.connect(true, 1);
+        assertEquals(120, endpoint.lagSeconds());
+
+        server.lagSeconds = 0;
+        server.restart();
+        endpoint.connect(true, 1);
+        assertEquals(0, endpoint.lagSeconds());
+    }
+}
@@ -0,0 +1,239 @@
+package de.thm.mni.pi2.adder.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Stand-ins for several local database servers, so the failover paths run
+ * without MariaDB. {@link #install()} replaces the registered JDBC drivers
+ * with one that serves "jdbc:mariadb://host..." URLs from the servers
+ * created by {@link #server}; {@link #uninstall()} restores them. A server
+ * can be stopped, restarted (both break its open connections) and given a
+ * replication lag.
+ */
+final class FakeServers {
+
+    /**
+     * One fake server.
+     */
+    static final class Server {
+
+        final String host;
+        volatile boolean up = true;
+        volatile long lagSeconds;
+        /** Called with every connection of this server as it is closed. */
+        volatile Consumer<Connection> onClose = connection -> { };
+        private volatile int generation;
+
+        Server(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Breaks all open connections, as a server restart would.
+         */
+        void restart() {
+            generation++;
+        }
+
+        /**
+         * Refuses new connections and breaks the open ones until
+         * {@link #start()}.
+         */
+        void stop() {
+            up = false;
+            restart();
+        }
+
+        void start() {
+            up = true;
+        }
+    }
+
+    private static final Map<String, Server> SERVERS = new ConcurrentHashMap<>();
+    private static final FakeDriver DRIVER = new FakeDriver();
+    private static final List<Driver> REPLACED = new ArrayList<>();
+
+    private FakeServers() {
+    }
+
+    static synchronized void install() throws SQLException {
+        for (Driver driver : Collections.list(DriverManager.getDrivers())) {
+            DriverManager.deregisterDriver(driver);
+            REPLACED.add(driver);
+        }
+        DriverManager.registerDriver(DRIVER);
+    }
+
+    static synchronized void uninstall() throws SQLException {
+        DriverManager.deregisterDriver(DRIVER);
+        for (Driver driver : REPLACED) {
+            DriverManager.registerDriver(driver);
+        }
+        REPLACED.clear();
+        SERVERS.clear();
+    }
+
+    static Server server(String host) {
+        return SERVERS.computeIfAbsent(host, Server::new);
+    }
+
+    /**
+     * @return The server a connection was opened to.
+     */
+    static Server serverOf(Connection connection) {
+        return ((FakeConnection) Proxy.getInvocationHandler(connection)).server;
+    }
+
+    static boolean isClosed(Connection connection) {
+        return ((FakeConnection) Proxy.getInvocationHandler(connection)).closed;
+    }
+
+    private static final class FakeDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            String rest = url.substring("jdbc:mariadb://".length());
+            Server server = SERVERS.get(rest.split("[:/?]", 2)[0]);
+            if (server == null || !server.up) {
+                throw new SQLException("Connection refused: " + url);
+            }
+            return (Connection) Proxy.newProxyInstance(FakeServers.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new FakeConnection(server));
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:mariadb://");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+
+    /**
+     * A connection that only answers validation and the replication status.
+     */
+    private static final class FakeConnection implements InvocationHandler {
+
+        private final Server server;
+        private final int generation;
+        private volatile boolean closed;
+
+        FakeConnection(Server server) {
+            this.server = server;
+            this.generation = server.generation;
+        }
+
+        private boolean alive() {
+            return !closed && server.up && server.generation == generation;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+            switch (method.getName()) {
+                case "isValid":
+                    return alive();
+                case "isClosed":
+                    return closed;
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        server.onClose.accept((Connection) proxy);
+                    }
+                    return null;
+                case "createStatement":
+                    if (!alive()) {
+                        throw new SQLException("Connection to " + server.host + " is broken");
+                    }
+                    return Proxy.newProxyInstance(FakeServers.class.getClassLoader(),
+                            new Class<?>[]{Statement.class}, (p, m, a) -> statement(m));
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeConnection[" + server.host + "]";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+
+        private Object statement(Method method) throws SQLException {
+            if (!method.getName().equals("executeQuery")) {
+                return defaultValue(method.getReturnType());
+            }
+            if (!alive()) {
+                throw new SQLException("Connection to " + server.host + " is broken");
+            }
+            // SHOW SLAVE STATUS: one row with the lag
+            boolean[] read = {false};
+            return Proxy.newProxyInstance(FakeServers.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (p, m, a) -> switch (m.getName()) {
+                        case "next" -> {
+                            boolean first = !read[0];
+                            read[0] = true;
+                            yield first;
+                        }
+                        case "getLong" -> server.lagSeconds;
+                        case "wasNull" -> false;
+                        default -> defaultValue(m.getReturnType());
+                    });
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,125 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the "workers.handlers" modes under load. A handler that blocks
+ * for "bench.latencyMillis" (default 5) stands in for a JDBC round trip, so
+ * no database is needed. For each mode and each concurrency in
+ * "bench.concurrency" (default 8,64,512) the harness sends "bench.requests"
+ * (default 2000) requests with that many in flight. It prints the
+ * throughput and the median and 99th percentile latency. Not part of the
+ * regular test run; run it with
+ * {@code mvn test -Dtest=HandlerModeBenchmark [-Dbench.latencyMillis=...]}.
+ */
+class HandlerModeBenchmark {
+
+    private static final long LATENCY_MILLIS = Long.getLong("bench.latencyMillis", 5);
+    private static final int REQUESTS = Integer.getInteger("bench.requests", 2000);
+    private static final int[] CONCURRENCY = Arrays.stream(System.getProperty("bench.concurrency", "8,64,512")
+            .split(",")).mapToInt(value -> Integer.parseInt(value.trim())).toArray();
+
+    @Test
+    void compareModes() throws Exception {
+        System.out.printf("%-10s %11s %12s %9s %9s%n", "mode", "concurrency", "requests/s", "p50 ms", "p99 ms");
+        for (HandlerExecutor.Mode mode : HandlerExecutor.Mode.values()) {
+            for (int concurrency : CONCURRENCY) {
+                run(mode, concurrency);
+            }
+        }
+    }
+
+    private static void run(HandlerExecutor.Mode mode, int concurrency) throws Exception {
+        Vertx vertx = Vertx.vertx();
+        AppConfig config = new AppConfig(new JsonObject()
+                .put("workers", new JsonObject().put("handlers", mode.name().toLowerCase()))
+                .put("tracing", new JsonObject().put("enabled", false)));
+        Database db = new Database(vertx, config, new Tracer(config));
+        HandlerExecutor executor = new HandlerExecutor(vertx, db, config);
+        Router router = Router.router(vertx);
+        router.get("/work").handler(executor.blocking(context -> {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            context.response().end("done");
+        }));
+        HttpServer server = await(vertx.createHttpServer().requestHandler(router).listen(0));
+
+        Vertx clients = Vertx.vertx();
+        HttpClient client = clients.createHttpClient(new HttpClientOptions()
+                .setDefaultPort(server.actualPort()).setMaxPoolSize(concurrency).setKeepAlive(true));
+        try {
+            // warm-up, then the measured run
+            load(client, concurrency, Math.max(concurrency, REQUESTS / 10), new long[REQUESTS]);
+            long[] latencies = new long[REQUESTS];
+            long start = System.nanoTime();
+            load(client, concurrency, REQUESTS, latencies);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(latencies);
+            System.out.printf("%-10s %11d %12.0f %9.1f %9.1f%n", mode.name().toLowerCase(), concurrency,
+                    REQUESTS / seconds, latencies[REQUESTS / 2] / 1e6, latencies[REQUESTS * 99 / 100] / 1e6);
+        } finally {
+            await(clients.close());
+            executor.close(1000);
+            await(vertx.close());
+        }
+    }
+
+    /**
+     * Sends requests with the given number in flight and records each
+     * latency in nanoseconds.
+     */
+    private static void load(HttpClient client, int concurrency, int requests, long[] latencies) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        Promise<Void> done = Promise.promise();
+        AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < Math.min(concurrency, requests); i++) {
+            send(client, next, finished, requests, latencies, done);
+        }
+        await(done.future());
+    }
+
+    private static void send(HttpClient client, AtomicInteger next, AtomicInteger finished, int requests,
+                             long[] latencies, Promise<Void> done) {
+        int index = next.getAndIncrement();
+        if (index >= requests) {
+            return;
+        }
+        long start = System.nanoTime();
+        client.request(HttpMethod.GET, "/work")
+                .compose(request -> request.send().compose(response -> response.body()))
+                .onComplete(ar -> {
+                    if (ar.failed()) {
+                        done.tryFail(ar.cause());
+                        return;
+                    }
+                    latencies[index] = System.nanoTime() - start;
+                    if (finished.incrementAndGet() == requests) {
+                        done.tryComplete();
+                    } else {
+                        send(client, next, finished, requests, latencies, done);
+                    }
+                });
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,142 @@
+package de.thm.mni.pi2.adder.db;
+
+import de.thm.mni.pi2.adder.config.AppConfig;
+import de.thm.mni.pi2.adder.trace.Tracer;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Sends identical reads at once, in the default "eventloop" handler mode,
+ * against a fake primary and two fake replicas.
+ */
+class SingleFlightTest {
+
+    /** A request without a session. */
+    private static final RoutingContext CONTEXT = (RoutingContext) Proxy.newProxyInstance(
+            SingleFlightTest.class.getClassLoader(), new Class<?>[]{RoutingContext.class}, (p, m, a) -> null);
+
+    private Vertx vertx;
+    private Database db;
+    private SingleFlight singleFlight;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FakeServers.install();
+        FakeServers.server("primary");
+        FakeServers.server("replica0");
+        FakeServers.server("replica1");
+        vertx = Vertx.vertx();
+        AppConfig config = new AppConfig(new JsonObject()
+                .put("db", new JsonObject()
+                        .put("host", "primary")
+                        .put("replicas", new JsonArray()
+                                .add(new JsonObject().put("host", "replica0"))
+                                .add(new JsonObject().put("host", "replica1"))))
+                .put("coalesce", new JsonObject().put("maxWaitMillis", 10000L))
+                .put("tracing", new JsonObject().put("enabled", false)));
+        db = new Database(vertx, config, new Tracer(config));
+        join(db.start());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!replicasHealthy()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Replicas not connected within 5 seconds");
+            }
+            Thread.sleep(10);
+        }
+        singleFlight = new SingleFlight(vertx, db, config, HandlerExecutor.Mode.EVENTLOOP);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        db.close();
+        join(vertx.close());
+        FakeServers.uninstall();
+    }
+
+    @Test
+    void concurrentIdenticalReadsRunOnce() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Connection> shared = new HashSet<>();
+        Set<Connection> used = new HashSet<>();
+        List<Future<Integer>> results = new ArrayList<>();
+        // round robin hands the requests both replicas
+        for (int i = 0; i < 8; i++) {
+            Connection conn = db.read(CONTEXT);
+            shared.add(conn);
+            results.add(singleFlight.execute(conn, "SELECT 1", List.of(7), 1, "json", connection -> {
+                used.add(connection);
+                await(release);
+                return executions.incrementAndGet();
+            }));
+        }
+        assertEquals(2, shared.size());
+
+        release.countDown();
+        for (Future<Integer> result : results) {
+            assertEquals(1, join(result));
+        }
+        assertEquals(1, executions.get());
+        // the flight ran off the event loop, on a connection of its own
+        assertFalse(shared.containsAll(used));
+    }
+
+    @Test
+    void differentReadsDoNotShare() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Database.Work<Integer> query = connection -> {
+            await(release);
+            return executions.incrementAndGet();
+        };
+        List<Future<Integer>> results = new ArrayList<>();
+        results.add(singleFlight.execute(db.read(CONTEXT), "SELECT 1", List.of(7), 1, "json", query));
+        results.add(singleFlight.execute(db.read(CONTEXT), "SELECT 1", List.of(8), 1, "json", query));
+        results.add(singleFlight.execute(db.read(CONTEXT), "SELECT 1", List.of(7), 2, "json", query));
+        results.add(singleFlight.execute(db.read(CONTEXT), "SELECT 1", List.of(7), 1, "cbor", query));
+        // must see the session's own writes, so it does not share a replica's result
+        results.add(singleFlight.execute(db.primary(), "SELECT 1", List.of(7), 1, "json", query));
+
+        release.countDown();
+        for (Future<Integer> result : results) {
+            join(result);
+        }
+        assertEquals(5, executions.get());
+    }
+
+    private boolean replicasHealthy() {
+        JsonArray replicas = db.status().getJsonArray("replicas");
+        return replicas.getJsonObject(0).getBoolean("healthy") && replicas.getJsonObject(1).getBoolean("healthy");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T join(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+}
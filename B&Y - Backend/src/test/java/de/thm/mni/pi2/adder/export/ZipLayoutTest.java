@@ -0,0 +1,147 @@
+package de.thm.mni.pi2.adder.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ZipLayoutTest {
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+
+    @TempDir
+    Path dir;
+
+    private ZipLayout.Entry entry(String name, byte[] content) throws IOException {
+        // the name in the archive may not be valid on this file system
+        Path file = Files.write(dir.resolve("file-" + Integer.toHexString(name.hashCode())), content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return new ZipLayout.Entry(name, file, content.length, crc.getValue(), LocalDate.of(2024, 5, 17));
+    }
+
+    /**
+     * Writes the archive the way the export does, segment by segment.
+     */
+    private static Path assemble(ZipLayout layout, Path target) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int segment = 0; segment < layout.segmentCount(); segment++) {
+            Path file = layout.file(segment);
+            out.write(file != null ? Files.readAllBytes(file) : layout.bytes(segment));
+        }
+        assertEquals(layout.length(), out.size());
+        return Files.write(target, out.toByteArray());
+    }
+
+    @Test
+    void offsetsFollowHeaderAndDataSizes() throws IOException {
+        ZipLayout layout = new ZipLayout(List.of(entry("1-a.jpg", new byte[10]), entry("2-b.jpg", new byte[0])));
+
+        // local header (30 + name) and data per entry, central headers (46 + name), end record
+        long[] expected = {0, 37, 47, 84, 84, 137, 190, 212};
+        assertEquals(expected.length - 1, layout.segmentCount());
+        for (int segment = 0; segment < layout.segmentCount(); segment++) {
+            assertEquals(expected[segment], layout.segmentOffset(segment), "segment " + segment);
+            assertEquals(expected[segment + 1] - expected[segment], layout.segmentLength(segment));
+        }
+        assertEquals(212, layout.length());
+
+        assertEquals(0, layout.segmentAt(0));
+        assertEquals(0, layout.segmentAt(36));
+        assertEquals(1, layout.segmentAt(37));
+        assertEquals(2, layout.segmentAt(47));
+        // the empty data segment of the second entry is skipped
+        assertEquals(4, layout.segmentAt(84));
+        assertEquals(6, layout.segmentAt(211));
+
+        assertNull(layout.file(0));
+        assertNotNull(layout.file(1));
+        assertNull(layout.file(4));
+    }
+
+    @Test
+    void assembledArchiveIsReadable() throws IOException {
+        byte[] photo = new byte[5000];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = (byte) (i * 31);
+        }
+        List<ZipLayout.Entry> entries = List.of(entry("1-photo.jpg", photo),
+                entry("2-Grüße.jpg", new byte[]{1, 2, 3}));
+        Path archive = assemble(new ZipLayout(entries), dir.resolve("album.zip"));
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertEquals(2, zip.size());
+            for (ZipLayout.Entry expected : entries) {
+                ZipEntry entry = zip.getEntry(expected.name());
+                assertNotNull(entry, expected.name());
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertEquals(expected.crc(), entry.getCrc());
+                assertEquals(LocalDate.of(2024, 5, 17), entry.getLastModifiedTime().toInstant()
+                        .atZone(ZoneId.systemDefault()).toLocalDate());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(Files.readAllBytes(expected.file()), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    void manyEntriesUseZip64EndRecords() throws IOException {
+        ZipLayout.Entry empty = entry("empty.jpg", new byte[0]);
+        List<ZipLayout.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 0xFFFF + 1; i++) {
+            entries.add(new ZipLayout.Entry(i + ".jpg", empty.file(), 0, empty.crc(), null));
+        }
+        ZipLayout layout = new ZipLayout(entries);
+        byte[] end = layout.bytes(layout.segmentCount() - 1);
+        assertEquals(56 + 20 + 22, end.length);
+        assertEquals(0x06064b50, ByteBuffer.wrap(end).order(ByteOrder.LITTLE_ENDIAN).getInt(0));
+
+        try (ZipFile zip = new ZipFile(assemble(layout, dir.resolve("many.zip")).toFile())) {
+            assertEquals(entries.size(), zip.size());
+        }
+    }
+
+    @Test
+    void largeEntriesGetZip64Fields() {
+        long size = MAX_32 + 100;
+        Path missing = dir.resolve("large.jpg");
+        ZipLayout layout = new ZipLayout(List.of(
+                new ZipLayout.Entry("large.jpg", missing, size, 0, null),
+                new ZipLayout.Entry("after.jpg", missing, 1, 0, null)));
+
+        // the local header of the large entry carries the sizes in a ZIP64 extra field
+        assertEquals(30 + 9 + 20, layout.segmentLength(0));
+        assertEquals(size, layout.segmentLength(1));
+        long secondOffset = layout.segmentOffset(2);
+        assertEquals(59 + size, secondOffset);
+
+        ByteBuffer large = ByteBuffer.wrap(layout.bytes(4)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(MAX_32, large.getInt(20) & MAX_32);
+        assertEquals(size, large.getLong(46 + 9 + 4));
+
+        // the second entry starts beyond 4 GiB, so its central record points there through ZIP64
+        ByteBuffer after = ByteBuffer.wrap(layout.bytes(5)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(MAX_32, after.getInt(42) & MAX_32);
+        assertEquals(secondOffset, after.getLong(46 + 9 + 4));
+        assertEquals(layout.segmentOffset(4) + 46 + 9 + 20 + 46 + 9 + 12, layout.segmentOffset(6));
+    }
+}
@@ -0,0 +1,81 @@
+package de.thm.mni.pi2.adder.handler;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.SessionHandler;
+import io.vertx.ext.web.sstore.LocalSessionStore;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@ExtendWith(VertxExtension.class)
+class AuthHandlerTest {
+
+    private AuthHandler auth;
+    private HttpServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    void setUp(Vertx vertx) throws Exception {
+        auth = new AuthHandler(null, null, null);
+        Router router = Router.router(vertx);
+        router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
+        router.route().handler(auth::rejectRevoked);
+        // stands in for a login
+        router.get("/as/:id").handler(context -> {
+            context.session().put("id", Integer.parseInt(context.pathParam("id")));
+            context.response().end();
+        });
+        router.get("/me").handler(context -> {
+            Integer id = context.session().get("id");
+            context.response().end(String.valueOf(id));
+        });
+        server = await(vertx.createHttpServer().requestHandler(router).listen(0));
+        client = vertx.createHttpClient();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        await(client.close());
+        await(server.close());
+    }
+
+    @Test
+    void deletedUsersSessionEnds() throws Exception {
+        String deleted = login(7);
+        String other = login(8);
+        assertEquals("200 7", get("/me", deleted));
+
+        auth.revoke(7);
+        assertEquals("401", get("/me", deleted).substring(0, 3));
+        // the session is gone, not only refused once
+        assertEquals("200 null", get("/me", deleted));
+        assertEquals("200 8", get("/me", other));
+    }
+
+    private String login(int id) throws Exception {
+        return await(client.request(HttpMethod.GET, server.actualPort(), "localhost", "/as/" + id)
+                .compose(request -> request.send())
+                .compose(response -> response.body().map(body -> response.cookies().get(0).split(";", 2)[0])));
+    }
+
+    private String get(String uri, String cookie) throws Exception {
+        return await(client.request(HttpMethod.GET, server.actualPort(), "localhost", uri)
+                .compose(request -> request.putHeader("Cookie", cookie).send())
+                .compose(response -> response.body().map(body -> response.statusCode() + " " + body)));
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,165 @@
+package de.thm.mni.pi2.adder.handler;
+
+import de.thm.mni.pi2.adder.export.ZipLayout;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.Router;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Downloads an album archive over HTTP, whole and in ranges, as an
+ * interrupted download would resume it.
+ */
+@ExtendWith(VertxExtension.class)
+class ExportHandlerTest {
+
+    private record Response(int status, MultiMap headers, byte[] body) {
+    }
+
+    @TempDir
+    Path dir;
+
+    private HttpServer server;
+    private HttpClient client;
+    private byte[] archive;
+    private String etag;
+
+    @BeforeEach
+    void setUp(Vertx vertx) throws Exception {
+        // larger than the response write queue, so the download has to wait for drains
+        byte[] photo = new byte[3 << 20];
+        for (int i = 0; i < photo.length; i++) {
+            photo[i] = (byte) (i * 7 + i / 4096);
+        }
+        ZipLayout layout = new ZipLayout(List.of(entry("1-photo.jpg", photo), entry("2-small.jpg", new byte[]{4, 2})));
+
+        ExportHandler handler = new ExportHandler(vertx, null, null);
+        Router router = Router.router(vertx);
+        router.get("/export").handler(context -> handler.respond(context, layout, "Summer 2024"));
+        server = await(vertx.createHttpServer().requestHandler(router).listen(0));
+        client = vertx.createHttpClient();
+
+        Response full = get(null, null);
+        archive = full.body();
+        etag = full.headers().get("ETag");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        await(client.close());
+        await(server.close());
+    }
+
+    private ZipLayout.Entry entry(String name, byte[] content) throws Exception {
+        Path file = Files.write(dir.resolve(name), content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return new ZipLayout.Entry(name, file, content.length, crc.getValue(), LocalDate.of(2024, 7, 1));
+    }
+
+    @Test
+    void sendsWholeArchive() throws Exception {
+        Response full = get(null, null);
+        assertEquals(200, full.status());
+        assertEquals("application/zip", full.headers().get("Content-Type"));
+        assertEquals("bytes", full.headers().get("Accept-Ranges"));
+        assertEquals("attachment; filename=\"Summer 2024.zip\"", full.headers().get("Content-Disposition"));
+        assertEquals(String.valueOf(archive.length), full.headers().get("Content-Length"));
+
+        Path file = Files.write(dir.resolve("download.zip"), archive);
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            assertEquals(2, zip.size());
+            try (InputStream in = zip.getInputStream(zip.getEntry("1-photo.jpg"))) {
+                assertArrayEquals(Files.readAllBytes(dir.resolve("1-photo.jpg")), in.readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void resumesFromOffset() throws Exception {
+        // starts inside the first file's data, ends in the central directory
+        int start = 1_000_000;
+        Response rest = get("bytes=" + start + "-", etag);
+        assertEquals(206, rest.status());
+        assertEquals("bytes " + start + "-" + (archive.length - 1) + "/" + archive.length,
+                rest.headers().get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(archive, start, archive.length), rest.body());
+    }
+
+    @Test
+    void servesRangesAcrossSegments() throws Exception {
+        int[][] ranges = {{0, 0}, {0, 29}, {20, 80}, {archive.length - 300, archive.length - 1}};
+        for (int[] range : ranges) {
+            Response part = get("bytes=" + range[0] + "-" + range[1], null);
+            assertEquals(206, part.status());
+            assertArrayEquals(Arrays.copyOfRange(archive, range[0], range[1] + 1), part.body(),
+                    "range " + range[0] + "-" + range[1]);
+        }
+        Response suffix = get("bytes=-100", null);
+        assertEquals(206, suffix.status());
+        assertArrayEquals(Arrays.copyOfRange(archive, archive.length - 100, archive.length), suffix.body());
+    }
+
+    @Test
+    void sendsWholeArchiveIfItChanged() throws Exception {
+        Response changed = get("bytes=100-", "\"other\"");
+        assertEquals(200, changed.status());
+        assertArrayEquals(archive, changed.body());
+    }
+
+    @Test
+    void ignoresUnsupportedRanges() throws Exception {
+        assertEquals(200, get("bytes=0-10,20-30", null).status());
+        assertEquals(200, get("items=0-10", null).status());
+        assertEquals(200, get("bytes=50-10", null).status());
+    }
+
+    @Test
+    void refusesRangeBeyondEnd() throws Exception {
+        Response beyond = get("bytes=" + archive.length + "-", null);
+        assertEquals(416, beyond.status());
+        assertEquals("bytes */" + archive.length, beyond.headers().get("Content-Range"));
+    }
+
+    private Response get(String range, String ifRange) throws Exception {
+        // the body is subscribed to in the same chain, before any data arrives
+        return await(client.request(HttpMethod.GET, server.actualPort(), "localhost", "/export")
+                .compose(request -> {
+                    if (range != null) {
+                        request.putHeader("Range", range);
+                    }
+                    if (ifRange != null) {
+                        request.putHeader("If-Range", ifRange);
+                    }
+                    return request.send();
+                })
+                .compose(response -> response.body().map(body ->
+                        new Response(response.statusCode(), response.headers(), body.getBytes()))));
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        return future.toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+}
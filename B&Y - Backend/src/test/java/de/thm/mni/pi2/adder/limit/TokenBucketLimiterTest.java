@@ -0,0 +1,121 @@
+package de.thm.mni.pi2.adder.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The limiter reads {@link System#nanoTime()}, so refills are tested with
+ * short sleeps and rates slow enough that the test's own run time does not
+ * add a token.
+ */
+class TokenBucketLimiterTest {
+
+    @Test
+    void newBucketAllowsBurst() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire("ip:10.0.0.1", 0.1, 5));
+        }
+        long wait = limiter.tryAcquire("ip:10.0.0.1", 0.1, 5);
+        assertTrue(wait > 0 && wait <= 10000, "wait " + wait);
+    }
+
+    @Test
+    void refillsAtRate() throws InterruptedException {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        assertEquals(0, limiter.tryAcquire("user:1", 20, 1));
+        // one token every 50 ms
+        long wait = limiter.tryAcquire("user:1", 20, 1);
+        assertTrue(wait > 0 && wait <= 50, "wait " + wait);
+        Thread.sleep(wait + 10);
+        assertEquals(0, limiter.tryAcquire("user:1", 20, 1));
+    }
+
+    @Test
+    void refillStopsAtBurst() throws InterruptedException {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        assertEquals(0, limiter.tryAcquire("user:1", 10, 2));
+        assertEquals(0, limiter.tryAcquire("user:1", 10, 2));
+        // enough time for five tokens, but only two fit
+        Thread.sleep(500);
+        assertEquals(0, limiter.tryAcquire("user:1", 10, 2));
+        assertEquals(0, limiter.tryAcquire("user:1", 10, 2));
+        assertTrue(limiter.tryAcquire("user:1", 10, 2) > 0);
+    }
+
+    @Test
+    void zeroRateNeverRefills() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        assertEquals(0, limiter.tryAcquire("user:1", 0, 2));
+        assertEquals(0, limiter.tryAcquire("user:1", 0, 2));
+        assertEquals(Long.MAX_VALUE, limiter.tryAcquire("user:1", 0, 2));
+    }
+
+    @Test
+    void burstIsCappedAtMaxBurst() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        int granted = 0;
+        while (limiter.tryAcquire("user:1", 0, Integer.MAX_VALUE) == 0) {
+            granted++;
+        }
+        assertEquals(TokenBucketLimiter.MAX_BURST, granted);
+    }
+
+    @Test
+    void keysOnlyShareBucketsWhenStripesCollide() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4096);
+        int granted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (limiter.tryAcquire("user:" + i, 0, 1) == 0) {
+                granted++;
+            }
+        }
+        assertTrue(granted >= 18, "granted " + granted);
+
+        // two stripes: at least two of three keys share one, which only makes the limit stricter
+        TokenBucketLimiter small = new TokenBucketLimiter(2);
+        granted = 0;
+        for (int i = 0; i < 3; i++) {
+            if (small.tryAcquire("user:" + i, 0, 1) == 0) {
+                granted++;
+            }
+        }
+        assertTrue(granted >= 1 && granted <= 2, "granted " + granted);
+    }
+
+    @Test
+    void concurrentAcquiresNeverExceedBurst() throws InterruptedException {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(64);
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire("ip:10.0.0.1", 0, 1000) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, granted.get());
+    }
+}
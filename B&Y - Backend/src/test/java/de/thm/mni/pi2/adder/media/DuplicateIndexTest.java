@@ -0,0 +1,163 @@
+package de.thm.mni.pi2.adder.media;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the BK-tree lookups against a brute-force scan over the same hashes.
+ */
+class DuplicateIndexTest {
+
+    private static final int USERS = 3;
+    private static final int IMAGES = 600;
+    private static final int[] RADII = {0, 1, 4, 10, 64};
+
+    /** imageId -> {userId, hash}, the brute-force reference. */
+    private final Map<Integer, long[]> images = new HashMap<>();
+    private final DuplicateIndex index = new DuplicateIndex();
+
+    @Test
+    void nearDuplicatesMatchBruteForce() {
+        fill(new Random(42));
+        assertAllMatch();
+    }
+
+    @Test
+    void nearDuplicatesMatchBruteForceAfterRemovals() {
+        Random random = new Random(7);
+        fill(random);
+        for (int id = 0; id < IMAGES; id += 3) {
+            index.remove(id);
+            images.remove(id);
+        }
+        // re-adding moves an image to another owner and hash
+        for (int id = 1; id < IMAGES; id += 7) {
+            long hash = random.nextLong();
+            index.add(0, id, hash);
+            images.put(id, new long[]{0, hash});
+        }
+        assertAllMatch();
+
+        assertNull(index.nearDuplicates(0, 0, 10));
+        assertFalse(index.clusters(0, 64).stream().anyMatch(cluster -> cluster.contains(0)));
+    }
+
+    @Test
+    void otherUsersImagesAreNotVisible() {
+        index.add(1, 10, 0L);
+        index.add(2, 20, 0L);
+        assertEquals(0, index.nearDuplicates(1, 10, 64).size());
+        assertNull(index.nearDuplicates(1, 20, 64));
+        assertNull(index.nearDuplicates(1, 30, 64));
+        assertTrue(index.clusters(3, 64).isEmpty());
+    }
+
+    /**
+     * Adds images around a few base hashes, so that both the near and the
+     * far branches of the tree are populated.
+     */
+    private void fill(Random random) {
+        long[] bases = new long[20];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = random.nextLong();
+        }
+        for (int id = 0; id < IMAGES; id++) {
+            int user = random.nextInt(USERS);
+            long hash = bases[random.nextInt(bases.length)];
+            int flips = random.nextInt(8);
+            for (int i = 0; i < flips; i++) {
+                hash ^= 1L << random.nextInt(64);
+            }
+            index.add(user, id, hash);
+            images.put(id, new long[]{user, hash});
+        }
+    }
+
+    private void assertAllMatch() {
+        for (Map.Entry<Integer, long[]> image : images.entrySet()) {
+            int id = image.getKey();
+            int user = (int) image.getValue()[0];
+            for (int radius : RADII) {
+                List<int[]> expected = scan(user, id, radius);
+                List<int[]> actual = index.nearDuplicates(user, id, radius);
+                assertEquals(format(expected), format(actual), "image " + id + " radius " + radius);
+            }
+        }
+        for (int user = 0; user < USERS; user++) {
+            for (int radius : RADII) {
+                assertEquals(components(user, radius), index.clusters(user, radius), "user " + user + " radius " + radius);
+            }
+        }
+    }
+
+    private List<int[]> scan(int user, int id, int radius) {
+        long hash = images.get(id)[1];
+        List<int[]> matches = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> other : images.entrySet()) {
+            int distance = PerceptualHash.distance(hash, other.getValue()[1]);
+            if (other.getKey() != id && other.getValue()[0] == user && distance <= radius) {
+                matches.add(new int[]{other.getKey(), distance});
+            }
+        }
+        matches.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]));
+        return matches;
+    }
+
+    /**
+     * @return The connected components of size two or more of the graph that
+     *         links every pair of the user's images within the radius.
+     */
+    private List<List<Integer>> components(int user, int radius) {
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> image : images.entrySet()) {
+            if (image.getValue()[0] == user) {
+                ids.add(image.getKey());
+            }
+        }
+        ids.sort(Integer::compare);
+
+        Set<Integer> seen = new HashSet<>();
+        List<List<Integer>> components = new ArrayList<>();
+        for (int start : ids) {
+            if (!seen.add(start)) {
+                continue;
+            }
+            List<Integer> component = new ArrayList<>();
+            Deque<Integer> queue = new ArrayDeque<>(List.of(start));
+            while (!queue.isEmpty()) {
+                int id = queue.poll();
+                component.add(id);
+                for (int other : ids) {
+                    if (!seen.contains(other)
+                            && PerceptualHash.distance(images.get(id)[1], images.get(other)[1]) <= radius) {
+                        seen.add(other);
+                        queue.add(other);
+                    }
+                }
+            }
+            if (component.size() > 1) {
+                component.sort(Integer::compare);
+                components.add(component);
+            }
+        }
+        return components;
+    }
+
+    private static List<String> format(List<int[]> matches) {
+        return matches.stream().map(match -> match[0] + "@" + match[1]).toList();
+    }
+}
@@ -0,0 +1,195 @@
+package de.thm.mni.pi2.adder.media;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Reads hand-built JPEG headers, well-formed and broken in the ways files
+ * from the wild are.
+ */
+class ExifReaderTest {
+
+    private static final LocalDateTime TAKEN = LocalDateTime.of(2021, 7, 14, 18, 30, 5);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsOrientationInBothByteOrders() throws IOException {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            for (int orientation = 1; orientation <= 8; orientation++) {
+                byte[] jpeg = jpeg(exif(tiff(order, orientation, 0)), frame(480, 640));
+                ImageMetadata metadata = read(jpeg);
+                assertEquals(orientation, metadata.orientation(), order + " " + orientation);
+                assertEquals(new ImageMetadata(TAKEN, orientation, 640, 480, "Canon", "EOS 5D Mark IV"), metadata);
+            }
+        }
+    }
+
+    @Test
+    void ignoresOrientationOutOfRange() throws IOException {
+        assertNull(read(jpeg(exif(tiff(ByteOrder.BIG_ENDIAN, 0, 0)), frame(1, 1))).orientation());
+        assertNull(read(jpeg(exif(tiff(ByteOrder.BIG_ENDIAN, 9, 0)), frame(1, 1))).orientation());
+    }
+
+    @Test
+    void fallsBackToExifDimensionsWithoutFrame() throws IOException {
+        ImageMetadata metadata = read(jpeg(exif(tiff(ByteOrder.LITTLE_ENDIAN, 6, 0))));
+        assertEquals(6, metadata.orientation());
+        assertEquals(4000, metadata.width());
+        assertEquals(3000, metadata.height());
+    }
+
+    @Test
+    void skipsFillBytesAndOtherSegments() throws IOException {
+        byte[] comment = segment(0xFE, "a comment".getBytes(StandardCharsets.US_ASCII));
+        byte[] jfif = segment(0xE0, "JFIF\0\1\2\0\0\1\0\1\0\0".getBytes(StandardCharsets.US_ASCII));
+        byte[] fill = {(byte) 0xFF, (byte) 0xFF};
+        ImageMetadata metadata = read(jpeg(jfif, comment, fill, exif(tiff(ByteOrder.BIG_ENDIAN, 3, 0)), frame(10, 20)));
+        assertEquals(3, metadata.orientation());
+        assertEquals(20, metadata.width());
+        assertEquals(10, metadata.height());
+    }
+
+    @Test
+    void truncatedExifSegmentKeepsFrame() throws IOException {
+        byte[] app1 = exif(tiff(ByteOrder.BIG_ENDIAN, 6, 0));
+        // the segment claims its full length, but the file ends inside it
+        byte[] jpeg = jpeg(frame(10, 20), app1);
+        ImageMetadata metadata = read(Arrays.copyOf(jpeg, jpeg.length - app1.length + 30));
+        assertNull(metadata.orientation());
+        assertEquals(20, metadata.width());
+        assertEquals(10, metadata.height());
+    }
+
+    @Test
+    void brokenOffsetsDoNotThrow() throws IOException {
+        // the IFD0 offset points past the end of the TIFF block
+        byte[] tiff = tiff(ByteOrder.LITTLE_ENDIAN, 6, 0);
+        ByteBuffer.wrap(tiff).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 100000);
+        assertEquals(new ImageMetadata(null, null, 2, 1, null, null), read(jpeg(exif(tiff), frame(1, 2))));
+
+        // IFD0 claims more entries than fit; the ones that do fit are still read
+        tiff = tiff(ByteOrder.BIG_ENDIAN, 6, 0);
+        ByteBuffer.wrap(tiff).putShort(8, (short) 0xFFFF);
+        assertEquals(6, read(jpeg(exif(tiff), frame(1, 2))).orientation());
+
+        // the Make string and the Exif sub-IFD point outside the block
+        tiff = tiff(ByteOrder.BIG_ENDIAN, 6, 0x7FFFFFF0);
+        ImageMetadata metadata = read(jpeg(exif(tiff), frame(1, 2)));
+        assertEquals(6, metadata.orientation());
+        assertNull(metadata.cameraMake());
+        assertNull(metadata.takenAt());
+    }
+
+    @Test
+    void rejectsBadHeaders() throws IOException {
+        // not an Exif APP1 (e.g. XMP), and an unknown TIFF byte order
+        byte[] xmp = segment(0xE1, "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes(StandardCharsets.US_ASCII));
+        byte[] tiff = tiff(ByteOrder.BIG_ENDIAN, 6, 0);
+        tiff[0] = 'X';
+        tiff[1] = 'X';
+        assertEquals(new ImageMetadata(null, null, 2, 1, null, null), read(jpeg(xmp, exif(tiff), frame(1, 2))));
+
+        // a segment length below two ends the scan
+        byte[] broken = {(byte) 0xFF, (byte) 0xE1, 0, 1};
+        assertEquals(ImageMetadata.EMPTY, read(jpeg(broken, frame(1, 2))));
+
+        assertEquals(ImageMetadata.EMPTY, read(new byte[0]));
+        assertEquals(ImageMetadata.EMPTY, read(new byte[]{(byte) 0xFF}));
+        assertEquals(ImageMetadata.EMPTY, read("GIF89a".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(ImageMetadata.EMPTY, read(new byte[]{(byte) 0xFF, (byte) 0xD8}));
+    }
+
+    @Test
+    void readsPngDimensions() throws IOException {
+        ByteBuffer png = ByteBuffer.allocate(24);
+        png.putLong(0x89504E470D0A1A0AL).putInt(13).putInt(0x49484452).putInt(1920).putInt(1080);
+        assertEquals(new ImageMetadata(null, null, 1920, 1080, null, null), read(png.array()));
+        assertEquals(ImageMetadata.EMPTY, read(Arrays.copyOf(png.array(), 20)));
+    }
+
+    private ImageMetadata read(byte[] bytes) throws IOException {
+        Path file = Files.createTempFile(dir, "image", ".jpg");
+        Files.write(file, bytes);
+        return ExifReader.read(file);
+    }
+
+    /**
+     * Builds a TIFF block with IFD0 (Make, Model, Orientation, Exif pointer)
+     * and an Exif IFD (DateTimeOriginal, PixelXDimension, PixelYDimension).
+     *
+     * @param badOffset If not 0, replaces the Make and Exif IFD offsets.
+     */
+    private static byte[] tiff(ByteOrder order, int orientation, int badOffset) {
+        ByteBuffer tiff = ByteBuffer.allocate(256).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42).putInt(8);
+
+        int exifIfd = 8 + 2 + 4 * 12 + 4;
+        int strings = exifIfd + 2 + 3 * 12 + 4;
+        tiff.putShort((short) 4);
+        entry(tiff, 0x010F, 2, 6, badOffset != 0 ? badOffset : strings);
+        tiff.putShort((short) 0x0110).putShort((short) 2).putInt(15).putInt(strings + 6);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        entry(tiff, 0x8769, 4, 1, badOffset != 0 ? badOffset : exifIfd);
+        tiff.putInt(0);
+
+        tiff.putShort((short) 3);
+        entry(tiff, 0x9003, 2, 20, strings + 21);
+        entry(tiff, 0xA002, 4, 1, 4000);
+        tiff.putShort((short) 0xA003).putShort((short) 3).putInt(1).putShort((short) 3000).putShort((short) 0);
+        tiff.putInt(0);
+
+        tiff.put("Canon\0EOS 5D Mark IV\0".getBytes(StandardCharsets.US_ASCII));
+        tiff.put("2021:07:14 18:30:05\0".getBytes(StandardCharsets.US_ASCII));
+        return Arrays.copyOf(tiff.array(), tiff.position());
+    }
+
+    private static void entry(ByteBuffer tiff, int tag, int type, int components, int value) {
+        tiff.putShort((short) tag).putShort((short) type).putInt(components).putInt(value);
+    }
+
+    private static byte[] exif(byte[] tiff) {
+        byte[] data = new byte[6 + tiff.length];
+        System.arraycopy("Exif\0\0".getBytes(StandardCharsets.US_ASCII), 0, data, 0, 6);
+        System.arraycopy(tiff, 0, data, 6, tiff.length);
+        return segment(0xE1, data);
+    }
+
+    /** Baseline SOF0 with precision, height, width and no components. */
+    private static byte[] frame(int height, int width) {
+        return segment(0xC0, new byte[]{8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 0});
+    }
+
+    private static byte[] segment(int marker, byte[] data) {
+        ByteBuffer segment = ByteBuffer.allocate(4 + data.length);
+        segment.put((byte) 0xFF).put((byte) marker).putShort((short) (data.length + 2)).put(data);
+        return segment.array();
+    }
+
+    /** SOI, the given segments, and a start of scan with some image data. */
+    private static byte[] jpeg(byte[]... segments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        for (byte[] segment : segments) {
+            out.writeBytes(segment);
+        }
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2, 1, 2, 3, (byte) 0xFF, (byte) 0xD9});
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+package de.thm.mni.pi2.adder.media;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PerceptualHashTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void distanceCountsDifferingBits() {
+        assertEquals(0, PerceptualHash.distance(0x1234L, 0x1234L));
+        assertEquals(1, PerceptualHash.distance(0L, 1L));
+        assertEquals(64, PerceptualHash.distance(0L, -1L));
+        assertEquals(2, PerceptualHash.distance(0b1010L, 0b0110L));
+        assertEquals(PerceptualHash.distance(5L, 9L), PerceptualHash.distance(9L, 5L));
+    }
+
+    @Test
+    void gradientsSetEveryOrNoBit() {
+        // every pixel is darker than its right neighbour, or brighter
+        assertEquals(0L, PerceptualHash.of(gradient(90, 80, false)));
+        assertEquals(-1L, PerceptualHash.of(gradient(90, 80, true)));
+    }
+
+    @Test
+    void resizedCopyStaysClose() {
+        BufferedImage original = pattern(360, 240);
+        long hash = PerceptualHash.of(original);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.of(resize(original, 180, 120))) <= 4);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.of(resize(original, 720, 480))) <= 4);
+        // a different picture is far away
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.of(gradient(360, 240, true))) > 10);
+    }
+
+    @Test
+    void fileHashMatchesDecodedHash() throws IOException {
+        BufferedImage image = pattern(200, 150);
+        Path file = dir.resolve("pattern.png");
+        ImageIO.write(image, "png", file.toFile());
+        assertEquals(PerceptualHash.of(image), PerceptualHash.of(file));
+
+        Path text = dir.resolve("notes.txt");
+        Files.writeString(text, "not an image");
+        assertNull(PerceptualHash.of(text));
+    }
+
+    private static BufferedImage gradient(int width, int height, boolean descending) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++) {
+            int grey = 255 * x / (width - 1);
+            if (descending) {
+                grey = 255 - grey;
+            }
+            for (int y = 0; y < height; y++) {
+                image.setRGB(x, y, grey << 16 | grey << 8 | grey);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage pattern(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / width;
+                double v = (double) y / height;
+                int grey = (int) (127.5 + 127.5 * Math.sin(7 * u + 3 * v * v) * Math.cos(5 * v - 2 * u));
+                image.setRGB(x, y, grey << 16 | grey << 8 | grey);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return resized;
+    }
+}
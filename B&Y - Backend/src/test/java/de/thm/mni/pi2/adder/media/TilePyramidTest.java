@@ -0,0 +1,109 @@
+package de.thm.mni.pi2.adder.media;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TilePyramidTest {
+
+    private static final int TILE_SIZE = 8;
+    private static final int OVERLAP = 1;
+    private static final int GRAY = 0x808080;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void singlePixelHasOneLevel() throws IOException {
+        assertPyramid(1, 1, 1, 1);
+    }
+
+    @Test
+    void nonPowerOfTwoSizes() throws IOException {
+        assertPyramid(17, 9, 6, 1000);
+        assertPyramid(3, 5, 4, 1000);
+        assertPyramid(33, 1, 7, 1000);
+        // just over one tile wide: the second column is the overlap and one pixel
+        assertPyramid(TILE_SIZE + 1, TILE_SIZE, 5, 1000);
+    }
+
+    @Test
+    void decodesInBands() throws IOException {
+        // band height 1: every row decoded on its own
+        assertPyramid(17, 9, 6, 17);
+        assertPyramid(20, 21, 6, 1);
+    }
+
+    /**
+     * Generates the pyramid of a uniformly gray image and checks the levels,
+     * the tiles on each level, their sizes with overlap, and their content.
+     */
+    private void assertPyramid(int width, int height, int expectedLevels, long maxDecodePixels)
+            throws IOException {
+        Path source = dir.resolve(width + "x" + height + "-" + maxDecodePixels + ".png");
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, GRAY);
+            }
+        }
+        ImageIO.write(image, "png", source.toFile());
+
+        Path target = dir.resolve(source.getFileName() + "-tiles");
+        assertArrayEquals(new int[]{width, height}, TilePyramid.dimensions(source));
+        assertTrue(new TilePyramid(TILE_SIZE, OVERLAP, maxDecodePixels, 0.9f).generate(source, target));
+        assertTrue(Files.readString(target.resolve(TilePyramid.DESCRIPTOR))
+                .contains("<Size Width=\"" + width + "\" Height=\"" + height + "\"/>"));
+
+        Path levels = target.resolve(TilePyramid.TILES);
+        assertEquals(expectedLevels, count(levels));
+        int maxLevel = expectedLevels - 1;
+        for (int level = 0; level <= maxLevel; level++) {
+            int scale = 1 << (maxLevel - level);
+            int levelWidth = (width + scale - 1) / scale;
+            int levelHeight = (height + scale - 1) / scale;
+            int columns = (levelWidth + TILE_SIZE - 1) / TILE_SIZE;
+            int rows = (levelHeight + TILE_SIZE - 1) / TILE_SIZE;
+            Path tiles = levels.resolve(String.valueOf(level));
+            assertEquals(columns * rows, count(tiles), "tiles on level " + level);
+            for (int column = 0; column < columns; column++) {
+                for (int row = 0; row < rows; row++) {
+                    BufferedImage tile = ImageIO.read(tiles.resolve(column + "_" + row + ".jpg").toFile());
+                    String name = "level " + level + " tile " + column + "_" + row;
+                    assertEquals(extent(column, levelWidth), tile.getWidth(), name);
+                    assertEquals(extent(row, levelHeight), tile.getHeight(), name);
+                    int pixel = tile.getRGB(tile.getWidth() / 2, tile.getHeight() / 2) & 0xffffff;
+                    assertEquals(GRAY >> 16, pixel >> 16, 3, name);
+                }
+            }
+        }
+        // level 0 is a single pixel
+        assertEquals(1, count(levels.resolve("0")));
+    }
+
+    /**
+     * @return The edge of a tile: its own pixels plus the overlap on the
+     *         sides that have a neighbour.
+     */
+    private static int extent(int index, int size) {
+        int start = Math.max(0, index * TILE_SIZE - OVERLAP);
+        int end = Math.min(size, (index + 1) * TILE_SIZE + OVERLAP);
+        return end - start;
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
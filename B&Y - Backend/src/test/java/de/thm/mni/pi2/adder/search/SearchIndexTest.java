@@ -0,0 +1,61 @@
+package de.thm.mni.pi2.adder.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    private static List<Integer> ids(List<SearchIndex.Hit> hits) {
+        return hits.stream().map(SearchIndex.Hit::id).toList();
+    }
+
+    @Test
+    void ranksExactAndFuzzyMatches() {
+        SearchIndex index = new SearchIndex();
+        index.put(SearchIndex.Kind.IMAGE, 1, 1, "Sunset at the Lake");
+        index.put(SearchIndex.Kind.IMAGE, 1, 2, "Lakeside café");
+        index.put(SearchIndex.Kind.ALBUM, 1, 3, "Mountains");
+        index.put(SearchIndex.Kind.IMAGE, 2, 4, "Lake of another user");
+
+        assertEquals(List.of(1, 2), ids(index.search(1, "lake", null, 0.5, 10)));
+        assertEquals(List.of(2), ids(index.search(1, "cafe", SearchIndex.Kind.IMAGE, 0.5, 10)));
+        assertEquals(List.of(3), ids(index.search(1, "mountians", null, 0.3, 10)));
+        assertTrue(index.search(1, "lake", SearchIndex.Kind.ALBUM, 0.5, 10).isEmpty());
+    }
+
+    @Test
+    void repeatedQueriesDoNotCarryCounts() {
+        SearchIndex index = new SearchIndex();
+        index.put(SearchIndex.Kind.IMAGE, 1, 1, "harbour");
+        index.put(SearchIndex.Kind.IMAGE, 1, 2, "harbor lights");
+        // a partial match must stay below the threshold however often it is searched
+        for (int i = 0; i < 5; i++) {
+            assertEquals(List.of(1), ids(index.search(1, "harbour", null, 0.9, 10)));
+        }
+    }
+
+    @Test
+    void removedDocumentsDisappearAcrossRebuilds() {
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= 200; id++) {
+            index.put(SearchIndex.Kind.IMAGE, 1, id, "photo " + id);
+        }
+        // removing more than half rebuilds the partition
+        for (int id = 1; id <= 150; id++) {
+            index.remove(SearchIndex.Kind.IMAGE, id);
+            int gone = id;
+            assertTrue(index.search(1, "photo " + id, null, 1.0, 10).stream().noneMatch(hit -> hit.id() == gone));
+        }
+        List<SearchIndex.Hit> hits = index.search(1, "photo", null, 1.0, 500);
+        assertEquals(50, hits.size());
+        assertTrue(hits.stream().allMatch(hit -> hit.id() > 150));
+
+        index.put(SearchIndex.Kind.IMAGE, 1, 151, "renamed");
+        assertEquals(List.of(151), ids(index.search(1, "renamed", null, 1.0, 10)));
+        assertEquals(49, index.search(1, "photo", null, 1.0, 500).size());
+    }
+}
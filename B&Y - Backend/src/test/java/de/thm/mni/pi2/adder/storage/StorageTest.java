@@ -0,0 +1,85 @@
+package de.thm.mni.pi2.adder.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageTest {
+
+    private static final long GIB = 1L << 30;
+    private static final int FILES = 20000;
+
+    private static Storage.Volume volume(String name, long usable, long total) {
+        Storage.Volume volume = new Storage.Volume(name, Path.of("/" + name), null);
+        volume.space(usable, total);
+        return volume;
+    }
+
+    private static Map<String, String> placeAll(List<Storage.Volume> volumes) {
+        Map<String, String> placed = new HashMap<>();
+        for (int i = 0; i < FILES; i++) {
+            String name = "upload-" + i + ".jpg";
+            placed.put(name, Storage.place(name, volumes, GIB).name());
+        }
+        return placed;
+    }
+
+    @Test
+    void spreadsFilesByCapacity() {
+        List<Storage.Volume> volumes = List.of(volume("a", 500 * GIB, 1000 * GIB),
+                volume("b", 100 * GIB, 3000 * GIB));
+        Map<String, String> placed = placeAll(volumes);
+        long onA = placed.values().stream().filter("a"::equals).count();
+        // a quarter of the capacity, whatever is free
+        assertEquals(0.25, (double) onA / FILES, 0.02);
+    }
+
+    @Test
+    void placementIsStable() {
+        List<Storage.Volume> volumes = List.of(volume("a", 100 * GIB, 1000 * GIB),
+                volume("b", 100 * GIB, 1000 * GIB), volume("c", 100 * GIB, 1000 * GIB));
+        Map<String, String> before = placeAll(volumes);
+        volumes.get(0).space(900 * GIB, 1000 * GIB);
+        assertEquals(before, placeAll(volumes));
+    }
+
+    @Test
+    void newVolumeOnlyTakesFiles() {
+        List<Storage.Volume> volumes = new ArrayList<>(List.of(volume("a", 100 * GIB, 1000 * GIB),
+                volume("b", 100 * GIB, 1000 * GIB)));
+        Map<String, String> before = placeAll(volumes);
+        volumes.add(volume("c", 100 * GIB, 2000 * GIB));
+        Map<String, String> after = placeAll(volumes);
+
+        int moved = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String now = after.get(entry.getKey());
+            if (!now.equals(entry.getValue())) {
+                // no file moves between the old volumes
+                assertEquals("c", now);
+                moved++;
+            }
+        }
+        assertEquals(0.5, (double) moved / FILES, 0.02);
+    }
+
+    @Test
+    void fullVolumesGetNoFiles() {
+        Storage.Volume full = volume("a", GIB / 2, 1000 * GIB);
+        Storage.Volume free = volume("b", 10 * GIB, 10 * GIB);
+        List<Storage.Volume> volumes = List.of(full, free);
+        assertTrue(placeAll(volumes).values().stream().allMatch("b"::equals));
+
+        // with no room anywhere the emptiest volume is used
+        free.space(GIB / 4, 10 * GIB);
+        assertSame(full, Storage.place("upload.jpg", volumes, GIB));
+    }
+}
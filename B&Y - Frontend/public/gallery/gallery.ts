@@ -5,10 +5,21 @@ async function loadGallery() {
     const container = document.getElementById("gallery-container");
     if (!container) return;
     container.innerHTML = images.map((img: any) => `
-        <img src="${BACKEND_URL}/uploads/${img.path}" class="img-fluid m-2" style="width: 200px;">
+        <img src="${BACKEND_URL}/uploads/${img.path}" class="img-fluid m-2" loading="lazy"
+             style="width: 200px;${placeholderStyle(img.placeholder)}">
     `).join("");
 }
 
+// Reserves the image's space and shows its dominant colour until it has loaded
+function placeholderStyle(placeholder: any): string {
+    if (!placeholder) return "";
+    let style = ` background-color: ${placeholder.color};`;
+    if (placeholder.width && placeholder.height) {
+        style += ` aspect-ratio: ${placeholder.width} / ${placeholder.height};`;
+    }
+    return style;
+}
+
 function getGalleryImageUrl(path: string): string {
     if (path.startsWith('http')) return path;
     const filename = path.split('/').pop();
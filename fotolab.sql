@@ -25,7 +25,13 @@ SET time_zone = "+00:00";
 CREATE TABLE `users` (
   `id` int(11) NOT NULL,
   `username` varchar(255) NOT NULL,
-  `password` varchar(255) NOT NULL
+  `password` varchar(255) NOT NULL,
+  `deleted_at` datetime DEFAULT NULL,
+  `used_bytes` bigint(20) NOT NULL DEFAULT 0,
+  `image_count` int(11) NOT NULL DEFAULT 0,
+  `derivative_bytes` bigint(20) NOT NULL DEFAULT 0,
+  `quota_bytes` bigint(20) DEFAULT NULL,
+  `change_seq` bigint(20) NOT NULL DEFAULT 0
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
 -- --------------------------------------------------------
@@ -53,7 +59,17 @@ CREATE TABLE `userrole` (
 CREATE TABLE `albums` (
   `id` int(11) NOT NULL,
   `userid` int(11) NOT NULL,
-  `title` varchar(255) NOT NULL
+  `title` varchar(255) NOT NULL,
+  `deleted_at` datetime DEFAULT NULL
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
+-- --------------------------------------------------------
+-- Table structure for table `tags`
+-- --------------------------------------------------------
+
+CREATE TABLE `tags` (
+  `id` int(11) NOT NULL,
+  `name` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
 -- --------------------------------------------------------
@@ -61,9 +77,8 @@ CREATE TABLE `albums` (
 -- --------------------------------------------------------
 
 CREATE TABLE `albumtags` (
-  `id` int(11) NOT NULL,
   `albumid` int(11) NOT NULL,
-  `tag` varchar(255) NOT NULL
+  `tagid` int(11) NOT NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
 -- --------------------------------------------------------
@@ -73,9 +88,23 @@ CREATE TABLE `albumtags` (
 CREATE TABLE `images` (
   `id` int(11) NOT NULL,
   `userid` int(11) NOT NULL,
+  `volume` varchar(64) DEFAULT NULL,
   `title` varchar(255) NOT NULL,
   `date` date NOT NULL,
-  `path` varchar(255) NOT NULL
+  `path` varchar(255) NOT NULL,
+  `taken_at` datetime DEFAULT NULL,
+  `orientation` tinyint(4) DEFAULT NULL,
+  `width` int(11) DEFAULT NULL,
+  `height` int(11) DEFAULT NULL,
+  `camera_make` varchar(64) DEFAULT NULL,
+  `camera_model` varchar(64) DEFAULT NULL,
+  `phash` bigint(20) DEFAULT NULL,
+  `file_size` bigint(20) DEFAULT NULL,
+  `crc32` bigint(20) DEFAULT NULL,
+  `blurhash` varchar(32) DEFAULT NULL,
+  `color` char(7) DEFAULT NULL,
+  `tiles` tinyint(1) NOT NULL DEFAULT 0,
+  `tile_bytes` bigint(20) NOT NULL DEFAULT 0
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
 -- --------------------------------------------------------
@@ -83,9 +112,8 @@ CREATE TABLE `images` (
 -- --------------------------------------------------------
 
 CREATE TABLE `imagetags` (
-  `id` int(11) NOT NULL,
   `imageid` int(11) NOT NULL,
-  `tag` varchar(255) NOT NULL
+  `tagid` int(11) NOT NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
 -- --------------------------------------------------------
@@ -97,12 +125,28 @@ CREATE TABLE `albumimages` (
   `albumid` int(11) NOT NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
 
+-- --------------------------------------------------------
+-- Table structure for table `changes`
+-- --------------------------------------------------------
+
+CREATE TABLE `changes` (
+  `seq` bigint(20) NOT NULL,
+  `userid` int(11) NOT NULL,
+  `userseq` bigint(20) NOT NULL DEFAULT 0,
+  `entity` enum('image','album','membership') NOT NULL,
+  `entityid` int(11) NOT NULL,
+  `refid` int(11) DEFAULT NULL,
+  `op` enum('upsert','delete') NOT NULL,
+  `changed_at` timestamp NOT NULL DEFAULT current_timestamp()
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
 -- --------------------------------------------------------
 -- Indexes
 -- --------------------------------------------------------
 
 ALTER TABLE `users`
-  ADD PRIMARY KEY (`id`,`username`) USING BTREE;
+  ADD PRIMARY KEY (`id`,`username`) USING BTREE,
+  ADD KEY `users_deleted_at` (`deleted_at`);
 
 ALTER TABLE `roles`
   ADD PRIMARY KEY (`id`);
@@ -113,24 +157,38 @@ ALTER TABLE `userrole`
 
 ALTER TABLE `albums`
   ADD PRIMARY KEY (`id`),
-  ADD KEY `albums_fk_userid` (`userid`) USING BTREE;
+  ADD KEY `albums_fk_userid` (`userid`) USING BTREE,
+  ADD KEY `albums_deleted_at` (`deleted_at`);
 
-ALTER TABLE `albumtags`
+ALTER TABLE `tags`
   ADD PRIMARY KEY (`id`),
-  ADD KEY `albumtags_fk_albumid` (`albumid`);
+  ADD UNIQUE KEY `tags_name` (`name`);
+
+ALTER TABLE `albumtags`
+  ADD PRIMARY KEY (`albumid`,`tagid`),
+  ADD KEY `albumtags_tagid` (`tagid`,`albumid`);
 
 ALTER TABLE `images`
   ADD PRIMARY KEY (`id`),
-  ADD KEY `img_fk_userid` (`userid`) USING BTREE;
+  ADD KEY `img_fk_userid` (`userid`) USING BTREE,
+  ADD KEY `img_userid_date` (`userid`,`date`),
+  ADD KEY `img_userid_taken` (`userid`,`taken_at`),
+  ADD KEY `img_userid_camera` (`userid`,`camera_model`),
+  ADD KEY `img_path` (`path`),
+  ADD KEY `img_volume_path` (`volume`,`path`);
 
 ALTER TABLE `imagetags`
-  ADD PRIMARY KEY (`id`),
-  ADD KEY `imgtags_fk_images` (`imageid`);
+  ADD PRIMARY KEY (`imageid`,`tagid`),
+  ADD KEY `imagetags_tagid` (`tagid`,`imageid`);
 
 ALTER TABLE `albumimages`
   ADD PRIMARY KEY (`imageid`,`albumid`),
   ADD KEY `fotoalbum_fk_albumid` (`albumid`,`imageid`) USING BTREE;
 
+ALTER TABLE `changes`
+  ADD PRIMARY KEY (`seq`),
+  ADD UNIQUE KEY `changes_userid_userseq` (`userid`,`userseq`);
+
 -- --------------------------------------------------------
 -- AUTO_INCREMENT
 -- --------------------------------------------------------
@@ -144,14 +202,14 @@ ALTER TABLE `roles`
 ALTER TABLE `albums`
   MODIFY `id` int(11) NOT NULL AUTO_INCREMENT;
 
-ALTER TABLE `albumtags`
+ALTER TABLE `tags`
   MODIFY `id` int(11) NOT NULL AUTO_INCREMENT;
 
 ALTER TABLE `images`
   MODIFY `id` int(11) NOT NULL AUTO_INCREMENT;
 
-ALTER TABLE `imagetags`
-  MODIFY `id` int(11) NOT NULL AUTO_INCREMENT;
+ALTER TABLE `changes`
+  MODIFY `seq` bigint(20) NOT NULL AUTO_INCREMENT;
 
 -- --------------------------------------------------------
 -- Foreign Key Constraints
@@ -165,18 +223,23 @@ ALTER TABLE `albums`
   ADD CONSTRAINT `fk_userids` FOREIGN KEY (`userid`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
 
 ALTER TABLE `albumtags`
-  ADD CONSTRAINT `albumtags_fk_albumid` FOREIGN KEY (`albumid`) REFERENCES `albums` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
+  ADD CONSTRAINT `albumtags_album_fk` FOREIGN KEY (`albumid`) REFERENCES `albums` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+  ADD CONSTRAINT `albumtags_tag_fk` FOREIGN KEY (`tagid`) REFERENCES `tags` (`id`);
 
 ALTER TABLE `images`
   ADD CONSTRAINT `img_fk_userid` FOREIGN KEY (`userid`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
 
 ALTER TABLE `imagetags`
-  ADD CONSTRAINT `imgtags_fk_images` FOREIGN KEY (`imageid`) REFERENCES `images` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
+  ADD CONSTRAINT `imagetags_image_fk` FOREIGN KEY (`imageid`) REFERENCES `images` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+  ADD CONSTRAINT `imagetags_tag_fk` FOREIGN KEY (`tagid`) REFERENCES `tags` (`id`);
 
 ALTER TABLE `albumimages`
   ADD CONSTRAINT `fotoalbum_fk_albumid` FOREIGN KEY (`albumid`) REFERENCES `albums` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
   ADD CONSTRAINT `fotoalbum_fk_imgid` FOREIGN KEY (`imageid`) REFERENCES `images` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
 
+ALTER TABLE `changes`
+  ADD CONSTRAINT `changes_fk_userid` FOREIGN KEY (`userid`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE;
+
 -- --------------------------------------------------------
 -- Seed Data
 -- --------------------------------------------------------
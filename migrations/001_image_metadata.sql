@@ -0,0 +1,17 @@
+-- =============================================
+-- Image metadata extracted by the post-upload stage
+-- (capture date, orientation, dimensions, camera)
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `taken_at` datetime DEFAULT NULL,
+  ADD COLUMN `orientation` tinyint(4) DEFAULT NULL,
+  ADD COLUMN `width` int(11) DEFAULT NULL,
+  ADD COLUMN `height` int(11) DEFAULT NULL,
+  ADD COLUMN `camera_make` varchar(64) DEFAULT NULL,
+  ADD COLUMN `camera_model` varchar(64) DEFAULT NULL,
+  ADD KEY `img_userid_date` (`userid`,`date`),
+  ADD KEY `img_userid_taken` (`userid`,`taken_at`),
+  ADD KEY `img_userid_camera` (`userid`,`camera_model`);
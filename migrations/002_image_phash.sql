@@ -0,0 +1,8 @@
+-- =============================================
+-- Perceptual hash for near-duplicate detection
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `phash` bigint(20) DEFAULT NULL;
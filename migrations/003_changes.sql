@@ -0,0 +1,18 @@
+-- =============================================
+-- Change feed for delta sync
+-- =============================================
+
+USE `fotolab`;
+
+CREATE TABLE `changes` (
+  `seq` bigint(20) NOT NULL AUTO_INCREMENT,
+  `userid` int(11) NOT NULL,
+  `entity` enum('image','album','membership') NOT NULL,
+  `entityid` int(11) NOT NULL,
+  `refid` int(11) DEFAULT NULL,
+  `op` enum('upsert','delete') NOT NULL,
+  `changed_at` timestamp NOT NULL DEFAULT current_timestamp(),
+  PRIMARY KEY (`seq`),
+  KEY `changes_userid_seq` (`userid`,`seq`),
+  CONSTRAINT `changes_fk_userid` FOREIGN KEY (`userid`) REFERENCES `users` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
@@ -0,0 +1,9 @@
+-- =============================================
+-- File size and CRC-32 for streaming album exports
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `file_size` bigint(20) DEFAULT NULL,
+  ADD COLUMN `crc32` bigint(20) DEFAULT NULL;
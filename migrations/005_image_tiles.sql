@@ -0,0 +1,8 @@
+-- =============================================
+-- Deep-zoom tile pyramids for very large images
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `tiles` tinyint(1) NOT NULL DEFAULT 0;
@@ -0,0 +1,9 @@
+-- =============================================
+-- Low-quality placeholders for image listings
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `blurhash` varchar(32) DEFAULT NULL,
+  ADD COLUMN `color` char(7) DEFAULT NULL;
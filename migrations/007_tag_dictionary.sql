@@ -0,0 +1,123 @@
+-- =============================================
+-- Dictionary-encoded tags
+-- Tag strings move to `tags`; `imagetags` and `albumtags` only keep the
+-- integer tag id. Runs online: the new tables are filled in small chunks
+-- while triggers mirror writes of the running backend, then old and new
+-- tables are swapped in one atomic RENAME. Deploy the new backend right
+-- after this script has finished.
+-- =============================================
+
+USE `fotolab`;
+
+CREATE TABLE IF NOT EXISTS `tags` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `name` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `tags_name` (`name`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
+CREATE TABLE `imagetags_new` (
+  `imageid` int(11) NOT NULL,
+  `tagid` int(11) NOT NULL,
+  PRIMARY KEY (`imageid`,`tagid`),
+  KEY `imagetags_tagid` (`tagid`,`imageid`),
+  CONSTRAINT `imagetags_image_fk` FOREIGN KEY (`imageid`) REFERENCES `images` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT `imagetags_tag_fk` FOREIGN KEY (`tagid`) REFERENCES `tags` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
+CREATE TABLE `albumtags_new` (
+  `albumid` int(11) NOT NULL,
+  `tagid` int(11) NOT NULL,
+  PRIMARY KEY (`albumid`,`tagid`),
+  KEY `albumtags_tagid` (`tagid`,`albumid`),
+  CONSTRAINT `albumtags_album_fk` FOREIGN KEY (`albumid`) REFERENCES `albums` (`id`) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT `albumtags_tag_fk` FOREIGN KEY (`tagid`) REFERENCES `tags` (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci;
+
+DELIMITER $$
+
+-- Mirror writes made while the copy runs. Deleted images and albums
+-- cascade into the new tables through their own foreign keys.
+CREATE TRIGGER `imagetags_mirror_insert` AFTER INSERT ON `imagetags` FOR EACH ROW
+BEGIN
+  INSERT IGNORE INTO `tags` (`name`) VALUES (NEW.`tag`);
+  INSERT IGNORE INTO `imagetags_new` (`imageid`, `tagid`)
+    SELECT NEW.`imageid`, `id` FROM `tags` WHERE `name` = NEW.`tag` COLLATE utf8mb4_bin;
+END$$
+
+CREATE TRIGGER `imagetags_mirror_delete` AFTER DELETE ON `imagetags` FOR EACH ROW
+BEGIN
+  IF NOT EXISTS (SELECT 1 FROM `imagetags`
+                  WHERE `imageid` = OLD.`imageid` AND `tag` COLLATE utf8mb4_bin = OLD.`tag`) THEN
+    DELETE FROM `imagetags_new`
+     WHERE `imageid` = OLD.`imageid`
+       AND `tagid` = (SELECT `id` FROM `tags` WHERE `name` = OLD.`tag` COLLATE utf8mb4_bin);
+  END IF;
+END$$
+
+CREATE TRIGGER `albumtags_mirror_insert` AFTER INSERT ON `albumtags` FOR EACH ROW
+BEGIN
+  INSERT IGNORE INTO `tags` (`name`) VALUES (NEW.`tag`);
+  INSERT IGNORE INTO `albumtags_new` (`albumid`, `tagid`)
+    SELECT NEW.`albumid`, `id` FROM `tags` WHERE `name` = NEW.`tag` COLLATE utf8mb4_bin;
+END$$
+
+CREATE TRIGGER `albumtags_mirror_delete` AFTER DELETE ON `albumtags` FOR EACH ROW
+BEGIN
+  IF NOT EXISTS (SELECT 1 FROM `albumtags`
+                  WHERE `albumid` = OLD.`albumid` AND `tag` COLLATE utf8mb4_bin = OLD.`tag`) THEN
+    DELETE FROM `albumtags_new`
+     WHERE `albumid` = OLD.`albumid`
+       AND `tagid` = (SELECT `id` FROM `tags` WHERE `name` = OLD.`tag` COLLATE utf8mb4_bin);
+  END IF;
+END$$
+
+-- Copies the existing rows in chunks of 10000, one short transaction each,
+-- so the old tables are never locked for long. INSERT ... SELECT share-locks
+-- the chunk, so a concurrent delete waits and its trigger sees the copy.
+CREATE PROCEDURE `tags_backfill`()
+BEGIN
+  DECLARE lo INT DEFAULT 0;
+  DECLARE hi INT;
+
+  SELECT COALESCE(MAX(`id`), 0) INTO hi FROM `imagetags`;
+  WHILE lo < hi DO
+    START TRANSACTION;
+    INSERT IGNORE INTO `tags` (`name`)
+      SELECT DISTINCT `tag` FROM `imagetags` WHERE `id` > lo AND `id` <= lo + 10000;
+    INSERT IGNORE INTO `imagetags_new` (`imageid`, `tagid`)
+      SELECT it.`imageid`, t.`id` FROM `imagetags` it
+        JOIN `tags` t ON t.`name` = it.`tag` COLLATE utf8mb4_bin
+       WHERE it.`id` > lo AND it.`id` <= lo + 10000;
+    COMMIT;
+    SET lo = lo + 10000;
+  END WHILE;
+
+  SET lo = 0;
+  SELECT COALESCE(MAX(`id`), 0) INTO hi FROM `albumtags`;
+  WHILE lo < hi DO
+    START TRANSACTION;
+    INSERT IGNORE INTO `tags` (`name`)
+      SELECT DISTINCT `tag` FROM `albumtags` WHERE `id` > lo AND `id` <= lo + 10000;
+    INSERT IGNORE INTO `albumtags_new` (`albumid`, `tagid`)
+      SELECT at.`albumid`, t.`id` FROM `albumtags` at
+        JOIN `tags` t ON t.`name` = at.`tag` COLLATE utf8mb4_bin
+       WHERE at.`id` > lo AND at.`id` <= lo + 10000;
+    COMMIT;
+    SET lo = lo + 10000;
+  END WHILE;
+END$$
+
+DELIMITER ;
+
+CALL `tags_backfill`();
+DROP PROCEDURE `tags_backfill`;
+
+RENAME TABLE `imagetags` TO `imagetags_old`, `imagetags_new` TO `imagetags`,
+             `albumtags` TO `albumtags_old`, `albumtags_new` TO `albumtags`;
+
+DROP TRIGGER `imagetags_mirror_insert`;
+DROP TRIGGER `imagetags_mirror_delete`;
+DROP TRIGGER `albumtags_mirror_insert`;
+DROP TRIGGER `albumtags_mirror_delete`;
+DROP TABLE `imagetags_old`, `albumtags_old`;
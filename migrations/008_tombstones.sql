@@ -0,0 +1,18 @@
+-- =============================================
+-- Tombstones for deleted users and albums
+-- Deleted rows are only marked; the backend purges them in the background.
+-- The path index lets the purger check whether a file is still in use.
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `users`
+  ADD COLUMN `deleted_at` datetime DEFAULT NULL,
+  ADD KEY `users_deleted_at` (`deleted_at`);
+
+ALTER TABLE `albums`
+  ADD COLUMN `deleted_at` datetime DEFAULT NULL,
+  ADD KEY `albums_deleted_at` (`deleted_at`);
+
+ALTER TABLE `images`
+  ADD KEY `img_path` (`path`);
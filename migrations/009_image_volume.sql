@@ -0,0 +1,11 @@
+-- =============================================
+-- Volume of each image file
+-- Uploads are spread over several mount points; the volume is stored next
+-- to the path. Rows without one belong to the first configured volume.
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `volume` varchar(64) DEFAULT NULL AFTER `userid`,
+  ADD KEY `img_volume_path` (`volume`, `path`);
@@ -0,0 +1,24 @@
+-- =============================================
+-- Per-user storage usage counters and quotas
+-- The backend keeps the counters current with every upload, added image
+-- and deleted image; the UPDATE below fills them for existing users.
+-- quota_bytes overrides the configured default quota for one user.
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `images`
+  ADD COLUMN `tile_bytes` bigint(20) NOT NULL DEFAULT 0;
+
+ALTER TABLE `users`
+  ADD COLUMN `used_bytes` bigint(20) NOT NULL DEFAULT 0,
+  ADD COLUMN `image_count` int(11) NOT NULL DEFAULT 0,
+  ADD COLUMN `derivative_bytes` bigint(20) NOT NULL DEFAULT 0,
+  ADD COLUMN `quota_bytes` bigint(20) DEFAULT NULL;
+
+-- tile sizes of existing images are unknown and start at 0
+UPDATE `users` u
+  JOIN (SELECT `userid`, COUNT(*) AS `images`, COALESCE(SUM(`file_size`), 0) AS `bytes`
+          FROM `images` GROUP BY `userid`) i ON i.`userid` = u.`id`
+   SET u.`image_count` = i.`images`,
+       u.`used_bytes` = i.`bytes`;
@@ -0,0 +1,25 @@
+-- =============================================
+-- Per-user change numbers for delta sync
+-- Changes are numbered from a counter on the user row, incremented in the
+-- writing transaction, so they become visible in number order even when
+-- several connections write at once. Existing changes keep their number,
+-- so sync tokens held by clients stay valid.
+-- =============================================
+
+USE `fotolab`;
+
+ALTER TABLE `users`
+  ADD COLUMN `change_seq` bigint(20) NOT NULL DEFAULT 0;
+
+ALTER TABLE `changes`
+  ADD COLUMN `userseq` bigint(20) NOT NULL DEFAULT 0 AFTER `userid`,
+  DROP KEY `changes_userid_seq`;
+
+UPDATE `changes` SET `userseq` = `seq`;
+
+ALTER TABLE `changes`
+  ADD UNIQUE KEY `changes_userid_userseq` (`userid`, `userseq`);
+
+UPDATE `users` u
+  JOIN (SELECT `userid`, MAX(`seq`) AS `seq` FROM `changes` GROUP BY `userid`) c ON c.`userid` = u.`id`
+   SET u.`change_seq` = c.`seq`;